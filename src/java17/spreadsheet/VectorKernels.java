@@ -0,0 +1,78 @@
+package spreadsheet;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The loops of {@link DoubleKernels} written against the Vector API, using the widest
+ * vectors the processor supports. This class is only part of the Java 17 section of the
+ * multi-release jar and needs the {@code jdk.incubator.vector} module at run time;
+ * {@link DoubleKernels} falls back to its scalar loops when it cannot be loaded.
+ */
+final class VectorKernels implements DoubleKernels.Kernels {
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+  /**
+   * The lane numbers 0, 1, 2, ... as doubles.
+   */
+  private static final DoubleVector LANES = DoubleVector.zero(SPECIES).addIndex(1);
+
+  @Override
+  public void fillProgression(double[] values, int from, int to, double startValue,
+                              long firstStep, double increment) {
+    // Steps stay exact as doubles, so adding the lane numbers to the step of the first lane
+    // gives the same step, and then the same value, as the scalar loop.
+    double step = firstStep;
+    int i = from;
+    for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+      DoubleVector.broadcast(SPECIES, step + (i - from)).add(LANES).mul(increment)
+              .add(startValue).intoArray(values, i);
+    }
+    for (; i < to; i++) {
+      values[i] = startValue + (step + (i - from)) * increment;
+    }
+  }
+
+  @Override
+  public double sum(double[] values, int from, int to) {
+    DoubleVector sums = DoubleVector.zero(SPECIES);
+    int i = from;
+    for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+      sums = sums.add(DoubleVector.fromArray(SPECIES, values, i));
+    }
+    double sum = sums.reduceLanes(VectorOperators.ADD);
+    for (; i < to; i++) {
+      sum += values[i];
+    }
+    return sum;
+  }
+
+  @Override
+  public double min(double[] values, int from, int to) {
+    DoubleVector mins = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+    int i = from;
+    for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+      mins = mins.min(DoubleVector.fromArray(SPECIES, values, i));
+    }
+    double min = mins.reduceLanes(VectorOperators.MIN);
+    for (; i < to; i++) {
+      min = Math.min(min, values[i]);
+    }
+    return min;
+  }
+
+  @Override
+  public double max(double[] values, int from, int to) {
+    DoubleVector maxes = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+    int i = from;
+    for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+      maxes = maxes.max(DoubleVector.fromArray(SPECIES, values, i));
+    }
+    double max = maxes.reduceLanes(VectorOperators.MAX);
+    for (; i < to; i++) {
+      max = Math.max(max, values[i]);
+    }
+    return max;
+  }
+}
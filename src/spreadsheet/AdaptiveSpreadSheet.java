@@ -0,0 +1,399 @@
+package spreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a spreadsheet that chooses between sparse and dense storage on its
+ * own. The sheet is divided into square regions the size of a {@link Tile}. Every region
+ * starts sparse, keeping its cells in a small primitive hash table. Once the fraction of
+ * cells set in a region passes the promotion threshold, the region is migrated into a
+ * dense {@link Tile}. Once clearing drops a dense region below half of that threshold, it
+ * is migrated back to sparse storage, and a region left with no cells is released.
+ *
+ * <p>The number of regions currently in each mode is exposed so that the promotion policy
+ * can be observed under a real workload.
+ */
+public class AdaptiveSpreadSheet implements SpreadSheet {
+  /**
+   * The default fill ratio above which a region is promoted to dense storage. A sparse
+   * region costs roughly four times as many bytes per cell as a dense one, so this is about
+   * where the two break even.
+   */
+  public static final double DEFAULT_PROMOTE_RATIO = 0.25;
+
+  private static final int REGION_AREA = Tile.SIZE * Tile.SIZE;
+
+  private final LongObjectMap<Region> regions;
+  private final int promoteAt;
+  private final int demoteAt;
+  private final Occupancy occupancy;
+  private int denseRegions;
+  private int promotions;
+  private int demotions;
+
+  /**
+   * Create an empty spreadsheet that uses the default promotion threshold.
+   */
+  public AdaptiveSpreadSheet() {
+    this(DEFAULT_PROMOTE_RATIO);
+  }
+
+  /**
+   * Create an empty spreadsheet that promotes a region once the given fraction of its
+   * cells is set.
+   *
+   * @param promoteRatio the fill ratio that triggers promotion, in (0, 1]
+   * @throws IllegalArgumentException if the ratio is out of range
+   */
+  public AdaptiveSpreadSheet(double promoteRatio) throws IllegalArgumentException {
+    if (!(promoteRatio > 0.0 && promoteRatio <= 1.0)) {
+      throw new IllegalArgumentException("Promotion ratio must be in (0, 1]");
+    }
+    this.regions = new LongObjectMap<Region>();
+    this.promoteAt = Math.max(1, (int) (promoteRatio * REGION_AREA));
+    // Demote well below the promotion point so a region hovering near it does not thrash.
+    this.demoteAt = this.promoteAt / 2;
+    this.occupancy = new Occupancy();
+    this.denseRegions = 0;
+    this.promotions = 0;
+    this.demotions = 0;
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    Region region = regionAt(row, col);
+    if (region == null) {
+      return 0.0;
+    }
+    return region.get(Tile.localOf(row), Tile.localOf(col));
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    Region region = writableRegion(row, col);
+    if (region.set(Tile.localOf(row), Tile.localOf(col), value)) {
+      occupancy.add(row, col);
+    }
+    promoteIfFull(region);
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    Region region = regionAt(row, col);
+    return region == null || !region.isSet(Tile.localOf(row), Tile.localOf(col));
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    long key = regionKey(row, col);
+    Region region = this.regions.get(key);
+    if (region != null && region.clear(Tile.localOf(row), Tile.localOf(col))) {
+      occupancy.remove(row, col);
+      shrinkIfSparse(key, region);
+    }
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    int lastRow = Math.min(toRow, getHeight() - 1);
+    int lastCol = Math.min(toCol, getWidth() - 1);
+    if (lastRow < fromRow || lastCol < fromCol) {
+      return;
+    }
+    long[] keys = this.regions.keysWithin(Tile.tileOf(fromRow), Tile.tileOf(fromCol),
+            Tile.tileOf(lastRow), Tile.tileOf(lastCol));
+    for (long key : keys) {
+      Region region = this.regions.get(key);
+      int baseRow = LongDoubleMap.rowOf(key) << Tile.SHIFT;
+      int baseCol = LongDoubleMap.colOf(key) << Tile.SHIFT;
+      int fromLocal = Math.max(fromCol, baseCol) - baseCol;
+      int toLocal = Math.min(toCol, baseCol + Tile.MASK) - baseCol;
+      for (int row = Math.max(fromRow, baseRow); row <= Math.min(toRow, baseRow + Tile.MASK);
+           row++) {
+        long removed = region.clearRow(row - baseRow, fromLocal, toLocal);
+        occupancy.removeRun(row, baseCol, removed);
+      }
+      shrinkIfSparse(key, region);
+    }
+  }
+
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    for (int row = fromRow; row <= toRow; row++) {
+      int localRow = Tile.localOf(row);
+      for (int tileCol = Tile.tileOf(fromCol); tileCol <= Tile.tileOf(toCol); tileCol++) {
+        int first = Math.max(fromCol, tileCol << Tile.SHIFT);
+        int last = Math.min(toCol, (tileCol << Tile.SHIFT) | Tile.MASK);
+        Region region = writableRegion(row, first);
+        if (region.dense != null) {
+          long added = region.dense.fillRow(localRow, Tile.localOf(first), Tile.localOf(last),
+                  value);
+          occupancy.addRun(row, tileCol << Tile.SHIFT, added);
+        } else {
+          for (int col = first; col <= last; col++) {
+            if (region.set(localRow, Tile.localOf(col), value)) {
+              occupancy.add(row, col);
+            }
+          }
+          promoteIfFull(region);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, dest);
+    int offset = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      int localRow = Tile.localOf(row);
+      for (int tileCol = Tile.tileOf(fromCol); tileCol <= Tile.tileOf(toCol); tileCol++) {
+        int first = Math.max(fromCol, tileCol << Tile.SHIFT);
+        int last = Math.min(toCol, (tileCol << Tile.SHIFT) | Tile.MASK);
+        Region region = regionAt(row, first);
+        if (region == null) {
+          Arrays.fill(dest, offset, offset + last - first + 1, 0.0);
+        } else if (region.dense != null) {
+          region.dense.readRow(localRow, Tile.localOf(first), Tile.localOf(last), dest, offset);
+        } else {
+          for (int col = first; col <= last; col++) {
+            dest[offset + col - first] = region.get(localRow, Tile.localOf(col));
+          }
+        }
+        offset += last - first + 1;
+      }
+    }
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, src);
+    int offset = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      int localRow = Tile.localOf(row);
+      for (int tileCol = Tile.tileOf(fromCol); tileCol <= Tile.tileOf(toCol); tileCol++) {
+        int first = Math.max(fromCol, tileCol << Tile.SHIFT);
+        int last = Math.min(toCol, (tileCol << Tile.SHIFT) | Tile.MASK);
+        Region region = writableRegion(row, first);
+        if (region.dense != null) {
+          long added = region.dense.writeRow(localRow, Tile.localOf(first), Tile.localOf(last),
+                  src, offset);
+          occupancy.addRun(row, tileCol << Tile.SHIFT, added);
+        } else {
+          for (int col = first; col <= last; col++) {
+            if (region.set(localRow, Tile.localOf(col), src[offset + col - first])) {
+              occupancy.add(row, col);
+            }
+          }
+          promoteIfFull(region);
+        }
+        offset += last - first + 1;
+      }
+    }
+  }
+
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, visitor);
+    int lastRow = Math.min(toRow, getHeight() - 1);
+    int lastCol = Math.min(toCol, getWidth() - 1);
+    if (lastRow < fromRow || lastCol < fromCol) {
+      return;
+    }
+    long[] keys = this.regions.keysWithin(Tile.tileOf(fromRow), Tile.tileOf(fromCol),
+            Tile.tileOf(lastRow), Tile.tileOf(lastCol));
+    for (long key : keys) {
+      Region region = this.regions.get(key);
+      int baseRow = LongDoubleMap.rowOf(key) << Tile.SHIFT;
+      int baseCol = LongDoubleMap.colOf(key) << Tile.SHIFT;
+      if (region.dense != null) {
+        region.dense.forEachSet(baseRow, baseCol, fromRow, fromCol, toRow, toCol, visitor);
+      } else {
+        region.sparse.forEach((local, value) -> {
+          int row = baseRow + LongDoubleMap.rowOf(local);
+          int col = baseCol + LongDoubleMap.colOf(local);
+          if (row >= fromRow && row <= toRow && col >= fromCol && col <= toCol) {
+            visitor.visit(row, col, value);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public int getWidth() {
+    return this.occupancy.width();
+  }
+
+  @Override
+  public int getHeight() {
+    return this.occupancy.height();
+  }
+
+  /**
+   * Return the number of allocated regions that currently use sparse storage.
+   *
+   * @return the number of sparse regions
+   */
+  public int getSparseRegionCount() {
+    return this.regions.size() - this.denseRegions;
+  }
+
+  /**
+   * Return the number of regions that currently use dense storage.
+   *
+   * @return the number of dense regions
+   */
+  public int getDenseRegionCount() {
+    return this.denseRegions;
+  }
+
+  /**
+   * Return how many times a region has been promoted from sparse to dense storage.
+   *
+   * @return the number of promotions so far
+   */
+  public int getPromotionCount() {
+    return this.promotions;
+  }
+
+  /**
+   * Return how many times a region has been demoted from dense back to sparse storage.
+   *
+   * @return the number of demotions so far
+   */
+  public int getDemotionCount() {
+    return this.demotions;
+  }
+
+  private Region writableRegion(int row, int col) {
+    Region region = regionAt(row, col);
+    if (region == null) {
+      region = new Region();
+      this.regions.put(regionKey(row, col), region);
+    }
+    return region;
+  }
+
+  private void promoteIfFull(Region region) {
+    if (region.dense == null && region.sparse.size() >= promoteAt) {
+      region.promote();
+      denseRegions++;
+      promotions++;
+    }
+  }
+
+  private void shrinkIfSparse(long key, Region region) {
+    if (region.count() == 0) {
+      this.regions.remove(key);
+      if (region.dense != null) {
+        denseRegions--;
+      }
+    } else if (region.dense != null && region.dense.count() < demoteAt) {
+      region.demote();
+      denseRegions--;
+      demotions++;
+    }
+  }
+
+  private Region regionAt(int row, int col) {
+    return this.regions.get(regionKey(row, col));
+  }
+
+  private static long regionKey(int row, int col) {
+    return LongDoubleMap.key(Tile.tileOf(row), Tile.tileOf(col));
+  }
+
+  /**
+   * One tile-sized region of the sheet. Exactly one of the two stores is in use at a time.
+   */
+  private static final class Region {
+    private LongDoubleMap sparse;
+    private Tile dense;
+
+    private Region() {
+      this.sparse = new LongDoubleMap();
+      this.dense = null;
+    }
+
+    private double get(int localRow, int localCol) {
+      if (dense != null) {
+        return dense.get(localRow, localCol);
+      }
+      return sparse.get(LongDoubleMap.key(localRow, localCol), 0.0);
+    }
+
+    private boolean set(int localRow, int localCol, double value) {
+      if (dense != null) {
+        return dense.set(localRow, localCol, value);
+      }
+      return sparse.put(LongDoubleMap.key(localRow, localCol), value);
+    }
+
+    private boolean clear(int localRow, int localCol) {
+      if (dense != null) {
+        return dense.clear(localRow, localCol);
+      }
+      return sparse.remove(LongDoubleMap.key(localRow, localCol));
+    }
+
+    private long clearRow(int localRow, int fromCol, int toCol) {
+      if (dense != null) {
+        return dense.clearRow(localRow, fromCol, toCol);
+      }
+      long removed = 0;
+      for (int col = fromCol; col <= toCol; col++) {
+        if (sparse.remove(LongDoubleMap.key(localRow, col))) {
+          removed |= 1L << col;
+        }
+      }
+      return removed;
+    }
+
+    private int count() {
+      return dense != null ? dense.count() : sparse.size();
+    }
+
+    private boolean isSet(int localRow, int localCol) {
+      if (dense != null) {
+        return dense.isSet(localRow, localCol);
+      }
+      return sparse.containsKey(LongDoubleMap.key(localRow, localCol));
+    }
+
+    private void promote() {
+      Tile tile = new Tile();
+      sparse.forEach((key, value) ->
+              tile.set(LongDoubleMap.rowOf(key), LongDoubleMap.colOf(key), value));
+      dense = tile;
+      sparse = null;
+    }
+
+    private void demote() {
+      LongDoubleMap map = new LongDoubleMap();
+      dense.forEachSet(0, 0, 0, 0, Tile.MASK, Tile.MASK,
+          (row, col, value) -> map.put(LongDoubleMap.key(row, col), value));
+      sparse = map;
+      dense = null;
+    }
+  }
+}
@@ -0,0 +1,349 @@
+package spreadsheet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class represents a spreadsheet that runs its macros in the background. Macros are
+ * queued on an executor and run one at a time in the order they were submitted, so the
+ * sheet goes through the same states as if they had run on the caller's thread.
+ *
+ * <p>Reads and writes on the caller's thread wait only for the pending macros that touch
+ * their cells. A macro that does not say which cells it touches is assumed to touch all of
+ * them, as are operations on the whole sheet such as {@link #getWidth()}. Since the caller
+ * keeps using the sheet while a macro writes to other cells, the wrapped sheet must be safe
+ * for use by several threads at once, such as one built on a
+ * {@link ConcurrentSpreadSheet}.
+ *
+ * <p>{@link #close()} waits for the pending macros and stops the background thread this
+ * sheet started, if any; the sheet can still be read and written afterwards, but no longer
+ * runs macros.
+ */
+public class AsyncSpreadSheetWithMacro implements SpreadSheetWithMacro, AutoCloseable {
+  private final SpreadSheetWithMacro sheet;
+  private final Executor executor;
+  private final ExecutorService owned;
+  private final List<Pending> pending;
+  private CompletableFuture<Void> tail;
+  private boolean closed;
+
+  /**
+   * Create a spreadsheet that runs macros on the given sheet on its own background thread.
+   *
+   * @param sheet the sheet to run macros on
+   * @throws IllegalArgumentException if the sheet is null
+   */
+  public AsyncSpreadSheetWithMacro(SpreadSheetWithMacro sheet) throws IllegalArgumentException {
+    this(sheet, Executors.newSingleThreadExecutor(task -> {
+      Thread thread = new Thread(task, "spreadsheet-macros");
+      thread.setDaemon(true);
+      return thread;
+    }), true);
+  }
+
+  /**
+   * Create a spreadsheet that runs macros on the given sheet using the given executor. The
+   * macros still run one at a time even if the executor has several threads. The executor
+   * belongs to the caller, and closing this sheet does not shut it down.
+   *
+   * @param sheet    the sheet to run macros on
+   * @param executor the executor to run macros with
+   * @throws IllegalArgumentException if the sheet or the executor is null
+   */
+  public AsyncSpreadSheetWithMacro(SpreadSheetWithMacro sheet, Executor executor)
+          throws IllegalArgumentException {
+    this(sheet, executor, false);
+  }
+
+  private AsyncSpreadSheetWithMacro(SpreadSheetWithMacro sheet, Executor executor,
+                                    boolean owned) throws IllegalArgumentException {
+    if (sheet == null) {
+      throw new IllegalArgumentException("Sheet cannot be null");
+    }
+    if (executor == null) {
+      throw new IllegalArgumentException("Executor cannot be null");
+    }
+    this.sheet = sheet;
+    this.executor = executor;
+    this.owned = owned ? (ExecutorService) executor : null;
+    this.pending = new ArrayList<Pending>();
+    this.tail = CompletableFuture.completedFuture(null);
+    this.closed = false;
+  }
+
+  /**
+   * Queue the given macro and return without waiting for it to run.
+   *
+   * @param macro the macro to execute
+   * @return a future that completes once the macro has run, exceptionally if it failed
+   * @throws IllegalArgumentException if the macro is null
+   * @throws IllegalStateException    if this sheet has been closed
+   */
+  @Override
+  public CompletableFuture<Void> executeMacroAsync(SpreadSheetMacro macro)
+          throws IllegalArgumentException {
+    if (macro == null) {
+      throw new IllegalArgumentException("Macro cannot be null");
+    }
+    FootprintMacro footprint = macro instanceof FootprintMacro ? (FootprintMacro) macro : null;
+    return submit(footprint, () -> sheet.executeMacro(macro));
+  }
+
+  /**
+   * Queue the given macro and wait until it has run.
+   *
+   * @param macro the macro to execute
+   */
+  @Override
+  public void executeMacro(SpreadSheetMacro macro) {
+    await(executeMacroAsync(macro));
+  }
+
+  @Override
+  public void executeMacros(List<SpreadSheetMacro> macros) throws IllegalArgumentException {
+    if (macros == null) {
+      throw new IllegalArgumentException("Macros cannot be null");
+    }
+    List<SpreadSheetMacro> batch = new ArrayList<SpreadSheetMacro>(macros.size());
+    for (SpreadSheetMacro macro : macros) {
+      if (macro == null) {
+        throw new IllegalArgumentException("Macro cannot be null");
+      }
+      batch.add(macro);
+    }
+    await(submit(null, () -> sheet.executeMacros(batch)));
+  }
+
+  /**
+   * Wait until every macro submitted so far has run, then undo the most recent one that can
+   * be undone.
+   *
+   * @return true if a macro was undone, false if there was nothing to undo
+   */
+  @Override
+  public boolean undo() {
+    AtomicBoolean result = new AtomicBoolean();
+    await(submit(null, () -> result.set(sheet.undo())));
+    return result.get();
+  }
+
+  /**
+   * Wait until every macro submitted so far has run, then redo the macro that was undone
+   * most recently.
+   *
+   * @return true if a macro was redone, false if there was nothing to redo
+   */
+  @Override
+  public boolean redo() {
+    AtomicBoolean result = new AtomicBoolean();
+    await(submit(null, () -> result.set(sheet.redo())));
+    return result.get();
+  }
+
+  /**
+   * Wait until every macro submitted so far has run.
+   */
+  public void awaitMacros() {
+    CompletableFuture<Void> last;
+    synchronized (pending) {
+      last = tail;
+    }
+    last.handle((result, failure) -> null).join();
+  }
+
+  /**
+   * Wait until every macro submitted so far has run, then stop running macros. A background
+   * thread started by this sheet is shut down; an executor given to the constructor is left
+   * running. Closing an already closed sheet has no effect.
+   */
+  @Override
+  public void close() {
+    synchronized (pending) {
+      closed = true;
+    }
+    awaitMacros();
+    if (owned != null) {
+      owned.shutdown();
+    }
+  }
+
+  /**
+   * Return the state the wrapped sheet last published, without waiting for the macros that
+   * are queued or running. A snapshot never shows a macro halfway through.
+   *
+   * @return a read-only snapshot of this spreadsheet
+   */
+  @Override
+  public SpreadSheet snapshot() {
+    return sheet.snapshot();
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    awaitTouching(row, col, row, col);
+    return sheet.get(row, col);
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    awaitTouching(row, col, row, col);
+    sheet.set(row, col, value);
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    awaitTouching(row, col, row, col);
+    return sheet.isEmpty(row, col);
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    awaitTouching(row, col, row, col);
+    sheet.clear(row, col);
+  }
+
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    awaitTouching(fromRow, fromCol, toRow, toCol);
+    sheet.fill(fromRow, fromCol, toRow, toCol, value);
+  }
+
+  @Override
+  public void fillProgression(int fromRow, int fromCol, int toRow, int toCol,
+                              double startValue, double increment)
+          throws IllegalArgumentException {
+    awaitTouching(fromRow, fromCol, toRow, toCol);
+    sheet.fillProgression(fromRow, fromCol, toRow, toCol, startValue, increment);
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    awaitTouching(fromRow, fromCol, toRow, toCol);
+    sheet.readRange(fromRow, fromCol, toRow, toCol, dest);
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    awaitTouching(fromRow, fromCol, toRow, toCol);
+    sheet.writeRange(fromRow, fromCol, toRow, toCol, src);
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    awaitTouching(fromRow, fromCol, toRow, toCol);
+    sheet.clearRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    awaitTouching(fromRow, fromCol, toRow, toCol);
+    sheet.forEachNonEmpty(fromRow, fromCol, toRow, toCol, visitor);
+  }
+
+  @Override
+  public double sumRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    awaitTouching(fromRow, fromCol, toRow, toCol);
+    return sheet.sumRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public double minRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    awaitTouching(fromRow, fromCol, toRow, toCol);
+    return sheet.minRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public double maxRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    awaitTouching(fromRow, fromCol, toRow, toCol);
+    return sheet.maxRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public int getWidth() {
+    awaitMacros();
+    return sheet.getWidth();
+  }
+
+  @Override
+  public int getHeight() {
+    awaitMacros();
+    return sheet.getHeight();
+  }
+
+  /**
+   * Queue a task behind every task submitted before it. A failed task does not stop the
+   * ones after it.
+   */
+  private CompletableFuture<Void> submit(FootprintMacro footprint, Runnable task) {
+    Pending entry = new Pending(footprint);
+    synchronized (pending) {
+      if (closed) {
+        throw new IllegalStateException("Sheet has been closed");
+      }
+      entry.done = tail.handle((result, failure) -> null).thenRunAsync(task, executor);
+      tail = entry.done;
+      pending.add(entry);
+    }
+    entry.done.whenComplete((result, failure) -> {
+      synchronized (pending) {
+        pending.remove(entry);
+      }
+    });
+    return entry.done;
+  }
+
+  /**
+   * Wait for the pending macros that may touch a cell of the given range.
+   */
+  private void awaitTouching(int fromRow, int fromCol, int toRow, int toCol) {
+    List<CompletableFuture<Void>> touching = new ArrayList<CompletableFuture<Void>>();
+    synchronized (pending) {
+      for (Pending entry : pending) {
+        if (entry.footprint == null
+                || entry.footprint.touches(fromRow, fromCol, toRow, toCol)) {
+          touching.add(entry.done);
+        }
+      }
+    }
+    for (CompletableFuture<Void> done : touching) {
+      done.handle((result, failure) -> null).join();
+    }
+  }
+
+  private static void await(CompletableFuture<Void> done) {
+    try {
+      done.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * A macro that has been submitted and has not finished yet.
+   */
+  private static final class Pending {
+    private final FootprintMacro footprint;
+    private CompletableFuture<Void> done;
+
+    private Pending(FootprintMacro footprint) {
+      this.footprint = footprint;
+    }
+  }
+}
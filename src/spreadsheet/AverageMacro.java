@@ -4,7 +4,7 @@ package spreadsheet;
  * A macro that computes the average of a range of cells and stores it in a destination cell.
  * This implements the Command Design Pattern.
  */
-public class AverageMacro implements SpreadSheetMacro {
+public class AverageMacro implements BandedMacro, FootprintMacro {
   private final int fromRow;
   private final int fromCol;
   private final int toRow;
@@ -53,17 +53,48 @@ public class AverageMacro implements SpreadSheetMacro {
       throw new IllegalArgumentException("Sheet cannot be null");
     }
 
-    double sum = 0.0;
-    int count = 0;
+    complete(sheet, executeBand(sheet, fromRow, toRow));
+  }
 
-    for (int row = fromRow; row <= toRow; row++) {
-      for (int col = fromCol; col <= toCol; col++) {
-        sum += sheet.get(row, col);
-        count++;
-      }
-    }
+  @Override
+  public boolean touches(int fromRow, int fromCol, int toRow, int toCol) {
+    return Ranges.overlap(this.fromRow, this.fromCol, this.toRow, this.toCol,
+            fromRow, fromCol, toRow, toCol)
+            || Ranges.overlap(destRow, destCol, destRow, destCol, fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public int getFromRow() {
+    return fromRow;
+  }
+
+  @Override
+  public int getToRow() {
+    return toRow;
+  }
+
+  @Override
+  public int getColumnCount() {
+    return toCol - fromCol + 1;
+  }
+
+  /**
+   * Return the sum of the given rows of the range. Sheets bound the range forms by the
+   * smaller of the range and the cells they hold, so a band only visits its own rows.
+   */
+  @Override
+  public double executeBand(SpreadSheet sheet, int fromRow, int toRow) {
+    return sheet.sumRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  /**
+   * Store the average of the range, given the sum over all of its rows.
+   */
+  @Override
+  public void complete(SpreadSheet sheet, double total) {
+    long count = (long) (toRow - fromRow + 1) * (toCol - fromCol + 1);
 
-    double average = count > 0 ? sum / count : 0.0;
+    double average = count > 0 ? total / count : 0.0;
     sheet.set(destRow, destCol, average);
   }
 }
\ No newline at end of file
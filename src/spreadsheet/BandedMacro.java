@@ -0,0 +1,49 @@
+package spreadsheet;
+
+/**
+ * A macro over a rectangular range that can be run as independent bands of rows. Each band
+ * returns a partial result; the partial results of all bands are added up and passed to
+ * {@link #complete(SpreadSheet, double)}. Running every band in turn and then completing
+ * must have the same effect as {@link #execute(SpreadSheet)}.
+ */
+interface BandedMacro extends SpreadSheetMacro {
+  /**
+   * Return the first row of the range this macro covers.
+   *
+   * @return the starting row (inclusive)
+   */
+  int getFromRow();
+
+  /**
+   * Return the last row of the range this macro covers.
+   *
+   * @return the ending row (inclusive)
+   */
+  int getToRow();
+
+  /**
+   * Return the number of columns of the range this macro covers.
+   *
+   * @return the width of the range
+   */
+  int getColumnCount();
+
+  /**
+   * Run this macro over the given rows of its range only. Bands may run concurrently, so
+   * the sheet must be safe for use by several threads at once.
+   *
+   * @param sheet   the sheet to run on
+   * @param fromRow the first row of the band (inclusive)
+   * @param toRow   the last row of the band (inclusive)
+   * @return the partial result of the band
+   */
+  double executeBand(SpreadSheet sheet, int fromRow, int toRow);
+
+  /**
+   * Finish this macro once every band has run.
+   *
+   * @param sheet the sheet to run on
+   * @param total the sum of the partial results of all bands
+   */
+  void complete(SpreadSheet sheet, double total);
+}
@@ -4,7 +4,7 @@ package spreadsheet;
  * A macro that assigns a specific value to a range of cells in a spreadsheet.
  * This is using CommandDesignPattern.
  */
-public class BulkAssignMacro implements SpreadSheetMacro {
+public class BulkAssignMacro implements BandedMacro, RegionAssignMacro, FootprintMacro {
 
   private final int fromRow;
   private final int fromCol;
@@ -49,10 +49,43 @@ public class BulkAssignMacro implements SpreadSheetMacro {
       throw new IllegalArgumentException("Sheet cannot be null");
     }
 
-    for (int row = fromRow; row <= toRow; row++) {
-      for (int col = fromCol; col <= toCol; col++) {
-        sheet.set(row, col, value);
-      }
-    }
+    sheet.fill(fromRow, fromCol, toRow, toCol, value);
+  }
+
+  @Override
+  public boolean touches(int fromRow, int fromCol, int toRow, int toCol) {
+    return Ranges.overlap(this.fromRow, this.fromCol, this.toRow, this.toCol,
+            fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public ValueRegion toRegion() {
+    return new ConstantRegion(fromRow, fromCol, toRow, toCol, value);
+  }
+
+  @Override
+  public int getFromRow() {
+    return fromRow;
+  }
+
+  @Override
+  public int getToRow() {
+    return toRow;
+  }
+
+  @Override
+  public int getColumnCount() {
+    return toCol - fromCol + 1;
+  }
+
+  @Override
+  public double executeBand(SpreadSheet sheet, int fromRow, int toRow) {
+    sheet.fill(fromRow, fromCol, toRow, toCol, value);
+    return 0.0;
+  }
+
+  @Override
+  public void complete(SpreadSheet sheet, double total) {
+    // Every band has already written its cells.
   }
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package spreadsheet;
+
+/**
+ * This interface represents a callback that receives the non-empty cells of a spreadsheet.
+ * Cells are passed as primitives, so visiting them never boxes or allocates.
+ */
+@FunctionalInterface
+public interface CellVisitor {
+
+  /**
+   * Receive one non-empty cell.
+   *
+   * @param row   the row number of the cell, starting with 0
+   * @param col   the column number of the cell, starting with 0
+   * @param value the value stored in the cell
+   */
+  void visit(int row, int col, double value);
+}
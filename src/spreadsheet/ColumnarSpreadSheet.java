@@ -0,0 +1,384 @@
+package spreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a spreadsheet that stores each column separately. A column is a
+ * sequence of fixed-size segments, each holding the primitive values of a run of consecutive
+ * rows together with an occupancy bitmap. Segments are only allocated once a cell inside
+ * them is set, so tall sparse columns stay cheap, while reading a range of rows from one
+ * column walks contiguous memory.
+ *
+ * <p>Columns are kept in a hash table keyed by column, so a sheet only pays for the columns
+ * that hold cells, however far apart they are.
+ */
+public class ColumnarSpreadSheet implements SpreadSheet {
+  private static final int SEGMENT_SHIFT = 10;
+  private static final int SEGMENT_ROWS = 1 << SEGMENT_SHIFT;
+  private static final int SEGMENT_MASK = SEGMENT_ROWS - 1;
+
+  private final Occupancy occupancy;
+  private final LongObjectMap<Column> columns;
+
+  /**
+   * Create an empty spreadsheet.
+   */
+  public ColumnarSpreadSheet() {
+    this.occupancy = new Occupancy();
+    this.columns = new LongObjectMap<Column>();
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    Column column = columns.get(LongDoubleMap.key(0, col));
+    return column == null ? 0.0 : column.get(row);
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (writableColumn(col).set(row, value)) {
+      occupancy.add(row, col);
+    }
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    Column column = columns.get(LongDoubleMap.key(0, col));
+    return column == null || !column.isSet(row);
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    Column column = columns.get(LongDoubleMap.key(0, col));
+    if (column != null) {
+      column.clear(col, row, row, occupancy);
+    }
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    for (long key : columns.keysWithin(0, fromCol, 0, toCol)) {
+      columns.get(key).clear(LongDoubleMap.colOf(key), fromRow, toRow, occupancy);
+    }
+  }
+
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    for (int col = fromCol; col <= toCol; col++) {
+      writableColumn(col).fill(col, fromRow, toRow, value, occupancy);
+    }
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, dest);
+    int stride = toCol - fromCol + 1;
+    for (int col = fromCol; col <= toCol; col++) {
+      int offset = col - fromCol;
+      Column column = columns.get(LongDoubleMap.key(0, col));
+      if (column == null) {
+        for (int row = fromRow; row <= toRow; row++, offset += stride) {
+          dest[offset] = 0.0;
+        }
+      } else {
+        column.read(fromRow, toRow, dest, offset, stride);
+      }
+    }
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, src);
+    int stride = toCol - fromCol + 1;
+    for (int col = fromCol; col <= toCol; col++) {
+      writableColumn(col).write(col, fromRow, toRow, src, col - fromCol, stride, occupancy);
+    }
+  }
+
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, visitor);
+    for (long key : columns.keysWithin(0, fromCol, 0, toCol)) {
+      columns.get(key).forEachSet(LongDoubleMap.colOf(key), fromRow, toRow, visitor);
+    }
+  }
+
+  @Override
+  public double sumRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    double sum = 0.0;
+    for (long key : columns.keysWithin(0, fromCol, 0, toCol)) {
+      sum += columns.get(key).sum(fromRow, toRow);
+    }
+    return sum;
+  }
+
+  @Override
+  public double minRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return extremeRange(fromRow, fromCol, toRow, toCol, false);
+  }
+
+  @Override
+  public double maxRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return extremeRange(fromRow, fromCol, toRow, toCol, true);
+  }
+
+  @Override
+  public int getWidth() {
+    return this.occupancy.width();
+  }
+
+  @Override
+  public int getHeight() {
+    return this.occupancy.height();
+  }
+
+  /**
+   * Return the largest or the smallest value in the given range. A column that was never
+   * written is empty, so 0 counts as well unless every column of the range exists.
+   */
+  private double extremeRange(int fromRow, int fromCol, int toRow, int toCol,
+                              boolean largest) throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    double extreme = largest ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+    long[] keys = columns.keysWithin(0, fromCol, 0, toCol);
+    for (long key : keys) {
+      double column = columns.get(key).extreme(fromRow, toRow, largest);
+      extreme = largest ? Math.max(extreme, column) : Math.min(extreme, column);
+    }
+    if (keys.length < (long) toCol - fromCol + 1) {
+      extreme = largest ? Math.max(extreme, 0.0) : Math.min(extreme, 0.0);
+    }
+    return extreme;
+  }
+
+  private Column writableColumn(int col) {
+    Column column = columns.get(LongDoubleMap.key(0, col));
+    if (column == null) {
+      column = new Column();
+      columns.put(LongDoubleMap.key(0, col), column);
+    }
+    return column;
+  }
+
+  /**
+   * One column of the sheet, split into lazily allocated segments of consecutive rows.
+   */
+  private static final class Column {
+    private double[][] values;
+    private long[][] occupied;
+
+    private Column() {
+      this.values = new double[4][];
+      this.occupied = new long[4][];
+    }
+
+    private double get(int row) {
+      int segment = row >>> SEGMENT_SHIFT;
+      if (segment >= values.length || values[segment] == null) {
+        return 0.0;
+      }
+      return values[segment][row & SEGMENT_MASK];
+    }
+
+    private boolean set(int row, double value) {
+      int segment = writableSegment(row >>> SEGMENT_SHIFT);
+      int local = row & SEGMENT_MASK;
+      values[segment][local] = value;
+      long before = occupied[segment][local >>> 6];
+      occupied[segment][local >>> 6] = before | (1L << local);
+      return (before & (1L << local)) == 0;
+    }
+
+    private void fill(int col, int fromRow, int toRow, double value, Occupancy occupancy) {
+      for (int segment = fromRow >>> SEGMENT_SHIFT; segment <= toRow >>> SEGMENT_SHIFT;
+           segment++) {
+        int first = Math.max(fromRow, segment << SEGMENT_SHIFT) & SEGMENT_MASK;
+        int last = Math.min(toRow, (segment << SEGMENT_SHIFT) | SEGMENT_MASK) & SEGMENT_MASK;
+        writableSegment(segment);
+        Arrays.fill(values[segment], first, last + 1, value);
+        mark(col, segment, first, last, occupancy);
+      }
+    }
+
+    private double sum(int fromRow, int toRow) {
+      double sum = 0.0;
+      int lastSegment = Math.min(toRow >>> SEGMENT_SHIFT, values.length - 1);
+      for (int segment = fromRow >>> SEGMENT_SHIFT; segment <= lastSegment; segment++) {
+        if (values[segment] == null) {
+          continue;
+        }
+        int first = Math.max(fromRow, segment << SEGMENT_SHIFT) & SEGMENT_MASK;
+        int last = Math.min(toRow, (segment << SEGMENT_SHIFT) | SEGMENT_MASK) & SEGMENT_MASK;
+        // Empty cells hold 0, so the run is summed without looking at the bitmap.
+        sum += DoubleKernels.sum(values[segment], first, last + 1);
+      }
+      return sum;
+    }
+
+    /**
+     * Return the largest or the smallest value in the given rows of this column, counting
+     * the rows of segments that were never allocated as 0.
+     */
+    private double extreme(int fromRow, int toRow, boolean largest) {
+      double extreme = largest ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+      boolean empty = false;
+      for (int segment = fromRow >>> SEGMENT_SHIFT; segment <= toRow >>> SEGMENT_SHIFT;
+           segment++) {
+        if (segment >= values.length) {
+          empty = true;
+          break;
+        }
+        if (values[segment] == null) {
+          empty = true;
+          continue;
+        }
+        int first = Math.max(fromRow, segment << SEGMENT_SHIFT) & SEGMENT_MASK;
+        int last = Math.min(toRow, (segment << SEGMENT_SHIFT) | SEGMENT_MASK) & SEGMENT_MASK;
+        // Empty cells hold 0, so they count as 0 without looking at the bitmap.
+        extreme = largest ? Math.max(extreme, DoubleKernels.max(values[segment], first,
+                last + 1)) : Math.min(extreme, DoubleKernels.min(values[segment], first,
+                last + 1));
+      }
+      if (empty) {
+        extreme = largest ? Math.max(extreme, 0.0) : Math.min(extreme, 0.0);
+      }
+      return extreme;
+    }
+
+    private void read(int fromRow, int toRow, double[] dest, int offset, int stride) {
+      for (int row = fromRow; row <= toRow; row++, offset += stride) {
+        dest[offset] = get(row);
+      }
+    }
+
+    private void write(int col, int fromRow, int toRow, double[] src, int offset, int stride,
+                       Occupancy occupancy) {
+      for (int segment = fromRow >>> SEGMENT_SHIFT; segment <= toRow >>> SEGMENT_SHIFT;
+           segment++) {
+        int first = Math.max(fromRow, segment << SEGMENT_SHIFT) & SEGMENT_MASK;
+        int last = Math.min(toRow, (segment << SEGMENT_SHIFT) | SEGMENT_MASK) & SEGMENT_MASK;
+        writableSegment(segment);
+        double[] target = values[segment];
+        for (int local = first; local <= last; local++, offset += stride) {
+          target[local] = src[offset];
+        }
+        mark(col, segment, first, last, occupancy);
+      }
+    }
+
+    private int writableSegment(int segment) {
+      if (segment >= values.length) {
+        int grown = Math.max(segment + 1, values.length * 2);
+        values = Arrays.copyOf(values, grown);
+        occupied = Arrays.copyOf(occupied, grown);
+      }
+      if (values[segment] == null) {
+        values[segment] = new double[SEGMENT_ROWS];
+        occupied[segment] = new long[SEGMENT_ROWS / Long.SIZE];
+      }
+      return segment;
+    }
+
+    private void clear(int col, int fromRow, int toRow, Occupancy occupancy) {
+      int lastSegment = Math.min(toRow >>> SEGMENT_SHIFT, occupied.length - 1);
+      for (int segment = fromRow >>> SEGMENT_SHIFT; segment <= lastSegment; segment++) {
+        if (occupied[segment] == null) {
+          continue;
+        }
+        int first = Math.max(fromRow, segment << SEGMENT_SHIFT) & SEGMENT_MASK;
+        int last = Math.min(toRow, (segment << SEGMENT_SHIFT) | SEGMENT_MASK) & SEGMENT_MASK;
+        long[] bits = occupied[segment];
+        boolean empty = true;
+        for (int word = 0; word < bits.length; word++) {
+          if (word >= first >>> 6 && word <= last >>> 6) {
+            int from = Math.max(first, word << 6) & 63;
+            int to = Math.min(last, (word << 6) | 63) & 63;
+            long removed = bits[word] & Tile.bits(from, to);
+            bits[word] &= ~removed;
+            for (; removed != 0; removed &= removed - 1) {
+              int local = (word << 6) | Long.numberOfTrailingZeros(removed);
+              values[segment][local] = 0.0;
+              occupancy.remove((segment << SEGMENT_SHIFT) | local, col);
+            }
+          }
+          if (bits[word] != 0) {
+            empty = false;
+          }
+        }
+        if (empty) {
+          // Release a segment once its last cell is gone.
+          values[segment] = null;
+          occupied[segment] = null;
+        }
+      }
+    }
+
+    private void mark(int col, int segment, int first, int last, Occupancy occupancy) {
+      long[] bits = occupied[segment];
+      int base = segment << SEGMENT_SHIFT;
+      for (int word = first >>> 6; word <= last >>> 6; word++) {
+        int from = Math.max(first, word << 6) & 63;
+        int to = Math.min(last, (word << 6) | 63) & 63;
+        long added = Tile.bits(from, to) & ~bits[word];
+        bits[word] |= added;
+        for (; added != 0; added &= added - 1) {
+          occupancy.add(base | (word << 6) | Long.numberOfTrailingZeros(added), col);
+        }
+      }
+    }
+
+    private void forEachSet(int col, int fromRow, int toRow, CellVisitor visitor) {
+      int lastSegment = Math.min(toRow >>> SEGMENT_SHIFT, occupied.length - 1);
+      for (int segment = fromRow >>> SEGMENT_SHIFT; segment <= lastSegment; segment++) {
+        if (occupied[segment] == null) {
+          continue;
+        }
+        int base = segment << SEGMENT_SHIFT;
+        int first = Math.max(fromRow, base) - base;
+        int last = Math.min(toRow, base | SEGMENT_MASK) - base;
+        for (int wordIndex = first >>> 6; wordIndex <= last >>> 6; wordIndex++) {
+          int from = Math.max(first, wordIndex << 6) & 63;
+          int to = Math.min(last, (wordIndex << 6) | 63) & 63;
+          long word = occupied[segment][wordIndex] & Tile.bits(from, to);
+          while (word != 0) {
+            int local = (wordIndex << 6) | Long.numberOfTrailingZeros(word);
+            visitor.visit(base + local, col, values[segment][local]);
+            word &= word - 1;
+          }
+        }
+      }
+    }
+
+    private boolean isSet(int row) {
+      int segment = row >>> SEGMENT_SHIFT;
+      if (segment >= occupied.length || occupied[segment] == null) {
+        return false;
+      }
+      int local = row & SEGMENT_MASK;
+      return (occupied[segment][local >>> 6] & (1L << local)) != 0;
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package spreadsheet;
+
+/**
+ * Arithmetic shared by the indexes that keep sums as a pair of doubles, a high part and the
+ * rounding error it leaves behind, so that subtracting one large sum from another does not
+ * wipe out the small values they differ by.
+ */
+final class Compensated {
+  private Compensated() {
+  }
+
+  /**
+   * Return the rounding error of adding two doubles, so that {@code a + b} is exactly
+   * {@code sum} plus the result.
+   *
+   * @param a   the first addend
+   * @param b   the second addend
+   * @param sum the rounded sum {@code a + b}
+   * @return the part of the exact sum that {@code sum} lost to rounding
+   */
+  static double error(double a, double b, double sum) {
+    double bVirtual = sum - a;
+    double aVirtual = sum - bVirtual;
+    return (a - aVirtual) + (b - bVirtual);
+  }
+
+  /**
+   * Return the low part of the normalized pair whose high part is {@code hi + lo} rounded,
+   * given a high part and a low part that may not yet be normalized.
+   *
+   * @param hi       the high part before normalizing
+   * @param lo       the low part before normalizing
+   * @param normalHi the rounded sum {@code hi + lo}
+   * @return the low part that goes with {@code normalHi}
+   */
+  static double low(double hi, double lo, double normalHi) {
+    return lo - (normalHi - hi);
+  }
+}
@@ -0,0 +1,344 @@
+package spreadsheet;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class represents a sparse spreadsheet that may be shared between threads. Rows are
+ * grouped into bands, and bands are spread over a fixed number of stripes. Each stripe owns
+ * its own primitive hash table and read-write lock, so operations on cells in different
+ * stripes never contend, and reads within one stripe only wait for writers of that stripe.
+ *
+ * <p>Each stripe also keeps the row and column counts of its own cells, under its own lock,
+ * so inserting and removing cells in different stripes never contends either. After each
+ * change a stripe publishes its width, height and number of cells in volatile fields, so
+ * the width and height of the sheet, the largest of those of the stripes, are read without
+ * taking any lock.
+ */
+public class ConcurrentSpreadSheet implements SpreadSheet {
+  private static final int BAND_SHIFT = 6;
+
+  private final Stripe[] stripes;
+  private final int stripeMask;
+
+  /**
+   * Create an empty spreadsheet with enough stripes for the processors of this machine.
+   */
+  public ConcurrentSpreadSheet() {
+    this(4 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Create an empty spreadsheet with at least the given number of stripes. The number is
+   * rounded up to a power of two.
+   *
+   * @param stripes the minimum number of lock stripes
+   * @throws IllegalArgumentException if the number of stripes is not positive
+   */
+  public ConcurrentSpreadSheet(int stripes) throws IllegalArgumentException {
+    if (stripes <= 0 || stripes > (1 << 16)) {
+      throw new IllegalArgumentException("Number of stripes must be between 1 and 65536");
+    }
+    int count = Integer.highestOneBit(stripes);
+    if (count < stripes) {
+      count <<= 1;
+    }
+    this.stripes = new Stripe[count];
+    for (int i = 0; i < count; i++) {
+      this.stripes[i] = new Stripe();
+    }
+    this.stripeMask = count - 1;
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    Stripe stripe = stripeFor(row);
+    stripe.lock.readLock().lock();
+    try {
+      return stripe.cells.get(LongDoubleMap.key(row, col), 0.0);
+    } finally {
+      stripe.lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    Stripe stripe = stripeFor(row);
+    stripe.lock.writeLock().lock();
+    try {
+      if (stripe.cells.put(LongDoubleMap.key(row, col), value)) {
+        stripe.occupancy.add(row, col);
+        stripe.publish();
+      }
+    } finally {
+      stripe.lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    Stripe stripe = stripeFor(row);
+    stripe.lock.readLock().lock();
+    try {
+      return !stripe.cells.containsKey(LongDoubleMap.key(row, col));
+    } finally {
+      stripe.lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    Stripe stripe = stripeFor(row);
+    stripe.lock.writeLock().lock();
+    try {
+      if (stripe.cells.remove(LongDoubleMap.key(row, col))) {
+        stripe.occupancy.remove(row, col);
+        stripe.publish();
+      }
+    } finally {
+      stripe.lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    int lastRow = Math.min(toRow, getHeight() - 1);
+    int lastCol = Math.min(toCol, getWidth() - 1);
+    if (Ranges.area(fromRow, fromCol, lastRow, lastCol) <= cellCount()) {
+      for (int row = fromRow; row <= lastRow; row++) {
+        Stripe stripe = stripeFor(row);
+        stripe.lock.writeLock().lock();
+        try {
+          for (int col = fromCol; col <= lastCol; col++) {
+            if (stripe.cells.remove(LongDoubleMap.key(row, col))) {
+              stripe.occupancy.remove(row, col);
+            }
+          }
+          stripe.publish();
+        } finally {
+          stripe.lock.writeLock().unlock();
+        }
+      }
+      return;
+    }
+    for (Stripe stripe : stripes) {
+      stripe.lock.writeLock().lock();
+      try {
+        // Collect the doomed keys first, since removing shifts entries the scan has not seen.
+        LongDoubleMap doomed = new LongDoubleMap();
+        stripe.cells.forEach((key, value) -> {
+          int row = LongDoubleMap.rowOf(key);
+          int col = LongDoubleMap.colOf(key);
+          if (row >= fromRow && row <= toRow && col >= fromCol && col <= toCol) {
+            doomed.put(key, value);
+          }
+        });
+        doomed.forEach((key, value) -> {
+          stripe.cells.remove(key);
+          stripe.occupancy.remove(LongDoubleMap.rowOf(key), LongDoubleMap.colOf(key));
+        });
+        stripe.publish();
+      } finally {
+        stripe.lock.writeLock().unlock();
+      }
+    }
+  }
+
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    for (int row = fromRow; row <= toRow; row++) {
+      Stripe stripe = stripeFor(row);
+      stripe.lock.writeLock().lock();
+      try {
+        for (int col = fromCol; col <= toCol; col++) {
+          if (stripe.cells.put(LongDoubleMap.key(row, col), value)) {
+            stripe.occupancy.add(row, col);
+          }
+        }
+        stripe.publish();
+      } finally {
+        stripe.lock.writeLock().unlock();
+      }
+    }
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, dest);
+    int i = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      Stripe stripe = stripeFor(row);
+      stripe.lock.readLock().lock();
+      try {
+        for (int col = fromCol; col <= toCol; col++) {
+          dest[i++] = stripe.cells.get(LongDoubleMap.key(row, col), 0.0);
+        }
+      } finally {
+        stripe.lock.readLock().unlock();
+      }
+    }
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, src);
+    int i = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      Stripe stripe = stripeFor(row);
+      stripe.lock.writeLock().lock();
+      try {
+        for (int col = fromCol; col <= toCol; col++) {
+          if (stripe.cells.put(LongDoubleMap.key(row, col), src[i++])) {
+            stripe.occupancy.add(row, col);
+          }
+        }
+        stripe.publish();
+      } finally {
+        stripe.lock.writeLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Pass every non-empty cell within the given range to the given visitor. Each stripe is
+   * read-locked while its cells are visited, so the visitor must not write to this sheet.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @param visitor the visitor to receive each non-empty cell
+   * @throws IllegalArgumentException if the range is invalid or the visitor is null
+   */
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, visitor);
+    int lastRow = Math.min(toRow, getHeight() - 1);
+    int lastCol = Math.min(toCol, getWidth() - 1);
+    if (Ranges.area(fromRow, fromCol, lastRow, lastCol) <= cellCount()) {
+      // The range holds fewer cells than the stripes, so look each of them up instead.
+      for (int row = fromRow; row <= lastRow; row++) {
+        Stripe stripe = stripeFor(row);
+        stripe.lock.readLock().lock();
+        try {
+          for (int col = fromCol; col <= lastCol; col++) {
+            long key = LongDoubleMap.key(row, col);
+            if (stripe.cells.containsKey(key)) {
+              visitor.visit(row, col, stripe.cells.get(key, 0.0));
+            }
+          }
+        } finally {
+          stripe.lock.readLock().unlock();
+        }
+      }
+      return;
+    }
+    for (Stripe stripe : stripes) {
+      stripe.lock.readLock().lock();
+      try {
+        stripe.cells.forEach((key, value) -> {
+          int row = LongDoubleMap.rowOf(key);
+          int col = LongDoubleMap.colOf(key);
+          if (row >= fromRow && row <= toRow && col >= fromCol && col <= toCol) {
+            visitor.visit(row, col, value);
+          }
+        });
+      } finally {
+        stripe.lock.readLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Return the width of this spreadsheet. Each stripe's width is read as last published, so
+   * the width is only a snapshot when other threads are writing.
+   *
+   * @return the width of this spreadsheet
+   */
+  @Override
+  public int getWidth() {
+    int width = 0;
+    for (Stripe stripe : stripes) {
+      width = Math.max(width, stripe.width);
+    }
+    return width;
+  }
+
+  /**
+   * Return the height of this spreadsheet. Each stripe's height is read as last published,
+   * so the height is only a snapshot when other threads are writing.
+   *
+   * @return the height of this spreadsheet
+   */
+  @Override
+  public int getHeight() {
+    int height = 0;
+    for (Stripe stripe : stripes) {
+      height = Math.max(height, stripe.height);
+    }
+    return height;
+  }
+
+  /**
+   * Return the number of cells held by all the stripes together, as last published, so the
+   * total is only a snapshot when other threads are writing.
+   */
+  private long cellCount() {
+    long count = 0;
+    for (Stripe stripe : stripes) {
+      count += stripe.size;
+    }
+    return count;
+  }
+
+  private Stripe stripeFor(int row) {
+    return stripes[(row >>> BAND_SHIFT) & stripeMask];
+  }
+
+  /**
+   * One lock stripe, the cells of the row bands it owns and their row and column counts.
+   */
+  private static final class Stripe {
+    private final ReadWriteLock lock;
+    private final LongDoubleMap cells;
+    private final Occupancy occupancy;
+    private volatile int width;
+    private volatile int height;
+    private volatile int size;
+
+    private Stripe() {
+      this.lock = new ReentrantReadWriteLock();
+      this.cells = new LongDoubleMap();
+      this.occupancy = new Occupancy();
+    }
+
+    /**
+     * Make the extent and size of this stripe visible to readers that take no lock. The
+     * caller must hold the write lock.
+     */
+    private void publish() {
+      width = occupancy.width();
+      height = occupancy.height();
+      size = cells.size();
+    }
+  }
+}
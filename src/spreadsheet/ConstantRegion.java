@@ -0,0 +1,64 @@
+package spreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * A region in which every cell holds the same value.
+ */
+final class ConstantRegion extends ValueRegion {
+  private final double value;
+
+  /**
+   * Create a region covering the given rectangle in which every cell holds the given value.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @param value   the value of every cell
+   */
+  ConstantRegion(int fromRow, int fromCol, int toRow, int toCol, double value) {
+    super(fromRow, fromCol, toRow, toCol);
+    this.value = value;
+  }
+
+  @Override
+  double valueAt(int row, int col) {
+    return value;
+  }
+
+  @Override
+  ValueRegion restrict(int fromRow, int fromCol, int toRow, int toCol) {
+    return new ConstantRegion(fromRow, fromCol, toRow, toCol, value);
+  }
+
+  @Override
+  void readInto(int fromRow, int fromCol, int toRow, int toCol, double[] dest) {
+    int stride = toCol - fromCol + 1;
+    int firstCol = Math.max(fromCol, this.fromCol);
+    int lastCol = Math.min(toCol, this.toCol);
+    for (int row = Math.max(fromRow, this.fromRow); row <= Math.min(toRow, this.toRow);
+         row++) {
+      int offset = (row - fromRow) * stride - fromCol;
+      Arrays.fill(dest, offset + firstCol, offset + lastCol + 1, value);
+    }
+  }
+
+  @Override
+  double sum(int fromRow, int fromCol, int toRow, int toCol) {
+    long rows = (long) Math.min(toRow, this.toRow) - Math.max(fromRow, this.fromRow) + 1;
+    long cols = (long) Math.min(toCol, this.toCol) - Math.max(fromCol, this.fromCol) + 1;
+    return rows > 0 && cols > 0 ? value * rows * cols : 0.0;
+  }
+
+  @Override
+  boolean sameValues(ValueRegion other) {
+    return other instanceof ConstantRegion
+            && Double.compare(value, ((ConstantRegion) other).value) == 0;
+  }
+
+  @Override
+  void writeTo(SpreadSheet sheet) {
+    sheet.fill(fromRow, fromCol, toRow, toCol, value);
+  }
+}
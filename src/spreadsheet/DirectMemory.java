@@ -0,0 +1,65 @@
+package spreadsheet;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Allocates direct buffers and keeps count of the off-heap memory behind them. Java offers no
+ * way to free a direct buffer on demand: its memory is returned once the garbage collector
+ * finds the buffer unreachable. A buffer is therefore counted from its allocation until it
+ * has been collected, whether or not its owner still uses it.
+ */
+final class DirectMemory {
+  private static final int MIN_PRUNE = 16;
+
+  private final List<WeakReference<ByteBuffer>> buffers;
+  private int pruneAt;
+
+  /**
+   * Create an allocator that has not allocated anything yet.
+   */
+  DirectMemory() {
+    this.buffers = new ArrayList<WeakReference<ByteBuffer>>();
+    this.pruneAt = MIN_PRUNE;
+  }
+
+  /**
+   * Allocate a direct buffer in the native byte order.
+   *
+   * @param bytes the size of the buffer
+   * @return the new buffer, filled with zeros
+   */
+  ByteBuffer allocate(int bytes) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    if (buffers.size() >= pruneAt) {
+      // Forget collected buffers now and then, so the list follows the live ones.
+      bytes();
+      pruneAt = Math.max(MIN_PRUNE, 2 * buffers.size());
+    }
+    buffers.add(new WeakReference<ByteBuffer>(buffer));
+    return buffer;
+  }
+
+  /**
+   * Return the number of bytes of the buffers allocated here that have not been collected.
+   *
+   * @return the off-heap bytes not yet returned
+   */
+  long bytes() {
+    long bytes = 0;
+    Iterator<WeakReference<ByteBuffer>> it = buffers.iterator();
+    while (it.hasNext()) {
+      ByteBuffer buffer = it.next().get();
+      if (buffer == null) {
+        it.remove();
+      } else {
+        bytes += buffer.capacity();
+      }
+    }
+    return bytes;
+  }
+}
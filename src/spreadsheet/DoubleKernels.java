@@ -0,0 +1,153 @@
+package spreadsheet;
+
+/**
+ * Bulk loops over runs of primitive cell values, shared by the backends that keep cells in
+ * dense arrays.
+ *
+ * <p>When the classes are run from the multi-release jar on Java 17 or later with the
+ * {@code jdk.incubator.vector} module added ({@code --add-modules jdk.incubator.vector}),
+ * the loops are handed to {@code VectorKernels}, which is built from {@code src/java17}
+ * against the Vector API. Otherwise the scalar loops below are used. Both fill a
+ * progression with exactly the same values.
+ *
+ * <p>The scalar sum keeps four independent partial results so that consecutive additions
+ * do not wait on each other, and the vector sum keeps one per lane. Either changes the order
+ * in which values are added, so a sum may differ from a strictly left-to-right one in the
+ * last bits.
+ */
+final class DoubleKernels {
+  /**
+   * The Vector API kernels, or null if they cannot be loaded in this runtime.
+   */
+  private static final Kernels VECTOR = loadVectorKernels();
+
+  private DoubleKernels() {
+  }
+
+  /**
+   * Return whether the loops run on the Vector API kernels.
+   *
+   * @return true if the Vector API kernels are in use
+   */
+  static boolean isVectorized() {
+    return VECTOR != null;
+  }
+
+  /**
+   * Set a run of an array to an arithmetic progression. The element at index
+   * {@code from + i} is set to {@code startValue + (firstStep + i) * increment}, which is
+   * exactly what {@link SpreadSheet#fillProgression} stores for the cell at offset
+   * {@code firstStep + i} of its range.
+   *
+   * @param values     the array
+   * @param from       the first index (inclusive)
+   * @param to         the last index (exclusive)
+   * @param startValue the value at step 0 of the progression
+   * @param firstStep  the step of the progression at the first index
+   * @param increment  the difference between consecutive steps
+   */
+  static void fillProgression(double[] values, int from, int to, double startValue,
+                              long firstStep, double increment) {
+    if (VECTOR != null) {
+      VECTOR.fillProgression(values, from, to, startValue, firstStep, increment);
+      return;
+    }
+    // Steps stay exact as doubles, so this matches converting each long step one at a time.
+    double step = firstStep;
+    for (int i = from; i < to; i++) {
+      values[i] = startValue + (step + (i - from)) * increment;
+    }
+  }
+
+  /**
+   * Return the sum of a run of an array.
+   *
+   * @param values the array
+   * @param from   the first index (inclusive)
+   * @param to     the last index (exclusive)
+   * @return the sum of the run
+   */
+  static double sum(double[] values, int from, int to) {
+    if (VECTOR != null) {
+      return VECTOR.sum(values, from, to);
+    }
+    double sum0 = 0.0;
+    double sum1 = 0.0;
+    double sum2 = 0.0;
+    double sum3 = 0.0;
+    int i = from;
+    for (; i + 3 < to; i += 4) {
+      sum0 += values[i];
+      sum1 += values[i + 1];
+      sum2 += values[i + 2];
+      sum3 += values[i + 3];
+    }
+    for (; i < to; i++) {
+      sum0 += values[i];
+    }
+    return (sum0 + sum1) + (sum2 + sum3);
+  }
+
+  /**
+   * Return the smallest value in a run of an array.
+   *
+   * @param values the array
+   * @param from   the first index (inclusive)
+   * @param to     the last index (exclusive)
+   * @return the smallest value, or positive infinity if the run is empty
+   */
+  static double min(double[] values, int from, int to) {
+    if (VECTOR != null) {
+      return VECTOR.min(values, from, to);
+    }
+    double min = Double.POSITIVE_INFINITY;
+    for (int i = from; i < to; i++) {
+      min = Math.min(min, values[i]);
+    }
+    return min;
+  }
+
+  /**
+   * Return the largest value in a run of an array.
+   *
+   * @param values the array
+   * @param from   the first index (inclusive)
+   * @param to     the last index (exclusive)
+   * @return the largest value, or negative infinity if the run is empty
+   */
+  static double max(double[] values, int from, int to) {
+    if (VECTOR != null) {
+      return VECTOR.max(values, from, to);
+    }
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = from; i < to; i++) {
+      max = Math.max(max, values[i]);
+    }
+    return max;
+  }
+
+  private static Kernels loadVectorKernels() {
+    try {
+      return (Kernels) Class.forName("spreadsheet.VectorKernels").getDeclaredConstructor()
+              .newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // Not running from the multi-release jar, or the incubator module was not added.
+      return null;
+    }
+  }
+
+  /**
+   * The loops of this class, for an implementation that the runtime may not be able to
+   * load. Each method does what the static method of the same name does.
+   */
+  interface Kernels {
+    void fillProgression(double[] values, int from, int to, double startValue,
+                         long firstStep, double increment);
+
+    double sum(double[] values, int from, int to);
+
+    double min(double[] values, int from, int to);
+
+    double max(double[] values, int from, int to);
+  }
+}
@@ -0,0 +1,338 @@
+package spreadsheet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class represents a spreadsheet whose contents survive the program that wrote them.
+ * Every write is applied to a wrapped in-memory sheet and appended to a write-ahead log in
+ * a directory; writes that cover a range, such as the ones made by
+ * {@link BulkAssignMacro} and {@link RangeAssignMacro}, take a single record.
+ *
+ * <p>Records are committed in groups: a write returns once it is on disk, and writes from
+ * several threads that wait at the same time share one force. While a macro runs through a
+ * {@link SpreadSheetWithMacroImpl} that wraps this sheet, its writes only wait once enough
+ * of them have built up, and the rest are committed together when it finishes. Once the log
+ * grows past the checkpoint size, the whole sheet is saved as a {@link SheetFile} that
+ * atomically replaces the previous checkpoint and the log is emptied. Opening a directory
+ * loads the checkpoint and replays the log written after it, so recovery never reads more
+ * than one checkpoint interval of history.
+ */
+public class DurableSpreadSheet implements MacroAwareSpreadSheet, Closeable {
+  /**
+   * The default number of bytes of log records a macro writes before they are committed.
+   */
+  public static final int DEFAULT_GROUP_BYTES = 1 << 20;
+
+  /**
+   * The default size the log reaches before the sheet is checkpointed.
+   */
+  public static final long DEFAULT_CHECKPOINT_BYTES = 64L << 20;
+
+  static final String LOG_FILE = "sheet.wal";
+  static final String CHECKPOINT_FILE = "sheet.checkpoint";
+
+  private final SpreadSheet sheet;
+  private final Path directory;
+  private final int groupBytes;
+  private final long checkpointBytes;
+  private final WriteAheadLog log;
+  private final Object lock;
+  private int macros;
+  private boolean closed;
+
+  /**
+   * Open the sheet stored in the given directory, creating the directory if needed, with
+   * the default group and checkpoint sizes.
+   *
+   * @param sheet     the sheet to hold the values in memory, must be empty
+   * @param directory the directory that holds the log and the checkpoint
+   * @throws IOException              if the directory cannot be read or written
+   * @throws IllegalArgumentException if the sheet or the directory is null
+   */
+  public DurableSpreadSheet(SpreadSheet sheet, Path directory)
+          throws IOException, IllegalArgumentException {
+    this(sheet, directory, DEFAULT_GROUP_BYTES, DEFAULT_CHECKPOINT_BYTES);
+  }
+
+  /**
+   * Open the sheet stored in the given directory, creating the directory if needed.
+   *
+   * @param sheet           the sheet to hold the values in memory, must be empty
+   * @param directory       the directory that holds the log and the checkpoint
+   * @param groupBytes      the number of bytes of log records a macro writes before they
+   *                        are committed
+   * @param checkpointBytes the size the log reaches before the sheet is checkpointed
+   * @throws IOException              if the directory cannot be read or written
+   * @throws IllegalArgumentException if the sheet or the directory is null, or if either
+   *                                  size is not positive
+   */
+  public DurableSpreadSheet(SpreadSheet sheet, Path directory, int groupBytes,
+                            long checkpointBytes) throws IOException, IllegalArgumentException {
+    if (sheet == null) {
+      throw new IllegalArgumentException("Sheet cannot be null");
+    }
+    if (directory == null) {
+      throw new IllegalArgumentException("Directory cannot be null");
+    }
+    if (groupBytes <= 0 || checkpointBytes <= 0) {
+      throw new IllegalArgumentException("Group and checkpoint sizes must be positive");
+    }
+    this.sheet = sheet;
+    this.directory = directory;
+    this.groupBytes = groupBytes;
+    this.checkpointBytes = checkpointBytes;
+    this.lock = new Object();
+    Files.createDirectories(directory);
+    Files.deleteIfExists(directory.resolve(CHECKPOINT_FILE + ".tmp"));
+    Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+    if (Files.exists(checkpoint)) {
+      SheetFile.load(checkpoint, sheet);
+    }
+    this.log = new WriteAheadLog(directory.resolve(LOG_FILE), sheet);
+    this.macros = 0;
+    this.closed = false;
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    return sheet.get(row, col);
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    synchronized (lock) {
+      ensureOpen();
+      sheet.set(row, col, value);
+      log.set(row, col, value);
+    }
+    logged();
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    return sheet.isEmpty(row, col);
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    synchronized (lock) {
+      ensureOpen();
+      sheet.clear(row, col);
+      log.clear(row, col);
+    }
+    logged();
+  }
+
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    synchronized (lock) {
+      ensureOpen();
+      sheet.fill(fromRow, fromCol, toRow, toCol, value);
+      log.fill(fromRow, fromCol, toRow, toCol, value);
+    }
+    logged();
+  }
+
+  @Override
+  public void fillProgression(int fromRow, int fromCol, int toRow, int toCol,
+                              double startValue, double increment)
+          throws IllegalArgumentException {
+    synchronized (lock) {
+      ensureOpen();
+      sheet.fillProgression(fromRow, fromCol, toRow, toCol, startValue, increment);
+      log.fillProgression(fromRow, fromCol, toRow, toCol, startValue, increment);
+    }
+    logged();
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    sheet.readRange(fromRow, fromCol, toRow, toCol, dest);
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    synchronized (lock) {
+      ensureOpen();
+      sheet.writeRange(fromRow, fromCol, toRow, toCol, src);
+      log.writeRange(fromRow, fromCol, toRow, toCol, src);
+    }
+    logged();
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    synchronized (lock) {
+      ensureOpen();
+      sheet.clearRange(fromRow, fromCol, toRow, toCol);
+      log.clearRange(fromRow, fromCol, toRow, toCol);
+    }
+    logged();
+  }
+
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    sheet.forEachNonEmpty(fromRow, fromCol, toRow, toCol, visitor);
+  }
+
+  @Override
+  public double sumRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return sheet.sumRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public double minRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return sheet.minRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public double maxRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return sheet.maxRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public int getWidth() {
+    return sheet.getWidth();
+  }
+
+  @Override
+  public int getHeight() {
+    return sheet.getHeight();
+  }
+
+  /**
+   * Let the writes of the macro wait to be committed until it finishes, then prepare the
+   * wrapped sheet.
+   */
+  @Override
+  public void onMacroStarted() {
+    synchronized (lock) {
+      macros++;
+    }
+    if (sheet instanceof MacroAwareSpreadSheet) {
+      ((MacroAwareSpreadSheet) sheet).onMacroStarted();
+    }
+  }
+
+  /**
+   * Settle the wrapped sheet, then force every write made so far to disk.
+   */
+  @Override
+  public void onMacroFinished() {
+    try {
+      if (sheet instanceof MacroAwareSpreadSheet) {
+        ((MacroAwareSpreadSheet) sheet).onMacroFinished();
+      }
+    } finally {
+      synchronized (lock) {
+        macros--;
+      }
+    }
+    sync();
+  }
+
+  /**
+   * Force every write made so far to disk. Writes from several threads that are waiting at
+   * the same time are committed together.
+   *
+   * @throws IllegalStateException if the sheet has been closed or the log cannot be written
+   */
+  public void sync() throws IllegalStateException {
+    synchronized (lock) {
+      ensureOpen();
+    }
+    try {
+      log.sync();
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to write log", e);
+    }
+  }
+
+  /**
+   * Write the whole sheet to a new checkpoint and empty the log.
+   *
+   * @throws IllegalStateException if the sheet has been closed or the checkpoint cannot be
+   *                               written
+   */
+  public void checkpoint() throws IllegalStateException {
+    synchronized (lock) {
+      ensureOpen();
+      try {
+        log.sync();
+        writeCheckpoint();
+        log.truncate();
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to write checkpoint", e);
+      }
+    }
+  }
+
+  /**
+   * Checkpoint the sheet and close the log, so the next time the directory is opened
+   * nothing has to be replayed. Closing an already closed sheet has no effect.
+   *
+   * @throws IOException if the log cannot be closed
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      checkpoint();
+      closed = true;
+      log.close();
+    }
+  }
+
+  /**
+   * Commit the write just logged, or checkpoint once the log has grown large enough. A write
+   * made while a macro runs is only committed here once enough of them have built up.
+   */
+  private void logged() {
+    boolean waiting;
+    synchronized (lock) {
+      waiting = macros == 0;
+    }
+    if (log.size() >= checkpointBytes) {
+      checkpoint();
+    } else if (waiting || log.pendingBytes() >= groupBytes) {
+      sync();
+    }
+  }
+
+  /**
+   * Save the sheet to a temporary file and move it over the previous checkpoint, so a crash
+   * never leaves a partial checkpoint behind. The directory is forced after the move, so the
+   * new checkpoint is in place before the log it replaces is emptied.
+   */
+  private void writeCheckpoint() throws IOException {
+    Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+    SheetFile.save(sheet, temporary, false);
+    Files.move(temporary, directory.resolve(CHECKPOINT_FILE),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    }
+  }
+
+  private void ensureOpen() throws IllegalStateException {
+    if (closed) {
+      throw new IllegalStateException("Sheet has been closed");
+    }
+  }
+}
@@ -0,0 +1,497 @@
+package spreadsheet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents a spreadsheet with a two-dimensional Fenwick tree attached, so that
+ * keeping range sums current after a single cell changes costs O(log^2) of the number of
+ * tiles and sums never need a full rebuild. Unlike a summed-area table, interleaving writes
+ * and sums does not force a rebuild, so the cost of either stays the same as the sheet grows.
+ *
+ * <p>The tree is kept over the totals of the tiles rather than over single cells, in a table
+ * keyed by node, so memory follows the occupied tiles rather than the bounding box of the
+ * sheet, and it grows by doubling when a cell lands past its edge. A range sum takes the
+ * tiles wholly inside the range from the tree and sums the cells of the partly covered tiles
+ * along its edges directly. Tile totals and tree nodes are kept as a high part and the
+ * rounding error it leaves behind, so a large value does not absorb the small values summed
+ * alongside it or left behind once it is removed.
+ *
+ * <p>A range write large enough that updating its cells one by one would cost more than
+ * counting them again marks its tiles stale instead, and the next sum recounts the total of
+ * each stale tile from its cells.
+ */
+public class FenwickSpreadSheet implements SnapshottableSpreadSheet {
+  /**
+   * The number of cells whose updates cost about as much as recounting a tile; larger range
+   * writes mark their tiles stale instead.
+   */
+  private static final int UPDATE_LIMIT =
+          Tile.SIZE * Tile.SIZE / ((Tile.SHIFT + 1) * (Tile.SHIFT + 1));
+
+  private final SpreadSheet sheet;
+  private final LongObjectMap<TileSum> tiles;
+  private final List<TileSum> stale;
+  private final LongDoubleMap nodes;
+  private final LongDoubleMap errors;
+  private int treeRows;
+  private int treeCols;
+  private int rebuilds;
+
+  /**
+   * Attach a Fenwick tree to the given sheet. The sheet must not be written to other than
+   * through this object, or the tree goes stale.
+   *
+   * @param sheet the sheet to index, must be empty
+   * @throws IllegalArgumentException if the sheet is null
+   */
+  public FenwickSpreadSheet(SpreadSheet sheet) throws IllegalArgumentException {
+    if (sheet == null) {
+      throw new IllegalArgumentException("Sheet cannot be null");
+    }
+    this.sheet = sheet;
+    this.tiles = new LongObjectMap<TileSum>();
+    this.stale = new ArrayList<TileSum>();
+    this.nodes = new LongDoubleMap();
+    this.errors = new LongDoubleMap();
+    this.treeRows = 1;
+    this.treeCols = 1;
+    this.rebuilds = 0;
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    return sheet.get(row, col);
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    boolean added = sheet.isEmpty(row, col);
+    double old = sheet.get(row, col);
+    sheet.set(row, col, value);
+    changed(row, col, old, value, added ? 1 : 0);
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    return sheet.isEmpty(row, col);
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if (sheet.isEmpty(row, col)) {
+      return;
+    }
+    double old = sheet.get(row, col);
+    sheet.clear(row, col);
+    changed(row, col, old, 0.0, -1);
+  }
+
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    Cells before = record(fromRow, fromCol, toRow, toCol);
+    sheet.fill(fromRow, fromCol, toRow, toCol, value);
+    written(fromRow, fromCol, toRow, toCol, before);
+  }
+
+  @Override
+  public void fillProgression(int fromRow, int fromCol, int toRow, int toCol,
+                              double startValue, double increment)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    Cells before = record(fromRow, fromCol, toRow, toCol);
+    sheet.fillProgression(fromRow, fromCol, toRow, toCol, startValue, increment);
+    written(fromRow, fromCol, toRow, toCol, before);
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    sheet.readRange(fromRow, fromCol, toRow, toCol, dest);
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, src);
+    Cells before = record(fromRow, fromCol, toRow, toCol);
+    sheet.writeRange(fromRow, fromCol, toRow, toCol, src);
+    written(fromRow, fromCol, toRow, toCol, before);
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    Cells before = record(fromRow, fromCol, toRow, toCol);
+    sheet.clearRange(fromRow, fromCol, toRow, toCol);
+    if (before != null) {
+      written(fromRow, fromCol, toRow, toCol, before);
+      return;
+    }
+    // Only tiles that hold cells can lose any, so there is no need to visit the others.
+    for (long key : tiles.keysWithin(Tile.tileOf(fromRow), Tile.tileOf(fromCol),
+            Tile.tileOf(toRow), Tile.tileOf(toCol))) {
+      markStale(key);
+    }
+  }
+
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    sheet.forEachNonEmpty(fromRow, fromCol, toRow, toCol, visitor);
+  }
+
+  /**
+   * Return the sum of the values in the given range: the tiles wholly inside it from the
+   * tree, the cells of the tiles it covers in part directly. Any tile a large write has left
+   * stale is recounted first.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @return the sum of the values in the range
+   * @throws IllegalArgumentException if any index is negative or the range is invalid
+   */
+  @Override
+  public double sumRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    for (TileSum tile : stale) {
+      recount(tile);
+    }
+    stale.clear();
+    double[] total = new double[2];
+    // The tiles wholly inside the range; a range ending at Integer.MAX_VALUE ends a tile.
+    int firstRow = Tile.tileOf(fromRow) + ((fromRow & Tile.MASK) == 0 ? 0 : 1);
+    int lastRow = Tile.tileOf(toRow) - ((toRow & Tile.MASK) == Tile.MASK ? 0 : 1);
+    int firstCol = Tile.tileOf(fromCol) + ((fromCol & Tile.MASK) == 0 ? 0 : 1);
+    int lastCol = Tile.tileOf(toCol) - ((toCol & Tile.MASK) == Tile.MASK ? 0 : 1);
+    if (firstRow > lastRow || firstCol > lastCol) {
+      sumCells(fromRow, fromCol, toRow, toCol, total);
+      return total[0] + total[1];
+    }
+    prefix(lastRow + 1, lastCol + 1, 1.0, total);
+    prefix(firstRow, lastCol + 1, -1.0, total);
+    prefix(lastRow + 1, firstCol, -1.0, total);
+    prefix(firstRow, firstCol, 1.0, total);
+    int top = firstRow << Tile.SHIFT;
+    int bottom = (lastRow << Tile.SHIFT) | Tile.MASK;
+    int left = firstCol << Tile.SHIFT;
+    int right = (lastCol << Tile.SHIFT) | Tile.MASK;
+    if (fromRow < top) {
+      sumCells(fromRow, fromCol, top - 1, toCol, total);
+    }
+    if (toRow > bottom) {
+      sumCells(bottom + 1, fromCol, toRow, toCol, total);
+    }
+    if (fromCol < left) {
+      sumCells(top, fromCol, bottom, left - 1, total);
+    }
+    if (toCol > right) {
+      sumCells(top, right + 1, bottom, toCol, total);
+    }
+    return total[0] + total[1];
+  }
+
+  @Override
+  public double minRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return sheet.minRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public double maxRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return sheet.maxRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public int getWidth() {
+    return sheet.getWidth();
+  }
+
+  @Override
+  public int getHeight() {
+    return sheet.getHeight();
+  }
+
+  /**
+   * Return a read-only snapshot of the wrapped sheet, which sums its ranges without the
+   * tree.
+   *
+   * @return a read-only snapshot of this spreadsheet
+   */
+  @Override
+  public SpreadSheet snapshot() {
+    return TiledSpreadSheet.snapshotOf(sheet);
+  }
+
+  /**
+   * Return how many times the total of a tile has been recounted from the cells of the
+   * sheet.
+   *
+   * @return the number of tile recounts so far
+   */
+  public int getRebuildCount() {
+    return rebuilds;
+  }
+
+  /**
+   * Bring the total of a tile and the tree up to date after one of its cells changed.
+   *
+   * @param added 1 if the cell was empty before and not after, -1 for the opposite, else 0
+   */
+  private void changed(int row, int col, double old, double value, int added) {
+    long key = LongDoubleMap.key(Tile.tileOf(row), Tile.tileOf(col));
+    TileSum tile = tiles.get(key);
+    if (tile == null) {
+      if (added <= 0) {
+        return;
+      }
+      tile = new TileSum(key);
+      tiles.put(key, tile);
+    }
+    if (tile.stale) {
+      return;
+    }
+    tile.cells += added;
+    if (tile.cells == 0) {
+      // Take out whatever the tile added, rounding included.
+      update(key, -tile.total, -tile.error);
+      tiles.remove(key);
+      return;
+    }
+    double delta = value - old;
+    double error = Compensated.error(value, -old, delta);
+    tile.add(delta, error);
+    update(key, delta, error);
+  }
+
+  /**
+   * Count the cells and total of a stale tile again and bring the tree up to date with the
+   * difference. A tile left without cells is dropped.
+   */
+  private void recount(TileSum tile) {
+    int baseRow = LongDoubleMap.rowOf(tile.key) << Tile.SHIFT;
+    int baseCol = LongDoubleMap.colOf(tile.key) << Tile.SHIFT;
+    TileSum counted = new TileSum(tile.key);
+    sheet.forEachNonEmpty(baseRow, baseCol, baseRow | Tile.MASK, baseCol | Tile.MASK,
+        (row, col, value) -> {
+          counted.cells++;
+          counted.add(value, 0.0);
+        });
+    double delta = counted.total - tile.total;
+    double error = Compensated.error(counted.total, -tile.total, delta) + counted.error
+            - tile.error;
+    update(tile.key, delta, error);
+    rebuilds++;
+    if (counted.cells == 0) {
+      tiles.remove(tile.key);
+    } else {
+      tiles.put(tile.key, counted);
+    }
+  }
+
+  private void markStale(long key) {
+    TileSum tile = tiles.get(key);
+    if (tile == null) {
+      tile = new TileSum(key);
+      tiles.put(key, tile);
+    }
+    if (!tile.stale) {
+      tile.stale = true;
+      stale.add(tile);
+    }
+  }
+
+  /**
+   * Add the given change, a high part and its rounding error, to the nodes of the tree that
+   * cover the given tile, growing the tree first if the tile lies past its edge.
+   */
+  private void update(long key, double delta, double error) {
+    int row = LongDoubleMap.rowOf(key) + 1;
+    int col = LongDoubleMap.colOf(key) + 1;
+    while (row > treeRows) {
+      growRows();
+    }
+    while (col > treeCols) {
+      growCols();
+    }
+    for (int i = row; i <= treeRows; i += i & -i) {
+      for (int j = col; j <= treeCols; j += j & -j) {
+        long node = LongDoubleMap.key(i, j);
+        double value = nodes.get(node, 0.0);
+        double sum = value + delta;
+        double sumError = Compensated.error(value, delta, sum) + errors.get(node, 0.0) + error;
+        double normal = sum + sumError;
+        double low = Compensated.low(sum, sumError, normal);
+        if (normal == 0.0 && low == 0.0) {
+          nodes.remove(node);
+          errors.remove(node);
+        } else {
+          nodes.put(node, normal);
+          errors.put(node, low);
+        }
+      }
+    }
+  }
+
+  /**
+   * Double the number of tile rows the tree covers. The new last row of nodes covers every
+   * row, the old ones included, so it starts as a copy of the old last row; the nodes in
+   * between only cover rows that have no tiles yet.
+   */
+  private void growRows() {
+    int last = treeRows;
+    LongDoubleMap copied = new LongDoubleMap();
+    nodes.forEach((node, value) -> {
+      if (LongDoubleMap.rowOf(node) == last) {
+        copied.put(node, value);
+      }
+    });
+    copied.forEach((node, value) -> {
+      long grown = LongDoubleMap.key(2 * last, LongDoubleMap.colOf(node));
+      nodes.put(grown, value);
+      errors.put(grown, errors.get(node, 0.0));
+    });
+    treeRows = 2 * last;
+  }
+
+  /**
+   * Double the number of tile columns the tree covers, in the same way as the rows.
+   */
+  private void growCols() {
+    int last = treeCols;
+    LongDoubleMap copied = new LongDoubleMap();
+    nodes.forEach((node, value) -> {
+      if (LongDoubleMap.colOf(node) == last) {
+        copied.put(node, value);
+      }
+    });
+    copied.forEach((node, value) -> {
+      long grown = LongDoubleMap.key(LongDoubleMap.rowOf(node), 2 * last);
+      nodes.put(grown, value);
+      errors.put(grown, errors.get(node, 0.0));
+    });
+    treeCols = 2 * last;
+  }
+
+  /**
+   * Add the total of the tiles in the given number of leading tile rows and columns, times
+   * the given sign, to a running total held as a high part and its rounding error.
+   */
+  private void prefix(int rowCount, int colCount, double sign, double[] total) {
+    for (int i = Math.min(rowCount, treeRows); i > 0; i -= i & -i) {
+      for (int j = Math.min(colCount, treeCols); j > 0; j -= j & -j) {
+        long node = LongDoubleMap.key(i, j);
+        add(total, sign * nodes.get(node, 0.0), sign * errors.get(node, 0.0));
+      }
+    }
+  }
+
+  /**
+   * Add the sum of the cells in the given range to a running total, reading only the tiles
+   * that hold cells.
+   */
+  private void sumCells(int fromRow, int fromCol, int toRow, int toCol, double[] total) {
+    for (long key : tiles.keysWithin(Tile.tileOf(fromRow), Tile.tileOf(fromCol),
+            Tile.tileOf(toRow), Tile.tileOf(toCol))) {
+      int baseRow = LongDoubleMap.rowOf(key) << Tile.SHIFT;
+      int baseCol = LongDoubleMap.colOf(key) << Tile.SHIFT;
+      add(total, sheet.sumRange(Math.max(fromRow, baseRow), Math.max(fromCol, baseCol),
+              Math.min(toRow, baseRow | Tile.MASK), Math.min(toCol, baseCol | Tile.MASK)),
+              0.0);
+    }
+  }
+
+  private static void add(double[] total, double value, double error) {
+    double sum = total[0] + value;
+    total[1] += Compensated.error(total[0], value, sum) + error;
+    total[0] = sum;
+  }
+
+  /**
+   * Record the cells of a range about to be written, or return null if the range is too
+   * large to update cell by cell.
+   */
+  private Cells record(int fromRow, int fromCol, int toRow, int toCol) {
+    if (Ranges.area(fromRow, fromCol, toRow, toCol) > UPDATE_LIMIT) {
+      return null;
+    }
+    Cells cells = new Cells(fromRow, fromCol, toRow, toCol);
+    sheet.readRange(fromRow, fromCol, toRow, toCol, cells.values);
+    int i = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++, i++) {
+        cells.present[i] = !sheet.isEmpty(row, col);
+      }
+    }
+    return cells;
+  }
+
+  /**
+   * Bring the tree up to date after a range was written, cell by cell from the cells
+   * recorded before the write, or by marking every tile of the range stale.
+   */
+  private void written(int fromRow, int fromCol, int toRow, int toCol, Cells before) {
+    if (before == null) {
+      for (int tileRow = Tile.tileOf(fromRow); tileRow <= Tile.tileOf(toRow); tileRow++) {
+        for (int tileCol = Tile.tileOf(fromCol); tileCol <= Tile.tileOf(toCol); tileCol++) {
+          markStale(LongDoubleMap.key(tileRow, tileCol));
+        }
+      }
+      return;
+    }
+    Cells after = record(fromRow, fromCol, toRow, toCol);
+    int i = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++, i++) {
+        int added = (after.present[i] ? 1 : 0) - (before.present[i] ? 1 : 0);
+        if (added != 0 || after.values[i] != before.values[i]) {
+          changed(row, col, before.values[i], after.values[i], added);
+        }
+      }
+    }
+  }
+
+  /**
+   * The values and presence of the cells of a small range at one point in time.
+   */
+  private static final class Cells {
+    private final double[] values;
+    private final boolean[] present;
+
+    private Cells(int fromRow, int fromCol, int toRow, int toCol) {
+      int area = (int) Ranges.area(fromRow, fromCol, toRow, toCol);
+      this.values = new double[area];
+      this.present = new boolean[area];
+    }
+  }
+
+  /**
+   * The number of cells a tile holds and their total, kept as a high part and its rounding
+   * error.
+   */
+  private static final class TileSum {
+    private final long key;
+    private int cells;
+    private double total;
+    private double error;
+    private boolean stale;
+
+    private TileSum(long key) {
+      this.key = key;
+    }
+
+    private void add(double value, double valueError) {
+      double sum = total + value;
+      double sumError = Compensated.error(total, value, sum) + error + valueError;
+      total = sum + sumError;
+      error = Compensated.low(sum, sumError, total);
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package spreadsheet;
+
+/**
+ * A macro that knows which cells it reads or writes. Code that runs macros in the
+ * background uses this to let other work on the sheet go ahead as long as it stays clear of
+ * the cells of the macros still pending.
+ */
+interface FootprintMacro extends SpreadSheetMacro {
+  /**
+   * Return whether this macro reads or writes any cell of the given range.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @return true if running this macro may touch a cell of the range
+   */
+  boolean touches(int fromRow, int fromCol, int toRow, int toCol);
+}
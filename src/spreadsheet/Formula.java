@@ -0,0 +1,151 @@
+package spreadsheet;
+
+/**
+ * A formula that aggregates a rectangular range of cells, such as the sum or the average of
+ * the range. As with {@link AverageMacro}, every cell of the range counts and empty cells
+ * count as 0. Formulas are immutable.
+ */
+public final class Formula {
+
+  /**
+   * A function that a formula applies to its range.
+   */
+  public enum Function {
+    /** The sum of the values in the range. */
+    SUM,
+    /** The arithmetic mean of the values in the range. */
+    AVERAGE
+  }
+
+  private final Function function;
+  private final int fromRow;
+  private final int fromCol;
+  private final int toRow;
+  private final int toCol;
+
+  /**
+   * Construct a new formula that applies the given function to the given range.
+   *
+   * @param function the function to apply
+   * @param fromRow  the starting row (inclusive)
+   * @param fromCol  the starting column (inclusive)
+   * @param toRow    the ending row (inclusive)
+   * @param toCol    the ending column (inclusive)
+   * @throws IllegalArgumentException if the function is null, if any indices are negative
+   *                                  or if the range is invalid
+   */
+  public Formula(Function function, int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    if (function == null) {
+      throw new IllegalArgumentException("Function cannot be null");
+    }
+    if (fromRow < 0 || fromCol < 0 || toRow < 0 || toCol < 0) {
+      throw new IllegalArgumentException("Row and column indices cannot be negative");
+    }
+    if (fromRow > toRow || fromCol > toCol) {
+      throw new IllegalArgumentException("Invalid range: starting indices must "
+              + "be <= ending indices");
+    }
+    this.function = function;
+    this.fromRow = fromRow;
+    this.fromCol = fromCol;
+    this.toRow = toRow;
+    this.toCol = toCol;
+  }
+
+  /**
+   * Return the function this formula applies.
+   *
+   * @return the function
+   */
+  public Function getFunction() {
+    return function;
+  }
+
+  /**
+   * Return the first row of the range of this formula.
+   *
+   * @return the starting row (inclusive)
+   */
+  public int getFromRow() {
+    return fromRow;
+  }
+
+  /**
+   * Return the first column of the range of this formula.
+   *
+   * @return the starting column (inclusive)
+   */
+  public int getFromCol() {
+    return fromCol;
+  }
+
+  /**
+   * Return the last row of the range of this formula.
+   *
+   * @return the ending row (inclusive)
+   */
+  public int getToRow() {
+    return toRow;
+  }
+
+  /**
+   * Return the last column of the range of this formula.
+   *
+   * @return the ending column (inclusive)
+   */
+  public int getToCol() {
+    return toCol;
+  }
+
+  /**
+   * Return whether the given cell lies inside the range of this formula.
+   *
+   * @param row the row of the cell
+   * @param col the column of the cell
+   * @return true if the formula depends on the cell
+   */
+  boolean contains(int row, int col) {
+    return row >= fromRow && row <= toRow && col >= fromCol && col <= toCol;
+  }
+
+  /**
+   * Return whether the range of this formula shares a cell with the given range.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @return true if the two overlap
+   */
+  boolean overlaps(int fromRow, int fromCol, int toRow, int toCol) {
+    return Ranges.overlap(this.fromRow, this.fromCol, this.toRow, this.toCol,
+            fromRow, fromCol, toRow, toCol);
+  }
+
+  /**
+   * Return the number of cells in the range of this formula.
+   *
+   * @return the area of the range
+   */
+  long area() {
+    return (long) (toRow - fromRow + 1) * (toCol - fromCol + 1);
+  }
+
+  /**
+   * Return the value of this formula given the sum of its range.
+   *
+   * @param sum the sum of the values in the range
+   * @return the value of the formula
+   */
+  double evaluate(double sum) {
+    switch (function) {
+      case SUM:
+        return sum;
+      case AVERAGE:
+        return sum / area();
+      default:
+        throw new IllegalArgumentException("Unknown function: " + function);
+    }
+  }
+}
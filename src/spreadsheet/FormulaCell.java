@@ -0,0 +1,96 @@
+package spreadsheet;
+
+import java.util.List;
+
+/**
+ * A cell of a {@link FormulaSpreadSheet} that holds a formula, together with the running
+ * sum of its range and the bookkeeping used while it waits to be recalculated.
+ */
+final class FormulaCell {
+  /**
+   * A running sum is trusted while its magnitude stays above this fraction of the largest
+   * magnitude that went into it; below that, cancellation may have lost most of its digits.
+   */
+  private static final double CANCELLATION = 0x1p-20;
+
+  final int row;
+  final int col;
+  final Formula formula;
+
+  /**
+   * The sum of the values stored in the range of the formula, kept up to date as they change.
+   */
+  double sum;
+
+  /**
+   * The largest magnitude the running sum, or a value added to or taken from it, has had since
+   * the range was last summed.
+   */
+  double peak;
+
+  /**
+   * The sum over the part of the range being written, while a range write is in progress.
+   */
+  double before;
+
+  /**
+   * The value computed for the formula during a recalculation, before it is stored.
+   */
+  double value;
+
+  /**
+   * Whether the formula is waiting to be recalculated because a cell in its range changed.
+   */
+  boolean dirty;
+
+  /**
+   * Whether the running sum can no longer be trusted and the range must be summed again.
+   */
+  boolean rescan;
+
+  /**
+   * A stamp that marks the cell as seen during a search of the dependency index.
+   */
+  int visited;
+
+  /**
+   * While a recalculation is being planned, the number of formulas this one depends on that
+   * have not been placed in a level yet; -1 outside of planning.
+   */
+  int pending;
+
+  /**
+   * While a recalculation is being planned, the formulas that depend on this one.
+   */
+  List<FormulaCell> dependents;
+
+  /**
+   * Create a cell holding the given formula.
+   *
+   * @param row     the row of the cell
+   * @param col     the column of the cell
+   * @param formula the formula
+   */
+  FormulaCell(int row, int col, Formula formula) {
+    this.row = row;
+    this.col = col;
+    this.formula = formula;
+    this.pending = -1;
+  }
+
+  /**
+   * Adjust the running sum by the change from one value to another.
+   *
+   * @param old   the value before the change
+   * @param value the value after the change
+   * @return whether the running sum can still be trusted, false if the range must be summed
+   *         again
+   */
+  boolean adjust(double old, double value) {
+    sum += value - old;
+    peak = Math.max(peak, Math.max(Math.abs(old), Math.abs(value)));
+    peak = Math.max(peak, Math.abs(sum));
+    return Double.isFinite(old) && Double.isFinite(value) && Double.isFinite(sum)
+            && Math.abs(sum) >= peak * CANCELLATION;
+  }
+}
@@ -0,0 +1,544 @@
+package spreadsheet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents a spreadsheet in which cells can hold live formulas, such as the
+ * sum or the average of a range, whose values follow the cells they depend on. The value of
+ * a formula cell is stored in the wrapped sheet like any other value, so every read sees
+ * it; writing a plain value into a formula cell replaces the formula.
+ *
+ * <p>Each formula keeps a running sum of its range. A dependency index maps areas of the
+ * sheet to the formulas whose ranges cover them, so writing a cell only visits the formulas
+ * that depend on it: their running sums are adjusted by the change in value and they are
+ * marked dirty. Nothing is recomputed until a formula cell is read or {@link #recalculate()}
+ * is called; then a {@link RecalculationEngine} recomputes the dirty formulas and the
+ * formulas that depend on them, level by level, each from its running sum. A range is only
+ * rescanned when a write covers most of it, leaves a value that is not finite, or cancels
+ * the running sum down to a tiny fraction of the largest magnitude that went into it.
+ */
+public class FormulaSpreadSheet implements MacroAwareSpreadSheet {
+  /**
+   * The dependency index divides the sheet into square buckets of this many rows and
+   * columns.
+   */
+  private static final int BUCKET_SHIFT = 6;
+
+  /**
+   * Formulas whose range spans more buckets than this are kept in a separate list that
+   * every write checks, instead of being entered in each bucket.
+   */
+  private static final long MAX_BUCKETS = 1024;
+
+  private final SpreadSheet sheet;
+  private final LongObjectMap<FormulaCell> formulas;
+  private final LongObjectMap<List<FormulaCell>> buckets;
+  private final List<FormulaCell> wide;
+  private final List<FormulaCell> dirty;
+  private final RecalculationEngine engine;
+  private int visit;
+  private int rescans;
+
+  /**
+   * Create a spreadsheet that stores its values in the given sheet.
+   *
+   * @param sheet the sheet to store values in, must be empty
+   * @throws IllegalArgumentException if the sheet is null
+   */
+  public FormulaSpreadSheet(SpreadSheet sheet) throws IllegalArgumentException {
+    this(sheet, new RecalculationEngine());
+  }
+
+  /**
+   * Create a spreadsheet that stores its values in the given sheet and recalculates its
+   * formulas with the given engine. An engine that evaluates in parallel needs a sheet that
+   * can be read from several threads at once.
+   *
+   * @param sheet  the sheet to store values in, must be empty
+   * @param engine the engine that recalculates formulas
+   * @throws IllegalArgumentException if the sheet or the engine is null
+   */
+  public FormulaSpreadSheet(SpreadSheet sheet, RecalculationEngine engine)
+          throws IllegalArgumentException {
+    if (sheet == null) {
+      throw new IllegalArgumentException("Sheet cannot be null");
+    }
+    if (engine == null) {
+      throw new IllegalArgumentException("Engine cannot be null");
+    }
+    this.sheet = sheet;
+    this.formulas = new LongObjectMap<FormulaCell>();
+    this.buckets = new LongObjectMap<List<FormulaCell>>();
+    this.wide = new ArrayList<FormulaCell>();
+    this.dirty = new ArrayList<FormulaCell>();
+    this.engine = engine;
+    this.visit = 0;
+    this.rescans = 0;
+  }
+
+  /**
+   * Put the given formula into the given cell, replacing whatever the cell held, and store
+   * its current value there.
+   *
+   * @param row     the row of the cell
+   * @param col     the column of the cell
+   * @param formula the formula
+   * @throws IllegalArgumentException if the row or column are negative, if the formula is
+   *                                  null, or if the formula depends on its own cell, directly
+   *                                  or through other formulas
+   */
+  public void setFormula(int row, int col, Formula formula) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (formula == null) {
+      throw new IllegalArgumentException("Formula cannot be null");
+    }
+    if (formula.contains(row, col)) {
+      throw new IllegalArgumentException("Formula cannot refer to its own cell");
+    }
+    long key = LongDoubleMap.key(row, col);
+    FormulaCell previous = formulas.get(key);
+    removeFormula(key);
+    add(new FormulaCell(row, col, formula));
+    try {
+      recalculate();
+    } catch (IllegalStateException e) {
+      // The formula closes a cycle; the sheet was acyclic before, so putting back what the
+      // cell held makes it acyclic again.
+      removeFormula(key);
+      if (previous != null) {
+        add(new FormulaCell(row, col, previous.formula));
+      }
+      throw new IllegalArgumentException("Formula cannot refer to its own cell");
+    }
+  }
+
+  /**
+   * Prepare the wrapped sheet for a macro.
+   */
+  @Override
+  public void onMacroStarted() {
+    if (sheet instanceof MacroAwareSpreadSheet) {
+      ((MacroAwareSpreadSheet) sheet).onMacroStarted();
+    }
+  }
+
+  /**
+   * Recalculate the formulas, then settle the wrapped sheet, which then holds their values.
+   */
+  @Override
+  public void onMacroFinished() {
+    try {
+      recalculate();
+    } finally {
+      if (sheet instanceof MacroAwareSpreadSheet) {
+        ((MacroAwareSpreadSheet) sheet).onMacroFinished();
+      }
+    }
+  }
+
+  /**
+   * Recompute every dirty formula and every formula that depends on one, directly or
+   * through other formulas, and store their values. Reads do this on their own when they
+   * touch a formula cell; calling it after a batch of writes settles the sheet in one pass.
+   */
+  public void recalculate() {
+    if (dirty.isEmpty()) {
+      return;
+    }
+    List<List<FormulaCell>> levels = engine.level(dirty,
+        cell -> dependents(cell.row, cell.col));
+    for (FormulaCell cell : dirty) {
+      cell.dirty = false;
+    }
+    dirty.clear();
+    for (List<FormulaCell> level : levels) {
+      for (FormulaCell cell : level) {
+        if (cell.rescan) {
+          rescans++;
+        }
+      }
+      engine.evaluate(level, sheet);
+      for (FormulaCell cell : level) {
+        cell.rescan = false;
+        double old = sheet.get(cell.row, cell.col);
+        if (old != cell.value || sheet.isEmpty(cell.row, cell.col)) {
+          sheet.set(cell.row, cell.col, cell.value);
+          // Later levels already hold every formula this change reaches.
+          adjust(cell.row, cell.col, old, cell.value);
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the formula held by the given cell.
+   *
+   * @param row the row of the cell
+   * @param col the column of the cell
+   * @return the formula, or null if the cell holds a plain value or is empty
+   * @throws IllegalArgumentException if the row or column are negative
+   */
+  public Formula getFormula(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    FormulaCell cell = formulas.get(LongDoubleMap.key(row, col));
+    return cell == null ? null : cell.formula;
+  }
+
+  /**
+   * Return how many times the range of a formula has been summed from scratch, rather than
+   * updated from the changes written to it.
+   *
+   * @return the number of rescans so far
+   */
+  public int getRescanCount() {
+    return rescans;
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    refreshAt(row, col);
+    return sheet.get(row, col);
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    removeFormula(LongDoubleMap.key(row, col));
+    double old = sheet.get(row, col);
+    sheet.set(row, col, value);
+    changed(row, col, old, value);
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    refreshAt(row, col);
+    return sheet.isEmpty(row, col);
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    removeFormula(LongDoubleMap.key(row, col));
+    double old = sheet.get(row, col);
+    sheet.clear(row, col);
+    changed(row, col, old, 0.0);
+  }
+
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    List<FormulaCell> affected = beforeWrite(fromRow, fromCol, toRow, toCol);
+    sheet.fill(fromRow, fromCol, toRow, toCol, value);
+    afterWrite(fromRow, fromCol, toRow, toCol, affected);
+  }
+
+  @Override
+  public void fillProgression(int fromRow, int fromCol, int toRow, int toCol,
+                              double startValue, double increment)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    List<FormulaCell> affected = beforeWrite(fromRow, fromCol, toRow, toCol);
+    sheet.fillProgression(fromRow, fromCol, toRow, toCol, startValue, increment);
+    afterWrite(fromRow, fromCol, toRow, toCol, affected);
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, src);
+    List<FormulaCell> affected = beforeWrite(fromRow, fromCol, toRow, toCol);
+    sheet.writeRange(fromRow, fromCol, toRow, toCol, src);
+    afterWrite(fromRow, fromCol, toRow, toCol, affected);
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    List<FormulaCell> affected = beforeWrite(fromRow, fromCol, toRow, toCol);
+    sheet.clearRange(fromRow, fromCol, toRow, toCol);
+    afterWrite(fromRow, fromCol, toRow, toCol, affected);
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, dest);
+    refreshWithin(fromRow, fromCol, toRow, toCol);
+    sheet.readRange(fromRow, fromCol, toRow, toCol, dest);
+  }
+
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, visitor);
+    refreshWithin(fromRow, fromCol, toRow, toCol);
+    sheet.forEachNonEmpty(fromRow, fromCol, toRow, toCol, visitor);
+  }
+
+  @Override
+  public double sumRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    refreshWithin(fromRow, fromCol, toRow, toCol);
+    return sheet.sumRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public double minRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    refreshWithin(fromRow, fromCol, toRow, toCol);
+    return sheet.minRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public double maxRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    refreshWithin(fromRow, fromCol, toRow, toCol);
+    return sheet.maxRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public int getWidth() {
+    return sheet.getWidth();
+  }
+
+  @Override
+  public int getHeight() {
+    return sheet.getHeight();
+  }
+
+  /**
+   * Bring the formula in the given cell, if any, up to date.
+   */
+  private void refreshAt(int row, int col) {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (!dirty.isEmpty() && formulas.get(LongDoubleMap.key(row, col)) != null) {
+      recalculate();
+    }
+  }
+
+  /**
+   * Bring every formula in the given range up to date.
+   */
+  private void refreshWithin(int fromRow, int fromCol, int toRow, int toCol) {
+    if (!dirty.isEmpty() && formulas.keysWithin(fromRow, fromCol, toRow, toCol).length > 0) {
+      recalculate();
+    }
+  }
+
+  /**
+   * Pass a change in the value of a single cell on to the formulas that depend on it and
+   * mark them dirty.
+   */
+  private void changed(int row, int col, double old, double value) {
+    for (FormulaCell dependent : adjust(row, col, old, value)) {
+      markDirty(dependent);
+    }
+  }
+
+  /**
+   * Adjust the running sums of the formulas that depend on the given cell by the change in
+   * its value.
+   *
+   * @return the formulas that were adjusted
+   */
+  private List<FormulaCell> adjust(int row, int col, double old, double value) {
+    if (old == value) {
+      return new ArrayList<FormulaCell>();
+    }
+    List<FormulaCell> found = dependents(row, col);
+    for (FormulaCell dependent : found) {
+      if (!dependent.adjust(old, value)) {
+        dependent.rescan = true;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Prepare for a write to the given range: drop the formulas it overwrites and record the
+   * current sum of each dependent formula over the part of its range being written.
+   */
+  private List<FormulaCell> beforeWrite(int fromRow, int fromCol, int toRow, int toCol) {
+    for (long key : formulas.keysWithin(fromRow, fromCol, toRow, toCol)) {
+      removeFormula(key);
+    }
+    List<FormulaCell> affected = overlapping(fromRow, fromCol, toRow, toCol);
+    for (FormulaCell cell : affected) {
+      Formula formula = cell.formula;
+      int firstRow = Math.max(fromRow, formula.getFromRow());
+      int lastRow = Math.min(toRow, formula.getToRow());
+      int firstCol = Math.max(fromCol, formula.getFromCol());
+      int lastCol = Math.min(toCol, formula.getToCol());
+      long covered = (long) (lastRow - firstRow + 1) * (lastCol - firstCol + 1);
+      if (!cell.rescan && 2 * covered >= formula.area()) {
+        // Summing most of the range twice costs more than summing all of it once, later.
+        cell.rescan = true;
+      }
+      if (!cell.rescan) {
+        cell.before = sheet.sumRange(firstRow, firstCol, lastRow, lastCol);
+      }
+    }
+    return affected;
+  }
+
+  /**
+   * Finish a write to the given range by adjusting each dependent formula by the change in
+   * the sum of the part of its range that was written.
+   */
+  private void afterWrite(int fromRow, int fromCol, int toRow, int toCol,
+                          List<FormulaCell> affected) {
+    for (FormulaCell cell : affected) {
+      if (!cell.rescan) {
+        Formula formula = cell.formula;
+        double after = sheet.sumRange(Math.max(fromRow, formula.getFromRow()),
+                Math.max(fromCol, formula.getFromCol()), Math.min(toRow, formula.getToRow()),
+                Math.min(toCol, formula.getToCol()));
+        if (!cell.adjust(cell.before, after)) {
+          cell.rescan = true;
+        }
+      }
+      markDirty(cell);
+    }
+  }
+
+  /**
+   * Mark the given formula dirty. The formulas that depend on it are found when the sheet is
+   * recalculated.
+   */
+  private void markDirty(FormulaCell cell) {
+    if (!cell.dirty) {
+      cell.dirty = true;
+      dirty.add(cell);
+    }
+  }
+
+  /**
+   * Return the formulas whose range contains the given cell.
+   */
+  private List<FormulaCell> dependents(int row, int col) {
+    List<FormulaCell> found = new ArrayList<FormulaCell>();
+    List<FormulaCell> bucket = buckets.get(bucketKey(row, col));
+    if (bucket != null) {
+      for (FormulaCell cell : bucket) {
+        if (cell.formula.contains(row, col)) {
+          found.add(cell);
+        }
+      }
+    }
+    for (FormulaCell cell : wide) {
+      if (cell.formula.contains(row, col)) {
+        found.add(cell);
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Return the formulas whose range shares a cell with the given range, each once.
+   */
+  private List<FormulaCell> overlapping(int fromRow, int fromCol, int toRow, int toCol) {
+    List<FormulaCell> found = new ArrayList<FormulaCell>();
+    int stamp = ++visit;
+    long[] keys = buckets.keysWithin(fromRow >>> BUCKET_SHIFT, fromCol >>> BUCKET_SHIFT,
+            toRow >>> BUCKET_SHIFT, toCol >>> BUCKET_SHIFT);
+    for (long key : keys) {
+      for (FormulaCell cell : buckets.get(key)) {
+        if (cell.visited != stamp && cell.formula.overlaps(fromRow, fromCol, toRow, toCol)) {
+          cell.visited = stamp;
+          found.add(cell);
+        }
+      }
+    }
+    for (FormulaCell cell : wide) {
+      if (cell.formula.overlaps(fromRow, fromCol, toRow, toCol)) {
+        found.add(cell);
+      }
+    }
+    return found;
+  }
+
+  private void removeFormula(long key) {
+    FormulaCell cell = formulas.get(key);
+    if (cell == null) {
+      return;
+    }
+    formulas.remove(key);
+    // The stale value stays in the sheet; dependent sums already account for it.
+    if (cell.dirty) {
+      dirty.remove(cell);
+    }
+    unregister(cell);
+  }
+
+  /**
+   * Enter a new formula cell, dirty, with a range that has yet to be summed.
+   */
+  private void add(FormulaCell cell) {
+    formulas.put(LongDoubleMap.key(cell.row, cell.col), cell);
+    register(cell);
+    cell.rescan = true;
+    markDirty(cell);
+  }
+
+  private void register(FormulaCell cell) {
+    Formula formula = cell.formula;
+    int firstRow = formula.getFromRow() >>> BUCKET_SHIFT;
+    int lastRow = formula.getToRow() >>> BUCKET_SHIFT;
+    int firstCol = formula.getFromCol() >>> BUCKET_SHIFT;
+    int lastCol = formula.getToCol() >>> BUCKET_SHIFT;
+    if ((long) (lastRow - firstRow + 1) * (lastCol - firstCol + 1) > MAX_BUCKETS) {
+      wide.add(cell);
+      return;
+    }
+    for (int row = firstRow; row <= lastRow; row++) {
+      for (int col = firstCol; col <= lastCol; col++) {
+        long key = LongDoubleMap.key(row, col);
+        List<FormulaCell> bucket = buckets.get(key);
+        if (bucket == null) {
+          bucket = new ArrayList<FormulaCell>();
+          buckets.put(key, bucket);
+        }
+        bucket.add(cell);
+      }
+    }
+  }
+
+  private void unregister(FormulaCell cell) {
+    if (wide.remove(cell)) {
+      return;
+    }
+    Formula formula = cell.formula;
+    for (int row = formula.getFromRow() >>> BUCKET_SHIFT;
+         row <= formula.getToRow() >>> BUCKET_SHIFT; row++) {
+      for (int col = formula.getFromCol() >>> BUCKET_SHIFT;
+           col <= formula.getToCol() >>> BUCKET_SHIFT; col++) {
+        long key = LongDoubleMap.key(row, col);
+        List<FormulaCell> bucket = buckets.get(key);
+        bucket.remove(cell);
+        if (bucket.isEmpty()) {
+          buckets.remove(key);
+        }
+      }
+    }
+  }
+
+  private static long bucketKey(int row, int col) {
+    return LongDoubleMap.key(row >>> BUCKET_SHIFT, col >>> BUCKET_SHIFT);
+  }
+}
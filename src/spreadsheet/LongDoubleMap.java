@@ -0,0 +1,215 @@
+package spreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table that maps primitive long keys to primitive double values.
+ * It uses linear probing over two parallel arrays, so lookups and updates never allocate
+ * and never box. Keys must be non-negative; negative keys are reserved as the empty marker.
+ *
+ * <p>Cell positions are packed into a single key with {@link #key(int, int)}.
+ */
+final class LongDoubleMap {
+  private static final long EMPTY = -1L;
+  private static final int MIN_CAPACITY = 16;
+  private static final double MAX_LOAD = 0.6;
+
+  private long[] keys;
+  private double[] values;
+  private int size;
+  private int mask;
+  private int shift;
+  private int resizeAt;
+
+  /**
+   * Create an empty map.
+   */
+  LongDoubleMap() {
+    allocate(MIN_CAPACITY);
+  }
+
+  /**
+   * Pack a (row, column) pair into a single non-negative key.
+   *
+   * @param row the row, must be non-negative
+   * @param col the column, must be non-negative
+   * @return the packed key
+   */
+  static long key(int row, int col) {
+    return ((long) row << 32) | (col & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Return the row packed into the given key.
+   *
+   * @param key a key produced by {@link #key(int, int)}
+   * @return the row
+   */
+  static int rowOf(long key) {
+    return (int) (key >>> 32);
+  }
+
+  /**
+   * Return the column packed into the given key.
+   *
+   * @param key a key produced by {@link #key(int, int)}
+   * @return the column
+   */
+  static int colOf(long key) {
+    return (int) key;
+  }
+
+  /**
+   * Return the value mapped to the given key, or the default if there is none.
+   *
+   * @param key          the key
+   * @param defaultValue the value to return when the key is absent
+   * @return the mapped value or the default
+   */
+  double get(long key, double defaultValue) {
+    int slot = indexOf(key);
+    return slot < 0 ? defaultValue : values[slot];
+  }
+
+  /**
+   * Return whether the given key is present.
+   *
+   * @param key the key
+   * @return true if the key is mapped
+   */
+  boolean containsKey(long key) {
+    return indexOf(key) >= 0;
+  }
+
+  /**
+   * Map the given key to the given value, replacing any earlier value.
+   *
+   * @param key   the key, must be non-negative
+   * @param value the value
+   * @return true if the key was not present before
+   */
+  boolean put(long key, double value) {
+    int slot = slotFor(key);
+    while (keys[slot] != EMPTY) {
+      if (keys[slot] == key) {
+        values[slot] = value;
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    size++;
+    if (size > resizeAt) {
+      allocateAndRehash(keys.length << 1);
+    }
+    return true;
+  }
+
+  /**
+   * Remove the mapping for the given key, if there is one.
+   *
+   * @param key the key
+   * @return true if the key was present
+   */
+  boolean remove(long key) {
+    int slot = indexOf(key);
+    if (slot < 0) {
+      return false;
+    }
+    // Shift later entries of the probe run back so that no lookup stops at the new hole.
+    int gap = slot;
+    int next = (gap + 1) & mask;
+    while (keys[next] != EMPTY) {
+      int home = slotFor(keys[next]);
+      if (((next - home) & mask) >= ((next - gap) & mask)) {
+        keys[gap] = keys[next];
+        values[gap] = values[next];
+        gap = next;
+      }
+      next = (next + 1) & mask;
+    }
+    keys[gap] = EMPTY;
+    values[gap] = 0.0;
+    size--;
+    return true;
+  }
+
+  /**
+   * Return the number of mapped keys.
+   *
+   * @return the number of keys
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Pass every mapping in this table to the given visitor, in no particular order.
+   *
+   * @param visitor the visitor to receive each key and value
+   */
+  void forEach(EntryVisitor visitor) {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != EMPTY) {
+        visitor.visit(keys[i], values[i]);
+      }
+    }
+  }
+
+  /**
+   * A callback that receives the primitive key and value of a mapping.
+   */
+  interface EntryVisitor {
+    /**
+     * Receive one mapping.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    void visit(long key, double value);
+  }
+
+  private int indexOf(long key) {
+    int slot = slotFor(key);
+    long current;
+    while ((current = keys[slot]) != EMPTY) {
+      if (current == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private int slotFor(long key) {
+    // Fibonacci hashing spreads the packed row into the high bits used for the slot.
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    Arrays.fill(keys, EMPTY);
+    values = new double[capacity];
+    mask = capacity - 1;
+    shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    resizeAt = (int) (capacity * MAX_LOAD);
+  }
+
+  private void allocateAndRehash(int capacity) {
+    long[] oldKeys = keys;
+    double[] oldValues = values;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      long key = oldKeys[i];
+      if (key != EMPTY) {
+        int slot = slotFor(key);
+        while (keys[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,225 @@
+package spreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table that maps primitive long keys to objects. It uses the same
+ * linear-probing layout as {@link LongDoubleMap}, so lookups never allocate or box the key.
+ * Keys must be non-negative; negative keys are reserved as the empty marker.
+ *
+ * @param <V> the type of the mapped values
+ */
+final class LongObjectMap<V> {
+  private static final long EMPTY = -1L;
+  private static final int MIN_CAPACITY = 16;
+  private static final double MAX_LOAD = 0.6;
+
+  private long[] keys;
+  private Object[] values;
+  private int size;
+  private int mask;
+  private int shift;
+  private int resizeAt;
+
+  /**
+   * Create an empty map.
+   */
+  LongObjectMap() {
+    allocate(MIN_CAPACITY);
+  }
+
+  /**
+   * Create a map holding the same mappings as the given one. The values themselves are
+   * shared, not copied.
+   *
+   * @param other the map to copy
+   */
+  LongObjectMap(LongObjectMap<V> other) {
+    this.keys = other.keys.clone();
+    this.values = other.values.clone();
+    this.size = other.size;
+    this.mask = other.mask;
+    this.shift = other.shift;
+    this.resizeAt = other.resizeAt;
+  }
+
+  /**
+   * Return the value mapped to the given key, or null if there is none.
+   *
+   * @param key the key
+   * @return the mapped value or null
+   */
+  @SuppressWarnings("unchecked")
+  V get(long key) {
+    int slot = slotFor(key);
+    long current;
+    while ((current = keys[slot]) != EMPTY) {
+      if (current == key) {
+        return (V) values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return null;
+  }
+
+  /**
+   * Map the given key to the given value, replacing any earlier value.
+   *
+   * @param key   the key, must be non-negative
+   * @param value the value, must not be null
+   */
+  void put(long key, V value) {
+    int slot = slotFor(key);
+    while (keys[slot] != EMPTY) {
+      if (keys[slot] == key) {
+        values[slot] = value;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    size++;
+    if (size > resizeAt) {
+      allocateAndRehash(keys.length << 1);
+    }
+  }
+
+  /**
+   * Remove the mapping for the given key, if there is one.
+   *
+   * @param key the key
+   */
+  void remove(long key) {
+    int slot = slotFor(key);
+    while (keys[slot] != key) {
+      if (keys[slot] == EMPTY) {
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    // Shift later entries of the probe run back so that no lookup stops at the new hole.
+    int gap = slot;
+    int next = (gap + 1) & mask;
+    while (keys[next] != EMPTY) {
+      int home = slotFor(keys[next]);
+      if (((next - home) & mask) >= ((next - gap) & mask)) {
+        keys[gap] = keys[next];
+        values[gap] = values[next];
+        gap = next;
+      }
+      next = (next + 1) & mask;
+    }
+    keys[gap] = EMPTY;
+    values[gap] = null;
+    size--;
+  }
+
+  /**
+   * Return the number of mapped keys.
+   *
+   * @return the number of keys
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Return the keys of every mapping whose key, read as a packed (row, column) pair as built
+   * by {@link LongDoubleMap#key(int, int)}, lies within the given rectangle. When the
+   * rectangle holds fewer positions than the table holds keys, each position is probed;
+   * otherwise the whole table is scanned.
+   *
+   * @param fromRow the first row (inclusive)
+   * @param fromCol the first column (inclusive)
+   * @param toRow   the last row (inclusive)
+   * @param toCol   the last column (inclusive)
+   * @return a new array holding the matching keys, in no particular order
+   */
+  long[] keysWithin(int fromRow, int fromCol, int toRow, int toCol) {
+    long area = Ranges.area(fromRow, fromCol, toRow, toCol);
+    long[] found = new long[(int) Math.min(area, size)];
+    int count = 0;
+    if (area <= size) {
+      // Count in longs, since a range may end at Integer.MAX_VALUE.
+      for (long row = fromRow; row <= toRow; row++) {
+        for (long col = fromCol; col <= toCol; col++) {
+          long key = LongDoubleMap.key((int) row, (int) col);
+          if (get(key) != null) {
+            found[count++] = key;
+          }
+        }
+      }
+    } else {
+      for (long key : keys) {
+        if (key != EMPTY) {
+          int row = LongDoubleMap.rowOf(key);
+          int col = LongDoubleMap.colOf(key);
+          if (row >= fromRow && row <= toRow && col >= fromCol && col <= toCol) {
+            found[count++] = key;
+          }
+        }
+      }
+    }
+    return Arrays.copyOf(found, count);
+  }
+
+  /**
+   * Pass every mapping in this table to the given visitor, in no particular order.
+   *
+   * @param visitor the visitor to receive each key and value
+   */
+  @SuppressWarnings("unchecked")
+  void forEach(EntryVisitor<V> visitor) {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != EMPTY) {
+        visitor.visit(keys[i], (V) values[i]);
+      }
+    }
+  }
+
+  private int slotFor(long key) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    Arrays.fill(keys, EMPTY);
+    values = new Object[capacity];
+    mask = capacity - 1;
+    shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    resizeAt = (int) (capacity * MAX_LOAD);
+  }
+
+  private void allocateAndRehash(int capacity) {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      long key = oldKeys[i];
+      if (key != EMPTY) {
+        int slot = slotFor(key);
+        while (keys[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  /**
+   * A callback that receives the primitive key and the value of a mapping.
+   *
+   * @param <V> the type of the mapped values
+   */
+  interface EntryVisitor<V> {
+    /**
+     * Receive one mapping.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    void visit(long key, V value);
+  }
+}
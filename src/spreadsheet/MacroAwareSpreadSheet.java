@@ -0,0 +1,20 @@
+package spreadsheet;
+
+/**
+ * This interface represents a spreadsheet that has work to do around a macro run over it,
+ * such as recalculating formulas or committing writes to disk. A sheet that wraps another
+ * passes the call on to it, so every layer settles whatever order they are stacked in.
+ */
+interface MacroAwareSpreadSheet extends SpreadSheet {
+
+  /**
+   * Prepare this sheet, and any sheet it wraps, for a macro that is about to run. Every
+   * call is followed by a call to {@link #onMacroFinished()}, even if the macro fails.
+   */
+  void onMacroStarted();
+
+  /**
+   * Settle this sheet, and any sheet it wraps, after a macro has finished.
+   */
+  void onMacroFinished();
+}
@@ -0,0 +1,84 @@
+package spreadsheet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Collects the writes of a sequence of {@link RegionAssignMacro}s before applying them. A
+ * later write cuts its rectangle out of every pending one, so writes that are fully
+ * shadowed disappear and partly shadowed ones shrink to what stays visible, and writes that
+ * compute the same values and end up side by side are merged into one. Pending regions
+ * never overlap, so they can be applied in any order; flushing applies them in row-major
+ * order of their corners, which walks storage once.
+ */
+final class MacroBatch {
+  private final SpreadSheet sheet;
+  private final List<ValueRegion> pending;
+
+  /**
+   * Create an empty batch that applies its writes to the given sheet.
+   *
+   * @param sheet the sheet to write to
+   */
+  MacroBatch(SpreadSheet sheet) {
+    this.sheet = sheet;
+    this.pending = new ArrayList<ValueRegion>();
+  }
+
+  /**
+   * Add a write to the batch, after every write added before it.
+   *
+   * @param region the region of values to assign
+   */
+  void assign(ValueRegion region) {
+    List<ValueRegion> pieces = new ArrayList<ValueRegion>();
+    for (int i = pending.size() - 1; i >= 0; i--) {
+      ValueRegion other = pending.get(i);
+      if (other.overlaps(region.fromRow, region.fromCol, region.toRow, region.toCol)) {
+        pending.remove(i);
+        pieces.addAll(other.subtract(region.fromRow, region.fromCol, region.toRow,
+                region.toCol));
+      }
+    }
+    pending.addAll(pieces);
+    add(region);
+  }
+
+  /**
+   * Apply every pending write to the sheet and empty the batch.
+   */
+  void flush() {
+    pending.sort(Comparator.<ValueRegion>comparingInt(region -> region.fromRow)
+            .thenComparingInt(region -> region.fromCol));
+    for (ValueRegion region : pending) {
+      region.writeTo(sheet);
+    }
+    pending.clear();
+  }
+
+  /**
+   * Return the number of writes currently pending.
+   *
+   * @return the number of pending regions
+   */
+  int size() {
+    return pending.size();
+  }
+
+  private void add(ValueRegion region) {
+    boolean grown = true;
+    while (grown) {
+      grown = false;
+      for (int i = pending.size() - 1; i >= 0; i--) {
+        ValueRegion union = region.merge(pending.get(i));
+        if (union != null) {
+          pending.remove(i);
+          region = union;
+          grown = true;
+        }
+      }
+    }
+    pending.add(region);
+  }
+}
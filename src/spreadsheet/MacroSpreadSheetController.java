@@ -1,7 +1,14 @@
 package spreadsheet;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * This class extends the SpreadSheetController to add support for macros.
@@ -11,6 +18,7 @@ public class MacroSpreadSheetController extends SpreadSheetController {
   private final SpreadSheetWithMacro macroSheet;
   private final Readable input;
   private final Appendable output;
+  private final List<CompletableFuture<Void>> macros;
 
   /**
    * Create a controller to work with the specified sheet (model),
@@ -31,6 +39,7 @@ public class MacroSpreadSheetController extends SpreadSheetController {
     this.macroSheet = (SpreadSheetWithMacro) sheet;
     this.input = readable;
     this.output = appendable;
+    this.macros = new ArrayList<CompletableFuture<Void>>();
   }
 
   /**
@@ -54,8 +63,9 @@ public class MacroSpreadSheetController extends SpreadSheetController {
         String commandLower = originalCommand.toLowerCase();
 
         if (commandLower.equals("quit")) {
+          awaitMacros();
           output.append("Thank you for using this program!\n");
-          break;
+          return;
         }
 
         output.append("Type instruction: ");
@@ -96,6 +106,41 @@ public class MacroSpreadSheetController extends SpreadSheetController {
               }
               handleAverage(tokens);
               break;
+            case "statistics":
+              if (!originalCommand.equals("statistics")) {
+                output.append("Undefined instruction: " + originalCommand + "\n");
+                continue;
+              }
+              handleStatistics(tokens);
+              break;
+            case "undo":
+              if (!originalCommand.equals("undo")) {
+                output.append("Undefined instruction: " + originalCommand + "\n");
+                continue;
+              }
+              handleUndo(tokens);
+              break;
+            case "redo":
+              if (!originalCommand.equals("redo")) {
+                output.append("Undefined instruction: " + originalCommand + "\n");
+                continue;
+              }
+              handleRedo(tokens);
+              break;
+            case "save":
+              if (!originalCommand.equals("save")) {
+                output.append("Undefined instruction: " + originalCommand + "\n");
+                continue;
+              }
+              handleSave(tokens);
+              break;
+            case "load":
+              if (!originalCommand.equals("load")) {
+                output.append("Undefined instruction: " + originalCommand + "\n");
+                continue;
+              }
+              handleLoad(tokens);
+              break;
             default:
               output.append("Undefined instruction: " + originalCommand + "\n");
           }
@@ -103,6 +148,7 @@ public class MacroSpreadSheetController extends SpreadSheetController {
           output.append(e.getMessage() + "\n");
         }
       }
+      awaitMacros();
     } catch (IOException e) {
       throw new IllegalStateException("Failed to write output", e);
     }
@@ -120,6 +166,15 @@ public class MacroSpreadSheetController extends SpreadSheetController {
     output.append("  average from-row-num from-col-num to-row-num to-col-num "
             + "dest-row-num dest-col-num (compute the average of a range of cells "
             + "and put it at the given location)\n");
+    output.append("  statistics from-row-num from-col-num to-row-num to-col-num "
+            + "dest-row-num dest-col-num [count|sum|mean|min|max|variance ...] (compute "
+            + "statistics of a range of cells in one pass and put them in consecutive cells "
+            + "starting at the given location, all six in this order if none are named)\n");
+    output.append("  undo (undo the last bulk-assign-value or range-assign)\n");
+    output.append("  redo (redo the last undone bulk-assign-value or range-assign)\n");
+    output.append("  save file-path [compress] (save the sheet to a binary file, "
+            + "optionally compressed)\n");
+    output.append("  load file-path (replace the sheet with one saved to a binary file)\n");
     output.append("  menu (show this menu)\n");
     output.append("  quit (exit the program)\n");
   }
@@ -187,7 +242,7 @@ public class MacroSpreadSheetController extends SpreadSheetController {
       int toRowIndex = convertRowToIndex(toRow);
 
       BulkAssignMacro macro = new BulkAssignMacro(fromRowIndex, fromCol, toRowIndex, toCol, value);
-      macro.execute(macroSheet);
+      submit(macro);
 
       output.append(String.format("Setting cells from (%d,%d) to (%d,%d) to %.1f\n",
               fromRowIndex, fromCol, toRowIndex, toCol, value));
@@ -219,7 +274,7 @@ public class MacroSpreadSheetController extends SpreadSheetController {
 
       RangeAssignMacro macro = new RangeAssignMacro(fromRow, fromCol, toRow, toCol,
               startValue, increment);
-      macroSheet.executeMacro(macro);
+      submit(macro);
       output.append("Setting cells from (" + fromRow + "," + fromCol + ") to (" +
               toRow + "," + toCol + ") starting at " + startValue +
               " with increment " + increment + "\n");
@@ -250,12 +305,154 @@ public class MacroSpreadSheetController extends SpreadSheetController {
       }
 
       AverageMacro macro = new AverageMacro(fromRow, fromCol, toRow, toCol, destRow, destCol);
-      macroSheet.executeMacro(macro);
+      submit(macro);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid number format");
+    }
+  }
+
+  private void handleStatistics(String[] tokens) throws IOException {
+    if (tokens.length < 7) {
+      throw new IllegalArgumentException("Invalid command format. Use: statistics FROM_ROW "
+              + "FROM_COL TO_ROW TO_COL DEST_ROW DEST_COL [STATISTIC...]");
+    }
+
+    try {
+      int fromRow = convertRowToIndex(tokens[1]);
+      int fromCol = Integer.parseInt(tokens[2]) - 1;
+      int toRow = convertRowToIndex(tokens[3]);
+      int toCol = Integer.parseInt(tokens[4]) - 1;
+      int destRow = convertRowToIndex(tokens[5]);
+      int destCol = Integer.parseInt(tokens[6]) - 1;
+
+      if (fromRow < 0 || toRow < 0 || destRow < 0) {
+        throw new IllegalArgumentException("Invalid row reference");
+      }
+      if (fromCol < 0 || toCol < 0 || destCol < 0) {
+        throw new IllegalArgumentException("Invalid column reference");
+      }
+
+      List<StatisticsMacro.Statistic> statistics = new ArrayList<StatisticsMacro.Statistic>();
+      for (int i = 7; i < tokens.length; i++) {
+        statistics.add(convertStatistic(tokens[i]));
+      }
+      if (statistics.isEmpty()) {
+        statistics.addAll(Arrays.asList(StatisticsMacro.Statistic.values()));
+      }
+
+      StatisticsMacro macro = new StatisticsMacro(fromRow, fromCol, toRow, toCol,
+              destRow, destCol, statistics);
+      submit(macro);
     } catch (NumberFormatException e) {
       throw new IllegalArgumentException("Invalid number format");
     }
   }
 
+  private void handleUndo(String[] tokens) throws IOException {
+    if (tokens.length != 1) {
+      throw new IllegalArgumentException("Invalid parameters for undo command");
+    }
+    if (macroSheet.undo()) {
+      output.append("Undoing last macro\n");
+    } else {
+      output.append("Nothing to undo\n");
+    }
+  }
+
+  private void handleRedo(String[] tokens) throws IOException {
+    if (tokens.length != 1) {
+      throw new IllegalArgumentException("Invalid parameters for redo command");
+    }
+    if (macroSheet.redo()) {
+      output.append("Redoing last undone macro\n");
+    } else {
+      output.append("Nothing to redo\n");
+    }
+  }
+
+  private void handleSave(String[] tokens) throws IOException {
+    boolean compress = tokens.length == 3 && tokens[2].equals("compress");
+    if (tokens.length != 2 && !compress) {
+      throw new IllegalArgumentException("Invalid command format. Use: save FILE [compress]");
+    }
+
+    try {
+      SheetFile.save(macroSheet, Paths.get(tokens[1]), compress);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Failed to save sheet: " + e.getMessage());
+    }
+    output.append("Saved sheet to " + tokens[1] + "\n");
+  }
+
+  private void handleLoad(String[] tokens) throws IOException {
+    if (tokens.length != 2) {
+      throw new IllegalArgumentException("Invalid command format. Use: load FILE");
+    }
+
+    try {
+      SheetFile contents = SheetFile.read(Paths.get(tokens[1]));
+      int height = macroSheet.getHeight();
+      int width = macroSheet.getWidth();
+      if (height > 0 && width > 0) {
+        macroSheet.clearRange(0, 0, height - 1, width - 1);
+      }
+      contents.writeTo(macroSheet);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Failed to load sheet: " + e.getMessage());
+    }
+    output.append("Loaded sheet from " + tokens[1] + "\n");
+  }
+
+  private StatisticsMacro.Statistic convertStatistic(String name) {
+    try {
+      return StatisticsMacro.Statistic.valueOf(name.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown statistic: " + name);
+    }
+  }
+
+  /**
+   * Submit a macro to the sheet without waiting for it to run. Commands that read or write
+   * the cells of a pending macro wait for it inside the sheet. A macro that has already
+   * failed by the time this returns is reported like any other invalid command, unless an
+   * earlier macro may still fail; the others are kept until they succeed or are reported.
+   */
+  private void submit(SpreadSheetMacro macro) {
+    CompletableFuture<Void> result = macroSheet.executeMacroAsync(macro);
+    macros.removeIf(done -> done.isDone() && !done.isCompletedExceptionally());
+    if (result.isDone() && macros.isEmpty()) {
+      rethrow(result);
+    } else {
+      macros.add(result);
+    }
+  }
+
+  /**
+   * Wait for every submitted macro to run, reporting each failure in the order the macros
+   * were submitted.
+   */
+  private void awaitMacros() throws IOException {
+    for (CompletableFuture<Void> result : macros) {
+      try {
+        rethrow(result);
+      } catch (RuntimeException e) {
+        output.append(e.getMessage() + "\n");
+      }
+    }
+    macros.clear();
+  }
+
+  private static void rethrow(CompletableFuture<Void> result) {
+    try {
+      result.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
   private int convertRowToIndex(String row) {
     if (row == null || row.isEmpty() || !row.matches("[A-Za-z]")) {
       throw new IllegalArgumentException("Error: Invalid row");
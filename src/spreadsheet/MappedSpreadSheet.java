@@ -0,0 +1,429 @@
+package spreadsheet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class represents a spreadsheet that is stored in a memory-mapped file. The file holds
+ * a small header followed by tile records, each of which carries its tile coordinates, an
+ * occupancy bitmap and the primitive values of a {@link Tile}-sized block of cells. The
+ * records are mapped into memory in chunks through {@link FileChannel#map}, so the operating
+ * system decides which parts of the sheet are resident and the sheet may be larger than the
+ * Java heap. Each chunk is twice as large as the one before, up to about a gigabyte, so even
+ * a large sheet needs few mappings.
+ *
+ * <p>Opening an existing file only reads the coordinates and the occupancy bitmap of each
+ * tile to rebuild the tile directory and the row and column counts; cell values are never
+ * parsed. Changes are written through the mapping and
+ * forced to disk by {@link #flush()} or {@link #close()}.
+ */
+public class MappedSpreadSheet implements SpreadSheet, Closeable {
+  private static final int MAGIC = 0x5353_4D46;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 64;
+  private static final int WIDTH_OFFSET = 8;
+  private static final int HEIGHT_OFFSET = 12;
+  private static final int TILE_COUNT_OFFSET = 16;
+
+  private static final int BITMAP_OFFSET = 2 * Integer.BYTES;
+  private static final int VALUES_OFFSET = BITMAP_OFFSET + Tile.SIZE * Long.BYTES;
+  private static final int TILE_BYTES = VALUES_OFFSET + Tile.SIZE * Tile.SIZE * Double.BYTES;
+  private static final int MIN_CHUNK_TILES = 32;
+  private static final int CHUNK_DOUBLINGS = 10;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer header;
+  private final List<MappedByteBuffer> chunks;
+  private final LongObjectMap<TileSlot> directory;
+  private final Occupancy occupancy;
+  private int tileCount;
+  private int mappedTiles;
+  private boolean closed;
+
+  /**
+   * Open the spreadsheet stored in the given file, creating an empty one if the file does
+   * not exist or is empty.
+   *
+   * @param file the file that backs this sheet
+   * @throws IOException              if the file cannot be opened or mapped
+   * @throws IllegalArgumentException if the file is null or is not a spreadsheet file
+   */
+  public MappedSpreadSheet(Path file) throws IOException, IllegalArgumentException {
+    if (file == null) {
+      throw new IllegalArgumentException("File cannot be null");
+    }
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.chunks = new ArrayList<MappedByteBuffer>();
+    this.directory = new LongObjectMap<TileSlot>();
+    this.occupancy = new Occupancy();
+    try {
+      // Check the header with a plain read first, since mapping would grow a short file.
+      long size = channel.size();
+      if (size > 0 && !isSheet(channel, size)) {
+        throw new IllegalArgumentException("Not a spreadsheet file: " + file);
+      }
+      this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+      if (size == 0) {
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+      }
+      this.tileCount = header.getInt(TILE_COUNT_OFFSET);
+      for (int i = 0; i < tileCount; i++) {
+        TileSlot slot = slotAt(i);
+        int tileRow = slot.buffer.getInt(slot.offset);
+        int tileCol = slot.buffer.getInt(slot.offset + Integer.BYTES);
+        directory.put(LongDoubleMap.key(tileRow, tileCol), slot);
+        for (int localRow = 0; localRow < Tile.SIZE; localRow++) {
+          occupancy.addRun((tileRow << Tile.SHIFT) | localRow, tileCol << Tile.SHIFT,
+                  slot.buffer.getLong(slot.bitmapOffset(localRow)));
+        }
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      channel.close();
+      throw e;
+    }
+    this.closed = false;
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    TileSlot slot = tileAt(row, col);
+    if (slot == null) {
+      return 0.0;
+    }
+    return slot.buffer.getDouble(slot.valueOffset(Tile.localOf(row), Tile.localOf(col)));
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    TileSlot slot = writableTileAt(row, col);
+    int localRow = Tile.localOf(row);
+    int localCol = Tile.localOf(col);
+    slot.buffer.putDouble(slot.valueOffset(localRow, localCol), value);
+    if (slot.mark(localRow, localCol, localCol) != 0) {
+      occupancy.add(row, col);
+      storeBounds();
+    }
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    TileSlot slot = tileAt(row, col);
+    if (slot == null) {
+      return true;
+    }
+    long bits = slot.buffer.getLong(slot.bitmapOffset(Tile.localOf(row)));
+    return (bits & (1L << Tile.localOf(col))) == 0;
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    TileSlot slot = tileAt(row, col);
+    if (slot == null) {
+      return;
+    }
+    int localCol = Tile.localOf(col);
+    if (slot.unmark(Tile.localOf(row), localCol, localCol) != 0) {
+      occupancy.remove(row, col);
+      storeBounds();
+    }
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    ensureOpen();
+    long[] keys = directory.keysWithin(Tile.tileOf(fromRow), Tile.tileOf(fromCol),
+            Tile.tileOf(toRow), Tile.tileOf(toCol));
+    for (long key : keys) {
+      TileSlot slot = directory.get(key);
+      int baseRow = LongDoubleMap.rowOf(key) << Tile.SHIFT;
+      int baseCol = LongDoubleMap.colOf(key) << Tile.SHIFT;
+      int firstCol = Math.max(fromCol, baseCol) - baseCol;
+      int lastCol = Math.min(toCol, baseCol + Tile.MASK) - baseCol;
+      for (int row = Math.max(fromRow, baseRow); row <= Math.min(toRow, baseRow + Tile.MASK);
+           row++) {
+        occupancy.removeRun(row, baseCol, slot.unmark(row - baseRow, firstCol, lastCol));
+      }
+    }
+    storeBounds();
+  }
+
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    for (int row = fromRow; row <= toRow; row++) {
+      int localRow = Tile.localOf(row);
+      for (int tileCol = Tile.tileOf(fromCol); tileCol <= Tile.tileOf(toCol); tileCol++) {
+        int first = Math.max(fromCol, tileCol << Tile.SHIFT);
+        int last = Math.min(toCol, (tileCol << Tile.SHIFT) | Tile.MASK);
+        TileSlot slot = writableTileAt(row, first);
+        int offset = slot.valueOffset(localRow, Tile.localOf(first));
+        for (int col = first; col <= last; col++, offset += Double.BYTES) {
+          slot.buffer.putDouble(offset, value);
+        }
+        occupancy.addRun(row, tileCol << Tile.SHIFT,
+                slot.mark(localRow, Tile.localOf(first), Tile.localOf(last)));
+      }
+    }
+    storeBounds();
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, dest);
+    int i = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      int localRow = Tile.localOf(row);
+      for (int tileCol = Tile.tileOf(fromCol); tileCol <= Tile.tileOf(toCol); tileCol++) {
+        int first = Math.max(fromCol, tileCol << Tile.SHIFT);
+        int last = Math.min(toCol, (tileCol << Tile.SHIFT) | Tile.MASK);
+        TileSlot slot = tileAt(row, first);
+        if (slot == null) {
+          Arrays.fill(dest, i, i + last - first + 1, 0.0);
+          i += last - first + 1;
+        } else {
+          int offset = slot.valueOffset(localRow, Tile.localOf(first));
+          for (int col = first; col <= last; col++, offset += Double.BYTES) {
+            dest[i++] = slot.buffer.getDouble(offset);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, src);
+    int i = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      int localRow = Tile.localOf(row);
+      for (int tileCol = Tile.tileOf(fromCol); tileCol <= Tile.tileOf(toCol); tileCol++) {
+        int first = Math.max(fromCol, tileCol << Tile.SHIFT);
+        int last = Math.min(toCol, (tileCol << Tile.SHIFT) | Tile.MASK);
+        TileSlot slot = writableTileAt(row, first);
+        int offset = slot.valueOffset(localRow, Tile.localOf(first));
+        for (int col = first; col <= last; col++, offset += Double.BYTES) {
+          slot.buffer.putDouble(offset, src[i++]);
+        }
+        occupancy.addRun(row, tileCol << Tile.SHIFT,
+                slot.mark(localRow, Tile.localOf(first), Tile.localOf(last)));
+      }
+    }
+    storeBounds();
+  }
+
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, visitor);
+    ensureOpen();
+    directory.forEach((key, slot) -> {
+      int baseRow = LongDoubleMap.rowOf(key) << Tile.SHIFT;
+      int baseCol = LongDoubleMap.colOf(key) << Tile.SHIFT;
+      int firstRow = Math.max(fromRow, baseRow) - baseRow;
+      int lastRow = Math.min(toRow, baseRow + Tile.MASK) - baseRow;
+      int firstCol = Math.max(fromCol, baseCol) - baseCol;
+      int lastCol = Math.min(toCol, baseCol + Tile.MASK) - baseCol;
+      if (firstRow > lastRow || firstCol > lastCol) {
+        return;
+      }
+      long columns = Tile.bits(firstCol, lastCol);
+      for (int localRow = firstRow; localRow <= lastRow; localRow++) {
+        long word = slot.buffer.getLong(slot.bitmapOffset(localRow)) & columns;
+        while (word != 0) {
+          int localCol = Long.numberOfTrailingZeros(word);
+          visitor.visit(baseRow + localRow, baseCol + localCol,
+                  slot.buffer.getDouble(slot.valueOffset(localRow, localCol)));
+          word &= word - 1;
+        }
+      }
+    });
+  }
+
+  @Override
+  public int getWidth() {
+    return this.occupancy.width();
+  }
+
+  @Override
+  public int getHeight() {
+    return this.occupancy.height();
+  }
+
+  /**
+   * Force every change made so far to be written to the backing file.
+   *
+   * @throws IllegalStateException if the sheet has been closed
+   */
+  public void flush() throws IllegalStateException {
+    ensureOpen();
+    header.force();
+    for (MappedByteBuffer chunk : chunks) {
+      chunk.force();
+    }
+  }
+
+  /**
+   * Write every change to the backing file and close it. Closing an already closed sheet
+   * has no effect.
+   *
+   * @throws IOException if the file cannot be closed
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    flush();
+    closed = true;
+    channel.close();
+  }
+
+  private TileSlot tileAt(int row, int col) {
+    ensureOpen();
+    return directory.get(LongDoubleMap.key(Tile.tileOf(row), Tile.tileOf(col)));
+  }
+
+  private TileSlot writableTileAt(int row, int col) {
+    TileSlot slot = tileAt(row, col);
+    if (slot == null) {
+      slot = appendTile(Tile.tileOf(row), Tile.tileOf(col));
+    }
+    return slot;
+  }
+
+  private void storeBounds() {
+    header.putInt(WIDTH_OFFSET, occupancy.width());
+    header.putInt(HEIGHT_OFFSET, occupancy.height());
+  }
+
+  private TileSlot appendTile(int tileRow, int tileCol) throws IllegalStateException {
+    TileSlot slot;
+    try {
+      slot = slotAt(tileCount);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to grow spreadsheet file", e);
+    }
+    slot.buffer.putInt(slot.offset, tileRow);
+    slot.buffer.putInt(slot.offset + Integer.BYTES, tileCol);
+    directory.put(LongDoubleMap.key(tileRow, tileCol), slot);
+    tileCount++;
+    header.putInt(TILE_COUNT_OFFSET, tileCount);
+    return slot;
+  }
+
+  private TileSlot slotAt(int index) throws IOException {
+    while (index >= mappedTiles) {
+      int tiles = chunkTiles(chunks.size());
+      long position = HEADER_BYTES + (long) mappedTiles * TILE_BYTES;
+      chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, position,
+              (long) tiles * TILE_BYTES));
+      mappedTiles += tiles;
+    }
+    // Tiles are appended in order, so the index is almost always in the last chunk.
+    int chunk = chunks.size() - 1;
+    int first = mappedTiles - chunkTiles(chunk);
+    while (index < first) {
+      chunk--;
+      first -= chunkTiles(chunk);
+    }
+    return new TileSlot(chunks.get(chunk), (index - first) * TILE_BYTES);
+  }
+
+  private static int chunkTiles(int chunk) {
+    return MIN_CHUNK_TILES << Math.min(chunk, CHUNK_DOUBLINGS);
+  }
+
+  /**
+   * Return whether the given non-empty file starts with the header of a spreadsheet file
+   * and is long enough for the tiles the header counts.
+   */
+  private static boolean isSheet(FileChannel channel, long size) throws IOException {
+    if (size < HEADER_BYTES) {
+      return false;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, buffer.position()) < 0) {
+        return false;
+      }
+    }
+    int tiles = buffer.getInt(TILE_COUNT_OFFSET);
+    return buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && tiles >= 0
+            && HEADER_BYTES + (long) tiles * TILE_BYTES <= size;
+  }
+
+  private void ensureOpen() throws IllegalStateException {
+    if (closed) {
+      throw new IllegalStateException("Sheet has been closed");
+    }
+  }
+
+  /**
+   * The location of one tile record within a mapped chunk.
+   */
+  private static final class TileSlot {
+    private final MappedByteBuffer buffer;
+    private final int offset;
+
+    private TileSlot(MappedByteBuffer buffer, int offset) {
+      this.buffer = buffer;
+      this.offset = offset;
+    }
+
+    private int bitmapOffset(int localRow) {
+      return offset + BITMAP_OFFSET + localRow * Long.BYTES;
+    }
+
+    private long mark(int localRow, int fromCol, int toCol) {
+      int bitmapOffset = bitmapOffset(localRow);
+      long bits = buffer.getLong(bitmapOffset);
+      buffer.putLong(bitmapOffset, bits | Tile.bits(fromCol, toCol));
+      return Tile.bits(fromCol, toCol) & ~bits;
+    }
+
+    private long unmark(int localRow, int fromCol, int toCol) {
+      int bitmapOffset = bitmapOffset(localRow);
+      long bits = buffer.getLong(bitmapOffset);
+      long removed = bits & Tile.bits(fromCol, toCol);
+      if (removed != 0) {
+        buffer.putLong(bitmapOffset, bits & ~removed);
+        // Cleared cells must read as zero again, since range reads do not consult the bitmap.
+        for (long word = removed; word != 0; word &= word - 1) {
+          buffer.putDouble(valueOffset(localRow, Long.numberOfTrailingZeros(word)), 0.0);
+        }
+      }
+      return removed;
+    }
+
+    private int valueOffset(int localRow, int localCol) {
+      return offset + VALUES_OFFSET + ((localRow << Tile.SHIFT) | localCol) * Double.BYTES;
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package spreadsheet;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Keeps count of how many non-empty cells each row and each column of a sheet holds, so
+ * that the width and the height of the sheet can both grow and shrink as cells are set and
+ * cleared without rescanning the cells.
+ *
+ * <p>Counts are kept in lazily allocated pages. When the last cell of the highest row or
+ * column is cleared, the new bound is found by walking down the counts and skipping pages
+ * that hold no cells, so the walk only pays for rows or columns that were once occupied.
+ * Pages are int arrays on the heap, or direct buffers for sheets that keep their data off
+ * the heap.
+ */
+final class Occupancy {
+  private final Axis rows;
+  private final Axis cols;
+
+  /**
+   * Create the counts for an empty sheet, with pages on the heap.
+   */
+  Occupancy() {
+    this(null);
+  }
+
+  /**
+   * Create the counts for an empty sheet, with pages in direct buffers taken from the given
+   * allocator.
+   *
+   * @param memory the allocator for pages, or null to keep pages on the heap
+   */
+  Occupancy(DirectMemory memory) {
+    this.rows = new Axis(memory);
+    this.cols = new Axis(memory);
+  }
+
+  /**
+   * Record that the given cell has become non-empty.
+   *
+   * @param row the row of the cell
+   * @param col the column of the cell
+   */
+  void add(int row, int col) {
+    rows.add(row, 1);
+    cols.add(col, 1);
+  }
+
+  /**
+   * Record that the given cell has become empty.
+   *
+   * @param row the row of the cell
+   * @param col the column of the cell
+   */
+  void remove(int row, int col) {
+    rows.add(row, -1);
+    cols.add(col, -1);
+  }
+
+  /**
+   * Record that a run of cells within one row has become non-empty.
+   *
+   * @param row     the row of the cells
+   * @param baseCol the column that bit 0 of the bitmap stands for
+   * @param bits    a bitmap of the columns, relative to the base column, that became set
+   */
+  void addRun(int row, int baseCol, long bits) {
+    if (bits == 0) {
+      return;
+    }
+    rows.add(row, Long.bitCount(bits));
+    for (long word = bits; word != 0; word &= word - 1) {
+      cols.add(baseCol + Long.numberOfTrailingZeros(word), 1);
+    }
+  }
+
+  /**
+   * Record that a run of cells within one row has become empty.
+   *
+   * @param row     the row of the cells
+   * @param baseCol the column that bit 0 of the bitmap stands for
+   * @param bits    a bitmap of the columns, relative to the base column, that became empty
+   */
+  void removeRun(int row, int baseCol, long bits) {
+    if (bits == 0) {
+      return;
+    }
+    rows.add(row, -Long.bitCount(bits));
+    for (long word = bits; word != 0; word &= word - 1) {
+      cols.add(baseCol + Long.numberOfTrailingZeros(word), -1);
+    }
+  }
+
+  /**
+   * Return the width of the sheet, one more than the highest non-empty column.
+   *
+   * @return the width of the sheet
+   */
+  int width() {
+    return cols.extent;
+  }
+
+  /**
+   * Return the height of the sheet, one more than the highest non-empty row.
+   *
+   * @return the height of the sheet
+   */
+  int height() {
+    return rows.extent;
+  }
+
+  /**
+   * The counts along one axis of the sheet.
+   */
+  private static final class Axis {
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final DirectMemory memory;
+    private int[][] pages;
+    private IntBuffer[] direct;
+    private int[] occupied;
+    private int extent;
+
+    private Axis(DirectMemory memory) {
+      this.memory = memory;
+      if (memory == null) {
+        this.pages = new int[4][];
+      } else {
+        this.direct = new IntBuffer[4];
+      }
+      this.occupied = new int[4];
+      this.extent = 0;
+    }
+
+    private void add(int index, int delta) {
+      int page = index >>> PAGE_SHIFT;
+      if (page >= occupied.length) {
+        int grown = Math.max(page + 1, occupied.length * 2);
+        if (memory == null) {
+          pages = Arrays.copyOf(pages, grown);
+        } else {
+          direct = Arrays.copyOf(direct, grown);
+        }
+        occupied = Arrays.copyOf(occupied, grown);
+      }
+      if (occupied[page] == 0) {
+        allocate(page);
+      }
+      int before = count(page, index & PAGE_MASK);
+      int after = before + delta;
+      store(page, index & PAGE_MASK, after);
+      if (before == 0 && after > 0) {
+        occupied[page]++;
+        if ((index + 1) > extent) {
+          extent = index + 1;
+        }
+      } else if (before > 0 && after == 0) {
+        occupied[page]--;
+        if (occupied[page] == 0) {
+          release(page);
+        }
+        if (index == extent - 1) {
+          shrink();
+        }
+      }
+    }
+
+    private void shrink() {
+      int index = extent - 2;
+      while (index >= 0) {
+        int page = index >>> PAGE_SHIFT;
+        if (occupied[page] == 0) {
+          index = (page << PAGE_SHIFT) - 1;
+        } else if (count(page, index & PAGE_MASK) > 0) {
+          break;
+        } else {
+          index--;
+        }
+      }
+      extent = index + 1;
+    }
+
+    private void allocate(int page) {
+      if (memory == null) {
+        pages[page] = new int[PAGE_SIZE];
+      } else {
+        direct[page] = memory.allocate(PAGE_SIZE * Integer.BYTES).asIntBuffer();
+      }
+    }
+
+    private void release(int page) {
+      if (memory == null) {
+        pages[page] = null;
+      } else {
+        direct[page] = null;
+      }
+    }
+
+    private int count(int page, int offset) {
+      return memory == null ? pages[page][offset] : direct[page].get(offset);
+    }
+
+    private void store(int page, int offset, int value) {
+      if (memory == null) {
+        pages[page][offset] = value;
+      } else {
+        direct[page].put(offset, value);
+      }
+    }
+  }
+}
@@ -0,0 +1,326 @@
+package spreadsheet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class represents a sparse spreadsheet whose cells live outside the Java heap. Cells
+ * are kept in an open-addressing hash table laid out in direct {@link ByteBuffer} segments,
+ * where every slot holds a packed (row, column) key followed by the cell value. Each segment
+ * holds a fixed number of slots, so no buffer outgrows the int offsets a buffer allows and
+ * the table can grow far past what a single buffer holds. The counts of cells per row and
+ * per column that give the width and height are kept off the heap as well, so the heap
+ * footprint of this sheet stays small no matter how many cells are set.
+ *
+ * <p>{@link #close()} drops the buffers, and a closed sheet cannot be used any more. Java
+ * offers no way to free a direct buffer on demand: its memory is returned once the garbage
+ * collector finds the buffer unreachable, so {@link #getOffHeapBytes()} keeps counting a
+ * dropped buffer, whether dropped by closing or by growing the table, until then.
+ */
+public class OffHeapSpreadSheet implements SpreadSheet, AutoCloseable {
+  private static final int SLOT_BYTES = Long.BYTES + Double.BYTES;
+  private static final long EMPTY = -1L;
+  private static final int MIN_CAPACITY = 1024;
+  private static final double MAX_LOAD = 0.6;
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  /**
+   * Each segment holds this many slots, 16 MB, except that a smaller table is one segment.
+   */
+  private static final int SEGMENT_SHIFT = 20;
+  private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+  private final DirectMemory memory;
+  private ByteBuffer[] segments;
+  private int capacity;
+  private int size;
+  private Occupancy occupancy;
+
+  /**
+   * Create an empty spreadsheet.
+   */
+  public OffHeapSpreadSheet() {
+    this.memory = new DirectMemory();
+    this.segments = allocate(memory, MIN_CAPACITY);
+    this.capacity = MIN_CAPACITY;
+    this.size = 0;
+    this.occupancy = new Occupancy(memory);
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    int slot = indexOf(LongDoubleMap.key(row, col));
+    return slot < 0 ? 0.0 : valueAt(slot);
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    ensureOpen();
+    put(LongDoubleMap.key(row, col), value);
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    return indexOf(LongDoubleMap.key(row, col)) < 0;
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    int slot = indexOf(LongDoubleMap.key(row, col));
+    if (slot >= 0) {
+      removeAt(slot);
+      occupancy.remove(row, col);
+    }
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    ensureOpen();
+    int lastRow = Math.min(toRow, getHeight() - 1);
+    int lastCol = Math.min(toCol, getWidth() - 1);
+    if (Ranges.area(fromRow, fromCol, lastRow, lastCol) <= size) {
+      for (int row = fromRow; row <= lastRow; row++) {
+        for (int col = fromCol; col <= lastCol; col++) {
+          clear(row, col);
+        }
+      }
+      return;
+    }
+    // Deleting shifts later entries back, so stay on a slot until it holds a key to keep.
+    int slot = 0;
+    while (slot < capacity) {
+      long key = keyAt(slot);
+      int row = LongDoubleMap.rowOf(key);
+      int col = LongDoubleMap.colOf(key);
+      if (key != EMPTY && row >= fromRow && row <= toRow && col >= fromCol && col <= toCol) {
+        removeAt(slot);
+        occupancy.remove(row, col);
+      } else {
+        slot++;
+      }
+    }
+  }
+
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    ensureOpen();
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++) {
+        put(LongDoubleMap.key(row, col), value);
+      }
+    }
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, dest);
+    ensureOpen();
+    int i = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++) {
+        int slot = indexOf(LongDoubleMap.key(row, col));
+        dest[i++] = slot < 0 ? 0.0 : valueAt(slot);
+      }
+    }
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, src);
+    ensureOpen();
+    int i = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++) {
+        put(LongDoubleMap.key(row, col), src[i++]);
+      }
+    }
+  }
+
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, visitor);
+    ensureOpen();
+    int lastRow = Math.min(toRow, getHeight() - 1);
+    int lastCol = Math.min(toCol, getWidth() - 1);
+    if (Ranges.area(fromRow, fromCol, lastRow, lastCol) <= size) {
+      // The range holds fewer cells than the table, so look each of them up instead.
+      for (int row = fromRow; row <= lastRow; row++) {
+        for (int col = fromCol; col <= lastCol; col++) {
+          int slot = indexOf(LongDoubleMap.key(row, col));
+          if (slot >= 0) {
+            visitor.visit(row, col, valueAt(slot));
+          }
+        }
+      }
+      return;
+    }
+    for (int slot = 0; slot < capacity; slot++) {
+      long key = keyAt(slot);
+      if (key != EMPTY) {
+        int row = LongDoubleMap.rowOf(key);
+        int col = LongDoubleMap.colOf(key);
+        if (row >= fromRow && row <= toRow && col >= fromCol && col <= toCol) {
+          visitor.visit(row, col, valueAt(slot));
+        }
+      }
+    }
+  }
+
+  @Override
+  public int getWidth() {
+    return this.occupancy.width();
+  }
+
+  @Override
+  public int getHeight() {
+    return this.occupancy.height();
+  }
+
+  /**
+   * Return the number of bytes of off-heap memory allocated for this sheet and not yet
+   * returned: the buffers of the table and of the counts, and any buffer this sheet has
+   * dropped that the garbage collector has not reclaimed yet.
+   *
+   * @return the off-heap bytes in use
+   */
+  public long getOffHeapBytes() {
+    return memory.bytes();
+  }
+
+  /**
+   * Drop the off-heap memory held by this sheet; it is returned once the garbage collector
+   * reclaims the buffers. Any later use of the sheet throws an
+   * {@link IllegalStateException}. Closing an already closed sheet has no effect.
+   */
+  @Override
+  public void close() {
+    segments = null;
+    capacity = 0;
+    size = 0;
+    occupancy = new Occupancy();
+  }
+
+  private void put(long key, double value) {
+    int slot = slotFor(key, capacity);
+    long current;
+    while ((current = keyAt(slot)) != EMPTY && current != key) {
+      slot = (slot + 1) & (capacity - 1);
+    }
+    if (current == EMPTY && size == capacity - 1) {
+      throw new IllegalStateException("Sheet cannot hold more cells");
+    }
+    putAt(segments, slot, key, value);
+    if (current == EMPTY) {
+      size++;
+      occupancy.add(LongDoubleMap.rowOf(key), LongDoubleMap.colOf(key));
+      if (size > capacity * MAX_LOAD && capacity < MAX_CAPACITY) {
+        rehash(capacity << 1);
+      }
+    }
+  }
+
+  private void removeAt(int slot) {
+    int mask = capacity - 1;
+    // Shift later entries of the probe run back so that no lookup stops at the new hole.
+    int gap = slot;
+    int next = (gap + 1) & mask;
+    long key;
+    while ((key = keyAt(next)) != EMPTY) {
+      int home = slotFor(key, capacity);
+      if (((next - home) & mask) >= ((next - gap) & mask)) {
+        putAt(segments, gap, key, valueAt(next));
+        gap = next;
+      }
+      next = (next + 1) & mask;
+    }
+    putAt(segments, gap, EMPTY, 0.0);
+    size--;
+  }
+
+  private int indexOf(long key) {
+    ensureOpen();
+    int slot = slotFor(key, capacity);
+    long current;
+    while ((current = keyAt(slot)) != EMPTY) {
+      if (current == key) {
+        return slot;
+      }
+      slot = (slot + 1) & (capacity - 1);
+    }
+    return -1;
+  }
+
+  private void ensureOpen() throws IllegalStateException {
+    if (segments == null) {
+      throw new IllegalStateException("Sheet has been closed");
+    }
+  }
+
+  private void rehash(int newCapacity) {
+    ByteBuffer[] grown = allocate(memory, newCapacity);
+    for (int i = 0; i < capacity; i++) {
+      long key = keyAt(i);
+      if (key != EMPTY) {
+        int slot = slotFor(key, newCapacity);
+        while (grown[slot >>> SEGMENT_SHIFT].getLong((slot & SEGMENT_MASK) * SLOT_BYTES)
+                != EMPTY) {
+          slot = (slot + 1) & (newCapacity - 1);
+        }
+        putAt(grown, slot, key, valueAt(i));
+      }
+    }
+    segments = grown;
+    capacity = newCapacity;
+  }
+
+  private long keyAt(int slot) {
+    return segments[slot >>> SEGMENT_SHIFT].getLong((slot & SEGMENT_MASK) * SLOT_BYTES);
+  }
+
+  private double valueAt(int slot) {
+    return segments[slot >>> SEGMENT_SHIFT]
+            .getDouble((slot & SEGMENT_MASK) * SLOT_BYTES + Long.BYTES);
+  }
+
+  private static void putAt(ByteBuffer[] segments, int slot, long key, double value) {
+    ByteBuffer segment = segments[slot >>> SEGMENT_SHIFT];
+    int offset = (slot & SEGMENT_MASK) * SLOT_BYTES;
+    segment.putLong(offset, key);
+    segment.putDouble(offset + Long.BYTES, value);
+  }
+
+  private static ByteBuffer[] allocate(DirectMemory memory, int slots) {
+    int perSegment = Math.min(slots, SEGMENT_MASK + 1);
+    ByteBuffer[] segments = new ByteBuffer[slots / perSegment];
+    for (int s = 0; s < segments.length; s++) {
+      segments[s] = memory.allocate(perSegment * SLOT_BYTES);
+      for (int i = 0; i < perSegment; i++) {
+        segments[s].putLong(i * SLOT_BYTES, EMPTY);
+      }
+    }
+    return segments;
+  }
+
+  private static int slotFor(long key, int capacity) {
+    int shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+  }
+}
@@ -0,0 +1,128 @@
+package spreadsheet;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs range macros in parallel on a {@link ForkJoinPool}. The range of an
+ * {@link AverageMacro}, {@link BulkAssignMacro} or {@link RangeAssignMacro} is split in half
+ * by rows, recursively, until each band holds no more than the threshold number of cells;
+ * the bands run as fork/join tasks and their partial results are added up pairwise on the
+ * way back, which gives a tree reduction for averages.
+ *
+ * <p>Macros over fewer cells than the threshold, and macros of any other kind, run on the
+ * calling thread as before. Bands write to the sheet concurrently, so the sheet must be safe
+ * for use by several threads at once, such as a {@link ConcurrentSpreadSheet}.
+ */
+public class ParallelMacroExecutor {
+  /**
+   * The default number of cells below which a macro runs on the calling thread.
+   */
+  public static final int DEFAULT_THRESHOLD = 1 << 16;
+
+  /**
+   * Bands are cut at multiples of this many rows where possible, so that the rows of one
+   * band share lock stripes and tiles instead of straddling them.
+   */
+  private static final int ROW_ALIGNMENT = 64;
+
+  private final ForkJoinPool pool;
+  private final int threshold;
+
+  /**
+   * Create an executor that runs on the common pool with the default threshold.
+   */
+  public ParallelMacroExecutor() {
+    this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * Create an executor that runs on the given pool.
+   *
+   * @param pool      the pool to run bands on
+   * @param threshold the number of cells below which a macro runs on the calling thread
+   * @throws IllegalArgumentException if the pool is null or the threshold is not positive
+   */
+  public ParallelMacroExecutor(ForkJoinPool pool, int threshold)
+          throws IllegalArgumentException {
+    if (pool == null) {
+      throw new IllegalArgumentException("Pool cannot be null");
+    }
+    if (threshold <= 0) {
+      throw new IllegalArgumentException("Threshold must be positive");
+    }
+    this.pool = pool;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Execute the given macro on the given sheet, in parallel if it is a range macro over at
+   * least the threshold number of cells.
+   *
+   * @param macro the macro to execute
+   * @param sheet the sheet to execute it on
+   * @throws IllegalArgumentException if the macro or the sheet is null
+   */
+  public void execute(SpreadSheetMacro macro, SpreadSheet sheet)
+          throws IllegalArgumentException {
+    if (macro == null) {
+      throw new IllegalArgumentException("Macro cannot be null");
+    }
+    if (sheet == null) {
+      throw new IllegalArgumentException("Sheet cannot be null");
+    }
+    if (!(macro instanceof BandedMacro)) {
+      macro.execute(sheet);
+      return;
+    }
+    BandedMacro banded = (BandedMacro) macro;
+    long rows = (long) banded.getToRow() - banded.getFromRow() + 1;
+    long cells = rows * banded.getColumnCount();
+    if (cells < threshold) {
+      macro.execute(sheet);
+      return;
+    }
+    int bandRows = Math.max(1, threshold / banded.getColumnCount());
+    double total = pool.invoke(new Band(banded, sheet, banded.getFromRow(), banded.getToRow(),
+            bandRows));
+    banded.complete(sheet, total);
+  }
+
+  /**
+   * A task that runs a macro over a band of rows, splitting the band while it is too large.
+   */
+  private static final class Band extends RecursiveTask<Double> {
+    private static final long serialVersionUID = 1L;
+
+    private final BandedMacro macro;
+    private final SpreadSheet sheet;
+    private final int fromRow;
+    private final int toRow;
+    private final int bandRows;
+
+    private Band(BandedMacro macro, SpreadSheet sheet, int fromRow, int toRow, int bandRows) {
+      this.macro = macro;
+      this.sheet = sheet;
+      this.fromRow = fromRow;
+      this.toRow = toRow;
+      this.bandRows = bandRows;
+    }
+
+    @Override
+    protected Double compute() {
+      if (toRow - fromRow < bandRows) {
+        return macro.executeBand(sheet, fromRow, toRow);
+      }
+      int middle = fromRow + (toRow - fromRow) / 2;
+      int aligned = (middle | (ROW_ALIGNMENT - 1));
+      if (aligned > fromRow && aligned < toRow) {
+        middle = aligned;
+      }
+      Band lower = new Band(macro, sheet, fromRow, middle, bandRows);
+      Band upper = new Band(macro, sheet, middle + 1, toRow, bandRows);
+      lower.fork();
+      double upperSum = upper.compute();
+      return lower.join() + upperSum;
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package spreadsheet;
+
+/**
+ * This class represents a sparse spreadsheet that stores its cells in a primitive
+ * long-to-double hash table. Each (row, column) position is packed into a single long key,
+ * so reading, writing and checking a cell never allocates a key object or boxes a value.
+ * It behaves exactly like {@link SparseSpreadSheet}.
+ */
+public class PrimitiveSparseSpreadSheet implements SpreadSheet {
+  private final LongDoubleMap sheet;
+  private final Occupancy occupancy;
+
+  /**
+   * Create an empty spreadsheet.
+   */
+  public PrimitiveSparseSpreadSheet() {
+    this.sheet = new LongDoubleMap();
+    this.occupancy = new Occupancy();
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    return this.sheet.get(LongDoubleMap.key(row, col), 0.0);
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (this.sheet.put(LongDoubleMap.key(row, col), value)) {
+      this.occupancy.add(row, col);
+    }
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (this.sheet.remove(LongDoubleMap.key(row, col))) {
+      this.occupancy.remove(row, col);
+    }
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    return !this.sheet.containsKey(LongDoubleMap.key(row, col));
+  }
+
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++) {
+        if (this.sheet.put(LongDoubleMap.key(row, col), value)) {
+          this.occupancy.add(row, col);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, dest);
+    int i = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++) {
+        dest[i++] = this.sheet.get(LongDoubleMap.key(row, col), 0.0);
+      }
+    }
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, src);
+    int i = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++) {
+        if (this.sheet.put(LongDoubleMap.key(row, col), src[i++])) {
+          this.occupancy.add(row, col);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, visitor);
+    int lastRow = Math.min(toRow, getHeight() - 1);
+    int lastCol = Math.min(toCol, getWidth() - 1);
+    if (Ranges.area(fromRow, fromCol, lastRow, lastCol) <= this.sheet.size()) {
+      // The range holds fewer cells than the table, so look each of them up instead.
+      for (int row = fromRow; row <= lastRow; row++) {
+        for (int col = fromCol; col <= lastCol; col++) {
+          long key = LongDoubleMap.key(row, col);
+          if (this.sheet.containsKey(key)) {
+            visitor.visit(row, col, this.sheet.get(key, 0.0));
+          }
+        }
+      }
+      return;
+    }
+    this.sheet.forEach((key, value) -> {
+      int row = LongDoubleMap.rowOf(key);
+      int col = LongDoubleMap.colOf(key);
+      if (row >= fromRow && row <= toRow && col >= fromCol && col <= toCol) {
+        visitor.visit(row, col, value);
+      }
+    });
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    int lastRow = Math.min(toRow, getHeight() - 1);
+    int lastCol = Math.min(toCol, getWidth() - 1);
+    if (Ranges.area(fromRow, fromCol, lastRow, lastCol) <= this.sheet.size()) {
+      for (int row = fromRow; row <= lastRow; row++) {
+        for (int col = fromCol; col <= lastCol; col++) {
+          clear(row, col);
+        }
+      }
+      return;
+    }
+    // The range is larger than the sheet, so find its cells first and remove them after.
+    LongDoubleMap doomed = new LongDoubleMap();
+    this.sheet.forEach((key, value) -> {
+      int row = LongDoubleMap.rowOf(key);
+      int col = LongDoubleMap.colOf(key);
+      if (row >= fromRow && row <= toRow && col >= fromCol && col <= toCol) {
+        doomed.put(key, value);
+      }
+    });
+    doomed.forEach((key, value) -> clear(LongDoubleMap.rowOf(key), LongDoubleMap.colOf(key)));
+  }
+
+  @Override
+  public int getWidth() {
+    return this.occupancy.width();
+  }
+
+  @Override
+  public int getHeight() {
+    return this.occupancy.height();
+  }
+}
@@ -0,0 +1,106 @@
+package spreadsheet;
+
+/**
+ * A region whose cells hold an arithmetic progression laid out in row-major order over an
+ * origin rectangle, as written by {@link SpreadSheet#fillProgression}. The value of a cell
+ * depends only on its offset from the origin, so a piece cut from the region keeps the
+ * origin and computes exactly what the whole region did.
+ */
+final class ProgressionRegion extends ValueRegion {
+  private final int originRow;
+  private final int originCol;
+  private final int stride;
+  private final double startValue;
+  private final double increment;
+
+  /**
+   * Create a region covering the given rectangle, with the first cell holding the start
+   * value and each following cell, in row-major order, one increment more.
+   *
+   * @param fromRow    the starting row (inclusive)
+   * @param fromCol    the starting column (inclusive)
+   * @param toRow      the ending row (inclusive)
+   * @param toCol      the ending column (inclusive)
+   * @param startValue the value of the first cell
+   * @param increment  the difference between consecutive cells
+   */
+  ProgressionRegion(int fromRow, int fromCol, int toRow, int toCol, double startValue,
+                    double increment) {
+    this(fromRow, fromCol, toRow, toCol, fromRow, fromCol, toCol - fromCol + 1, startValue,
+            increment);
+  }
+
+  private ProgressionRegion(int fromRow, int fromCol, int toRow, int toCol, int originRow,
+                            int originCol, int stride, double startValue, double increment) {
+    super(fromRow, fromCol, toRow, toCol);
+    this.originRow = originRow;
+    this.originCol = originCol;
+    this.stride = stride;
+    this.startValue = startValue;
+    this.increment = increment;
+  }
+
+  @Override
+  double valueAt(int row, int col) {
+    long k = (long) (row - originRow) * stride + (col - originCol);
+    return startValue + k * increment;
+  }
+
+  @Override
+  ValueRegion restrict(int fromRow, int fromCol, int toRow, int toCol) {
+    return new ProgressionRegion(fromRow, fromCol, toRow, toCol, originRow, originCol, stride,
+            startValue, increment);
+  }
+
+  /**
+   * Return whether the given region is a progression with the same origin, stride, start
+   * value and increment. Pieces cut from one progression, and only those, compute the
+   * same value for every cell, since each value depends on its offset from the origin.
+   */
+  @Override
+  boolean sameValues(ValueRegion other) {
+    if (!(other instanceof ProgressionRegion)) {
+      return false;
+    }
+    ProgressionRegion progression = (ProgressionRegion) other;
+    return originRow == progression.originRow && originCol == progression.originCol
+            && stride == progression.stride
+            && Double.compare(startValue, progression.startValue) == 0
+            && Double.compare(increment, progression.increment) == 0;
+  }
+
+  /**
+   * Return the sum over the overlap in closed form. Each cell is the start value plus the
+   * increment times its offset, and the offsets of a rectangle sum to the row offsets times
+   * the stride plus the column offsets, each an arithmetic series.
+   */
+  @Override
+  double sum(int fromRow, int fromCol, int toRow, int toCol) {
+    int firstRow = Math.max(fromRow, this.fromRow);
+    int lastRow = Math.min(toRow, this.toRow);
+    int firstCol = Math.max(fromCol, this.fromCol);
+    int lastCol = Math.min(toCol, this.toCol);
+    if (firstRow > lastRow || firstCol > lastCol) {
+      return 0.0;
+    }
+    double rows = (double) lastRow - firstRow + 1;
+    double cols = (double) lastCol - firstCol + 1;
+    double rowOffsets = rows * ((double) firstRow - originRow + lastRow - originRow) / 2;
+    double colOffsets = cols * ((double) firstCol - originCol + lastCol - originCol) / 2;
+    double offsets = cols * stride * rowOffsets + rows * colOffsets;
+    return rows * cols * startValue + increment * offsets;
+  }
+
+  /**
+   * Store the values of this region into the given sheet, as a single progression fill when
+   * the region is still the whole rectangle it was created for.
+   */
+  @Override
+  void writeTo(SpreadSheet sheet) {
+    if (fromRow == originRow && fromCol == originCol && toCol - fromCol + 1 == stride) {
+      sheet.fillProgression(fromRow, fromCol, toRow, toCol, startValue, increment);
+    } else {
+      super.writeTo(sheet);
+    }
+  }
+}
@@ -2,10 +2,11 @@ package spreadsheet;
 
 /**
  * A macro that assigns a range of values to a range of cells in a spreadsheet.
- * Values start from a given value and increase by a given increment.
+ * Values start from a given value and increase by a given increment, so the cell at
+ * row-major offset k within the range is set to startValue + k * increment.
  * This implements the Command Design Pattern.
  */
-public class RangeAssignMacro implements SpreadSheetMacro {
+public class RangeAssignMacro implements BandedMacro, RegionAssignMacro, FootprintMacro {
   private final int fromRow;
   private final int fromCol;
   private final int toRow;
@@ -49,13 +50,49 @@ public class RangeAssignMacro implements SpreadSheetMacro {
       throw new IllegalArgumentException("Sheet cannot be null");
     }
 
-    double currentValue = startValue;
+    sheet.fillProgression(fromRow, fromCol, toRow, toCol, startValue, increment);
+  }
 
-    for (int row = fromRow; row <= toRow; row++) {
-      for (int col = fromCol; col <= toCol; col++) {
-        sheet.set(row, col, currentValue);
-        currentValue += increment;
-      }
-    }
+  @Override
+  public boolean touches(int fromRow, int fromCol, int toRow, int toCol) {
+    return Ranges.overlap(this.fromRow, this.fromCol, this.toRow, this.toCol,
+            fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public ValueRegion toRegion() {
+    return new ProgressionRegion(fromRow, fromCol, toRow, toCol, startValue, increment);
+  }
+
+  @Override
+  public int getFromRow() {
+    return fromRow;
+  }
+
+  @Override
+  public int getToRow() {
+    return toRow;
+  }
+
+  @Override
+  public int getColumnCount() {
+    return toCol - fromCol + 1;
+  }
+
+  /**
+   * Write the given rows of the range as the part of the progression that falls on them, so
+   * that sheets with a faster way to fill a progression are used for every band and every
+   * cell gets exactly the value a single pass would give it.
+   */
+  @Override
+  public double executeBand(SpreadSheet sheet, int fromRow, int toRow) {
+    long k = (long) (fromRow - this.fromRow) * getColumnCount();
+    sheet.fillProgression(fromRow, fromCol, toRow, toCol, startValue, k, increment);
+    return 0.0;
+  }
+
+  @Override
+  public void complete(SpreadSheet sheet, double total) {
+    // Every band has already written its cells.
   }
 }
\ No newline at end of file
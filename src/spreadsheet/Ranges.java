@@ -0,0 +1,105 @@
+package spreadsheet;
+
+/**
+ * Checks shared by the range operations of {@link SpreadSheet} and its implementations.
+ */
+final class Ranges {
+  private Ranges() {
+  }
+
+  /**
+   * Check that the given rectangular range is valid.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @throws IllegalArgumentException if any index is negative or the range is empty
+   */
+  static void check(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    if (fromRow < 0 || fromCol < 0 || toRow < 0 || toCol < 0) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (fromRow > toRow || fromCol > toCol) {
+      throw new IllegalArgumentException("Invalid range: starting indices must "
+              + "be <= ending indices");
+    }
+  }
+
+  /**
+   * Check that the given range is valid and that the given array can hold one value for
+   * every cell in it.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @param values  the array that holds the values of the range
+   * @throws IllegalArgumentException if the range is invalid or the array is too small
+   */
+  static void check(int fromRow, int fromCol, int toRow, int toCol, double[] values)
+          throws IllegalArgumentException {
+    check(fromRow, fromCol, toRow, toCol);
+    if (values == null) {
+      throw new IllegalArgumentException("Array cannot be null");
+    }
+    if ((long) (toRow - fromRow + 1) * (toCol - fromCol + 1) > values.length) {
+      throw new IllegalArgumentException("Array is too small for the range");
+    }
+  }
+
+  /**
+   * Check that the given range is valid and that a visitor has been given.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @param visitor the visitor that receives the cells of the range
+   * @throws IllegalArgumentException if the range is invalid or the visitor is null
+   */
+  static void check(int fromRow, int fromCol, int toRow, int toCol, CellVisitor visitor)
+          throws IllegalArgumentException {
+    check(fromRow, fromCol, toRow, toCol);
+    if (visitor == null) {
+      throw new IllegalArgumentException("Visitor cannot be null");
+    }
+  }
+
+  /**
+   * Return the number of cells in the given rectangular range, or 0 if a start index is
+   * past its end index, as happens when a range is clipped to a sheet it lies outside of.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @return the number of cells in the range
+   */
+  static long area(int fromRow, int fromCol, int toRow, int toCol) {
+    if (fromRow > toRow || fromCol > toCol) {
+      return 0;
+    }
+    return ((long) toRow - fromRow + 1) * ((long) toCol - fromCol + 1);
+  }
+
+  /**
+   * Return whether two rectangular ranges share at least one cell.
+   *
+   * @param fromRow      the starting row of the first range (inclusive)
+   * @param fromCol      the starting column of the first range (inclusive)
+   * @param toRow        the ending row of the first range (inclusive)
+   * @param toCol        the ending column of the first range (inclusive)
+   * @param otherFromRow the starting row of the second range (inclusive)
+   * @param otherFromCol the starting column of the second range (inclusive)
+   * @param otherToRow   the ending row of the second range (inclusive)
+   * @param otherToCol   the ending column of the second range (inclusive)
+   * @return true if the two ranges overlap
+   */
+  static boolean overlap(int fromRow, int fromCol, int toRow, int toCol, int otherFromRow,
+                         int otherFromCol, int otherToRow, int otherToCol) {
+    return fromRow <= otherToRow && toRow >= otherFromRow
+            && fromCol <= otherToCol && toCol >= otherFromCol;
+  }
+}
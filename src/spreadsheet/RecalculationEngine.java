@@ -0,0 +1,190 @@
+package spreadsheet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+/**
+ * Plans and runs the recalculation of the dirty formulas of a {@link FormulaSpreadSheet}.
+ * The formulas that need recalculating are the dirty ones and every formula that depends
+ * on them, directly or through other formulas. This subgraph, and nothing else, is sorted
+ * into levels with Kahn's algorithm: the first level holds the formulas that depend on no
+ * other formula in the subgraph, and each later level holds the formulas whose inputs all
+ * lie in earlier levels. Formulas left over once no level can be formed lie on a cycle.
+ *
+ * <p>The formulas of one level do not depend on each other, so they are evaluated
+ * independently: on the calling thread for small levels, and as fork/join tasks once the
+ * work of a level, counting the cells of every range that has to be summed again, reaches
+ * the threshold. Evaluating only reads the sheet, which must then be safe to read from
+ * several threads at once while nothing writes to it.
+ */
+public class RecalculationEngine {
+  /**
+   * The default amount of work, in cells, below which a level is evaluated on the calling
+   * thread.
+   */
+  public static final int DEFAULT_THRESHOLD = 1 << 16;
+
+  private final ForkJoinPool pool;
+  private final int threshold;
+
+  /**
+   * Create an engine that evaluates every level on the calling thread.
+   */
+  public RecalculationEngine() {
+    this.pool = null;
+    this.threshold = Integer.MAX_VALUE;
+  }
+
+  /**
+   * Create an engine that evaluates large levels in parallel on the given pool.
+   *
+   * @param pool      the pool to evaluate levels on
+   * @param threshold the amount of work, in cells, below which a level is evaluated on the
+   *                  calling thread
+   * @throws IllegalArgumentException if the pool is null or the threshold is not positive
+   */
+  public RecalculationEngine(ForkJoinPool pool, int threshold) throws IllegalArgumentException {
+    if (pool == null) {
+      throw new IllegalArgumentException("Pool cannot be null");
+    }
+    if (threshold <= 0) {
+      throw new IllegalArgumentException("Threshold must be positive");
+    }
+    this.pool = pool;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Sort the given dirty formulas and everything that depends on them into levels.
+   *
+   * @param dirty        the formulas whose inputs changed
+   * @param dependentsOf returns the formulas whose range contains the cell of a formula
+   * @return the levels, in the order they must be evaluated
+   * @throws IllegalStateException if the formulas to recalculate depend on each other in a
+   *                               cycle
+   */
+  List<List<FormulaCell>> level(List<FormulaCell> dirty,
+                                Function<FormulaCell, List<FormulaCell>> dependentsOf)
+          throws IllegalStateException {
+    List<FormulaCell> nodes = new ArrayList<FormulaCell>();
+    for (FormulaCell cell : dirty) {
+      if (cell.pending < 0) {
+        cell.pending = 0;
+        nodes.add(cell);
+      }
+    }
+    for (int i = 0; i < nodes.size(); i++) {
+      FormulaCell cell = nodes.get(i);
+      cell.dependents = dependentsOf.apply(cell);
+      for (FormulaCell dependent : cell.dependents) {
+        if (dependent.pending < 0) {
+          dependent.pending = 0;
+          nodes.add(dependent);
+        }
+        dependent.pending++;
+      }
+    }
+
+    List<List<FormulaCell>> levels = new ArrayList<List<FormulaCell>>();
+    List<FormulaCell> current = new ArrayList<FormulaCell>();
+    for (FormulaCell cell : nodes) {
+      if (cell.pending == 0) {
+        current.add(cell);
+      }
+    }
+    int leveled = 0;
+    while (!current.isEmpty()) {
+      levels.add(current);
+      leveled += current.size();
+      List<FormulaCell> next = new ArrayList<FormulaCell>();
+      for (FormulaCell cell : current) {
+        for (FormulaCell dependent : cell.dependents) {
+          if (--dependent.pending == 0) {
+            next.add(dependent);
+          }
+        }
+      }
+      current = next;
+    }
+
+    for (FormulaCell cell : nodes) {
+      cell.pending = -1;
+      cell.dependents = null;
+    }
+    if (leveled < nodes.size()) {
+      throw new IllegalStateException("Circular reference between formulas");
+    }
+    return levels;
+  }
+
+  /**
+   * Compute the value of every formula of one level from its running sum, summing its range
+   * again first where the running sum cannot be trusted. The values are left in the cells
+   * for the caller to store.
+   *
+   * @param level the formulas of the level
+   * @param sheet the sheet holding the values the formulas read
+   */
+  void evaluate(List<FormulaCell> level, SpreadSheet sheet) {
+    if (pool == null || cost(level, 0, level.size()) < threshold) {
+      evaluate(level, 0, level.size(), sheet);
+    } else {
+      pool.invoke(new Evaluation(level, 0, level.size(), sheet));
+    }
+  }
+
+  private long cost(List<FormulaCell> level, int from, int to) {
+    long cost = 0;
+    for (int i = from; i < to; i++) {
+      FormulaCell cell = level.get(i);
+      cost += cell.rescan ? cell.formula.area() : 1;
+    }
+    return cost;
+  }
+
+  private static void evaluate(List<FormulaCell> level, int from, int to, SpreadSheet sheet) {
+    for (int i = from; i < to; i++) {
+      FormulaCell cell = level.get(i);
+      Formula formula = cell.formula;
+      if (cell.rescan) {
+        cell.sum = sheet.sumRange(formula.getFromRow(), formula.getFromCol(),
+                formula.getToRow(), formula.getToCol());
+        cell.peak = Math.abs(cell.sum);
+      }
+      cell.value = formula.evaluate(cell.sum);
+    }
+  }
+
+  /**
+   * A task that evaluates part of a level, splitting it while it holds too much work.
+   */
+  private final class Evaluation extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<FormulaCell> level;
+    private final int from;
+    private final int to;
+    private final SpreadSheet sheet;
+
+    private Evaluation(List<FormulaCell> level, int from, int to, SpreadSheet sheet) {
+      this.level = level;
+      this.from = from;
+      this.to = to;
+      this.sheet = sheet;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= 1 || cost(level, from, to) < threshold) {
+        evaluate(level, from, to, sheet);
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new Evaluation(level, from, middle, sheet),
+              new Evaluation(level, middle, to, sheet));
+    }
+  }
+}
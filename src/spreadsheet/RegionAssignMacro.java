@@ -0,0 +1,16 @@
+package spreadsheet;
+
+/**
+ * A macro whose whole effect is to assign computed values to the cells of one rectangle,
+ * without reading the sheet. Batches of such macros can be analyzed before they run, since
+ * what each one writes is known up front.
+ */
+interface RegionAssignMacro extends SpreadSheetMacro {
+  /**
+   * Return the region of values this macro assigns. Writing the region into a sheet must
+   * have the same effect as {@link #execute(SpreadSheet)}.
+   *
+   * @return the assigned region
+   */
+  ValueRegion toRegion();
+}
@@ -0,0 +1,260 @@
+package spreadsheet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An index of non-overlapping regions by position. The sheet is divided into square buckets
+ * on several levels, each level's buckets four times as wide and tall as the level below,
+ * and every region is entered on the finest level where it spans at most two buckets each
+ * way. Finding the region that holds a cell then probes one bucket per level in use, and a
+ * bucket only lists regions of about its own size or larger, so the cost does not grow with
+ * the number of regions elsewhere in the sheet.
+ */
+final class RegionIndex {
+  private static final int BASE_SHIFT = Tile.SHIFT;
+  private static final int LEVEL_STEP = 2;
+
+  /**
+   * Enough levels for the coarsest one to span every row and column in two buckets.
+   */
+  private static final int LEVELS = (30 - BASE_SHIFT) / LEVEL_STEP + 1;
+
+  private final List<LongObjectMap<List<ValueRegion>>> levels;
+  private final int[] counts;
+  private int size;
+  private int width;
+  private int height;
+  private boolean extentStale;
+
+  /**
+   * Create an empty index.
+   */
+  RegionIndex() {
+    this.levels = new ArrayList<LongObjectMap<List<ValueRegion>>>(LEVELS);
+    for (int level = 0; level < LEVELS; level++) {
+      this.levels.add(new LongObjectMap<List<ValueRegion>>());
+    }
+    this.counts = new int[LEVELS];
+    this.size = 0;
+    this.width = 0;
+    this.height = 0;
+    this.extentStale = false;
+  }
+
+  /**
+   * Create an index holding the same regions as the given one. The regions themselves are
+   * shared, since they never change.
+   *
+   * @param other the index to copy
+   */
+  RegionIndex(RegionIndex other) {
+    this();
+    other.forEach(this::add);
+  }
+
+  /**
+   * Return the number of regions in this index.
+   *
+   * @return the number of regions
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Return the region that holds the given cell.
+   *
+   * @param row the row of the cell
+   * @param col the column of the cell
+   * @return the region, or null if no region holds the cell
+   */
+  ValueRegion at(int row, int col) {
+    for (int level = 0; level < LEVELS; level++) {
+      if (counts[level] == 0) {
+        continue;
+      }
+      int shift = shiftOf(level);
+      List<ValueRegion> bucket = levels.get(level).get(LongDoubleMap.key(row >>> shift,
+              col >>> shift));
+      if (bucket != null) {
+        for (ValueRegion region : bucket) {
+          if (region.contains(row, col)) {
+            return region;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Return the regions that overlap the given range, each once. No list is allocated when
+   * there are none.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @return the overlapping regions
+   */
+  List<ValueRegion> overlapping(int fromRow, int fromCol, int toRow, int toCol) {
+    List<ValueRegion> found = Collections.emptyList();
+    for (int level = 0; level < LEVELS; level++) {
+      if (counts[level] == 0) {
+        continue;
+      }
+      int shift = shiftOf(level);
+      int firstRow = fromRow >>> shift;
+      int firstCol = fromCol >>> shift;
+      LongObjectMap<List<ValueRegion>> buckets = levels.get(level);
+      for (long key : buckets.keysWithin(firstRow, firstCol, toRow >>> shift,
+              toCol >>> shift)) {
+        int bucketRow = LongDoubleMap.rowOf(key);
+        int bucketCol = LongDoubleMap.colOf(key);
+        for (ValueRegion region : buckets.get(key)) {
+          // A region listed in several of these buckets is taken from the first of them.
+          if (region.overlaps(fromRow, fromCol, toRow, toCol)
+                  && bucketRow == Math.max(region.fromRow >>> shift, firstRow)
+                  && bucketCol == Math.max(region.fromCol >>> shift, firstCol)) {
+            if (found.isEmpty()) {
+              found = new ArrayList<ValueRegion>();
+            }
+            found.add(region);
+          }
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Pass every region in this index to the given consumer, each once.
+   *
+   * @param consumer the consumer to receive each region
+   */
+  void forEach(Consumer<ValueRegion> consumer) {
+    for (int level = 0; level < LEVELS; level++) {
+      if (counts[level] == 0) {
+        continue;
+      }
+      int shift = shiftOf(level);
+      levels.get(level).forEach((key, bucket) -> {
+        for (ValueRegion region : bucket) {
+          if (LongDoubleMap.rowOf(key) == region.fromRow >>> shift
+                  && LongDoubleMap.colOf(key) == region.fromCol >>> shift) {
+            consumer.accept(region);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Add a region that overlaps none of the regions in this index.
+   *
+   * @param region the region to add
+   */
+  void add(ValueRegion region) {
+    int level = levelOf(region);
+    int shift = shiftOf(level);
+    LongObjectMap<List<ValueRegion>> buckets = levels.get(level);
+    for (int row = region.fromRow >>> shift; row <= region.toRow >>> shift; row++) {
+      for (int col = region.fromCol >>> shift; col <= region.toCol >>> shift; col++) {
+        long key = LongDoubleMap.key(row, col);
+        List<ValueRegion> bucket = buckets.get(key);
+        if (bucket == null) {
+          bucket = new ArrayList<ValueRegion>(2);
+          buckets.put(key, bucket);
+        }
+        bucket.add(region);
+      }
+    }
+    counts[level]++;
+    size++;
+    if (!extentStale) {
+      width = Math.max(width, region.toCol + 1);
+      height = Math.max(height, region.toRow + 1);
+    }
+  }
+
+  /**
+   * Remove a region from this index.
+   *
+   * @param region the region to remove, which must be in this index
+   */
+  void remove(ValueRegion region) {
+    int level = levelOf(region);
+    int shift = shiftOf(level);
+    LongObjectMap<List<ValueRegion>> buckets = levels.get(level);
+    for (int row = region.fromRow >>> shift; row <= region.toRow >>> shift; row++) {
+      for (int col = region.fromCol >>> shift; col <= region.toCol >>> shift; col++) {
+        long key = LongDoubleMap.key(row, col);
+        List<ValueRegion> bucket = buckets.get(key);
+        for (int i = bucket.size() - 1; i >= 0; i--) {
+          if (bucket.get(i) == region) {
+            bucket.remove(i);
+          }
+        }
+        if (bucket.isEmpty()) {
+          buckets.remove(key);
+        }
+      }
+    }
+    counts[level]--;
+    size--;
+    if (region.toCol + 1 == width || region.toRow + 1 == height) {
+      extentStale = true;
+    }
+  }
+
+  /**
+   * Return one more than the highest column covered by a region, or 0 if there are none.
+   *
+   * @return the width of the regions
+   */
+  int width() {
+    updateExtent();
+    return width;
+  }
+
+  /**
+   * Return one more than the highest row covered by a region, or 0 if there are none.
+   *
+   * @return the height of the regions
+   */
+  int height() {
+    updateExtent();
+    return height;
+  }
+
+  private void updateExtent() {
+    if (!extentStale) {
+      return;
+    }
+    width = 0;
+    height = 0;
+    extentStale = false;
+    forEach(region -> {
+      width = Math.max(width, region.toCol + 1);
+      height = Math.max(height, region.toRow + 1);
+    });
+  }
+
+  private static int levelOf(ValueRegion region) {
+    for (int level = 0; level < LEVELS - 1; level++) {
+      int shift = shiftOf(level);
+      if ((region.toRow >>> shift) - (region.fromRow >>> shift) <= 1
+              && (region.toCol >>> shift) - (region.fromCol >>> shift) <= 1) {
+        return level;
+      }
+    }
+    return LEVELS - 1;
+  }
+
+  private static int shiftOf(int level) {
+    return BASE_SHIFT + level * LEVEL_STEP;
+  }
+}
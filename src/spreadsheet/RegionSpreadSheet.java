@@ -0,0 +1,328 @@
+package spreadsheet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class represents a spreadsheet that records large rectangular assignments lazily.
+ * Filling a range with one value or with an arithmetic progression stores a single region
+ * describing the rectangle and how to compute its values instead of writing every cell;
+ * reads resolve through the regions first and fall back to the wrapped sheet, and sums over
+ * a region are computed in closed form. Regions never overlap each other, and the wrapped
+ * sheet holds no cells inside any region, so every cell has exactly one source.
+ *
+ * <p>Writing a cell or range inside a region cuts the written rectangle out of the region,
+ * leaving at most four smaller regions around it. Pieces too small to be worth keeping are
+ * written into the wrapped sheet, and regions that compute the same values and share an
+ * edge are joined back together. Once there are too many regions, the smallest is written
+ * into the wrapped sheet if it covers no more than a tile's worth of cells; larger regions
+ * are always kept. Regions are kept in a {@link RegionIndex}, so resolving a cell costs the
+ * same however many large regions the sheet holds elsewhere.
+ *
+ * <p>A snapshot shares the region index with this sheet until the next write that changes
+ * a region, which copies it, and reads the cells from a snapshot of the wrapped sheet.
+ */
+public class RegionSpreadSheet implements SnapshottableSpreadSheet {
+  /**
+   * Regions covering at most this many cells are written into the wrapped sheet instead.
+   */
+  private static final int MATERIALIZE_AREA = 256;
+
+  /**
+   * The number of regions past which small regions are written into the wrapped sheet,
+   * which bounds the cost of resolving a single cell.
+   */
+  private static final int MAX_REGIONS = 64;
+
+  /**
+   * Regions covering more than this many cells are never written out to make room.
+   */
+  private static final int EVICT_AREA = Tile.SIZE * Tile.SIZE;
+
+  private final SpreadSheet sheet;
+  private final List<ValueRegion> small;
+  private final boolean readOnly;
+  private RegionIndex regions;
+  private boolean indexShared;
+
+  /**
+   * Create a spreadsheet that keeps individual cells in the given sheet.
+   *
+   * @param sheet the sheet that stores cells outside of any region, must be empty
+   * @throws IllegalArgumentException if the sheet is null
+   */
+  public RegionSpreadSheet(SpreadSheet sheet) throws IllegalArgumentException {
+    if (sheet == null) {
+      throw new IllegalArgumentException("Sheet cannot be null");
+    }
+    this.sheet = sheet;
+    this.small = new ArrayList<ValueRegion>();
+    this.readOnly = false;
+    this.regions = new RegionIndex();
+    this.indexShared = false;
+  }
+
+  private RegionSpreadSheet(SpreadSheet sheet, RegionIndex regions) {
+    this.sheet = sheet;
+    this.small = new ArrayList<ValueRegion>();
+    this.readOnly = true;
+    this.regions = regions;
+    this.indexShared = true;
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    ValueRegion region = regions.at(row, col);
+    return region == null ? sheet.get(row, col) : region.valueAt(row, col);
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    ensureWritable();
+    cutOut(row, col, row, col);
+    sheet.set(row, col, value);
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    return regions.at(row, col) == null && sheet.isEmpty(row, col);
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    ensureWritable();
+    cutOut(row, col, row, col);
+    sheet.clear(row, col);
+  }
+
+  /**
+   * Assign the given value to every cell in the given range. Unless the range is small, it
+   * is recorded as a single region and no cell is written.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @param value   the value to assign
+   * @throws IllegalArgumentException if any index is negative or the range is invalid
+   */
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    ensureWritable();
+    assign(new ConstantRegion(fromRow, fromCol, toRow, toCol, value));
+  }
+
+  /**
+   * Set the cells of the given range to an arithmetic progression in row-major order.
+   * Unless the range is small, it is recorded as a single region whose values are computed
+   * from their offset when read, and no cell is written.
+   *
+   * @param fromRow    the starting row (inclusive)
+   * @param fromCol    the starting column (inclusive)
+   * @param toRow      the ending row (inclusive)
+   * @param toCol      the ending column (inclusive)
+   * @param startValue the value of the first cell of the range
+   * @param increment  the difference between consecutive cells
+   * @throws IllegalArgumentException if any index is negative or the range is invalid
+   */
+  @Override
+  public void fillProgression(int fromRow, int fromCol, int toRow, int toCol,
+                              double startValue, double increment)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    ensureWritable();
+    assign(new ProgressionRegion(fromRow, fromCol, toRow, toCol, startValue, increment));
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    sheet.readRange(fromRow, fromCol, toRow, toCol, dest);
+    for (ValueRegion region : regions.overlapping(fromRow, fromCol, toRow, toCol)) {
+      region.readInto(fromRow, fromCol, toRow, toCol, dest);
+    }
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, src);
+    ensureWritable();
+    cutOut(fromRow, fromCol, toRow, toCol);
+    sheet.writeRange(fromRow, fromCol, toRow, toCol, src);
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    ensureWritable();
+    cutOut(fromRow, fromCol, toRow, toCol);
+    sheet.clearRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    sheet.forEachNonEmpty(fromRow, fromCol, toRow, toCol, visitor);
+    for (ValueRegion region : regions.overlapping(fromRow, fromCol, toRow, toCol)) {
+      region.forEach(fromRow, fromCol, toRow, toCol, visitor);
+    }
+  }
+
+  @Override
+  public double sumRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    double sum = sheet.sumRange(fromRow, fromCol, toRow, toCol);
+    for (ValueRegion region : regions.overlapping(fromRow, fromCol, toRow, toCol)) {
+      sum += region.sum(fromRow, fromCol, toRow, toCol);
+    }
+    return sum;
+  }
+
+  @Override
+  public int getWidth() {
+    return Math.max(sheet.getWidth(), regions.width());
+  }
+
+  @Override
+  public int getHeight() {
+    return Math.max(sheet.getHeight(), regions.height());
+  }
+
+  /**
+   * Return the number of regions currently held instead of individual cells.
+   *
+   * @return the number of regions
+   */
+  public int getRegionCount() {
+    return regions.size();
+  }
+
+  /**
+   * Return a read-only view of this spreadsheet as it is right now. The view shares the
+   * regions with this sheet and reads cells from a snapshot of the wrapped sheet, which is
+   * copied if it cannot take snapshots of its own.
+   *
+   * @return a read-only snapshot of this spreadsheet
+   */
+  @Override
+  public SpreadSheet snapshot() {
+    // Settle the extent now, so that nothing writes to the index while it is shared.
+    regions.width();
+    indexShared = true;
+    return new RegionSpreadSheet(TiledSpreadSheet.snapshotOf(sheet), regions);
+  }
+
+  private void ensureWritable() {
+    if (readOnly) {
+      throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+  }
+
+  /**
+   * Return the region index, first copying it if a snapshot still shares it.
+   */
+  private RegionIndex writableRegions() {
+    if (indexShared) {
+      regions = new RegionIndex(regions);
+      indexShared = false;
+    }
+    return regions;
+  }
+
+  private void assign(ValueRegion region) {
+    cutOut(region.fromRow, region.fromCol, region.toRow, region.toCol);
+    if (region.area() <= MATERIALIZE_AREA) {
+      region.writeTo(sheet);
+    } else {
+      // This costs no more than the cells the wrapped sheet holds within the region.
+      sheet.clearRange(region.fromRow, region.fromCol, region.toRow, region.toCol);
+      add(region);
+    }
+  }
+
+  private void cutOut(int fromRow, int fromCol, int toRow, int toCol) {
+    if (regions.size() == 0) {
+      return;
+    }
+    List<ValueRegion> hit;
+    if (fromRow == toRow && fromCol == toCol) {
+      // A single cell lies in at most one region, which is found without allocating.
+      ValueRegion region = regions.at(fromRow, fromCol);
+      if (region == null) {
+        return;
+      }
+      hit = Collections.singletonList(region);
+    } else {
+      hit = regions.overlapping(fromRow, fromCol, toRow, toCol);
+      if (hit.isEmpty()) {
+        return;
+      }
+    }
+    RegionIndex index = writableRegions();
+    List<ValueRegion> pieces = new ArrayList<ValueRegion>();
+    for (ValueRegion region : hit) {
+      index.remove(region);
+      small.remove(region);
+      pieces.addAll(region.subtract(fromRow, fromCol, toRow, toCol));
+    }
+    for (ValueRegion piece : pieces) {
+      if (piece.area() <= MATERIALIZE_AREA) {
+        piece.writeTo(sheet);
+      } else {
+        add(piece);
+      }
+    }
+  }
+
+  private void add(ValueRegion region) {
+    RegionIndex index = writableRegions();
+    boolean grown = true;
+    while (grown) {
+      grown = false;
+      // Only regions that overlap or touch this one can share an edge with it.
+      for (ValueRegion other : index.overlapping(Math.max(0, region.fromRow - 1),
+              Math.max(0, region.fromCol - 1), (int) Math.min(Integer.MAX_VALUE,
+              region.toRow + 1L), (int) Math.min(Integer.MAX_VALUE, region.toCol + 1L))) {
+        ValueRegion union = region.merge(other);
+        if (union != null) {
+          index.remove(other);
+          small.remove(other);
+          region = union;
+          grown = true;
+        }
+      }
+    }
+    index.add(region);
+    if (region.area() <= EVICT_AREA) {
+      small.add(region);
+    }
+    if (index.size() > MAX_REGIONS && !small.isEmpty()) {
+      int smallest = 0;
+      for (int i = 1; i < small.size(); i++) {
+        if (small.get(i).area() < small.get(smallest).area()) {
+          smallest = i;
+        }
+      }
+      ValueRegion evicted = small.remove(smallest);
+      index.remove(evicted);
+      evicted.writeTo(sheet);
+    }
+  }
+}
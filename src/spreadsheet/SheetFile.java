@@ -0,0 +1,379 @@
+package spreadsheet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The contents of a sheet saved in a compact binary file, and the methods that save and
+ * load them. The file starts with a header holding the height and width of the sheet and
+ * the number of tiles, followed by a directory with the coordinates, position, length and
+ * CRC32 of each tile. Each tile covers a {@link Tile}-sized block of cells and stores its
+ * occupancy bitmap, one long per row, followed by the values of its occupied cells as
+ * primitive doubles in row-major order. Tiles may be compressed with {@link Deflater}.
+ *
+ * <p>Everything goes through {@link ByteBuffer}s and a {@link FileChannel}. A file is read
+ * and checked in full by {@link #read(Path)} before {@link #writeTo(SpreadSheet)} touches a
+ * sheet. Writing to the sheet stores whole tiles, or runs of occupied cells within a row,
+ * with {@link SpreadSheet#writeRange(int, int, int, int, double[])}, so it costs a few calls
+ * per tile instead of one per cell.
+ */
+public final class SheetFile {
+  private static final int MAGIC = 0x5353_4246;
+  private static final int VERSION = 1;
+  private static final int COMPRESSED = 1;
+  private static final int HEADER_BYTES = 6 * Integer.BYTES;
+  private static final int ENTRY_BYTES = 5 * Integer.BYTES + Long.BYTES;
+  private static final int BITMAP_BYTES = Tile.SIZE * Long.BYTES;
+  private static final int MAX_TILE_BYTES = BITMAP_BYTES + Tile.SIZE * Tile.SIZE * Double.BYTES;
+  private static final int OUTPUT_BYTES = 1 << 20;
+
+  private final Path file;
+  private final boolean compressed;
+  private final int height;
+  private final int width;
+  private final int[] tileRows;
+  private final int[] tileCols;
+  private final int[] rawLengths;
+  private final ByteBuffer[] tiles;
+
+  private SheetFile(Path file, boolean compressed, int height, int width, int count) {
+    this.file = file;
+    this.compressed = compressed;
+    this.height = height;
+    this.width = width;
+    this.tileRows = new int[count];
+    this.tileCols = new int[count];
+    this.rawLengths = new int[count];
+    this.tiles = new ByteBuffer[count];
+  }
+
+  /**
+   * Write every non-empty cell of the given sheet to the given file, replacing its contents,
+   * and force the file to disk.
+   *
+   * @param sheet    the sheet to save
+   * @param file     the file to write
+   * @param compress true to compress each tile
+   * @throws IOException              if the file cannot be written
+   * @throws IllegalArgumentException if the sheet or the file is null
+   */
+  public static void save(SpreadSheet sheet, Path file, boolean compress)
+          throws IOException, IllegalArgumentException {
+    if (sheet == null) {
+      throw new IllegalArgumentException("Sheet cannot be null");
+    }
+    if (file == null) {
+      throw new IllegalArgumentException("File cannot be null");
+    }
+    LongObjectMap<Tile> tiles = new LongObjectMap<Tile>();
+    sheet.forEachNonEmpty((row, col, value) -> {
+      long key = LongDoubleMap.key(Tile.tileOf(row), Tile.tileOf(col));
+      Tile tile = tiles.get(key);
+      if (tile == null) {
+        tile = new Tile();
+        tiles.put(key, tile);
+      }
+      tile.set(Tile.localOf(row), Tile.localOf(col), value);
+    });
+    long[] keys = new long[tiles.size()];
+    int[] next = new int[1];
+    tiles.forEach((key, tile) -> keys[next[0]++] = key);
+    Arrays.sort(keys);
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer directory = ByteBuffer.allocate(HEADER_BYTES + keys.length * ENTRY_BYTES);
+      directory.putInt(MAGIC).putInt(VERSION).putInt(compress ? COMPRESSED : 0)
+              .putInt(sheet.getHeight()).putInt(sheet.getWidth()).putInt(keys.length);
+      ByteBuffer raw = ByteBuffer.allocate(MAX_TILE_BYTES);
+      byte[] packed = new byte[MAX_TILE_BYTES + MAX_TILE_BYTES / 100 + 64];
+      ByteBuffer output = ByteBuffer.allocate(OUTPUT_BYTES);
+      Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+      CRC32 crc = new CRC32();
+      long position = directory.capacity();
+      channel.position(position);
+      try {
+        for (long key : keys) {
+          raw.clear();
+          encode(tiles.get(key), raw);
+          raw.flip();
+          ByteBuffer stored = raw;
+          if (deflater != null) {
+            deflater.reset();
+            deflater.setInput(raw.array(), 0, raw.limit());
+            deflater.finish();
+            int packedLength = 0;
+            while (!deflater.finished()) {
+              packedLength += deflater.deflate(packed, packedLength, packed.length - packedLength);
+            }
+            stored = ByteBuffer.wrap(packed, 0, packedLength);
+          }
+          int length = stored.remaining();
+          crc.reset();
+          crc.update(stored.duplicate());
+          directory.putInt(LongDoubleMap.rowOf(key)).putInt(LongDoubleMap.colOf(key))
+                  .putLong(position).putInt(length).putInt(raw.limit())
+                  .putInt((int) crc.getValue());
+          if (output.remaining() < length) {
+            drain(channel, output);
+          }
+          output.put(stored);
+          position += length;
+        }
+      } finally {
+        if (deflater != null) {
+          deflater.end();
+        }
+      }
+      drain(channel, output);
+      directory.flip();
+      while (directory.hasRemaining()) {
+        channel.write(directory, directory.position());
+      }
+      channel.force(true);
+    }
+  }
+
+  /**
+   * Write the cells stored in the given file into the given sheet. Cells of the sheet that
+   * are empty in the file are left as they are. Nothing is written if the file is damaged.
+   *
+   * @param file  the file to read
+   * @param sheet the sheet to write the cells into
+   * @throws IOException              if the file cannot be read or is damaged
+   * @throws IllegalArgumentException if the file or the sheet is null, or if the file is not
+   *                                  a sheet file
+   */
+  public static void load(Path file, SpreadSheet sheet)
+          throws IOException, IllegalArgumentException {
+    if (sheet == null) {
+      throw new IllegalArgumentException("Sheet cannot be null");
+    }
+    read(file).writeTo(sheet);
+  }
+
+  /**
+   * Read the given file into memory and check every tile against its checksum, without
+   * writing it to a sheet yet.
+   *
+   * @param file the file to read
+   * @return the contents of the file
+   * @throws IOException              if the file cannot be read or is damaged
+   * @throws IllegalArgumentException if the file is null or is not a sheet file
+   */
+  public static SheetFile read(Path file) throws IOException, IllegalArgumentException {
+    if (file == null) {
+      throw new IllegalArgumentException("File cannot be null");
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer header = read(channel, 0, HEADER_BYTES, file);
+      if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+        throw new IllegalArgumentException("Not a sheet file: " + file);
+      }
+      boolean compressed = (header.getInt() & COMPRESSED) != 0;
+      int height = header.getInt();
+      int width = header.getInt();
+      int count = header.getInt();
+      if (count < 0 || count > (channel.size() - HEADER_BYTES) / ENTRY_BYTES) {
+        throw new IOException("Damaged sheet file: " + file);
+      }
+      ByteBuffer directory = read(channel, HEADER_BYTES, count * ENTRY_BYTES, file);
+      SheetFile contents = new SheetFile(file, compressed, height, width, count);
+      CRC32 crc = new CRC32();
+      for (int i = 0; i < count; i++) {
+        int tileRow = directory.getInt();
+        int tileCol = directory.getInt();
+        long position = directory.getLong();
+        int length = directory.getInt();
+        int rawLength = directory.getInt();
+        int checksum = directory.getInt();
+        if (tileRow < 0 || tileCol < 0 || (long) tileRow << Tile.SHIFT >= height
+                || (long) tileCol << Tile.SHIFT >= width || length < 0
+                || rawLength < BITMAP_BYTES || rawLength > MAX_TILE_BYTES) {
+          throw new IOException("Damaged sheet file: " + file);
+        }
+        ByteBuffer stored = read(channel, position, length, file);
+        crc.reset();
+        crc.update(stored.duplicate());
+        if ((int) crc.getValue() != checksum) {
+          throw new IOException("Damaged sheet file: " + file);
+        }
+        contents.tileRows[i] = tileRow;
+        contents.tileCols[i] = tileCol;
+        contents.rawLengths[i] = rawLength;
+        contents.tiles[i] = stored;
+      }
+      return contents;
+    }
+  }
+
+  /**
+   * Return the number of rows of the sheet that was saved.
+   *
+   * @return the height of the saved sheet
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Return the number of columns of the sheet that was saved.
+   *
+   * @return the width of the saved sheet
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Write the cells read from the file into the given sheet. Cells of the sheet that are
+   * empty in the file are left as they are.
+   *
+   * @param sheet the sheet to write the cells into
+   * @throws IOException              if a tile cannot be unpacked
+   * @throws IllegalArgumentException if the sheet is null
+   */
+  public void writeTo(SpreadSheet sheet) throws IOException, IllegalArgumentException {
+    if (sheet == null) {
+      throw new IllegalArgumentException("Sheet cannot be null");
+    }
+    Inflater inflater = compressed ? new Inflater() : null;
+    byte[] raw = new byte[MAX_TILE_BYTES];
+    long[] bitmap = new long[Tile.SIZE];
+    double[] values = new double[Tile.SIZE * Tile.SIZE];
+    double[] run = new double[Tile.SIZE];
+    try {
+      for (int i = 0; i < tiles.length; i++) {
+        ByteBuffer tile = tiles[i].duplicate();
+        if (inflater != null) {
+          inflater.reset();
+          inflater.setInput(tile.array(), 0, tile.remaining());
+          try {
+            if (inflater.inflate(raw, 0, rawLengths[i]) != rawLengths[i]) {
+              throw new IOException("Damaged sheet file: " + file);
+            }
+          } catch (DataFormatException e) {
+            throw new IOException("Damaged sheet file: " + file, e);
+          }
+          tile = ByteBuffer.wrap(raw, 0, rawLengths[i]);
+        }
+        if (!decode(tile, bitmap, values)) {
+          throw new IOException("Damaged sheet file: " + file);
+        }
+        store(sheet, tileRows[i] << Tile.SHIFT, tileCols[i] << Tile.SHIFT, bitmap, values,
+                run);
+      }
+    } finally {
+      if (inflater != null) {
+        inflater.end();
+      }
+    }
+  }
+
+  private static void encode(Tile tile, ByteBuffer raw) {
+    for (long bits : tile.occupied) {
+      raw.putLong(bits);
+    }
+    for (int localRow = 0; localRow < Tile.SIZE; localRow++) {
+      long bits = tile.occupied[localRow];
+      int offset = localRow << Tile.SHIFT;
+      if (bits == -1L) {
+        raw.asDoubleBuffer().put(tile.values, offset, Tile.SIZE);
+        raw.position(raw.position() + Tile.SIZE * Double.BYTES);
+        continue;
+      }
+      while (bits != 0) {
+        raw.putDouble(tile.values[offset + Long.numberOfTrailingZeros(bits)]);
+        bits &= bits - 1;
+      }
+    }
+  }
+
+  /**
+   * Unpack a tile into its bitmap and a full row-major array of values.
+   *
+   * @return false if the tile does not hold as many values as its bitmap says
+   */
+  private static boolean decode(ByteBuffer tile, long[] bitmap, double[] values) {
+    int occupied = 0;
+    for (int localRow = 0; localRow < Tile.SIZE; localRow++) {
+      bitmap[localRow] = tile.getLong();
+      occupied += Long.bitCount(bitmap[localRow]);
+    }
+    if (tile.remaining() != occupied * Double.BYTES) {
+      return false;
+    }
+    for (int localRow = 0; localRow < Tile.SIZE; localRow++) {
+      long bits = bitmap[localRow];
+      int offset = localRow << Tile.SHIFT;
+      if (bits == -1L) {
+        tile.asDoubleBuffer().get(values, offset, Tile.SIZE);
+        tile.position(tile.position() + Tile.SIZE * Double.BYTES);
+        continue;
+      }
+      while (bits != 0) {
+        values[offset + Long.numberOfTrailingZeros(bits)] = tile.getDouble();
+        bits &= bits - 1;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Write the occupied cells of a tile into the sheet: the whole tile at once if it is
+   * full, otherwise each run of occupied cells of each row.
+   */
+  private static void store(SpreadSheet sheet, int firstRow, int firstCol, long[] bitmap,
+                            double[] values, double[] run) {
+    boolean full = true;
+    for (long bits : bitmap) {
+      full &= bits == -1L;
+    }
+    if (full) {
+      sheet.writeRange(firstRow, firstCol, firstRow + Tile.MASK, firstCol + Tile.MASK, values);
+      return;
+    }
+    for (int localRow = 0; localRow < Tile.SIZE; localRow++) {
+      long bits = bitmap[localRow];
+      while (bits != 0) {
+        int start = Long.numberOfTrailingZeros(bits);
+        int length = Long.numberOfTrailingZeros(~(bits >>> start));
+        System.arraycopy(values, (localRow << Tile.SHIFT) + start, run, 0, length);
+        sheet.writeRange(firstRow + localRow, firstCol + start, firstRow + localRow,
+                firstCol + start + length - 1, run);
+        bits = length == Long.SIZE ? 0 : bits & ~(((1L << length) - 1) << start);
+      }
+    }
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length, Path file)
+          throws IOException {
+    if (position < 0 || position + length > channel.size()) {
+      throw new IOException("Damaged sheet file: " + file);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Damaged sheet file: " + file);
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static void drain(FileChannel channel, ByteBuffer output) throws IOException {
+    output.flip();
+    while (output.hasRemaining()) {
+      channel.write(output);
+    }
+    output.clear();
+  }
+}
@@ -0,0 +1,17 @@
+package spreadsheet;
+
+/**
+ * This interface represents a spreadsheet that can take cheap point-in-time snapshots of
+ * itself.
+ */
+public interface SnapshottableSpreadSheet extends SpreadSheet {
+
+  /**
+   * Return a read-only view of this spreadsheet as it is right now. Later changes to this
+   * spreadsheet are not visible through the snapshot, and writing to the snapshot throws an
+   * {@link UnsupportedOperationException}.
+   *
+   * @return a read-only snapshot of this spreadsheet
+   */
+  SpreadSheet snapshot();
+}
@@ -1,6 +1,7 @@
 package spreadsheet;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
 
@@ -10,16 +11,14 @@ import java.util.Objects;
  */
 public class SparseSpreadSheet implements SpreadSheet {
   private final Map<CellPosition, Double> sheet;
-  private int width;
-  private int height;
+  private final Occupancy occupancy;
 
   /**
    * Create an empty spreadsheet.
    */
   public SparseSpreadSheet() {
     this.sheet = new HashMap<CellPosition, Double>();
-    this.width = 0;
-    this.height = 0;
+    this.occupancy = new Occupancy();
   }
 
   @Override
@@ -35,13 +34,18 @@ public class SparseSpreadSheet implements SpreadSheet {
     if ((row < 0) || (col < 0)) {
       throw new IllegalArgumentException("Row or column cannot be negative");
     }
-    this.sheet.put(new CellPosition(row, col), value);
-    if ((row + 1) > height) {
-      height = row + 1;
+    if (this.sheet.put(new CellPosition(row, col), value) == null) {
+      this.occupancy.add(row, col);
     }
+  }
 
-    if ((col + 1) > width) {
-      width = col + 1;
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (this.sheet.remove(new CellPosition(row, col)) != null) {
+      this.occupancy.remove(row, col);
     }
   }
 
@@ -53,14 +57,107 @@ public class SparseSpreadSheet implements SpreadSheet {
     return !this.sheet.containsKey(new CellPosition(row, col));
   }
 
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    Double boxed = value;
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++) {
+        if (this.sheet.put(new CellPosition(row, col), boxed) == null) {
+          this.occupancy.add(row, col);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, dest);
+    int i = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++) {
+        Double value = this.sheet.get(new CellPosition(row, col));
+        dest[i++] = value == null ? 0.0 : value;
+      }
+    }
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, src);
+    int i = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++) {
+        if (this.sheet.put(new CellPosition(row, col), src[i++]) == null) {
+          this.occupancy.add(row, col);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, visitor);
+    int lastRow = Math.min(toRow, getHeight() - 1);
+    int lastCol = Math.min(toCol, getWidth() - 1);
+    if (Ranges.area(fromRow, fromCol, lastRow, lastCol) <= this.sheet.size()) {
+      // The range holds fewer cells than the table, so look each of them up instead.
+      for (int row = fromRow; row <= lastRow; row++) {
+        for (int col = fromCol; col <= lastCol; col++) {
+          Double value = this.sheet.get(new CellPosition(row, col));
+          if (value != null) {
+            visitor.visit(row, col, value);
+          }
+        }
+      }
+      return;
+    }
+    for (Map.Entry<CellPosition, Double> entry : this.sheet.entrySet()) {
+      CellPosition position = entry.getKey();
+      if (position.row >= fromRow && position.row <= toRow
+              && position.column >= fromCol && position.column <= toCol) {
+        visitor.visit(position.row, position.column, entry.getValue());
+      }
+    }
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    int lastRow = Math.min(toRow, getHeight() - 1);
+    int lastCol = Math.min(toCol, getWidth() - 1);
+    if (Ranges.area(fromRow, fromCol, lastRow, lastCol) <= this.sheet.size()) {
+      for (int row = fromRow; row <= lastRow; row++) {
+        for (int col = fromCol; col <= lastCol; col++) {
+          clear(row, col);
+        }
+      }
+      return;
+    }
+    Iterator<CellPosition> positions = this.sheet.keySet().iterator();
+    while (positions.hasNext()) {
+      CellPosition position = positions.next();
+      if (position.row >= fromRow && position.row <= toRow
+              && position.column >= fromCol && position.column <= toCol) {
+        positions.remove();
+        this.occupancy.remove(position.row, position.column);
+      }
+    }
+  }
+
   @Override
   public int getWidth() {
-    return this.width;
+    return this.occupancy.width();
   }
 
   @Override
   public int getHeight() {
-    return this.height;
+    return this.occupancy.height();
   }
 
   private static class CellPosition {
@@ -27,6 +27,17 @@ public interface SpreadSheet {
   void set(int row, int col, double value) throws IllegalArgumentException;
 
 
+  /**
+   * Clear the specified cell so that it becomes empty. The width and height of the
+   * spreadsheet shrink if the cell was the last one in its row or column at the edge of
+   * the sheet. Clearing an empty cell has no effect.
+   *
+   * @param row the row number of the cell, starting with 0
+   * @param col the column number of the cell, starting with 0
+   * @throws IllegalArgumentException if the row or column are negative
+   */
+  void clear(int row, int col) throws IllegalArgumentException;
+
   /**
    * Returns whether the specified cell is empty.
    *
@@ -52,4 +63,241 @@ public interface SpreadSheet {
    * @return the height of this spreadsheet
    */
   int getHeight();
+
+  /**
+   * Set every cell in the given rectangular range to the same value.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @param value   the value that every cell in the range must be set to
+   * @throws IllegalArgumentException if any index is negative or the range is invalid
+   */
+  default void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++) {
+        set(row, col, value);
+      }
+    }
+  }
+
+  /**
+   * Copy the values of the given rectangular range into an array, in row-major order.
+   * Empty cells are read as 0.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @param dest    the array to receive the values, starting at index 0
+   * @throws IllegalArgumentException if the range is invalid or the array is too small
+   */
+  default void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, dest);
+    int i = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++) {
+        dest[i++] = get(row, col);
+      }
+    }
+  }
+
+  /**
+   * Set the cells of the given rectangular range to the values in an array, taken in
+   * row-major order.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @param src     the values to write, starting at index 0
+   * @throws IllegalArgumentException if the range is invalid or the array is too small
+   */
+  default void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, src);
+    int i = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++) {
+        set(row, col, src[i++]);
+      }
+    }
+  }
+
+  /**
+   * Set the cells of the given rectangular range to an arithmetic progression taken in
+   * row-major order: the cell at offset k from the start of the range, counting along each
+   * row and then on to the next, is set to {@code startValue + k * increment}.
+   *
+   * @param fromRow    the starting row (inclusive)
+   * @param fromCol    the starting column (inclusive)
+   * @param toRow      the ending row (inclusive)
+   * @param toCol      the ending column (inclusive)
+   * @param startValue the value of the first cell of the range
+   * @param increment  the difference between consecutive cells
+   * @throws IllegalArgumentException if any index is negative or the range is invalid
+   */
+  default void fillProgression(int fromRow, int fromCol, int toRow, int toCol,
+                               double startValue, double increment)
+          throws IllegalArgumentException {
+    fillProgression(fromRow, fromCol, toRow, toCol, startValue, 0L, increment);
+  }
+
+  /**
+   * Set the cells of the given rectangular range to a later part of an arithmetic
+   * progression taken in row-major order: the cell at offset k from the start of the range
+   * is set to {@code startValue + (firstStep + k) * increment}. Writing a range in several
+   * parts this way stores exactly the values a single fill of the whole range would.
+   *
+   * @param fromRow    the starting row (inclusive)
+   * @param fromCol    the starting column (inclusive)
+   * @param toRow      the ending row (inclusive)
+   * @param toCol      the ending column (inclusive)
+   * @param startValue the value at step 0 of the progression
+   * @param firstStep  the step of the progression at the first cell of the range
+   * @param increment  the difference between consecutive cells
+   * @throws IllegalArgumentException if any index is negative or the range is invalid
+   */
+  default void fillProgression(int fromRow, int fromCol, int toRow, int toCol,
+                               double startValue, long firstStep, double increment)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    double[] rowValues = new double[toCol - fromCol + 1];
+    long k = firstStep;
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int i = 0; i < rowValues.length; i++, k++) {
+        rowValues[i] = startValue + k * increment;
+      }
+      writeRange(row, fromCol, row, toCol, rowValues);
+    }
+  }
+
+  /**
+   * Pass every non-empty cell of this spreadsheet to the given visitor, in no particular
+   * order.
+   *
+   * @param visitor the visitor to receive each non-empty cell
+   * @throws IllegalArgumentException if the visitor is null
+   */
+  default void forEachNonEmpty(CellVisitor visitor) throws IllegalArgumentException {
+    forEachNonEmpty(0, 0, Math.max(0, getHeight() - 1), Math.max(0, getWidth() - 1), visitor);
+  }
+
+  /**
+   * Pass every non-empty cell within the given rectangular range to the given visitor, in
+   * no particular order.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @param visitor the visitor to receive each non-empty cell
+   * @throws IllegalArgumentException if the range is invalid or the visitor is null
+   */
+  default void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                               CellVisitor visitor) throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, visitor);
+    int lastRow = Math.min(toRow, getHeight() - 1);
+    int lastCol = Math.min(toCol, getWidth() - 1);
+    for (int row = fromRow; row <= lastRow; row++) {
+      for (int col = fromCol; col <= lastCol; col++) {
+        if (!isEmpty(row, col)) {
+          visitor.visit(row, col, get(row, col));
+        }
+      }
+    }
+  }
+
+  /**
+   * Clear every cell in the given rectangular range so that they all become empty.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @throws IllegalArgumentException if any index is negative or the range is invalid
+   */
+  default void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    int lastRow = Math.min(toRow, getHeight() - 1);
+    int lastCol = Math.min(toCol, getWidth() - 1);
+    for (int row = fromRow; row <= lastRow; row++) {
+      for (int col = fromCol; col <= lastCol; col++) {
+        clear(row, col);
+      }
+    }
+  }
+
+  /**
+   * Return the sum of the values in the given rectangular range. Empty cells count as 0.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @return the sum of the values in the range
+   * @throws IllegalArgumentException if any index is negative or the range is invalid
+   */
+  default double sumRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    double[] sum = new double[1];
+    forEachNonEmpty(fromRow, fromCol, toRow, toCol, (row, col, value) -> sum[0] += value);
+    return sum[0];
+  }
+
+  /**
+   * Return the smallest value in the given rectangular range. Empty cells count as 0.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @return the smallest value in the range
+   * @throws IllegalArgumentException if any index is negative or the range is invalid
+   */
+  default double minRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    double[] min = {Double.POSITIVE_INFINITY};
+    long[] count = new long[1];
+    forEachNonEmpty(fromRow, fromCol, toRow, toCol, (row, col, value) -> {
+      min[0] = Math.min(min[0], value);
+      count[0]++;
+    });
+    if (count[0] < Ranges.area(fromRow, fromCol, toRow, toCol)) {
+      return Math.min(min[0], 0.0);
+    }
+    return min[0];
+  }
+
+  /**
+   * Return the largest value in the given rectangular range. Empty cells count as 0.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @return the largest value in the range
+   * @throws IllegalArgumentException if any index is negative or the range is invalid
+   */
+  default double maxRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    double[] max = {Double.NEGATIVE_INFINITY};
+    long[] count = new long[1];
+    forEachNonEmpty(fromRow, fromCol, toRow, toCol, (row, col, value) -> {
+      max[0] = Math.max(max[0], value);
+      count[0]++;
+    });
+    if (count[0] < Ranges.area(fromRow, fromCol, toRow, toCol)) {
+      return Math.max(max[0], 0.0);
+    }
+    return max[0];
+  }
 }
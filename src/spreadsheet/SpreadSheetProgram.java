@@ -1,18 +1,33 @@
 package spreadsheet;
 
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Paths;
 
 /**
  * The driver of this application.
  */
 public class SpreadSheetProgram {
   /**
-   * main method of the program.
+   * main method of the program. If a directory is given, the sheet is loaded from it and
+   * every change is logged there, so the sheet is still there the next time the program is
+   * started with the same directory.
    *
-   * @param args any command line arguments
+   * @param args any command line arguments: optionally, the directory to keep the sheet in
    */
   public static void main(String[] args) {
-    SpreadSheet baseModel = new SparseSpreadSheet();
+    SpreadSheet baseModel =
+            new FenwickSpreadSheet(new RegionSpreadSheet(new TiledSpreadSheet()));
+
+    DurableSpreadSheet durable = null;
+    if (args.length > 0) {
+      try {
+        durable = new DurableSpreadSheet(baseModel, Paths.get(args[0]));
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to open sheet in " + args[0], e);
+      }
+      baseModel = durable;
+    }
 
     SpreadSheetWithMacro model = new SpreadSheetWithMacroImpl(baseModel);
 
@@ -21,5 +36,13 @@ public class SpreadSheetProgram {
 
     MacroSpreadSheetController controller = new MacroSpreadSheetController(model, rd, ap);
     controller.control();
+
+    if (durable != null) {
+      try {
+        durable.close();
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to close sheet in " + args[0], e);
+      }
+    }
   }
-}
\ No newline at end of file
+}
@@ -1,5 +1,8 @@
 package spreadsheet;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * This interface extends the SpreadSheet interface to add support for macros.
  * It represents a spreadsheet that can execute macros.
@@ -12,4 +15,65 @@ public interface SpreadSheetWithMacro extends SpreadSheet {
    * @param macro the macro to execute.
    */
   void executeMacro(SpreadSheetMacro macro);
+
+  /**
+   * Submit the given macro for execution and return a future that completes once it has
+   * run. Macros submitted to the same sheet run in the order they were submitted. By default
+   * the macro runs right away on the caller's thread and the returned future is already
+   * complete.
+   *
+   * @param macro the macro to execute
+   * @return a future that completes once the macro has run, exceptionally if it failed
+   * @throws IllegalArgumentException if the macro is null
+   */
+  default CompletableFuture<Void> executeMacroAsync(SpreadSheetMacro macro)
+          throws IllegalArgumentException {
+    if (macro == null) {
+      throw new IllegalArgumentException("Macro cannot be null");
+    }
+    try {
+      executeMacro(macro);
+      return CompletableFuture.completedFuture(null);
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * Execute the given macros on this spreadsheet, in order. The result must be the same as
+   * executing them one after another, but implementations may analyze the batch first and
+   * skip or combine writes that a later macro would overwrite anyway.
+   *
+   * @param macros the macros to execute
+   * @throws IllegalArgumentException if the list or any of its macros is null
+   */
+  void executeMacros(List<SpreadSheetMacro> macros) throws IllegalArgumentException;
+
+  /**
+   * Undo the most recent macro that can be undone, putting back the cells it overwrote. By
+   * default no history is kept and there is nothing to undo.
+   *
+   * @return true if a macro was undone, false if there was nothing to undo
+   */
+  default boolean undo() {
+    return false;
+  }
+
+  /**
+   * Run again the macro that was undone most recently. By default no history is kept and
+   * there is nothing to redo.
+   *
+   * @return true if a macro was redone, false if there was nothing to redo
+   */
+  default boolean redo() {
+    return false;
+  }
+
+  /**
+   * Return a read-only, point-in-time view of this spreadsheet. Readers of the snapshot see
+   * the sheet as it was when the snapshot was taken, even while macros keep writing to it.
+   *
+   * @return a read-only snapshot of this spreadsheet
+   */
+  SpreadSheet snapshot();
 }
@@ -1,18 +1,46 @@
 package spreadsheet;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Implementation wraps an existing Spreadsheet.
  * This class is using composition to reuse functionality from original sheet.
+ *
+ * <p>Macros that only assign values, such as {@link BulkAssignMacro} and
+ * {@link RangeAssignMacro}, can be undone and redone. Before one runs, the prior contents of
+ * the cells it assigns are recorded in a journal bounded by {@link #setUndoLimit(long)}.
+ *
+ * <p>The state of the sheet is published as a snapshot at each macro boundary, before a
+ * macro starts writing and after it has finished, so {@link #snapshot()} can hand out the
+ * last published state while a macro runs instead of waiting for it. Writes made outside
+ * of macros are published when the next snapshot is taken or the next macro starts.
  */
 public class SpreadSheetWithMacroImpl implements SpreadSheetWithMacro {
+  /**
+   * The default number of bytes of prior cell values kept for undoing macros.
+   */
+  public static final long DEFAULT_UNDO_LIMIT = 64L << 20;
 
   private final SpreadSheet sheet;
+  private final ParallelMacroExecutor executor;
+  private final UndoJournal journal;
+  private final Object publishing;
+  private volatile int running;
+  private SpreadSheet published;
+  private boolean changed;
+  private boolean wanted;
 
   /**
    * Constructs a new SpreadSheetWithMacroImpl with a default SparseSpreadSheet.
    */
   public SpreadSheetWithMacroImpl() {
     this.sheet = new SparseSpreadSheet();
+    this.executor = null;
+    this.journal = new UndoJournal(DEFAULT_UNDO_LIMIT);
+    this.publishing = new Object();
+    this.changed = true;
   }
 
   /**
@@ -28,14 +56,188 @@ public class SpreadSheetWithMacroImpl implements SpreadSheetWithMacro {
       throw new IllegalArgumentException("Sheet cannot be null");
     }
     this.sheet = sheet;
+    this.executor = null;
+    this.journal = new UndoJournal(DEFAULT_UNDO_LIMIT);
+    this.publishing = new Object();
+    this.changed = true;
   }
 
+  /**
+   * Constructs a new SpreadSheetWithMacroImpl that wraps an existing spreadsheet and runs
+   * large range macros in parallel on the given executor. The wrapped sheet must be safe
+   * for use by several threads at once.
+   *
+   * @param sheet    the base spreadsheet to be enhanced with macro capabilities
+   * @param executor the executor that runs macros
+   * @throws IllegalArgumentException if the provided sheet or executor is null
+   */
+  public SpreadSheetWithMacroImpl(SpreadSheet sheet, ParallelMacroExecutor executor)
+          throws IllegalArgumentException {
+    if (sheet == null) {
+      throw new IllegalArgumentException("Sheet cannot be null");
+    }
+    if (executor == null) {
+      throw new IllegalArgumentException("Executor cannot be null");
+    }
+    this.sheet = sheet;
+    this.executor = executor;
+    this.journal = new UndoJournal(DEFAULT_UNDO_LIMIT);
+    this.publishing = new Object();
+    this.changed = true;
+  }
+
+  /**
+   * Execute the given macro. When the wrapped sheet is a {@link FormulaSpreadSheet}, the
+   * formulas that depend on the cells the macro wrote are recalculated once, after it has
+   * run.
+   *
+   * @param macro the macro to execute
+   * @throws IllegalArgumentException if the macro is null
+   */
   @Override
-  public void executeMacro(SpreadSheetMacro macro) {
+  public void executeMacro(SpreadSheetMacro macro) throws IllegalArgumentException {
     if (macro == null) {
       throw new IllegalArgumentException("Macro cannot be null");
     }
-    macro.execute(this);
+    beginMacro();
+    try {
+      if (macro instanceof RegionAssignMacro) {
+        runJournaled(Collections.singletonList(macro), false);
+      } else {
+        run(macro);
+      }
+    } finally {
+      endMacro();
+    }
+  }
+
+  /**
+   * Execute the given macros in order. Runs of macros that only assign values, such as
+   * {@link BulkAssignMacro} and {@link RangeAssignMacro}, are collected first: writes that
+   * a later macro in the run overwrites completely are dropped, partly overwritten ones are
+   * trimmed, and fills of the same value that end up side by side are merged. The surviving
+   * writes are then applied in one pass, before any macro that reads the sheet runs.
+   * Formulas are recalculated once, after the last macro. A batch made only of such
+   * macros is undone as a whole.
+   *
+   * @param macros the macros to execute
+   * @throws IllegalArgumentException if the list or any of its macros is null
+   */
+  @Override
+  public void executeMacros(List<SpreadSheetMacro> macros) throws IllegalArgumentException {
+    if (macros == null) {
+      throw new IllegalArgumentException("Macros cannot be null");
+    }
+    for (SpreadSheetMacro macro : macros) {
+      if (macro == null) {
+        throw new IllegalArgumentException("Macro cannot be null");
+      }
+    }
+    boolean assignsOnly = !macros.isEmpty();
+    for (SpreadSheetMacro macro : macros) {
+      assignsOnly &= macro instanceof RegionAssignMacro;
+    }
+    beginMacro();
+    try {
+      if (assignsOnly) {
+        runJournaled(new ArrayList<SpreadSheetMacro>(macros), false);
+        return;
+      }
+      MacroBatch batch = new MacroBatch(this);
+      for (SpreadSheetMacro macro : macros) {
+        if (macro instanceof RegionAssignMacro) {
+          batch.assign(((RegionAssignMacro) macro).toRegion());
+        } else {
+          batch.flush();
+          run(macro);
+        }
+      }
+      batch.flush();
+    } finally {
+      endMacro();
+    }
+  }
+
+  /**
+   * Put back the cells assigned by the most recent macro, or batch of macros, that assigned
+   * values. Writes that are not part of such a macro cannot be undone; once one of them
+   * overwrites a cell that undoing would put back, the history before it is dropped.
+   *
+   * @return true if a macro was undone, false if there was nothing to undo
+   */
+  @Override
+  public boolean undo() {
+    beginMacro();
+    try {
+      return journal.undo(sheet);
+    } finally {
+      endMacro();
+    }
+  }
+
+  /**
+   * Run again the macro, or batch of macros, that was undone most recently. Any write
+   * other than an undo or a redo drops the macros that could be redone.
+   *
+   * @return true if a macro was redone, false if there was nothing to redo
+   */
+  @Override
+  public boolean redo() {
+    List<SpreadSheetMacro> macros = journal.redo();
+    if (macros == null) {
+      return false;
+    }
+    beginMacro();
+    try {
+      runJournaled(macros, true);
+    } finally {
+      endMacro();
+    }
+    return true;
+  }
+
+  /**
+   * Set how many bytes of prior cell values are kept for undoing macros. The oldest macros
+   * are forgotten first when the journal grows past the limit, and a macro that would take
+   * more than the limit on its own cannot be undone. A limit of 0 turns undo off.
+   *
+   * @param bytes the most bytes to keep
+   * @throws IllegalArgumentException if the limit is negative
+   */
+  public void setUndoLimit(long bytes) throws IllegalArgumentException {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("Undo limit cannot be negative");
+    }
+    journal.setLimit(bytes);
+  }
+
+  /**
+   * Return a read-only, point-in-time view of this spreadsheet. While a macro runs, this is
+   * the state published before it started, returned without waiting for the macro; at other
+   * times it is the current state. Publishing takes constant time when the wrapped sheet is
+   * a {@link SnapshottableSpreadSheet}; any other sheet is copied cell by cell, and only
+   * published at macro boundaries once a snapshot has been asked for, so the first snapshot
+   * of such a sheet taken during a macro waits for the macro to end.
+   *
+   * @return a read-only snapshot of this spreadsheet
+   */
+  @Override
+  public SpreadSheet snapshot() {
+    synchronized (publishing) {
+      wanted = true;
+      if (running == 0) {
+        publish();
+      }
+      while (published == null) {
+        try {
+          publishing.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while waiting for a snapshot", e);
+        }
+      }
+      return published;
+    }
   }
 
   @Override
@@ -45,7 +247,8 @@ public class SpreadSheetWithMacroImpl implements SpreadSheetWithMacro {
 
   @Override
   public void set(int row, int col, double value) throws IllegalArgumentException {
-    sheet.set(row, col, value);
+    write(() -> sheet.set(row, col, value));
+    journal.written(row, col, row, col);
   }
 
   @Override
@@ -53,6 +256,72 @@ public class SpreadSheetWithMacroImpl implements SpreadSheetWithMacro {
     return sheet.isEmpty(row, col);
   }
 
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    write(() -> sheet.clear(row, col));
+    journal.written(row, col, row, col);
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    write(() -> sheet.clearRange(fromRow, fromCol, toRow, toCol));
+    journal.written(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    write(() -> sheet.fill(fromRow, fromCol, toRow, toCol, value));
+    journal.written(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    sheet.readRange(fromRow, fromCol, toRow, toCol, dest);
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    write(() -> sheet.writeRange(fromRow, fromCol, toRow, toCol, src));
+    journal.written(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public void fillProgression(int fromRow, int fromCol, int toRow, int toCol,
+                              double startValue, double increment)
+          throws IllegalArgumentException {
+    write(() -> sheet.fillProgression(fromRow, fromCol, toRow, toCol, startValue,
+            increment));
+    journal.written(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    sheet.forEachNonEmpty(fromRow, fromCol, toRow, toCol, visitor);
+  }
+
+  @Override
+  public double sumRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return sheet.sumRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public double minRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return sheet.minRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public double maxRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return sheet.maxRange(fromRow, fromCol, toRow, toCol);
+  }
+
   @Override
   public int getWidth() {
     return sheet.getWidth();
@@ -62,4 +331,107 @@ public class SpreadSheetWithMacroImpl implements SpreadSheetWithMacro {
   public int getHeight() {
     return sheet.getHeight();
   }
+
+  /**
+   * Run macros that only assign values as one step that can be undone.
+   */
+  private void runJournaled(List<SpreadSheetMacro> macros, boolean redoing) {
+    UndoJournal.Entry entry = journal.begin(sheet, macros);
+    try {
+      if (macros.size() == 1) {
+        run(macros.get(0));
+      } else {
+        MacroBatch batch = new MacroBatch(this);
+        for (SpreadSheetMacro macro : macros) {
+          batch.assign(((RegionAssignMacro) macro).toRegion());
+        }
+        batch.flush();
+      }
+    } finally {
+      if (entry != null) {
+        journal.commit(entry, redoing);
+      }
+    }
+  }
+
+  /**
+   * Apply a write made outside of a macro under the publishing lock, so that a snapshot never
+   * reads the wrapped sheet halfway through it. Writes made by a running macro, on any
+   * thread, skip the lock, since nothing is published until the macro has ended.
+   */
+  private void write(Runnable write) {
+    if (running > 0) {
+      write.run();
+      return;
+    }
+    synchronized (publishing) {
+      write.run();
+      changed = true;
+    }
+  }
+
+  /**
+   * Publish the state before a macro starts writing, if it has changed since it was last
+   * published.
+   */
+  private void beginMacro() {
+    synchronized (publishing) {
+      if (running == 0 && eager()) {
+        publish();
+      }
+      running++;
+    }
+    if (sheet instanceof MacroAwareSpreadSheet) {
+      ((MacroAwareSpreadSheet) sheet).onMacroStarted();
+    }
+  }
+
+  /**
+   * Settle the wrapped sheet after a macro, even one that failed, then publish the state it
+   * has left behind.
+   */
+  private void endMacro() {
+    try {
+      if (sheet instanceof MacroAwareSpreadSheet) {
+        ((MacroAwareSpreadSheet) sheet).onMacroFinished();
+      }
+    } finally {
+      synchronized (publishing) {
+        running--;
+        changed = true;
+        if (running == 0 && eager()) {
+          publish();
+          publishing.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Return whether to publish at macro boundaries: always when publishing costs constant
+   * time, otherwise only once someone has asked for a snapshot.
+   */
+  private boolean eager() {
+    return wanted || sheet instanceof SnapshottableSpreadSheet;
+  }
+
+  /**
+   * Publish the current state if it has changed. The caller must hold the publishing lock
+   * and no macro may be running.
+   */
+  private void publish() {
+    if (!changed) {
+      return;
+    }
+    published = TiledSpreadSheet.snapshotOf(sheet);
+    changed = false;
+  }
+
+  private void run(SpreadSheetMacro macro) {
+    if (executor != null) {
+      executor.execute(macro, this);
+    } else {
+      macro.execute(this);
+    }
+  }
 }
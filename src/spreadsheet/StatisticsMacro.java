@@ -0,0 +1,214 @@
+package spreadsheet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A macro that computes several statistics of a range of cells in a single pass and stores
+ * the selected ones in consecutive cells of a row, starting at a destination cell. As with
+ * {@link AverageMacro}, every cell of the range counts and empty cells count as 0.
+ * This implements the Command Design Pattern.
+ *
+ * <p>Without the variance, each statistic comes from the range sum, minimum or maximum of
+ * the sheet, which dense backends compute with the bulk loops of {@link DoubleKernels}. The
+ * variance needs a pass over the cells: only the non-empty ones are visited and folded into
+ * a running mean and sum of squared deviations (Welford's method), and the empty cells are
+ * then merged in as one group of zeros, so sparse ranges cost no more than their occupied
+ * cells.
+ */
+public class StatisticsMacro implements FootprintMacro {
+
+  /**
+   * A statistic that this macro can compute.
+   */
+  public enum Statistic {
+    /** The number of cells in the range. */
+    COUNT,
+    /** The sum of the values in the range. */
+    SUM,
+    /** The arithmetic mean of the values in the range. */
+    MEAN,
+    /** The smallest value in the range. */
+    MIN,
+    /** The largest value in the range. */
+    MAX,
+    /** The population variance of the values in the range. */
+    VARIANCE
+  }
+
+  private final int fromRow;
+  private final int fromCol;
+  private final int toRow;
+  private final int toCol;
+  private final int destRow;
+  private final int destCol;
+  private final List<Statistic> statistics;
+
+  /**
+   * Construct a new StatisticsMacro with the specified range, destination cell and
+   * statistics. The i-th statistic is stored in column {@code destCol + i} of the
+   * destination row.
+   *
+   * @param fromRow    the starting row (inclusive)
+   * @param fromCol    the starting column (inclusive)
+   * @param toRow      the ending row (inclusive)
+   * @param toCol      the ending column (inclusive)
+   * @param destRow    the row of the destination cells
+   * @param destCol    the column of the first destination cell
+   * @param statistics the statistics to store, in order
+   * @throws IllegalArgumentException if any indices are negative, if the range is invalid,
+   *                                  if no statistics are given or if a destination cell
+   *                                  overlaps with the source range
+   */
+  public StatisticsMacro(int fromRow, int fromCol, int toRow, int toCol, int destRow,
+                         int destCol, List<Statistic> statistics)
+          throws IllegalArgumentException {
+    if (fromRow < 0 || fromCol < 0 || toRow < 0 || toCol < 0 || destRow < 0 || destCol < 0) {
+      throw new IllegalArgumentException("Row and column indices cannot be negative");
+    }
+
+    if (fromRow > toRow || fromCol > toCol) {
+      throw new IllegalArgumentException("Invalid range: starting indices must "
+              + "be <= ending indices");
+    }
+
+    if (statistics == null || statistics.isEmpty()) {
+      throw new IllegalArgumentException("At least one statistic must be given");
+    }
+    for (Statistic statistic : statistics) {
+      if (statistic == null) {
+        throw new IllegalArgumentException("Statistic cannot be null");
+      }
+    }
+
+    long lastDestCol = (long) destCol + statistics.size() - 1;
+    if (lastDestCol > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Destination cells do not fit in the sheet");
+    }
+
+    // Check if any destination cell overlaps with source range
+    if (destRow >= fromRow && destRow <= toRow && destCol <= toCol && lastDestCol >= fromCol) {
+      throw new IllegalArgumentException("Destination cells cannot overlap with source range");
+    }
+
+    this.fromRow = fromRow;
+    this.fromCol = fromCol;
+    this.toRow = toRow;
+    this.toCol = toCol;
+    this.destRow = destRow;
+    this.destCol = destCol;
+    this.statistics = new ArrayList<Statistic>(statistics);
+  }
+
+  @Override
+  public void execute(SpreadSheet sheet) {
+    if (sheet == null) {
+      throw new IllegalArgumentException("Sheet cannot be null");
+    }
+
+    long area = Ranges.area(fromRow, fromCol, toRow, toCol);
+    double[] values = new double[statistics.size()];
+    if (statistics.contains(Statistic.VARIANCE)) {
+      Accumulator accumulator = new Accumulator();
+      sheet.forEachNonEmpty(fromRow, fromCol, toRow, toCol, accumulator);
+      accumulator.addZeros(area - accumulator.count);
+      for (int i = 0; i < values.length; i++) {
+        values[i] = accumulator.get(statistics.get(i));
+      }
+    } else {
+      for (int i = 0; i < values.length; i++) {
+        values[i] = fromRange(sheet, statistics.get(i), area);
+      }
+    }
+
+    for (int i = 0; i < values.length; i++) {
+      sheet.set(destRow, destCol + i, values[i]);
+    }
+  }
+
+  /**
+   * Return a statistic other than the variance from the range operations of the sheet.
+   */
+  private double fromRange(SpreadSheet sheet, Statistic statistic, long area) {
+    switch (statistic) {
+      case COUNT:
+        return area;
+      case SUM:
+        return sheet.sumRange(fromRow, fromCol, toRow, toCol);
+      case MEAN:
+        return sheet.sumRange(fromRow, fromCol, toRow, toCol) / area;
+      case MIN:
+        return sheet.minRange(fromRow, fromCol, toRow, toCol);
+      case MAX:
+        return sheet.maxRange(fromRow, fromCol, toRow, toCol);
+      default:
+        throw new IllegalArgumentException("Unknown statistic: " + statistic);
+    }
+  }
+
+  @Override
+  public boolean touches(int fromRow, int fromCol, int toRow, int toCol) {
+    return Ranges.overlap(this.fromRow, this.fromCol, this.toRow, this.toCol,
+            fromRow, fromCol, toRow, toCol)
+            || Ranges.overlap(destRow, destCol, destRow, destCol + statistics.size() - 1,
+            fromRow, fromCol, toRow, toCol);
+  }
+
+  /**
+   * Running statistics over the cells seen so far.
+   */
+  private static final class Accumulator implements CellVisitor {
+    private long count;
+    private double sum;
+    private double mean;
+    private double squaredDeviations;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    @Override
+    public void visit(int row, int col, double value) {
+      count++;
+      sum += value;
+      double delta = value - mean;
+      mean += delta / count;
+      squaredDeviations += delta * (value - mean);
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+
+    /**
+     * Merge a group of cells that all hold 0, using the pairwise update for combining the
+     * statistics of two groups.
+     */
+    private void addZeros(long zeros) {
+      if (zeros <= 0) {
+        return;
+      }
+      long total = count + zeros;
+      squaredDeviations += mean * mean * ((double) count * zeros / total);
+      mean = mean * ((double) count / total);
+      count = total;
+      min = Math.min(min, 0.0);
+      max = Math.max(max, 0.0);
+    }
+
+    private double get(Statistic statistic) {
+      switch (statistic) {
+        case COUNT:
+          return count;
+        case SUM:
+          return sum;
+        case MEAN:
+          return mean;
+        case MIN:
+          return min;
+        case MAX:
+          return max;
+        case VARIANCE:
+          return squaredDeviations / count;
+        default:
+          throw new IllegalArgumentException("Unknown statistic: " + statistic);
+      }
+    }
+  }
+}
@@ -0,0 +1,247 @@
+package spreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a spreadsheet with a summed-area table attached, so that the sum of
+ * any rectangular range, and therefore its average, costs four table lookups. Every other
+ * operation is passed straight to the wrapped sheet.
+ *
+ * <p>The table is rebuilt lazily. A write only records the lowest row it touched, since the
+ * prefix sums of the rows above it are unaffected; the next sum then recomputes the table
+ * from that row down. Repeated sums with no writes in between, or with writes only below the
+ * rows being summed, therefore cost nothing extra. A change of width invalidates the whole
+ * table. Sheets too large to index fall back to the sum of the wrapped sheet.
+ *
+ * <p>Each prefix sum is kept as a high part and the rounding error it leaves behind, since a
+ * range sum is the difference of prefix sums: with plain doubles, one large value above or
+ * to the left of a range would absorb the small values inside it, and their sum would come
+ * out as 0.
+ */
+public class SummedAreaSpreadSheet implements SpreadSheet {
+  /**
+   * The largest number of table entries this index will allocate, about 128 MB across the
+   * high and low parts.
+   */
+  private static final long MAX_TABLE_CELLS = 1L << 23;
+
+  private final SpreadSheet sheet;
+  private double[] table;
+  private double[] errors;
+  private int tableWidth;
+  private int tableHeight;
+  private int dirtyRow;
+  private int rebuilds;
+
+  /**
+   * Attach a summed-area index to the given sheet. The sheet must not be written to other
+   * than through this object, or the index goes stale.
+   *
+   * @param sheet the sheet to index
+   * @throws IllegalArgumentException if the sheet is null
+   */
+  public SummedAreaSpreadSheet(SpreadSheet sheet) throws IllegalArgumentException {
+    if (sheet == null) {
+      throw new IllegalArgumentException("Sheet cannot be null");
+    }
+    this.sheet = sheet;
+    this.table = new double[0];
+    this.errors = new double[0];
+    this.tableWidth = 0;
+    this.tableHeight = 0;
+    this.dirtyRow = 0;
+    this.rebuilds = 0;
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    return sheet.get(row, col);
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    sheet.set(row, col, value);
+    invalidateFrom(row);
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    return sheet.isEmpty(row, col);
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    sheet.clear(row, col);
+    invalidateFrom(row);
+  }
+
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    sheet.fill(fromRow, fromCol, toRow, toCol, value);
+    invalidateFrom(fromRow);
+  }
+
+  @Override
+  public void fillProgression(int fromRow, int fromCol, int toRow, int toCol,
+                              double startValue, double increment)
+          throws IllegalArgumentException {
+    sheet.fillProgression(fromRow, fromCol, toRow, toCol, startValue, increment);
+    invalidateFrom(fromRow);
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    sheet.readRange(fromRow, fromCol, toRow, toCol, dest);
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    sheet.writeRange(fromRow, fromCol, toRow, toCol, src);
+    invalidateFrom(fromRow);
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    sheet.clearRange(fromRow, fromCol, toRow, toCol);
+    invalidateFrom(fromRow);
+  }
+
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    sheet.forEachNonEmpty(fromRow, fromCol, toRow, toCol, visitor);
+  }
+
+  /**
+   * Return the sum of the values in the given range using the summed-area table, bringing
+   * the table up to date first if the rows it needs have been written to.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @return the sum of the values in the range
+   * @throws IllegalArgumentException if any index is negative or the range is invalid
+   */
+  @Override
+  public double sumRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    int width = sheet.getWidth();
+    int height = sheet.getHeight();
+    if ((long) (width + 1) * (height + 1) > MAX_TABLE_CELLS) {
+      return sheet.sumRange(fromRow, fromCol, toRow, toCol);
+    }
+    int lastRow = Math.min(toRow, height - 1);
+    int lastCol = Math.min(toCol, width - 1);
+    if (fromRow > lastRow || fromCol > lastCol) {
+      return 0.0;
+    }
+    refresh(width, height, lastRow);
+    int stride = tableWidth + 1;
+    int bottomRight = (lastRow + 1) * stride + lastCol + 1;
+    int topRight = fromRow * stride + lastCol + 1;
+    int bottomLeft = (lastRow + 1) * stride + fromCol;
+    int topLeft = fromRow * stride + fromCol;
+    double sum = table[bottomRight];
+    double error = errors[bottomRight] - errors[topRight] - errors[bottomLeft]
+            + errors[topLeft];
+    double next = sum - table[topRight];
+    error += Compensated.error(sum, -table[topRight], next);
+    sum = next;
+    next = sum - table[bottomLeft];
+    error += Compensated.error(sum, -table[bottomLeft], next);
+    sum = next;
+    next = sum + table[topLeft];
+    error += Compensated.error(sum, table[topLeft], next);
+    return next + error;
+  }
+
+  @Override
+  public double minRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return sheet.minRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public double maxRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return sheet.maxRange(fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public int getWidth() {
+    return sheet.getWidth();
+  }
+
+  @Override
+  public int getHeight() {
+    return sheet.getHeight();
+  }
+
+  /**
+   * Return how many times the summed-area table has been recomputed, fully or in part.
+   *
+   * @return the number of rebuilds so far
+   */
+  public int getRebuildCount() {
+    return rebuilds;
+  }
+
+  private void invalidateFrom(int row) {
+    dirtyRow = Math.min(dirtyRow, row);
+  }
+
+  /**
+   * Make rows 0 to the given row of the table valid for a sheet of the given size.
+   */
+  private void refresh(int width, int height, int neededRow) {
+    int stride = width + 1;
+    long cells = (long) (height + 1) * stride;
+    if (cells > table.length) {
+      int grown = (int) Math.min(MAX_TABLE_CELLS, cells + (cells >> 1));
+      table = Arrays.copyOf(table, grown);
+      errors = Arrays.copyOf(errors, grown);
+    }
+    if (width != tableWidth) {
+      // The first row of the table holds the zero prefix sums above row 0.
+      Arrays.fill(table, 0, stride, 0.0);
+      Arrays.fill(errors, 0, stride, 0.0);
+      tableWidth = width;
+      tableHeight = 0;
+    }
+    // Rows past the old height were never built, and rows past the new one are not needed.
+    int firstRow = Math.min(dirtyRow, tableHeight);
+    dirtyRow = firstRow;
+    tableHeight = height;
+    if (firstRow > neededRow) {
+      return;
+    }
+    double[] values = new double[width];
+    for (int row = firstRow; row < height; row++) {
+      sheet.readRange(row, 0, row, width - 1, values);
+      int above = row * stride;
+      int current = above + stride;
+      double rowSum = 0.0;
+      double rowError = 0.0;
+      for (int col = 0; col < width; col++) {
+        double next = rowSum + values[col];
+        rowError += Compensated.error(rowSum, values[col], next);
+        rowSum = next;
+        double aboveSum = table[above + col + 1];
+        double sum = aboveSum + rowSum;
+        double error = Compensated.error(aboveSum, rowSum, sum) + errors[above + col + 1]
+                + rowError;
+        double normal = sum + error;
+        table[current + col + 1] = normal;
+        errors[current + col + 1] = Compensated.low(sum, error, normal);
+      }
+    }
+    dirtyRow = height;
+    rebuilds++;
+  }
+}
@@ -0,0 +1,313 @@
+package spreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size square block of cells stored as a row-major primitive array, together with
+ * an occupancy bitmap that records which cells have been set. Each row of the tile owns
+ * one long in the bitmap, with bit {@code c} standing for local column {@code c}.
+ */
+final class Tile {
+  static final int SHIFT = 6;
+  static final int SIZE = 1 << SHIFT;
+  static final int MASK = SIZE - 1;
+
+  final double[] values;
+  final long[] occupied;
+  final int generation;
+  private int count;
+
+  /**
+   * Create an empty tile.
+   */
+  Tile() {
+    this(0);
+  }
+
+  /**
+   * Create an empty tile that belongs to the given generation of its sheet.
+   *
+   * @param generation the generation of the sheet that owns this tile
+   */
+  Tile(int generation) {
+    this.values = new double[SIZE * SIZE];
+    this.occupied = new long[SIZE];
+    this.generation = generation;
+    this.count = 0;
+  }
+
+  private Tile(Tile other, int generation) {
+    this.values = other.values.clone();
+    this.occupied = other.occupied.clone();
+    this.generation = generation;
+    this.count = other.count;
+  }
+
+  /**
+   * Return a copy of this tile that belongs to the given generation. Sheets that share
+   * tiles with snapshots use this to copy a tile before writing to it.
+   *
+   * @param generation the generation of the copy
+   * @return a new tile with the same cells
+   */
+  Tile copy(int generation) {
+    return new Tile(this, generation);
+  }
+
+  /**
+   * Return the value stored at the given local position, or 0 if it is empty.
+   *
+   * @param localRow the row within this tile
+   * @param localCol the column within this tile
+   * @return the stored value
+   */
+  double get(int localRow, int localCol) {
+    return values[(localRow << SHIFT) | localCol];
+  }
+
+  /**
+   * Store a value at the given local position and mark it as occupied.
+   *
+   * @param localRow the row within this tile
+   * @param localCol the column within this tile
+   * @param value    the value to store
+   * @return true if the cell was empty before
+   */
+  boolean set(int localRow, int localCol, double value) {
+    values[(localRow << SHIFT) | localCol] = value;
+    long bit = 1L << localCol;
+    if ((occupied[localRow] & bit) == 0) {
+      occupied[localRow] |= bit;
+      count++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Set a run of cells within one row of this tile to the same value.
+   *
+   * @param localRow the row within this tile
+   * @param fromCol  the first column within this tile (inclusive)
+   * @param toCol    the last column within this tile (inclusive)
+   * @param value    the value to store
+   * @return a bitmap of the columns that were empty before
+   */
+  long fillRow(int localRow, int fromCol, int toCol, double value) {
+    int base = localRow << SHIFT;
+    Arrays.fill(values, base + fromCol, base + toCol + 1, value);
+    return markRow(localRow, fromCol, toCol);
+  }
+
+  /**
+   * Set a run of cells within one row of this tile to consecutive steps of an arithmetic
+   * progression, as computed by {@link DoubleKernels#fillProgression}.
+   *
+   * @param localRow   the row within this tile
+   * @param fromCol    the first column within this tile (inclusive)
+   * @param toCol      the last column within this tile (inclusive)
+   * @param startValue the value at step 0 of the progression
+   * @param firstStep  the step of the progression at the first column
+   * @param increment  the difference between consecutive steps
+   * @return a bitmap of the columns that were empty before
+   */
+  long fillProgressionRow(int localRow, int fromCol, int toCol, double startValue,
+                          long firstStep, double increment) {
+    int base = localRow << SHIFT;
+    DoubleKernels.fillProgression(values, base + fromCol, base + toCol + 1, startValue,
+            firstStep, increment);
+    return markRow(localRow, fromCol, toCol);
+  }
+
+  /**
+   * Copy values from an array into a run of cells within one row of this tile.
+   *
+   * @param localRow the row within this tile
+   * @param fromCol  the first column within this tile (inclusive)
+   * @param toCol    the last column within this tile (inclusive)
+   * @param src      the array holding the values
+   * @param offset   the index of the first value in the array
+   * @return a bitmap of the columns that were empty before
+   */
+  long writeRow(int localRow, int fromCol, int toCol, double[] src, int offset) {
+    System.arraycopy(src, offset, values, (localRow << SHIFT) + fromCol, toCol - fromCol + 1);
+    return markRow(localRow, fromCol, toCol);
+  }
+
+  /**
+   * Clear the cell at the given local position so that it becomes empty.
+   *
+   * @param localRow the row within this tile
+   * @param localCol the column within this tile
+   * @return true if the cell was occupied before
+   */
+  boolean clear(int localRow, int localCol) {
+    return clearRow(localRow, localCol, localCol) != 0;
+  }
+
+  /**
+   * Clear a run of cells within one row of this tile so that they become empty.
+   *
+   * @param localRow the row within this tile
+   * @param fromCol  the first column within this tile (inclusive)
+   * @param toCol    the last column within this tile (inclusive)
+   * @return a bitmap of the columns that were occupied before
+   */
+  long clearRow(int localRow, int fromCol, int toCol) {
+    long removed = bits(fromCol, toCol) & occupied[localRow];
+    if (removed != 0) {
+      occupied[localRow] &= ~removed;
+      count -= Long.bitCount(removed);
+      int base = localRow << SHIFT;
+      // Empty cells must read as 0, so their values are reset as well.
+      Arrays.fill(values, base + fromCol, base + toCol + 1, 0.0);
+    }
+    return removed;
+  }
+
+  /**
+   * Copy a run of cells within one row of this tile into an array. Empty cells hold 0.
+   *
+   * @param localRow the row within this tile
+   * @param fromCol  the first column within this tile (inclusive)
+   * @param toCol    the last column within this tile (inclusive)
+   * @param dest     the array to receive the values
+   * @param offset   the index in the array that receives the first value
+   */
+  void readRow(int localRow, int fromCol, int toCol, double[] dest, int offset) {
+    System.arraycopy(values, (localRow << SHIFT) + fromCol, dest, offset, toCol - fromCol + 1);
+  }
+
+  /**
+   * Return the sum of a run of cells within one row of this tile. Empty cells hold 0, so
+   * they do not contribute.
+   *
+   * @param localRow the row within this tile
+   * @param fromCol  the first column within this tile (inclusive)
+   * @param toCol    the last column within this tile (inclusive)
+   * @return the sum of the run
+   */
+  double sumRow(int localRow, int fromCol, int toCol) {
+    int base = localRow << SHIFT;
+    return DoubleKernels.sum(values, base + fromCol, base + toCol + 1);
+  }
+
+  /**
+   * Return the smallest value in a run of cells within one row of this tile. Empty cells
+   * hold 0, so they count as 0.
+   *
+   * @param localRow the row within this tile
+   * @param fromCol  the first column within this tile (inclusive)
+   * @param toCol    the last column within this tile (inclusive)
+   * @return the smallest value in the run
+   */
+  double minRow(int localRow, int fromCol, int toCol) {
+    int base = localRow << SHIFT;
+    return DoubleKernels.min(values, base + fromCol, base + toCol + 1);
+  }
+
+  /**
+   * Return the largest value in a run of cells within one row of this tile. Empty cells
+   * hold 0, so they count as 0.
+   *
+   * @param localRow the row within this tile
+   * @param fromCol  the first column within this tile (inclusive)
+   * @param toCol    the last column within this tile (inclusive)
+   * @return the largest value in the run
+   */
+  double maxRow(int localRow, int fromCol, int toCol) {
+    int base = localRow << SHIFT;
+    return DoubleKernels.max(values, base + fromCol, base + toCol + 1);
+  }
+
+  /**
+   * Pass the occupied cells of this tile that fall within the given range of the sheet to
+   * the given visitor.
+   *
+   * @param baseRow the sheet row of the first row of this tile
+   * @param baseCol the sheet column of the first column of this tile
+   * @param fromRow the starting row of the range (inclusive)
+   * @param fromCol the starting column of the range (inclusive)
+   * @param toRow   the ending row of the range (inclusive)
+   * @param toCol   the ending column of the range (inclusive)
+   * @param visitor the visitor to receive each occupied cell
+   */
+  void forEachSet(int baseRow, int baseCol, int fromRow, int fromCol, int toRow, int toCol,
+                  CellVisitor visitor) {
+    int firstRow = Math.max(fromRow, baseRow) - baseRow;
+    int lastRow = Math.min(toRow, baseRow + MASK) - baseRow;
+    int firstCol = Math.max(fromCol, baseCol) - baseCol;
+    int lastCol = Math.min(toCol, baseCol + MASK) - baseCol;
+    if (firstRow > lastRow || firstCol > lastCol) {
+      return;
+    }
+    long columns = bits(firstCol, lastCol);
+    for (int localRow = firstRow; localRow <= lastRow; localRow++) {
+      long word = occupied[localRow] & columns;
+      while (word != 0) {
+        int localCol = Long.numberOfTrailingZeros(word);
+        visitor.visit(baseRow + localRow, baseCol + localCol,
+                values[(localRow << SHIFT) | localCol]);
+        word &= word - 1;
+      }
+    }
+  }
+
+  /**
+   * Return whether the given local position has been set.
+   *
+   * @param localRow the row within this tile
+   * @param localCol the column within this tile
+   * @return true if the cell is occupied
+   */
+  boolean isSet(int localRow, int localCol) {
+    return (occupied[localRow] & (1L << localCol)) != 0;
+  }
+
+  /**
+   * Return the number of occupied cells in this tile.
+   *
+   * @return the number of occupied cells
+   */
+  int count() {
+    return count;
+  }
+
+  /**
+   * Return the bitmap with the bits for the given run of local columns set.
+   *
+   * @param fromCol the first column within a tile (inclusive)
+   * @param toCol   the last column within a tile (inclusive)
+   * @return the bitmap of the run
+   */
+  static long bits(int fromCol, int toCol) {
+    return (-1L >>> (MASK - toCol)) & (-1L << fromCol);
+  }
+
+  private long markRow(int localRow, int fromCol, int toCol) {
+    long added = bits(fromCol, toCol) & ~occupied[localRow];
+    occupied[localRow] |= added;
+    count += Long.bitCount(added);
+    return added;
+  }
+
+  /**
+   * Return the tile coordinate that contains the given row or column.
+   *
+   * @param index a row or column of the sheet
+   * @return the index of the tile along that axis
+   */
+  static int tileOf(int index) {
+    return index >>> SHIFT;
+  }
+
+  /**
+   * Return the offset of the given row or column within its tile.
+   *
+   * @param index a row or column of the sheet
+   * @return the local index within the tile
+   */
+  static int localOf(int index) {
+    return index & MASK;
+  }
+}
@@ -0,0 +1,425 @@
+package spreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a spreadsheet that stores its cells in fixed-size square tiles.
+ * Each tile holds its values in a primitive row-major array and tracks which cells are set
+ * in a bitmap. Tiles are only allocated when a cell inside them is first set, so the sheet
+ * stays cheap when it is sparse overall, while cells that are close together share
+ * contiguous memory.
+ *
+ * <p>Snapshots are taken in constant time by sharing the tiles and the tile directory with
+ * the snapshot. Every snapshot starts a new generation of the sheet, and a shared tile is
+ * copied the first time it is written in a later generation, so a snapshot never changes
+ * and can be read while this sheet keeps being written.
+ */
+public class TiledSpreadSheet implements SnapshottableSpreadSheet {
+  private LongObjectMap<Tile> tiles;
+  private final Occupancy occupancy;
+  private boolean directoryShared;
+  private int generation;
+
+  /**
+   * Create an empty spreadsheet.
+   */
+  public TiledSpreadSheet() {
+    this.tiles = new LongObjectMap<Tile>();
+    this.occupancy = new Occupancy();
+    this.directoryShared = false;
+    this.generation = 0;
+  }
+
+  @Override
+  public double get(int row, int col) throws IllegalArgumentException {
+    return read(this.tiles, row, col);
+  }
+
+  @Override
+  public void set(int row, int col, double value) throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    if (writableTile(row, col).set(Tile.localOf(row), Tile.localOf(col), value)) {
+      this.occupancy.add(row, col);
+    }
+  }
+
+  @Override
+  public void clear(int row, int col) throws IllegalArgumentException {
+    if (isEmpty(row, col)) {
+      return;
+    }
+    Tile tile = writableTile(row, col);
+    tile.clear(Tile.localOf(row), Tile.localOf(col));
+    this.occupancy.remove(row, col);
+    if (tile.count() == 0) {
+      this.tiles.remove(tileKey(row, col));
+    }
+  }
+
+  @Override
+  public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+    return isEmpty(this.tiles, row, col);
+  }
+
+  @Override
+  public void fill(int fromRow, int fromCol, int toRow, int toCol, double value)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    for (int row = fromRow; row <= toRow; row++) {
+      int localRow = Tile.localOf(row);
+      for (int tileCol = Tile.tileOf(fromCol); tileCol <= Tile.tileOf(toCol); tileCol++) {
+        int first = Math.max(fromCol, tileCol << Tile.SHIFT);
+        int last = Math.min(toCol, (tileCol << Tile.SHIFT) | Tile.MASK);
+        long added = writableTile(row, first).fillRow(localRow, Tile.localOf(first),
+                Tile.localOf(last), value);
+        this.occupancy.addRun(row, tileCol << Tile.SHIFT, added);
+      }
+    }
+  }
+
+  @Override
+  public void fillProgression(int fromRow, int fromCol, int toRow, int toCol,
+                              double startValue, double increment)
+          throws IllegalArgumentException {
+    fillProgression(fromRow, fromCol, toRow, toCol, startValue, 0L, increment);
+  }
+
+  @Override
+  public void fillProgression(int fromRow, int fromCol, int toRow, int toCol,
+                              double startValue, long firstStep, double increment)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    long width = (long) toCol - fromCol + 1;
+    for (int row = fromRow; row <= toRow; row++) {
+      int localRow = Tile.localOf(row);
+      long rowStep = firstStep + (row - fromRow) * width;
+      for (int tileCol = Tile.tileOf(fromCol); tileCol <= Tile.tileOf(toCol); tileCol++) {
+        int first = Math.max(fromCol, tileCol << Tile.SHIFT);
+        int last = Math.min(toCol, (tileCol << Tile.SHIFT) | Tile.MASK);
+        long added = writableTile(row, first).fillProgressionRow(localRow, Tile.localOf(first),
+                Tile.localOf(last), startValue, rowStep + (first - fromCol), increment);
+        this.occupancy.addRun(row, tileCol << Tile.SHIFT, added);
+      }
+    }
+  }
+
+  @Override
+  public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    readRange(this.tiles, fromRow, fromCol, toRow, toCol, dest);
+  }
+
+  @Override
+  public void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, src);
+    int offset = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      int localRow = Tile.localOf(row);
+      for (int tileCol = Tile.tileOf(fromCol); tileCol <= Tile.tileOf(toCol); tileCol++) {
+        int first = Math.max(fromCol, tileCol << Tile.SHIFT);
+        int last = Math.min(toCol, (tileCol << Tile.SHIFT) | Tile.MASK);
+        long added = writableTile(row, first).writeRow(localRow, Tile.localOf(first),
+                Tile.localOf(last), src, offset);
+        this.occupancy.addRun(row, tileCol << Tile.SHIFT, added);
+        offset += last - first + 1;
+      }
+    }
+  }
+
+  @Override
+  public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                              CellVisitor visitor) throws IllegalArgumentException {
+    forEachNonEmpty(this.tiles, fromRow, fromCol, toRow, toCol, visitor);
+  }
+
+  @Override
+  public double sumRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return sumRange(this.tiles, fromRow, fromCol, toRow, toCol);
+  }
+
+  @Override
+  public double minRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return extremeRange(this.tiles, fromRow, fromCol, toRow, toCol, false);
+  }
+
+  @Override
+  public double maxRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    return extremeRange(this.tiles, fromRow, fromCol, toRow, toCol, true);
+  }
+
+  @Override
+  public void clearRange(int fromRow, int fromCol, int toRow, int toCol)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    long[] keys = this.tiles.keysWithin(Tile.tileOf(fromRow), Tile.tileOf(fromCol),
+            Tile.tileOf(toRow), Tile.tileOf(toCol));
+    for (long key : keys) {
+      int baseRow = LongDoubleMap.rowOf(key) << Tile.SHIFT;
+      int baseCol = LongDoubleMap.colOf(key) << Tile.SHIFT;
+      int firstCol = Math.max(fromCol, baseCol) - baseCol;
+      int lastCol = Math.min(toCol, baseCol + Tile.MASK) - baseCol;
+      Tile tile = writableTile(baseRow, baseCol);
+      for (int row = Math.max(fromRow, baseRow); row <= Math.min(toRow, baseRow + Tile.MASK);
+           row++) {
+        long removed = tile.clearRow(row - baseRow, firstCol, lastCol);
+        this.occupancy.removeRun(row, baseCol, removed);
+      }
+      if (tile.count() == 0) {
+        this.tiles.remove(key);
+      }
+    }
+  }
+
+  @Override
+  public int getWidth() {
+    return this.occupancy.width();
+  }
+
+  @Override
+  public int getHeight() {
+    return this.occupancy.height();
+  }
+
+  @Override
+  public SpreadSheet snapshot() {
+    directoryShared = true;
+    generation++;
+    return new Snapshot(this.tiles, getWidth(), getHeight());
+  }
+
+  /**
+   * Return a read-only snapshot of the given sheet: its own snapshot if it can take one,
+   * otherwise a snapshot of a tiled copy of its cells.
+   *
+   * @param sheet the sheet to take a snapshot of
+   * @return a read-only snapshot of the sheet
+   */
+  static SpreadSheet snapshotOf(SpreadSheet sheet) {
+    if (sheet instanceof SnapshottableSpreadSheet) {
+      return ((SnapshottableSpreadSheet) sheet).snapshot();
+    }
+    TiledSpreadSheet copy = new TiledSpreadSheet();
+    sheet.forEachNonEmpty(copy::set);
+    return copy.snapshot();
+  }
+
+  private Tile writableTile(int row, int col) {
+    if (directoryShared) {
+      this.tiles = new LongObjectMap<Tile>(this.tiles);
+      directoryShared = false;
+    }
+    long key = tileKey(row, col);
+    Tile tile = this.tiles.get(key);
+    if (tile == null) {
+      tile = new Tile(generation);
+      this.tiles.put(key, tile);
+    } else if (tile.generation != generation) {
+      tile = tile.copy(generation);
+      this.tiles.put(key, tile);
+    }
+    return tile;
+  }
+
+  private static void readRange(LongObjectMap<Tile> tiles, int fromRow, int fromCol,
+                                int toRow, int toCol, double[] dest)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, dest);
+    int offset = 0;
+    for (int row = fromRow; row <= toRow; row++) {
+      int localRow = Tile.localOf(row);
+      for (int tileCol = Tile.tileOf(fromCol); tileCol <= Tile.tileOf(toCol); tileCol++) {
+        int first = Math.max(fromCol, tileCol << Tile.SHIFT);
+        int last = Math.min(toCol, (tileCol << Tile.SHIFT) | Tile.MASK);
+        Tile tile = tiles.get(tileKey(row, first));
+        if (tile == null) {
+          Arrays.fill(dest, offset, offset + last - first + 1, 0.0);
+        } else {
+          tile.readRow(localRow, Tile.localOf(first), Tile.localOf(last), dest, offset);
+        }
+        offset += last - first + 1;
+      }
+    }
+  }
+
+  private static void forEachNonEmpty(LongObjectMap<Tile> tiles, int fromRow, int fromCol,
+                                      int toRow, int toCol, CellVisitor visitor)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol, visitor);
+    long tilesInRange = (long) (Tile.tileOf(toRow) - Tile.tileOf(fromRow) + 1)
+            * (Tile.tileOf(toCol) - Tile.tileOf(fromCol) + 1);
+    if (tilesInRange <= tiles.size()) {
+      // A small range is cheaper to probe tile by tile than to scan the whole directory.
+      for (int tileRow = Tile.tileOf(fromRow); tileRow <= Tile.tileOf(toRow); tileRow++) {
+        for (int tileCol = Tile.tileOf(fromCol); tileCol <= Tile.tileOf(toCol); tileCol++) {
+          Tile tile = tiles.get(LongDoubleMap.key(tileRow, tileCol));
+          if (tile != null) {
+            tile.forEachSet(tileRow << Tile.SHIFT, tileCol << Tile.SHIFT,
+                    fromRow, fromCol, toRow, toCol, visitor);
+          }
+        }
+      }
+    } else {
+      tiles.forEach((key, tile) -> tile.forEachSet(LongDoubleMap.rowOf(key) << Tile.SHIFT,
+              LongDoubleMap.colOf(key) << Tile.SHIFT, fromRow, fromCol, toRow, toCol, visitor));
+    }
+  }
+
+  private static double sumRange(LongObjectMap<Tile> tiles, int fromRow, int fromCol,
+                                 int toRow, int toCol) throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    double sum = 0.0;
+    long[] keys = tiles.keysWithin(Tile.tileOf(fromRow), Tile.tileOf(fromCol),
+            Tile.tileOf(toRow), Tile.tileOf(toCol));
+    for (long key : keys) {
+      int baseRow = LongDoubleMap.rowOf(key) << Tile.SHIFT;
+      int baseCol = LongDoubleMap.colOf(key) << Tile.SHIFT;
+      int firstCol = Math.max(fromCol, baseCol) - baseCol;
+      int lastCol = Math.min(toCol, baseCol + Tile.MASK) - baseCol;
+      Tile tile = tiles.get(key);
+      // Empty cells of a tile hold 0, so whole rows are summed without looking at the bitmap.
+      for (int row = Math.max(fromRow, baseRow); row <= Math.min(toRow, baseRow + Tile.MASK);
+           row++) {
+        sum += tile.sumRow(row - baseRow, firstCol, lastCol);
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Return the largest or the smallest value in the given range. Cells outside every tile
+   * are empty, so 0 counts as well unless the tiles cover the whole range.
+   */
+  private static double extremeRange(LongObjectMap<Tile> tiles, int fromRow, int fromCol,
+                                     int toRow, int toCol, boolean largest)
+          throws IllegalArgumentException {
+    Ranges.check(fromRow, fromCol, toRow, toCol);
+    double extreme = largest ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+    long covered = 0;
+    long[] keys = tiles.keysWithin(Tile.tileOf(fromRow), Tile.tileOf(fromCol),
+            Tile.tileOf(toRow), Tile.tileOf(toCol));
+    for (long key : keys) {
+      int baseRow = LongDoubleMap.rowOf(key) << Tile.SHIFT;
+      int baseCol = LongDoubleMap.colOf(key) << Tile.SHIFT;
+      int firstRow = Math.max(fromRow, baseRow);
+      int lastRow = Math.min(toRow, baseRow + Tile.MASK);
+      int firstCol = Math.max(fromCol, baseCol) - baseCol;
+      int lastCol = Math.min(toCol, baseCol + Tile.MASK) - baseCol;
+      Tile tile = tiles.get(key);
+      for (int row = firstRow; row <= lastRow; row++) {
+        extreme = largest ? Math.max(extreme, tile.maxRow(row - baseRow, firstCol, lastCol))
+                : Math.min(extreme, tile.minRow(row - baseRow, firstCol, lastCol));
+      }
+      covered += (long) (lastRow - firstRow + 1) * (lastCol - firstCol + 1);
+    }
+    if (covered < Ranges.area(fromRow, fromCol, toRow, toCol)) {
+      extreme = largest ? Math.max(extreme, 0.0) : Math.min(extreme, 0.0);
+    }
+    return extreme;
+  }
+
+  private static double read(LongObjectMap<Tile> tiles, int row, int col)
+          throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    Tile tile = tiles.get(tileKey(row, col));
+    if (tile == null) {
+      return 0.0;
+    }
+    return tile.get(Tile.localOf(row), Tile.localOf(col));
+  }
+
+  private static boolean isEmpty(LongObjectMap<Tile> tiles, int row, int col)
+          throws IllegalArgumentException {
+    if ((row < 0) || (col < 0)) {
+      throw new IllegalArgumentException("Row or column cannot be negative");
+    }
+    Tile tile = tiles.get(tileKey(row, col));
+    return tile == null || !tile.isSet(Tile.localOf(row), Tile.localOf(col));
+  }
+
+  private static long tileKey(int row, int col) {
+    return LongDoubleMap.key(Tile.tileOf(row), Tile.tileOf(col));
+  }
+
+  /**
+   * A read-only view of the tiles of a sheet as they were when the snapshot was taken.
+   */
+  private static final class Snapshot implements SpreadSheet {
+    private final LongObjectMap<Tile> tiles;
+    private final int width;
+    private final int height;
+
+    private Snapshot(LongObjectMap<Tile> tiles, int width, int height) {
+      this.tiles = tiles;
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    public double get(int row, int col) throws IllegalArgumentException {
+      return read(tiles, row, col);
+    }
+
+    @Override
+    public void set(int row, int col, double value) {
+      throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    @Override
+    public void clear(int row, int col) {
+      throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    @Override
+    public boolean isEmpty(int row, int col) throws IllegalArgumentException {
+      return TiledSpreadSheet.isEmpty(tiles, row, col);
+    }
+
+    @Override
+    public void readRange(int fromRow, int fromCol, int toRow, int toCol, double[] dest)
+            throws IllegalArgumentException {
+      TiledSpreadSheet.readRange(tiles, fromRow, fromCol, toRow, toCol, dest);
+    }
+
+    @Override
+    public void forEachNonEmpty(int fromRow, int fromCol, int toRow, int toCol,
+                                CellVisitor visitor) throws IllegalArgumentException {
+      TiledSpreadSheet.forEachNonEmpty(tiles, fromRow, fromCol, toRow, toCol, visitor);
+    }
+
+    @Override
+    public double sumRange(int fromRow, int fromCol, int toRow, int toCol)
+            throws IllegalArgumentException {
+      return TiledSpreadSheet.sumRange(tiles, fromRow, fromCol, toRow, toCol);
+    }
+
+    @Override
+    public double minRange(int fromRow, int fromCol, int toRow, int toCol)
+            throws IllegalArgumentException {
+      return extremeRange(tiles, fromRow, fromCol, toRow, toCol, false);
+    }
+
+    @Override
+    public double maxRange(int fromRow, int fromCol, int toRow, int toCol)
+            throws IllegalArgumentException {
+      return extremeRange(tiles, fromRow, fromCol, toRow, toCol, true);
+    }
+
+    @Override
+    public int getWidth() {
+      return width;
+    }
+
+    @Override
+    public int getHeight() {
+      return height;
+    }
+  }
+}
@@ -0,0 +1,329 @@
+package spreadsheet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A bounded history of the macros that assigned values to a sheet, keeping for each one
+ * only what it takes to put back the cells it overwrote. Before a macro runs, the occupied
+ * cells of the rectangle it assigns are gathered into pieces, one for each tile that holds
+ * any of them. A piece records the values its cells held and a bitmap of the ones that were
+ * empty, with one long per row as in {@link Tile}; a piece with no empty cells records no
+ * bitmap. Tiles that were entirely empty record nothing, since undoing clears the whole
+ * rectangle before the pieces are put back, so a macro costs little more than the occupied
+ * cells it overwrote.
+ *
+ * <p>The journal holds at most a given number of bytes of recorded values, forgetting the
+ * oldest macros first. A write that the journal did not record clears the macros that can be
+ * redone, and also the ones that can be undone if it lands on a cell one of them would put
+ * back, since undoing them would then lose the write.
+ */
+final class UndoJournal {
+  /**
+   * The approximate cost in bytes of a piece, besides its arrays.
+   */
+  private static final long PIECE_BYTES = 48;
+
+  private final Deque<Entry> undo;
+  private final Deque<List<SpreadSheetMacro>> redo;
+  private long limit;
+  private long bytes;
+  private Entry current;
+  private int fromRow;
+  private int fromCol;
+  private int toRow;
+  private int toCol;
+
+  /**
+   * Create an empty journal.
+   *
+   * @param limit the most bytes of recorded values to keep, 0 to keep nothing
+   */
+  UndoJournal(long limit) {
+    this.undo = new ArrayDeque<Entry>();
+    this.redo = new ArrayDeque<List<SpreadSheetMacro>>();
+    this.limit = limit;
+    resetBounds();
+  }
+
+  /**
+   * Change the most bytes of recorded values to keep, forgetting the oldest macros if the
+   * journal now holds too much.
+   *
+   * @param limit the most bytes of recorded values to keep, 0 to keep nothing
+   */
+  synchronized void setLimit(long limit) {
+    this.limit = limit;
+    if (limit <= 0) {
+      clear();
+    } else {
+      evict();
+    }
+  }
+
+  /**
+   * Record the cells the given macros are about to assign, and treat every write inside
+   * their regions as theirs until {@link #commit(Entry, boolean)} is called. Macros whose
+   * prior contents take more than the limit are not recorded, and the older macros are
+   * forgotten since they could no longer be undone in order.
+   *
+   * @param sheet  the sheet the macros will run on
+   * @param macros the macros, each of which assigns a region
+   * @return the recorded entry, or null if nothing was recorded
+   */
+  synchronized Entry begin(SpreadSheet sheet, List<SpreadSheetMacro> macros) {
+    if (limit <= 0) {
+      clear();
+      return null;
+    }
+    List<ValueRegion> regions = new ArrayList<ValueRegion>(macros.size());
+    for (SpreadSheetMacro macro : macros) {
+      regions.add(((RegionAssignMacro) macro).toRegion());
+    }
+    Entry entry = new Entry(macros, regions);
+    for (ValueRegion region : regions) {
+      // Stop as soon as the entry is too large, rather than capturing every region first.
+      entry.capture(sheet, region);
+      if (entry.bytes > limit) {
+        clear();
+        return null;
+      }
+    }
+    current = entry;
+    return entry;
+  }
+
+  /**
+   * Add an entry whose macros have run to the journal.
+   *
+   * @param entry     the entry returned by {@link #begin(SpreadSheet, List)}
+   * @param keepRedo  true if the macros are being redone, so the macros undone after them
+   *                  can still be redone
+   */
+  synchronized void commit(Entry entry, boolean keepRedo) {
+    current = null;
+    if (!keepRedo) {
+      redo.clear();
+    }
+    undo.push(entry);
+    bytes += entry.bytes;
+    for (ValueRegion region : entry.regions) {
+      fromRow = Math.min(fromRow, region.fromRow);
+      fromCol = Math.min(fromCol, region.fromCol);
+      toRow = Math.max(toRow, region.toRow);
+      toCol = Math.max(toCol, region.toCol);
+    }
+    evict();
+  }
+
+  /**
+   * Note a write to the given range. Writes by the macro being recorded are ignored; any
+   * other write clears the history it would conflict with.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   */
+  synchronized void written(int fromRow, int fromCol, int toRow, int toCol) {
+    if (current != null && current.covers(fromRow, fromCol, toRow, toCol)) {
+      return;
+    }
+    redo.clear();
+    if (!undo.isEmpty() && Ranges.overlap(this.fromRow, this.fromCol, this.toRow, this.toCol,
+            fromRow, fromCol, toRow, toCol)) {
+      clear();
+    }
+  }
+
+  /**
+   * Put back the cells overwritten by the most recent macros and make them available to
+   * redo.
+   *
+   * @param sheet the sheet to restore
+   * @return true if there was anything to undo
+   */
+  synchronized boolean undo(SpreadSheet sheet) {
+    Entry entry = undo.poll();
+    if (entry == null) {
+      return false;
+    }
+    bytes -= entry.bytes;
+    entry.restore(sheet);
+    redo.push(entry.macros);
+    return true;
+  }
+
+  /**
+   * Remove and return the most recently undone macros, which the caller runs again through
+   * {@link #begin(SpreadSheet, List)} and {@link #commit(Entry, boolean)}.
+   *
+   * @return the macros, or null if there is nothing to redo
+   */
+  synchronized List<SpreadSheetMacro> redo() {
+    return redo.poll();
+  }
+
+  /**
+   * Return the number of bytes of recorded values the journal holds.
+   *
+   * @return the bytes held
+   */
+  synchronized long bytes() {
+    return bytes;
+  }
+
+  private void evict() {
+    Iterator<Entry> oldest = undo.descendingIterator();
+    while (bytes > limit && oldest.hasNext()) {
+      bytes -= oldest.next().bytes;
+      oldest.remove();
+    }
+    if (undo.isEmpty()) {
+      resetBounds();
+    }
+  }
+
+  private void clear() {
+    undo.clear();
+    redo.clear();
+    bytes = 0;
+    resetBounds();
+  }
+
+  private void resetBounds() {
+    fromRow = Integer.MAX_VALUE;
+    fromCol = Integer.MAX_VALUE;
+    toRow = -1;
+    toCol = -1;
+  }
+
+  /**
+   * The macros that ran as one step, and the prior contents of the regions they assigned.
+   */
+  static final class Entry {
+    private final List<SpreadSheetMacro> macros;
+    private final List<ValueRegion> regions;
+    private final List<Piece> pieces;
+    private long bytes;
+
+    private Entry(List<SpreadSheetMacro> macros, List<ValueRegion> regions) {
+      this.macros = macros;
+      this.regions = regions;
+      this.pieces = new ArrayList<Piece>();
+    }
+
+    /**
+     * Record the current contents of the given region, one piece per tile that holds any of
+     * its occupied cells.
+     */
+    private void capture(SpreadSheet sheet, ValueRegion region) {
+      LongObjectMap<Piece> found = new LongObjectMap<Piece>();
+      sheet.forEachNonEmpty(region.fromRow, region.fromCol, region.toRow, region.toCol,
+          (row, col, value) -> {
+            long key = LongDoubleMap.key(Tile.tileOf(row), Tile.tileOf(col));
+            Piece piece = found.get(key);
+            if (piece == null) {
+              piece = new Piece(region, Tile.tileOf(row), Tile.tileOf(col));
+              found.put(key, piece);
+            }
+            piece.occupy(row, col, value);
+          });
+      bytes += PIECE_BYTES;
+      found.forEach((key, piece) -> {
+        bytes += piece.seal();
+        pieces.add(piece);
+      });
+    }
+
+    private boolean covers(int fromRow, int fromCol, int toRow, int toCol) {
+      for (ValueRegion region : regions) {
+        if (region.contains(fromRow, fromCol) && region.contains(toRow, toCol)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Put back the recorded contents. Every piece was recorded before the first macro of
+     * the step ran, so pieces that share cells agree on them.
+     */
+    private void restore(SpreadSheet sheet) {
+      for (ValueRegion region : regions) {
+        sheet.clearRange(region.fromRow, region.fromCol, region.toRow, region.toCol);
+      }
+      for (Piece piece : pieces) {
+        piece.restore(sheet);
+      }
+    }
+  }
+
+  /**
+   * The prior contents of the part of a region that falls within one tile, which held at
+   * least one occupied cell. While being recorded, the bitmap marks the occupied cells; once
+   * sealed it marks the empty ones.
+   */
+  private static final class Piece {
+    private final int fromRow;
+    private final int fromCol;
+    private final int toRow;
+    private final int toCol;
+    private final double[] prior;
+    private long[] empty;
+
+    private Piece(ValueRegion region, int tileRow, int tileCol) {
+      this.fromRow = Math.max(region.fromRow, tileRow << Tile.SHIFT);
+      this.fromCol = Math.max(region.fromCol, tileCol << Tile.SHIFT);
+      this.toRow = Math.min(region.toRow, (tileRow << Tile.SHIFT) | Tile.MASK);
+      this.toCol = Math.min(region.toCol, (tileCol << Tile.SHIFT) | Tile.MASK);
+      this.prior = new double[(toRow - fromRow + 1) * (toCol - fromCol + 1)];
+      this.empty = new long[toRow - fromRow + 1];
+    }
+
+    private void occupy(int row, int col, double value) {
+      prior[(row - fromRow) * (toCol - fromCol + 1) + col - fromCol] = value;
+      empty[row - fromRow] |= 1L << (col - fromCol);
+    }
+
+    /**
+     * Turn the bitmap of occupied cells into one of empty cells, dropping it if no cell was
+     * empty.
+     *
+     * @return the bytes this piece holds
+     */
+    private long seal() {
+      int width = toCol - fromCol + 1;
+      long full = width == Long.SIZE ? -1L : (1L << width) - 1;
+      boolean any = false;
+      for (int i = 0; i < empty.length; i++) {
+        empty[i] = ~empty[i] & full;
+        any |= empty[i] != 0;
+      }
+      if (!any) {
+        empty = null;
+        return PIECE_BYTES + (long) prior.length * Double.BYTES;
+      }
+      return PIECE_BYTES + (long) prior.length * Double.BYTES + (long) empty.length * Long.BYTES;
+    }
+
+    private void restore(SpreadSheet sheet) {
+      sheet.writeRange(fromRow, fromCol, toRow, toCol, prior);
+      if (empty == null) {
+        return;
+      }
+      for (int i = 0; i < empty.length; i++) {
+        long bits = empty[i];
+        while (bits != 0) {
+          int start = Long.numberOfTrailingZeros(bits);
+          int run = Long.numberOfTrailingZeros(~(bits >>> start));
+          sheet.clearRange(fromRow + i, fromCol + start, fromRow + i, fromCol + start + run - 1);
+          bits = run == Long.SIZE ? 0 : bits & ~(((1L << run) - 1) << start);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package spreadsheet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A rectangle of cells whose values are not stored one by one but computed on demand from
+ * the position of each cell. Every cell inside the rectangle counts as non-empty.
+ *
+ * <p>Regions are immutable. Overwriting part of a region is done by replacing it with the
+ * pieces returned by {@link #subtract(int, int, int, int)}, each of which computes the same
+ * values as the original did for its cells.
+ */
+abstract class ValueRegion {
+  final int fromRow;
+  final int fromCol;
+  final int toRow;
+  final int toCol;
+
+  /**
+   * Create a region covering the given rectangle.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   */
+  ValueRegion(int fromRow, int fromCol, int toRow, int toCol) {
+    this.fromRow = fromRow;
+    this.fromCol = fromCol;
+    this.toRow = toRow;
+    this.toCol = toCol;
+  }
+
+  /**
+   * Return the value of the given cell, which must lie inside this region.
+   *
+   * @param row the row of the cell
+   * @param col the column of the cell
+   * @return the value of the cell
+   */
+  abstract double valueAt(int row, int col);
+
+  /**
+   * Return a region that computes the same values as this one over the given rectangle,
+   * which must lie inside this region, or inside the union of this region and one that
+   * computes the same values as it.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @return the restricted region
+   */
+  abstract ValueRegion restrict(int fromRow, int fromCol, int toRow, int toCol);
+
+  /**
+   * Return whether the given region computes the same value as this one for every cell
+   * either of them could cover.
+   *
+   * @param other the region to compare with
+   * @return true if the two compute the same values
+   */
+  abstract boolean sameValues(ValueRegion other);
+
+  /**
+   * Return whether the given cell lies inside this region.
+   *
+   * @param row the row of the cell
+   * @param col the column of the cell
+   * @return true if the cell is covered
+   */
+  boolean contains(int row, int col) {
+    return row >= fromRow && row <= toRow && col >= fromCol && col <= toCol;
+  }
+
+  /**
+   * Return whether this region shares at least one cell with the given rectangle.
+   *
+   * @param fromRow the starting row (inclusive)
+   * @param fromCol the starting column (inclusive)
+   * @param toRow   the ending row (inclusive)
+   * @param toCol   the ending column (inclusive)
+   * @return true if the two overlap
+   */
+  boolean overlaps(int fromRow, int fromCol, int toRow, int toCol) {
+    return fromRow <= this.toRow && toRow >= this.fromRow
+            && fromCol <= this.toCol && toCol >= this.fromCol;
+  }
+
+  /**
+   * Return the number of cells covered by this region.
+   *
+   * @return the area of the region
+   */
+  long area() {
+    return (long) (toRow - fromRow + 1) * (toCol - fromCol + 1);
+  }
+
+  /**
+   * Return a region covering this region and the given one if both compute the same values
+   * and together form a rectangle, that is if they share a whole edge.
+   *
+   * @param other the region to merge with
+   * @return the merged region, or null if the two cannot be merged
+   */
+  ValueRegion merge(ValueRegion other) {
+    if (!sameValues(other)) {
+      return null;
+    }
+    boolean sameRows = fromRow == other.fromRow && toRow == other.toRow;
+    boolean sameCols = fromCol == other.fromCol && toCol == other.toCol;
+    if (sameRows && ((long) toCol + 1 == other.fromCol || (long) other.toCol + 1 == fromCol)
+            || sameCols && ((long) toRow + 1 == other.fromRow
+            || (long) other.toRow + 1 == fromRow)) {
+      return restrict(Math.min(fromRow, other.fromRow), Math.min(fromCol, other.fromCol),
+              Math.max(toRow, other.toRow), Math.max(toCol, other.toCol));
+    }
+    return null;
+  }
+
+  /**
+   * Return the parts of this region that lie outside the given rectangle. The rows above
+   * and below the rectangle are returned whole, and the parts to its left and right only
+   * span the rows the two have in common, so the pieces never overlap.
+   *
+   * @param fromRow the starting row of the rectangle to remove (inclusive)
+   * @param fromCol the starting column of the rectangle to remove (inclusive)
+   * @param toRow   the ending row of the rectangle to remove (inclusive)
+   * @param toCol   the ending column of the rectangle to remove (inclusive)
+   * @return at most four regions covering what remains
+   */
+  List<ValueRegion> subtract(int fromRow, int fromCol, int toRow, int toCol) {
+    List<ValueRegion> pieces = new ArrayList<ValueRegion>(4);
+    int top = Math.max(fromRow, this.fromRow);
+    int bottom = Math.min(toRow, this.toRow);
+    if (top > this.fromRow) {
+      pieces.add(restrict(this.fromRow, this.fromCol, top - 1, this.toCol));
+    }
+    if (bottom < this.toRow) {
+      pieces.add(restrict(bottom + 1, this.fromCol, this.toRow, this.toCol));
+    }
+    if (fromCol > this.fromCol) {
+      pieces.add(restrict(top, this.fromCol, bottom, fromCol - 1));
+    }
+    if (toCol < this.toCol) {
+      pieces.add(restrict(top, toCol + 1, bottom, this.toCol));
+    }
+    return pieces;
+  }
+
+  /**
+   * Copy the values of the cells this region shares with the given range into the given
+   * row-major array, which holds the whole range.
+   *
+   * @param fromRow the starting row of the range (inclusive)
+   * @param fromCol the starting column of the range (inclusive)
+   * @param toRow   the ending row of the range (inclusive)
+   * @param toCol   the ending column of the range (inclusive)
+   * @param dest    the array that receives the values of the range
+   */
+  void readInto(int fromRow, int fromCol, int toRow, int toCol, double[] dest) {
+    int stride = toCol - fromCol + 1;
+    int firstCol = Math.max(fromCol, this.fromCol);
+    int lastCol = Math.min(toCol, this.toCol);
+    for (int row = Math.max(fromRow, this.fromRow); row <= Math.min(toRow, this.toRow);
+         row++) {
+      int offset = (row - fromRow) * stride - fromCol;
+      for (int col = firstCol; col <= lastCol; col++) {
+        dest[offset + col] = valueAt(row, col);
+      }
+    }
+  }
+
+  /**
+   * Return the sum of the values of the cells this region shares with the given range.
+   *
+   * @param fromRow the starting row of the range (inclusive)
+   * @param fromCol the starting column of the range (inclusive)
+   * @param toRow   the ending row of the range (inclusive)
+   * @param toCol   the ending column of the range (inclusive)
+   * @return the sum over the overlap, or 0 if there is none
+   */
+  double sum(int fromRow, int fromCol, int toRow, int toCol) {
+    double sum = 0.0;
+    int firstCol = Math.max(fromCol, this.fromCol);
+    int lastCol = Math.min(toCol, this.toCol);
+    for (int row = Math.max(fromRow, this.fromRow); row <= Math.min(toRow, this.toRow);
+         row++) {
+      for (int col = firstCol; col <= lastCol; col++) {
+        sum += valueAt(row, col);
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Pass every cell this region shares with the given range to the given visitor.
+   *
+   * @param fromRow the starting row of the range (inclusive)
+   * @param fromCol the starting column of the range (inclusive)
+   * @param toRow   the ending row of the range (inclusive)
+   * @param toCol   the ending column of the range (inclusive)
+   * @param visitor the visitor to receive each cell
+   */
+  void forEach(int fromRow, int fromCol, int toRow, int toCol, CellVisitor visitor) {
+    int firstCol = Math.max(fromCol, this.fromCol);
+    int lastCol = Math.min(toCol, this.toCol);
+    for (int row = Math.max(fromRow, this.fromRow); row <= Math.min(toRow, this.toRow);
+         row++) {
+      for (int col = firstCol; col <= lastCol; col++) {
+        visitor.visit(row, col, valueAt(row, col));
+      }
+    }
+  }
+
+  /**
+   * Store the value of every cell of this region into the given sheet.
+   *
+   * @param sheet the sheet to write to
+   */
+  void writeTo(SpreadSheet sheet) {
+    double[] buffer = new double[toCol - fromCol + 1];
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int col = fromCol; col <= toCol; col++) {
+        buffer[col - fromCol] = valueAt(row, col);
+      }
+      sheet.writeRange(row, fromCol, row, toCol, buffer);
+    }
+  }
+}
@@ -0,0 +1,368 @@
+package spreadsheet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the writes made to a sheet, stored in a file through a
+ * {@link FileChannel}. Each record holds its length, a CRC32 of its contents, a type byte
+ * and the arguments of one write; a record that was cut short or damaged by a crash ends the
+ * log.
+ *
+ * <p>Records are appended to a buffer in memory and only reach the file on
+ * {@link #sync()}, which writes everything appended so far and forces it to disk. Callers
+ * that ask for a sync while another one is in progress wait for it and return without a
+ * force of their own if it covered their records, so one force commits the records of every
+ * thread that appended before it.
+ */
+final class WriteAheadLog implements Closeable {
+  static final byte SET = 1;
+  static final byte CLEAR = 2;
+  static final byte FILL = 3;
+  static final byte PROGRESSION = 4;
+  static final byte WRITE_RANGE = 5;
+  static final byte CLEAR_RANGE = 6;
+
+  private static final int RECORD_HEADER = 2 * Integer.BYTES;
+  private static final int INITIAL_BUFFER = 1 << 16;
+
+  /**
+   * The most values a single record of {@link SpreadSheet#writeRange} holds; larger writes
+   * are split into several records.
+   */
+  private static final int MAX_RECORD_VALUES = 1 << 20;
+
+  private final FileChannel channel;
+  private final Object syncLock;
+  private ByteBuffer pending;
+  private ByteBuffer spare;
+  private int recordStart;
+  private long appended;
+  private long durable;
+
+  /**
+   * Open the log stored in the given file, creating it if it does not exist, and apply every
+   * complete record it holds to the given sheet. Anything after the last complete record is
+   * cut off.
+   *
+   * @param file  the file that holds the log
+   * @param sheet the sheet to apply the logged writes to
+   * @throws IOException if the file cannot be read or written
+   */
+  WriteAheadLog(Path file, SpreadSheet sheet) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      long end = replay(sheet);
+      channel.truncate(end);
+      this.appended = end;
+      this.durable = end;
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    this.syncLock = new Object();
+    this.pending = ByteBuffer.allocate(INITIAL_BUFFER);
+    this.spare = ByteBuffer.allocate(INITIAL_BUFFER);
+  }
+
+  /**
+   * Append a record of {@link SpreadSheet#set(int, int, double)}.
+   */
+  synchronized void set(int row, int col, double value) {
+    begin(SET, 2 * Integer.BYTES + Double.BYTES);
+    pending.putInt(row).putInt(col).putDouble(value);
+    end();
+  }
+
+  /**
+   * Append a record of {@link SpreadSheet#clear(int, int)}.
+   */
+  synchronized void clear(int row, int col) {
+    begin(CLEAR, 2 * Integer.BYTES);
+    pending.putInt(row).putInt(col);
+    end();
+  }
+
+  /**
+   * Append a record of {@link SpreadSheet#fill(int, int, int, int, double)}.
+   */
+  synchronized void fill(int fromRow, int fromCol, int toRow, int toCol, double value) {
+    begin(FILL, 4 * Integer.BYTES + Double.BYTES);
+    putRange(fromRow, fromCol, toRow, toCol);
+    pending.putDouble(value);
+    end();
+  }
+
+  /**
+   * Append a record of
+   * {@link SpreadSheet#fillProgression(int, int, int, int, double, double)}.
+   */
+  synchronized void fillProgression(int fromRow, int fromCol, int toRow, int toCol,
+                                    double startValue, double increment) {
+    begin(PROGRESSION, 4 * Integer.BYTES + 2 * Double.BYTES);
+    putRange(fromRow, fromCol, toRow, toCol);
+    pending.putDouble(startValue).putDouble(increment);
+    end();
+  }
+
+  /**
+   * Append the records of {@link SpreadSheet#writeRange(int, int, int, int, double[])}. A
+   * range of more than {@link #MAX_RECORD_VALUES} cells is split into bands of whole rows,
+   * and rows that are longer than that on their own into pieces of a row.
+   */
+  synchronized void writeRange(int fromRow, int fromCol, int toRow, int toCol, double[] src) {
+    long width = (long) toCol - fromCol + 1;
+    long bandRows = Math.max(1, MAX_RECORD_VALUES / width);
+    long bandCols = Math.min(width, MAX_RECORD_VALUES);
+    for (long row = fromRow; row <= toRow; row += bandRows) {
+      long lastRow = Math.min(toRow, row + bandRows - 1);
+      for (long col = fromCol; col <= toCol; col += bandCols) {
+        long lastCol = Math.min(toCol, col + bandCols - 1);
+        writeRecord((int) row, (int) col, (int) lastRow, (int) lastCol, src,
+                (int) ((row - fromRow) * width + col - fromCol));
+      }
+    }
+  }
+
+  /**
+   * Append a record of {@link SpreadSheet#clearRange(int, int, int, int)}.
+   */
+  synchronized void clearRange(int fromRow, int fromCol, int toRow, int toCol) {
+    begin(CLEAR_RANGE, 4 * Integer.BYTES);
+    putRange(fromRow, fromCol, toRow, toCol);
+    end();
+  }
+
+  /**
+   * Return the number of bytes appended to the log, whether or not they are on disk yet.
+   *
+   * @return the length of the log
+   */
+  synchronized long size() {
+    return appended;
+  }
+
+  /**
+   * Return the number of bytes appended since the last sync.
+   *
+   * @return the bytes waiting to be committed
+   */
+  synchronized long pendingBytes() {
+    return appended - durable;
+  }
+
+  /**
+   * Write every record appended so far to the file and force it to disk.
+   *
+   * @throws IOException if the records cannot be written
+   */
+  void sync() throws IOException {
+    long target;
+    synchronized (this) {
+      target = appended;
+    }
+    synchronized (syncLock) {
+      if (durable >= target) {
+        return;
+      }
+      ByteBuffer batch;
+      long end;
+      synchronized (this) {
+        batch = pending;
+        end = appended;
+        pending = spare;
+        spare = null;
+      }
+      // The file holds exactly the durable records, so the batch goes right after them and
+      // a failed attempt is overwritten by the next one.
+      long start = durable;
+      boolean written = false;
+      batch.flip();
+      try {
+        while (batch.hasRemaining()) {
+          channel.write(batch, start + batch.position());
+        }
+        channel.force(false);
+        written = true;
+      } finally {
+        synchronized (this) {
+          if (written) {
+            batch.clear();
+            durable = end;
+            spare = batch;
+          } else {
+            restore(batch);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Put a batch that could not be written back in front of the records appended since it
+   * was taken, so that the next sync writes them all.
+   *
+   * @param batch the flipped batch that was being written
+   */
+  private void restore(ByteBuffer batch) {
+    batch.position(batch.limit()).limit(batch.capacity());
+    pending.flip();
+    if (batch.remaining() < pending.remaining()) {
+      ByteBuffer grown = ByteBuffer.allocate(batch.position() + pending.remaining());
+      batch.flip();
+      grown.put(batch);
+      batch = grown;
+    }
+    batch.put(pending);
+    pending.clear();
+    spare = pending;
+    pending = batch;
+  }
+
+  /**
+   * Drop every record. The caller must have made the writes they hold durable some other
+   * way and must not append while this runs.
+   *
+   * @throws IOException if the file cannot be truncated
+   */
+  void truncate() throws IOException {
+    synchronized (syncLock) {
+      synchronized (this) {
+        channel.truncate(0);
+        channel.force(true);
+        pending.clear();
+        appended = 0;
+        durable = 0;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private void begin(byte type, int length) {
+    int needed = RECORD_HEADER + 1 + length;
+    if (pending.remaining() < needed) {
+      ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * pending.capacity(),
+              pending.position() + needed));
+      pending.flip();
+      grown.put(pending);
+      pending = grown;
+    }
+    pending.putInt(1 + length).putInt(0);
+    recordStart = pending.position();
+    pending.put(type);
+  }
+
+  /**
+   * Fill in the checksum of the record just written and count it as appended.
+   */
+  private void end() {
+    CRC32 crc = new CRC32();
+    ByteBuffer body = pending.duplicate();
+    body.flip().position(recordStart);
+    crc.update(body);
+    pending.putInt(recordStart - Integer.BYTES, (int) crc.getValue());
+    appended += RECORD_HEADER + pending.position() - recordStart;
+  }
+
+  /**
+   * Append a record of a write of at most {@link #MAX_RECORD_VALUES} cells, whose values
+   * lie side by side in the given array from the given offset.
+   */
+  private void writeRecord(int fromRow, int fromCol, int toRow, int toCol, double[] src,
+                           int offset) {
+    int count = (toRow - fromRow + 1) * (toCol - fromCol + 1);
+    begin(WRITE_RANGE, 4 * Integer.BYTES + count * Double.BYTES);
+    putRange(fromRow, fromCol, toRow, toCol);
+    pending.asDoubleBuffer().put(src, offset, count);
+    pending.position(pending.position() + count * Double.BYTES);
+    end();
+  }
+
+  private void putRange(int fromRow, int fromCol, int toRow, int toCol) {
+    pending.putInt(fromRow).putInt(fromCol).putInt(toRow).putInt(toCol);
+  }
+
+  /**
+   * Apply the complete records of the file to the given sheet.
+   *
+   * @return the position just after the last complete record
+   */
+  private long replay(SpreadSheet sheet) throws IOException {
+    long size = channel.size();
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+    long position = 0;
+    CRC32 crc = new CRC32();
+    while (position + RECORD_HEADER <= size) {
+      header.clear();
+      readFully(header, position);
+      int length = header.getInt(0);
+      if (length <= 0 || position + RECORD_HEADER + length > size) {
+        break;
+      }
+      ByteBuffer body = ByteBuffer.allocate(length);
+      readFully(body, position + RECORD_HEADER);
+      crc.reset();
+      crc.update(body.array());
+      if ((int) crc.getValue() != header.getInt(Integer.BYTES)) {
+        break;
+      }
+      apply(body, sheet);
+      position += RECORD_HEADER + length;
+    }
+    return position;
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of log");
+      }
+    }
+    buffer.flip();
+  }
+
+  private static void apply(ByteBuffer record, SpreadSheet sheet) {
+    byte type = record.get();
+    switch (type) {
+      case SET:
+        sheet.set(record.getInt(), record.getInt(), record.getDouble());
+        break;
+      case CLEAR:
+        sheet.clear(record.getInt(), record.getInt());
+        break;
+      case FILL:
+        sheet.fill(record.getInt(), record.getInt(), record.getInt(), record.getInt(),
+                record.getDouble());
+        break;
+      case PROGRESSION:
+        sheet.fillProgression(record.getInt(), record.getInt(), record.getInt(),
+                record.getInt(), record.getDouble(), record.getDouble());
+        break;
+      case WRITE_RANGE: {
+        int fromRow = record.getInt();
+        int fromCol = record.getInt();
+        int toRow = record.getInt();
+        int toCol = record.getInt();
+        double[] values = new double[record.remaining() / Double.BYTES];
+        record.asDoubleBuffer().get(values);
+        sheet.writeRange(fromRow, fromCol, toRow, toCol, values);
+        break;
+      }
+      case CLEAR_RANGE:
+        sheet.clearRange(record.getInt(), record.getInt(), record.getInt(), record.getInt());
+        break;
+      default:
+        throw new IllegalStateException("Unknown log record type: " + type);
+    }
+  }
+}
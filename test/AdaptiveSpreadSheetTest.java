@@ -0,0 +1,98 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import spreadsheet.AdaptiveSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class is the tester for a spreadsheet that adapts between sparse and dense storage.
+ */
+public class AdaptiveSpreadSheetTest {
+  private AdaptiveSpreadSheet sheet;
+
+  @Before
+  public void setup() {
+    sheet = new AdaptiveSpreadSheet();
+  }
+
+  @Test
+  public void testRegionsStartSparse() {
+    sheet.set(0, 0, 1.0);
+    sheet.set(1000, 1000, 2.0);
+
+    assertEquals(2, sheet.getSparseRegionCount());
+    assertEquals(0, sheet.getDenseRegionCount());
+    assertEquals(0, sheet.getPromotionCount());
+  }
+
+  @Test
+  public void testFilledRegionIsPromoted() {
+    for (int i = 0; i < 64; i = i + 1) {
+      for (int j = 0; j < 64; j = j + 1) {
+        sheet.set(i, j, i * 64 + j);
+      }
+    }
+    sheet.set(200, 200, 7.0);
+
+    assertEquals(1, sheet.getDenseRegionCount());
+    assertEquals(1, sheet.getSparseRegionCount());
+    assertEquals(1, sheet.getPromotionCount());
+    for (int i = 0; i < 64; i = i + 1) {
+      for (int j = 0; j < 64; j = j + 1) {
+        assertEquals(i * 64 + j, sheet.get(i, j), 0.001);
+        assertFalse(sheet.isEmpty(i, j));
+      }
+    }
+    assertEquals(7.0, sheet.get(200, 200), 0.001);
+  }
+
+  @Test
+  public void testPromotionKeepsEmptyCellsEmpty() {
+    sheet = new AdaptiveSpreadSheet(0.005);
+    for (int j = 0; j < 64; j = j + 2) {
+      sheet.set(3, j, j);
+    }
+
+    assertEquals(1, sheet.getDenseRegionCount());
+    assertTrue(sheet.isEmpty(3, 1));
+    assertFalse(sheet.isEmpty(3, 2));
+    assertEquals(62.0, sheet.get(3, 62), 0.001);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidPromoteRatio() {
+    new AdaptiveSpreadSheet(0.0);
+  }
+
+  @Test
+  public void testClearedRegionIsDemoted() {
+    sheet.fill(0, 0, 63, 63, 1.0);
+    assertEquals(1, sheet.getDenseRegionCount());
+
+    sheet.clearRange(0, 0, 55, 63);
+    assertEquals(1, sheet.getDenseRegionCount());
+    sheet.clearRange(56, 0, 62, 63);
+
+    assertEquals(0, sheet.getDenseRegionCount());
+    assertEquals(1, sheet.getSparseRegionCount());
+    assertEquals(1, sheet.getDemotionCount());
+    assertEquals(1.0, sheet.get(63, 5), 0.001);
+    assertTrue(sheet.isEmpty(62, 5));
+    assertEquals(64, sheet.getWidth());
+    assertEquals(64, sheet.getHeight());
+  }
+
+  @Test
+  public void testEmptyRegionIsReleased() {
+    sheet.set(3, 3, 1.0);
+    sheet.set(300, 300, 1.0);
+    sheet.clear(300, 300);
+
+    assertEquals(1, sheet.getSparseRegionCount());
+    assertEquals(4, sheet.getWidth());
+    assertEquals(4, sheet.getHeight());
+  }
+}
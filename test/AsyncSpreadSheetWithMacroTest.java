@@ -0,0 +1,215 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import spreadsheet.AsyncSpreadSheetWithMacro;
+import spreadsheet.BulkAssignMacro;
+import spreadsheet.ConcurrentSpreadSheet;
+import spreadsheet.RangeAssignMacro;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetMacro;
+import spreadsheet.SpreadSheetWithMacro;
+import spreadsheet.SpreadSheetWithMacroImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the AsyncSpreadSheetWithMacro class.
+ */
+public class AsyncSpreadSheetWithMacroTest {
+  private CountDownLatch release;
+  private AsyncSpreadSheetWithMacro sheet;
+
+  @Before
+  public void setup() {
+    release = new CountDownLatch(1);
+    ConcurrentSpreadSheet blocking = new ConcurrentSpreadSheet() {
+      @Override
+      public void fill(int fromRow, int fromCol, int toRow, int toCol, double value) {
+        awaitRelease();
+        super.fill(fromRow, fromCol, toRow, toCol, value);
+      }
+    };
+    sheet = new AsyncSpreadSheetWithMacro(new SpreadSheetWithMacroImpl(blocking));
+  }
+
+  @Test(timeout = 10000)
+  public void testMacrosRunInSubmissionOrder() {
+    release.countDown();
+    List<CompletableFuture<Void>> results = new ArrayList<CompletableFuture<Void>>();
+    SpreadSheetWithMacro sequential = new SpreadSheetWithMacroImpl(new SparseSpreadSheet());
+    for (int i = 0; i < 50; i++) {
+      SpreadSheetMacro macro = i % 2 == 0
+              ? new BulkAssignMacro(i % 7, i % 5, i % 7 + 10, i % 5 + 10, i)
+              : new RangeAssignMacro(i % 3, i % 11, i % 3 + 8, i % 11 + 4, i, 0.5);
+      results.add(sheet.executeMacroAsync(macro));
+      sequential.executeMacro(macro);
+    }
+
+    for (int row = 0; row < 20; row++) {
+      for (int col = 0; col < 20; col++) {
+        assertEquals(sequential.get(row, col), sheet.get(row, col), 0.0);
+      }
+    }
+    sheet.awaitMacros();
+    for (CompletableFuture<Void> result : results) {
+      assertTrue(result.isDone());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testReadsOfOtherCellsDoNotWait() {
+    sheet.set(50, 50, 3.0);
+    CompletableFuture<Void> fill = sheet.executeMacroAsync(new BulkAssignMacro(0, 0, 9, 9, 1.0));
+
+    assertEquals(3.0, sheet.get(50, 50), 0.0);
+    sheet.set(20, 0, 4.0);
+    assertEquals(4.0, sheet.sumRange(10, 0, 30, 9), 0.0);
+    assertFalse(fill.isDone());
+
+    release.countDown();
+    assertEquals(1.0, sheet.get(5, 5), 0.0);
+    assertTrue(fill.isDone());
+  }
+
+  @Test(timeout = 10000)
+  public void testReadsOfTouchedCellsWait() throws Exception {
+    sheet.executeMacroAsync(new BulkAssignMacro(0, 0, 9, 9, 1.0));
+    CompletableFuture<Double> read = CompletableFuture.supplyAsync(() -> sheet.get(9, 9));
+
+    assertStillRunning(read);
+    release.countDown();
+    assertEquals(1.0, read.get(), 0.0);
+  }
+
+  @Test(timeout = 10000)
+  public void testMacroWithoutFootprintBlocksAllReads() throws Exception {
+    sheet.executeMacroAsync(target -> {
+      awaitRelease();
+      target.set(0, 0, 7.0);
+    });
+    CompletableFuture<Double> read = CompletableFuture.supplyAsync(() -> sheet.get(99, 99));
+
+    assertStillRunning(read);
+    release.countDown();
+    assertEquals(0.0, read.get(), 0.0);
+    assertEquals(7.0, sheet.get(0, 0), 0.0);
+  }
+
+  @Test(timeout = 10000)
+  public void testSnapshotDoesNotWaitForMacros() throws Exception {
+    sheet.set(20, 20, 5.0);
+    sheet.snapshot();
+    CompletableFuture<Void> fill = sheet.executeMacroAsync(new BulkAssignMacro(0, 0, 9, 9, 1.0));
+
+    SpreadSheet snapshot = sheet.snapshot();
+    assertFalse(fill.isDone());
+    assertEquals(5.0, snapshot.get(20, 20), 0.0);
+    assertTrue(snapshot.isEmpty(9, 9));
+    release.countDown();
+    fill.get();
+    assertEquals(1.0, sheet.snapshot().get(9, 9), 0.0);
+  }
+
+  @Test(timeout = 10000)
+  public void testFailedMacroDoesNotStopLaterOnes() {
+    release.countDown();
+    CompletableFuture<Void> failed = sheet.executeMacroAsync(target -> {
+      throw new IllegalArgumentException("Broken macro");
+    });
+    CompletableFuture<Void> next = sheet.executeMacroAsync(new BulkAssignMacro(0, 0, 1, 1, 2.0));
+    sheet.awaitMacros();
+
+    assertTrue(failed.isCompletedExceptionally());
+    assertFalse(next.isCompletedExceptionally());
+    assertEquals(2.0, sheet.get(1, 1), 0.0);
+    try {
+      sheet.executeMacro(target -> {
+        throw new IllegalArgumentException("Broken macro");
+      });
+      fail("Expected the failure of the macro");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Broken macro", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testDefaultAsyncRunsOnCallerThread() {
+    SpreadSheetWithMacro direct = new SpreadSheetWithMacroImpl();
+    CompletableFuture<Void> result = direct.executeMacroAsync(new BulkAssignMacro(0, 0, 1, 1, 2.0));
+
+    assertTrue(result.isDone());
+    assertEquals(2.0, direct.get(1, 1), 0.0);
+  }
+
+  @Test(timeout = 10000)
+  public void testCloseWaitsForMacrosThenStops() {
+    release.countDown();
+    CompletableFuture<Void> fill = sheet.executeMacroAsync(new BulkAssignMacro(0, 0, 9, 9, 3.0));
+    sheet.close();
+
+    assertTrue(fill.isDone());
+    assertEquals(3.0, sheet.get(9, 9), 0.0);
+    try {
+      sheet.executeMacroAsync(new BulkAssignMacro(0, 0, 0, 0, 1.0));
+      fail("A closed sheet should not run macros");
+    } catch (IllegalStateException e) {
+      assertEquals("Sheet has been closed", e.getMessage());
+    }
+    sheet.close();
+  }
+
+  @Test(timeout = 10000)
+  public void testCloseLeavesGivenExecutorRunning() {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      AsyncSpreadSheetWithMacro shared = new AsyncSpreadSheetWithMacro(
+              new SpreadSheetWithMacroImpl(new ConcurrentSpreadSheet()), executor);
+      shared.executeMacro(new BulkAssignMacro(0, 0, 1, 1, 2.0));
+      shared.close();
+
+      assertFalse(executor.isShutdown());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullMacro() {
+    sheet.executeMacroAsync(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullSheet() {
+    new AsyncSpreadSheetWithMacro(null);
+  }
+
+  private void awaitRelease() {
+    try {
+      release.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void assertStillRunning(CompletableFuture<Double> read) throws Exception {
+    try {
+      read.get(200, TimeUnit.MILLISECONDS);
+      fail("Read should wait for the macro");
+    } catch (TimeoutException e) {
+      assertFalse(read.isDone());
+    }
+  }
+}
@@ -36,6 +36,16 @@ public class AverageMacroTest {
     assertEquals(25.0, sheet.get(3, 3), 0.001);
   }
 
+  @Test
+  public void testSmallAverageInLargeSheet() {
+    sheet.fill(0, 0, 499, 199, 1.0);
+    sheet.set(250, 100, 5.0);
+
+    sheet.executeMacro(new AverageMacro(250, 100, 250, 101, 600, 0));
+
+    assertEquals(3.0, sheet.get(600, 0), 0.001);
+  }
+
   @Test
   public void testAverageWithEmptyCells() {
     sheet.set(1, 1, 10.0);
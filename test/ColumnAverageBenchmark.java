@@ -0,0 +1,51 @@
+import spreadsheet.AverageMacro;
+import spreadsheet.ColumnarSpreadSheet;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetMacro;
+
+/**
+ * A benchmark that compares a tall single-column {@link AverageMacro} on a
+ * {@link ColumnarSpreadSheet} against the same macro on a {@link SparseSpreadSheet}.
+ *
+ * <p>This is not a unit test. Run it with the test classpath, optionally passing the
+ * number of rows and the number of timed iterations as arguments.
+ */
+public class ColumnAverageBenchmark {
+  private static final int WARMUP_ITERATIONS = 5;
+
+  /**
+   * Run the benchmark and print the average time per macro for each backend.
+   *
+   * @param args optional number of rows and number of timed iterations
+   */
+  public static void main(String[] args) {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+    report("SparseSpreadSheet", fill(new SparseSpreadSheet(), rows), rows, iterations);
+    report("ColumnarSpreadSheet", fill(new ColumnarSpreadSheet(), rows), rows, iterations);
+  }
+
+  private static SpreadSheet fill(SpreadSheet sheet, int rows) {
+    for (int row = 0; row < rows; row++) {
+      sheet.set(row, 0, row % 100);
+    }
+    return sheet;
+  }
+
+  private static void report(String name, SpreadSheet sheet, int rows, int iterations) {
+    SpreadSheetMacro macro = new AverageMacro(0, 0, rows - 1, 0, 0, 1);
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      macro.execute(sheet);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      macro.execute(sheet);
+    }
+    double millis = (System.nanoTime() - start) / 1e6 / iterations;
+    System.out.printf("%-20s %,d rows: %.3f ms per average (result %.2f)%n",
+            name, rows, millis, sheet.get(0, 1));
+  }
+}
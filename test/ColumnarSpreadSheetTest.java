@@ -0,0 +1,75 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import spreadsheet.ColumnarSpreadSheet;
+import spreadsheet.AverageMacro;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetWithMacro;
+import spreadsheet.SpreadSheetWithMacroImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class is the tester for a column-oriented spreadsheet.
+ */
+public class ColumnarSpreadSheetTest {
+  private SpreadSheet sheet;
+
+  @Before
+  public void setup() {
+    sheet = new ColumnarSpreadSheet();
+  }
+
+  @Test
+  public void testCellsAcrossSegmentBoundaries() {
+    sheet.set(1023, 2, 1.0);
+    sheet.set(1024, 2, 2.0);
+    sheet.set(100000, 2, 3.0);
+
+    assertEquals(1.0, sheet.get(1023, 2), 0.001);
+    assertEquals(2.0, sheet.get(1024, 2), 0.001);
+    assertEquals(3.0, sheet.get(100000, 2), 0.001);
+    assertTrue(sheet.isEmpty(1025, 2));
+    assertTrue(sheet.isEmpty(50000, 2));
+    assertTrue(sheet.isEmpty(1024, 3));
+    assertEquals(3, sheet.getWidth());
+    assertEquals(100001, sheet.getHeight());
+  }
+
+  @Test
+  public void testColumnAverage() {
+    for (int i = 0; i < 5000; i = i + 1) {
+      sheet.set(i, 0, i);
+    }
+    SpreadSheetWithMacro macroSheet = new SpreadSheetWithMacroImpl(sheet);
+    macroSheet.executeMacro(new AverageMacro(0, 0, 4999, 0, 0, 1));
+
+    assertEquals(2499.5, sheet.get(0, 1), 0.001);
+  }
+
+  @Test
+  public void testSumRangeAcrossSegments() {
+    sheet.fill(0, 0, 2999, 1, 0.5);
+    sheet.clearRange(1000, 0, 1999, 0);
+    sheet.set(5000, 1, 4.0);
+
+    assertEquals(1000.0 + 1500.0 + 4.0, sheet.sumRange(0, 0, 9999, 3), 0.0);
+    assertEquals(0.0, sheet.sumRange(1000, 0, 1999, 0), 0.0);
+  }
+
+  @Test
+  public void testColumnsFarApart() {
+    sheet.set(0, Integer.MAX_VALUE, 1.5);
+    sheet.set(3, 1000000000, 2.5);
+    sheet.set(7, 2, 4.0);
+
+    assertEquals(1.5, sheet.get(0, Integer.MAX_VALUE), 0.0);
+    assertEquals(2.5, sheet.get(3, 1000000000), 0.0);
+    assertTrue(sheet.isEmpty(3, 999999999));
+    assertEquals(8.0, sheet.sumRange(0, 0, 9, Integer.MAX_VALUE), 0.0);
+    sheet.clearRange(0, 1000000000, 9, Integer.MAX_VALUE);
+    assertEquals(3, sheet.getWidth());
+    assertEquals(8, sheet.getHeight());
+  }
+}
@@ -0,0 +1,94 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import spreadsheet.ConcurrentSpreadSheet;
+import spreadsheet.SpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * This class is the tester for a thread-safe striped spreadsheet.
+ */
+public class ConcurrentSpreadSheetTest {
+  private SpreadSheet sheet;
+
+  @Before
+  public void setup() {
+    sheet = new ConcurrentSpreadSheet();
+  }
+
+  @Test
+  public void testConcurrentWritersAndReaders() throws InterruptedException {
+    int threads = 8;
+    int rowsPerThread = 500;
+    List<Thread> workers = new ArrayList<Thread>();
+    for (int t = 0; t < threads; t = t + 1) {
+      final int id = t;
+      workers.add(new Thread(() -> {
+        for (int i = 0; i < rowsPerThread; i = i + 1) {
+          int row = i * threads + id;
+          for (int j = 0; j < 10; j = j + 1) {
+            sheet.set(row, j + id, row + j);
+            sheet.get(row, j);
+            sheet.isEmpty(row + 1, j);
+          }
+        }
+      }));
+    }
+    for (Thread worker : workers) {
+      worker.start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    for (int t = 0; t < threads; t = t + 1) {
+      for (int i = 0; i < rowsPerThread; i = i + 1) {
+        int row = i * threads + t;
+        for (int j = 0; j < 10; j = j + 1) {
+          assertEquals(row + j, sheet.get(row, j + t), 0.001);
+        }
+      }
+    }
+    assertEquals(threads * rowsPerThread, sheet.getHeight());
+    assertEquals(10 + threads - 1, sheet.getWidth());
+  }
+
+  @Test
+  public void testExtentDoesNotWaitForStripeLocks() throws InterruptedException {
+    sheet.set(0, 0, 1.0);
+    sheet.set(5, 7, 2.0);
+    int[] extent = new int[2];
+    // The visitor holds the stripe's read lock, so this writer queues behind it.
+    Thread writer = new Thread(() -> sheet.set(1, 1, 3.0));
+    sheet.forEachNonEmpty(0, 0, 0, 0, (row, col, value) -> {
+      writer.start();
+      Thread reader = new Thread(() -> {
+        extent[0] = sheet.getWidth();
+        extent[1] = sheet.getHeight();
+      });
+      try {
+        Thread.sleep(100);
+        reader.start();
+        reader.join(5000);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      assertFalse(reader.isAlive());
+    });
+    writer.join();
+
+    assertEquals(8, extent[0]);
+    assertEquals(6, extent[1]);
+    assertEquals(3.0, sheet.get(1, 1), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidStripeCount() {
+    new ConcurrentSpreadSheet(0);
+  }
+}
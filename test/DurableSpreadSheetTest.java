@@ -0,0 +1,257 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import spreadsheet.BulkAssignMacro;
+import spreadsheet.DurableSpreadSheet;
+import spreadsheet.Formula;
+import spreadsheet.FormulaSpreadSheet;
+import spreadsheet.PrimitiveSparseSpreadSheet;
+import spreadsheet.RangeAssignMacro;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheetWithMacro;
+import spreadsheet.SpreadSheetWithMacroImpl;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This class is the tester for a spreadsheet backed by a write-ahead log.
+ */
+public class DurableSpreadSheetTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testWritesSurviveCrash() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    DurableSpreadSheet sheet = new DurableSpreadSheet(new SparseSpreadSheet(), directory);
+    sheet.set(0, 0, 1.5);
+    sheet.fill(10, 10, 19, 19, 2.0);
+    sheet.fillProgression(30, 0, 30, 9, 1.0, 1.0);
+    sheet.writeRange(40, 0, 40, 2, new double[] {7.0, 8.0, 9.0});
+    sheet.clearRange(10, 10, 10, 19);
+    sheet.clear(30, 0);
+    sheet.set(50, 50, 3.0);
+
+    // Open the directory again without closing, as after a crash.
+    DurableSpreadSheet recovered = new DurableSpreadSheet(new TiledSpreadSheet(), directory);
+    assertEquals(1.5, recovered.get(0, 0), 0.0);
+    assertEquals(2.0, recovered.get(19, 19), 0.0);
+    assertTrue(recovered.isEmpty(10, 15));
+    assertTrue(recovered.isEmpty(30, 0));
+    assertEquals(10.0, recovered.get(30, 9), 0.0);
+    assertEquals(8.0, recovered.get(40, 1), 0.0);
+    assertEquals(3.0, recovered.get(50, 50), 0.0);
+    recovered.close();
+  }
+
+  @Test
+  public void testMacrosSettleFormulasInsideDurableSheet() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    SparseSpreadSheet inner = new SparseSpreadSheet();
+    FormulaSpreadSheet formulas = new FormulaSpreadSheet(inner);
+    formulas.setFormula(0, 5, new Formula(Formula.Function.SUM, 0, 0, 0, 3));
+    DurableSpreadSheet durable = new DurableSpreadSheet(formulas, directory);
+    SpreadSheetWithMacro sheet = new SpreadSheetWithMacroImpl(durable);
+    sheet.executeMacro(new BulkAssignMacro(0, 0, 0, 3, 2.0));
+
+    // The formula is recalculated into the inner sheet without a read through it.
+    assertEquals(8.0, inner.get(0, 5), 0.0);
+    DurableSpreadSheet recovered = new DurableSpreadSheet(new SparseSpreadSheet(), directory);
+    assertEquals(2.0, recovered.get(0, 3), 0.0);
+    recovered.close();
+    durable.close();
+  }
+
+  @Test
+  public void testMacrosCommitFormulasAroundDurableSheet() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    DurableSpreadSheet durable = new DurableSpreadSheet(new SparseSpreadSheet(), directory);
+    FormulaSpreadSheet formulas = new FormulaSpreadSheet(durable);
+    formulas.setFormula(0, 5, new Formula(Formula.Function.SUM, 0, 0, 0, 3));
+    SpreadSheetWithMacro sheet = new SpreadSheetWithMacroImpl(formulas);
+    sheet.executeMacro(new BulkAssignMacro(0, 0, 0, 3, 2.0));
+
+    // Both the macro's writes and the recalculated formula value reach the log.
+    DurableSpreadSheet recovered = new DurableSpreadSheet(new SparseSpreadSheet(), directory);
+    assertEquals(2.0, recovered.get(0, 3), 0.0);
+    assertEquals(8.0, recovered.get(0, 5), 0.0);
+    recovered.close();
+    durable.close();
+  }
+
+  @Test
+  public void testMacrosAreCommittedAfterRunning() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    SpreadSheetWithMacro sheet = new SpreadSheetWithMacroImpl(
+            new DurableSpreadSheet(new SparseSpreadSheet(), directory));
+    sheet.executeMacro(new BulkAssignMacro(0, 0, 99, 99, 4.0));
+    sheet.executeMacro(new RangeAssignMacro(0, 0, 0, 9, 1.0, 2.0));
+
+    DurableSpreadSheet recovered = new DurableSpreadSheet(new SparseSpreadSheet(), directory);
+    assertEquals(4.0, recovered.get(99, 99), 0.0);
+    assertEquals(19.0, recovered.get(0, 9), 0.0);
+    // Each macro takes a single record, not one per cell.
+    assertTrue(Files.size(directory.resolve("sheet.wal")) < 200);
+    recovered.close();
+  }
+
+  @Test
+  public void testCheckpointBoundsTheLog() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    DurableSpreadSheet sheet = new DurableSpreadSheet(new SparseSpreadSheet(), directory,
+            256, 4096);
+    SparseSpreadSheet expected = new SparseSpreadSheet();
+    Random random = new Random(24);
+    for (int i = 0; i < 5000; i++) {
+      int row = random.nextInt(200);
+      int col = random.nextInt(200);
+      double value = random.nextDouble();
+      sheet.set(row, col, value);
+      expected.set(row, col, value);
+      assertTrue(Files.size(directory.resolve("sheet.wal")) < 4096 + 256);
+    }
+    sheet.sync();
+
+    DurableSpreadSheet recovered = new DurableSpreadSheet(new SparseSpreadSheet(), directory);
+    for (int row = 0; row < 200; row++) {
+      for (int col = 0; col < 200; col++) {
+        assertEquals(expected.isEmpty(row, col), recovered.isEmpty(row, col));
+        assertEquals(expected.get(row, col), recovered.get(row, col), 0.0);
+      }
+    }
+    recovered.close();
+  }
+
+  @Test
+  public void testFailedSyncKeepsWritesPending() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    DurableSpreadSheet sheet = new DurableSpreadSheet(new SparseSpreadSheet(), directory);
+    sheet.set(0, 0, 1.0);
+    // An interrupt makes the log's channel fail the write and close.
+    Thread.currentThread().interrupt();
+    try {
+      sheet.set(1, 1, 1.0);
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(Thread.interrupted());
+    }
+    assertEquals(1.0, sheet.get(1, 1), 0.0);
+
+    // Every later write still reaches the buffers, and each failure to commit is reported.
+    for (int i = 2; i <= 4; i++) {
+      try {
+        sheet.set(i, i, i);
+        fail();
+      } catch (IllegalStateException e) {
+        // The channel stays closed.
+      }
+      assertEquals(i, sheet.get(i, i), 0.0);
+      try {
+        sheet.sync();
+        fail();
+      } catch (IllegalStateException e) {
+        // The channel stays closed.
+      }
+    }
+  }
+
+  @Test
+  public void testFailedMacroIsStillCommitted() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    SpreadSheetWithMacro sheet = new SpreadSheetWithMacroImpl(
+            new DurableSpreadSheet(new SparseSpreadSheet(), directory, 1 << 20, 1 << 20));
+    try {
+      sheet.executeMacro(target -> {
+        target.set(0, 0, 1.0);
+        throw new IllegalStateException("Macro failed");
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("Macro failed", e.getMessage());
+    }
+    // Writes after the failed macro are committed as they are made again.
+    sheet.set(1, 1, 2.0);
+
+    DurableSpreadSheet recovered = new DurableSpreadSheet(new SparseSpreadSheet(), directory);
+    assertEquals(1.0, recovered.get(0, 0), 0.0);
+    assertEquals(2.0, recovered.get(1, 1), 0.0);
+    recovered.close();
+  }
+
+  @Test
+  public void testLargeWriteRangeSurvivesCrash() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    DurableSpreadSheet sheet = new DurableSpreadSheet(new PrimitiveSparseSpreadSheet(),
+            directory);
+    double[] wide = new double[1_200_000];
+    for (int i = 0; i < wide.length; i++) {
+      wide[i] = i;
+    }
+    sheet.writeRange(0, 0, 0, wide.length - 1, wide);
+    // More rows than fit in one record, each narrower than one.
+    sheet.writeRange(10, 0, 1209, 999, wide);
+
+    DurableSpreadSheet recovered = new DurableSpreadSheet(new PrimitiveSparseSpreadSheet(),
+            directory);
+    assertEquals(1_199_999.0, recovered.get(0, 1_199_999), 0.0);
+    assertEquals(1_048_576.0, recovered.get(0, 1_048_576), 0.0);
+    assertEquals(1_048_576.0, recovered.get(1058, 576), 0.0);
+    assertEquals(1_199_999.0, recovered.get(1209, 999), 0.0);
+    recovered.close();
+  }
+
+  @Test
+  public void testCloseCheckpointsAndTornTailIsIgnored() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    DurableSpreadSheet sheet = new DurableSpreadSheet(new SparseSpreadSheet(), directory);
+    sheet.fill(0, 0, 9, 9, 5.0);
+    sheet.close();
+    assertEquals(0, Files.size(directory.resolve("sheet.wal")));
+
+    sheet = new DurableSpreadSheet(new SparseSpreadSheet(), directory);
+    sheet.set(20, 20, 6.0);
+    sheet.sync();
+    Files.write(directory.resolve("sheet.wal"), new byte[] {0, 0, 0, 40, 1, 2, 3},
+            StandardOpenOption.APPEND);
+
+    DurableSpreadSheet recovered = new DurableSpreadSheet(new SparseSpreadSheet(), directory);
+    assertEquals(5.0, recovered.get(9, 9), 0.0);
+    assertEquals(6.0, recovered.get(20, 20), 0.0);
+    recovered.set(21, 21, 7.0);
+    recovered.close();
+
+    recovered = new DurableSpreadSheet(new SparseSpreadSheet(), directory);
+    assertEquals(7.0, recovered.get(21, 21), 0.0);
+    assertFalse(recovered.isEmpty(20, 20));
+    recovered.close();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testWriteAfterClose() throws IOException {
+    DurableSpreadSheet sheet = new DurableSpreadSheet(new SparseSpreadSheet(),
+            folder.getRoot().toPath());
+    sheet.close();
+    sheet.set(0, 0, 1.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullDirectory() throws IOException {
+    new DurableSpreadSheet(new SparseSpreadSheet(), null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNonPositiveGroupSize() throws IOException {
+    new DurableSpreadSheet(new SparseSpreadSheet(), folder.getRoot().toPath(), 0, 1);
+  }
+}
@@ -1,7 +1,12 @@
 import org.junit.Test;
 
+import java.io.IOException;
 import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
+import spreadsheet.AsyncSpreadSheetWithMacro;
+import spreadsheet.ConcurrentSpreadSheet;
 import spreadsheet.MacroSpreadSheetController;
 import spreadsheet.SparseSpreadSheet;
 import spreadsheet.SpreadSheet;
@@ -111,6 +116,155 @@ public class EnhancedMacroControllerTest {
   }
 
   // Helper method to check if a string contains the given substring
+  @Test
+  public void testStatisticsCommand() {
+    StringBuilder input = new StringBuilder();
+    input.append("range-assign A 1 A 4 1 1\n");       // Set cells A1:A4 to 1,2,3,4
+    input.append("statistics A 1 A 4 B 1\n");         // All statistics into B1:B6
+    input.append("statistics A 1 A 4 C 1 max sum\n"); // Max and sum into C1:C2
+    input.append("print-value B 1\n");                // Count
+    input.append("print-value B 3\n");                // Mean
+    input.append("print-value B 6\n");                // Variance
+    input.append("print-value C 1\n");                // Max
+    input.append("print-value C 2\n");                // Sum
+    input.append("statistics A 1 A 4 C 1 median\n");
+    input.append("quit\n");
+
+    Readable in = new StringReader(input.toString());
+    StringBuilder out = new StringBuilder();
+    SpreadSheet baseSheet = new SparseSpreadSheet();
+    SpreadSheetWithMacro sheet = new SpreadSheetWithMacroImpl(baseSheet);
+    MacroSpreadSheetController controller = new MacroSpreadSheetController(sheet, in, out);
+
+    controller.control();
+
+    String output = out.toString();
+    assertTrue(output.contains("Value: 4.0\nType instruction: Value: 2.5\n"
+            + "Type instruction: Value: 1.3\nType instruction: Value: 4.0\n"
+            + "Type instruction: Value: 10.0\n"));
+    assertTrue(output.contains("Unknown statistic: median"));
+  }
+
+  @Test
+  public void testUndoAndRedoCommands() {
+    StringBuilder input = new StringBuilder();
+    input.append("assign-value A 1 5\n");             // Set A1 to 5
+    input.append("bulk-assign-value A 1 B 2 7\n");    // Set cells A1:B2 to 7
+    input.append("range-assign A 1 A 3 1 1\n");       // Set cells A1:A3 to 1,2,3
+    input.append("undo\n");                           // Undo the range-assign
+    input.append("print-value A 1\n");
+    input.append("undo\n");                           // Undo the bulk-assign-value
+    input.append("print-value A 1\n");
+    input.append("undo\n");
+    input.append("redo\n");                           // Redo the bulk-assign-value
+    input.append("print-value B 2\n");
+    input.append("redo\n");
+    input.append("redo\n");
+    input.append("quit\n");
+
+    Readable in = new StringReader(input.toString());
+    StringBuilder out = new StringBuilder();
+    AsyncSpreadSheetWithMacro sheet = new AsyncSpreadSheetWithMacro(
+            new SpreadSheetWithMacroImpl(new ConcurrentSpreadSheet()));
+    MacroSpreadSheetController controller = new MacroSpreadSheetController(sheet, in, out);
+
+    controller.control();
+
+    String output = out.toString();
+    assertTrue(output.contains("Undoing last macro\nType instruction: Value: 7.0\n"
+            + "Type instruction: Undoing last macro\nType instruction: Value: 5.0\n"
+            + "Type instruction: Nothing to undo\n"
+            + "Type instruction: Redoing last undone macro\nType instruction: Value: 7.0\n"
+            + "Type instruction: Redoing last undone macro\n"
+            + "Type instruction: Nothing to redo\n"));
+    assertTrue(sheet.get(0, 2) == 3.0);
+  }
+
+  @Test
+  public void testCommandsOnAsyncSheet() {
+    StringBuilder input = new StringBuilder();
+    input.append("bulk-assign-value A 1 J 100 2\n");  // Set cells A1:J100 to 2
+    input.append("print-value Z 1\n");                // Untouched by the fill
+    input.append("average A 1 J 100 Z 2\n");          // Average A1:J100 into Z2
+    input.append("print-value Z 2\n");                // Waits for both macros
+    input.append("quit\n");
+
+    Readable in = new StringReader(input.toString());
+    StringBuilder out = new StringBuilder();
+    AsyncSpreadSheetWithMacro sheet = new AsyncSpreadSheetWithMacro(
+            new SpreadSheetWithMacroImpl(new ConcurrentSpreadSheet()));
+    MacroSpreadSheetController controller = new MacroSpreadSheetController(sheet, in, out);
+
+    controller.control();
+
+    String output = out.toString();
+    assertTrue(output.contains("Value: 0.0\nType instruction: Type instruction: Value: 2.0"));
+    assertTrue(output.endsWith("Thank you for using this program!\n"));
+  }
+
+  @Test
+  public void testEveryAsyncFailureIsReportedInOrder() {
+    StringBuilder input = new StringBuilder();
+    input.append("bulk-assign-value A 1 B 2 3\n");
+    input.append("assign-value Z 1 4\n");
+    input.append("bulk-assign-value C 1 D 2 3\n");
+    input.append("quit\n");
+
+    Readable in = new StringReader(input.toString());
+    StringBuilder out = new StringBuilder();
+    AsyncSpreadSheetWithMacro sheet = new AsyncSpreadSheetWithMacro(
+            new SpreadSheetWithMacroImpl(new ConcurrentSpreadSheet() {
+              @Override
+              public void fill(int fromRow, int fromCol, int toRow, int toCol, double value) {
+                throw new IllegalArgumentException("Fill failed at row " + fromRow);
+              }
+            }));
+    MacroSpreadSheetController controller = new MacroSpreadSheetController(sheet, in, out);
+
+    controller.control();
+    sheet.close();
+
+    String output = out.toString();
+    int first = output.indexOf("Fill failed at row 0\n");
+    int second = output.indexOf("Fill failed at row 2\n");
+    assertTrue(first >= 0);
+    assertTrue(second > first);
+    assertTrue(sheet.get(25, 0) == 4.0);
+  }
+
+  @Test
+  public void testSaveAndLoadCommands() throws IOException {
+    Path file = Files.createTempFile("sheet", ".bin");
+    try {
+      StringBuilder input = new StringBuilder();
+      input.append("bulk-assign-value A 1 C 3 4\n");   // Set cells A1:C3 to 4
+      input.append("save " + file + " compress\n");
+      input.append("assign-value A 1 9\n");
+      input.append("assign-value Z 9 1\n");            // Not in the saved sheet
+      input.append("load " + file + "\n");
+      input.append("print-value A 1\n");
+      input.append("print-value Z 9\n");
+      input.append("save " + file + " zip\n");
+      input.append("quit\n");
+
+      Readable in = new StringReader(input.toString());
+      StringBuilder out = new StringBuilder();
+      SpreadSheetWithMacro sheet = new SpreadSheetWithMacroImpl(new SparseSpreadSheet());
+      MacroSpreadSheetController controller = new MacroSpreadSheetController(sheet, in, out);
+
+      controller.control();
+
+      String output = out.toString();
+      assertTrue(output.contains("Saved sheet to " + file + "\n"));
+      assertTrue(output.contains("Loaded sheet from " + file + "\nType instruction: Value: 4.0\n"
+              + "Type instruction: Value: 0.0\n"));
+      assertTrue(output.contains("Invalid command format. Use: save FILE [compress]"));
+      assertTrue(sheet.isEmpty(8, 25));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
   private void assertTrue(boolean condition) {
     if (!condition) {
       throw new AssertionError("Assertion failed");
@@ -0,0 +1,190 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import spreadsheet.AverageMacro;
+import spreadsheet.FenwickSpreadSheet;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheetWithMacro;
+import spreadsheet.SpreadSheetWithMacroImpl;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * This class is the tester for a spreadsheet with a Fenwick tree attached.
+ */
+public class FenwickSpreadSheetTest {
+  private SparseSpreadSheet cells;
+  private FenwickSpreadSheet sheet;
+
+  @Before
+  public void setup() {
+    cells = new SparseSpreadSheet();
+    sheet = new FenwickSpreadSheet(cells);
+  }
+
+  @Test
+  public void testInterleavedSetsAndSums() {
+    Random r = new Random(17);
+    for (int i = 0; i < 3000; i = i + 1) {
+      int row = r.nextInt(300);
+      int col = r.nextInt(50);
+      if (r.nextInt(4) == 0) {
+        sheet.clear(row, col);
+      } else {
+        sheet.set(row, col, r.nextInt(100));
+      }
+      int fromRow = r.nextInt(300);
+      int fromCol = r.nextInt(50);
+      int toRow = fromRow + r.nextInt(50);
+      int toCol = fromCol + r.nextInt(20);
+      assertEquals(cells.sumRange(fromRow, fromCol, toRow, toCol),
+              sheet.sumRange(fromRow, fromCol, toRow, toCol), 1e-6);
+    }
+    assertEquals(0, sheet.getRebuildCount());
+  }
+
+  @Test
+  public void testTreeGrowsWithSheet() {
+    sheet.set(3, 3, 1.0);
+    sheet.set(5000, 7, 2.0);
+    sheet.set(9, 900, 4.0);
+
+    assertEquals(7.0, sheet.sumRange(0, 0, 5000, 900), 0.0);
+    assertEquals(3.0, sheet.sumRange(0, 0, 5000, 10), 0.0);
+    assertEquals(5.0, sheet.sumRange(0, 0, 100, 1000), 0.0);
+    assertEquals(0, sheet.getRebuildCount());
+  }
+
+  @Test
+  public void testLargeWriteRebuildsEachTileOnce() {
+    sheet.fill(0, 0, 999, 99, 2.0);
+    sheet.set(10, 10, 3.0);
+    assertEquals(200001.0, sheet.sumRange(0, 0, 999, 99), 1e-6);
+    assertEquals(32, sheet.getRebuildCount());
+    assertEquals(200001.0, sheet.sumRange(0, 0, 999, 99), 1e-6);
+    assertEquals(32, sheet.getRebuildCount());
+
+    sheet.writeRange(0, 0, 0, 1, new double[]{5.0, 5.0});
+    sheet.clearRange(999, 0, 999, 99);
+    assertEquals(200001.0 + 6.0 - 200.0, sheet.sumRange(0, 0, 999, 99), 1e-6);
+    assertEquals(34, sheet.getRebuildCount());
+  }
+
+  @Test
+  public void testInterleavedAverages() {
+    SpreadSheetWithMacro macroSheet = new SpreadSheetWithMacroImpl(sheet);
+    sheet.fillProgression(0, 0, 999, 9, 0.0, 1.0);
+    for (int i = 0; i < 100; i = i + 1) {
+      sheet.set(i, 0, 0.0);
+      macroSheet.executeMacro(new AverageMacro(0, 0, 999, 9, 1000 + i, 0));
+    }
+
+    double expected = (49995000.0 - 49500.0) / 10000;
+    assertEquals(expected, sheet.get(1099, 0), 1e-6);
+    assertEquals(16, sheet.getRebuildCount());
+  }
+
+  @Test
+  public void testFarApartCellsStayIndexed() {
+    sheet.set(0, 0, 1.0);
+    sheet.set(100000000, 100000000, 2.0);
+
+    assertEquals(3.0, sheet.sumRange(0, 0, 100000000, 100000000), 0.0);
+    assertEquals(0, sheet.getRebuildCount());
+  }
+
+  @Test
+  public void testOverwrittenLargeValueLeavesSmallOnesExact() {
+    sheet.set(0, 0, 0.1);
+    sheet.set(1, 0, 1e20);
+    sheet.set(1, 0, 0.0);
+
+    assertEquals(0.1, sheet.sumRange(0, 0, 99, 99), 0.0);
+    SpreadSheetWithMacro macroSheet = new SpreadSheetWithMacroImpl(sheet);
+    macroSheet.executeMacro(new AverageMacro(0, 0, 1, 0, 2, 0));
+    assertEquals(0.05, sheet.get(2, 0), 0.0);
+  }
+
+  @Test
+  public void testLargeValueInSameTileLeavesSmallOnesExact() {
+    sheet.set(0, 0, 1e20);
+    for (int col = 1; col <= 199; col = col + 1) {
+      sheet.set(1, col, 0.5);
+    }
+
+    assertEquals(99.5, sheet.sumRange(1, 1, 1, 199), 0.0);
+    assertEquals(1e20 + 99.5, sheet.sumRange(0, 0, 1, 199), 0.0);
+  }
+
+  @Test
+  public void testSmallIncrementsNextToLargeValue() {
+    sheet.set(0, 0, 1e12);
+    for (int col = 1; col <= 100; col = col + 1) {
+      sheet.set(1, col, 0.01 * col);
+    }
+
+    assertEquals(50.5, sheet.sumRange(1, 1, 1, 100), 1e-9);
+  }
+
+  @Test
+  public void testWholeTilesNextToLargeTile() {
+    sheet.set(0, 0, 1e20);
+    sheet.fill(64, 64, 191, 191, 0.25);
+    sheet.set(100, 100, 0.5);
+
+    assertEquals(4096.25, sheet.sumRange(64, 64, 191, 191), 0.0);
+    assertEquals(4096.25, sheet.sumRange(1, 1, 300, 300), 0.0);
+    sheet.set(0, 0, 0.0);
+    assertEquals(4096.25, sheet.sumRange(0, 0, 191, 191), 0.0);
+  }
+
+  @Test
+  public void testRandomRangesAcrossTiles() {
+    Random r = new Random(23);
+    for (int i = 0; i < 2000; i = i + 1) {
+      int row = r.nextInt(1000);
+      int col = r.nextInt(600);
+      if (i % 5 == 0) {
+        sheet.clear(row, col);
+      } else {
+        sheet.set(row, col, r.nextInt(1000) * 0.125);
+      }
+      if (i % 200 == 0) {
+        sheet.fill(row, col, row + r.nextInt(300), col + r.nextInt(300), 1.5);
+      }
+      int fromRow = r.nextInt(1000);
+      int fromCol = r.nextInt(600);
+      int toRow = fromRow + r.nextInt(600);
+      int toCol = fromCol + r.nextInt(400);
+      assertEquals(cells.sumRange(fromRow, fromCol, toRow, toCol),
+              sheet.sumRange(fromRow, fromCol, toRow, toCol), 0.0);
+    }
+    assertEquals(cells.sumRange(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE),
+            sheet.sumRange(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE), 0.0);
+  }
+
+  @Test
+  public void testCellsFarAlongOneRow() {
+    sheet.set(0, 500000, 1.0);
+    sheet.set(0, 999998, 2.0);
+    assertEquals(3.0, sheet.sumRange(0, 0, 0, 999999), 0.0);
+
+    sheet.clear(0, 500000);
+    assertEquals(2.0, sheet.sumRange(0, 0, 0, 999999), 0.0);
+    sheet.clearRange(0, 0, 99, 999999);
+    sheet.set(0, 0, 4.0);
+    assertEquals(4.0, sheet.sumRange(0, 0, 0, 999999), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullSheet() {
+    new FenwickSpreadSheet(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSetWithNegativeRow() {
+    sheet.set(-1, 0, 1.0);
+  }
+}
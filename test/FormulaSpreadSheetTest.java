@@ -0,0 +1,208 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import spreadsheet.Formula;
+import spreadsheet.FormulaSpreadSheet;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the FormulaSpreadSheet class.
+ */
+public class FormulaSpreadSheetTest {
+  private FormulaSpreadSheet sheet;
+
+  @Before
+  public void setup() {
+    sheet = new FormulaSpreadSheet(new TiledSpreadSheet());
+  }
+
+  @Test
+  public void testSumAndAverageFollowWrites() {
+    sheet.set(0, 0, 1.0);
+    sheet.set(1, 0, 2.0);
+    sheet.setFormula(5, 0, new Formula(Formula.Function.SUM, 0, 0, 3, 1));
+    sheet.setFormula(5, 1, new Formula(Formula.Function.AVERAGE, 0, 0, 3, 1));
+
+    assertEquals(3.0, sheet.get(5, 0), 0.0);
+    assertEquals(0.375, sheet.get(5, 1), 0.0);
+    assertFalse(sheet.isEmpty(5, 0));
+
+    sheet.set(3, 1, 5.0);
+    sheet.set(0, 0, -1.0);
+    assertEquals(6.0, sheet.get(5, 0), 0.0);
+    assertEquals(0.75, sheet.get(5, 1), 0.0);
+
+    sheet.clear(1, 0);
+    assertEquals(4.0, sheet.sumRange(5, 0, 5, 0), 0.0);
+  }
+
+  @Test
+  public void testSetUpdatesRunningSumWithoutRescanning() {
+    sheet.fill(0, 0, 999, 9, 1.0);
+    sheet.setFormula(0, 20, new Formula(Formula.Function.SUM, 0, 0, 999, 9));
+    assertEquals(1, sheet.getRescanCount());
+
+    for (int i = 0; i < 1000; i++) {
+      sheet.set(i, i % 10, 2.0);
+      assertEquals(10001.0 + i, sheet.get(0, 20), 0.0);
+    }
+    assertEquals(1, sheet.getRescanCount());
+  }
+
+  @Test
+  public void testFormulasOverFormulas() {
+    sheet.fill(0, 0, 9, 0, 1.0);
+    sheet.setFormula(10, 0, new Formula(Formula.Function.SUM, 0, 0, 9, 0));
+    sheet.setFormula(11, 0, new Formula(Formula.Function.SUM, 10, 0, 10, 0));
+    sheet.setFormula(0, 5, new Formula(Formula.Function.AVERAGE, 10, 0, 11, 0));
+
+    sheet.set(4, 0, 11.0);
+    assertEquals(20.0, sheet.get(0, 5), 0.0);
+    assertEquals(20.0, sheet.get(11, 0), 0.0);
+
+    sheet.fill(0, 0, 9, 0, 0.0);
+    double[] values = new double[3];
+    sheet.readRange(10, 0, 12, 0, values);
+    assertEquals(0.0, values[0], 0.0);
+    assertEquals(0.0, values[1], 0.0);
+    assertEquals(0.0, sheet.get(0, 5), 0.0);
+  }
+
+  @Test
+  public void testWritingFormulaCellReplacesFormula() {
+    sheet.set(0, 0, 2.0);
+    sheet.setFormula(1, 0, new Formula(Formula.Function.SUM, 0, 0, 0, 0));
+    sheet.setFormula(2, 0, new Formula(Formula.Function.SUM, 1, 0, 1, 0));
+
+    sheet.set(1, 0, 7.0);
+    sheet.set(0, 0, 3.0);
+    assertNull(sheet.getFormula(1, 0));
+    assertEquals(7.0, sheet.get(1, 0), 0.0);
+    assertEquals(7.0, sheet.get(2, 0), 0.0);
+
+    sheet.clearRange(2, 0, 2, 0);
+    assertNull(sheet.getFormula(2, 0));
+    assertTrue(sheet.isEmpty(2, 0));
+  }
+
+  @Test
+  public void testNonFiniteValuesRescan() {
+    sheet.setFormula(0, 5, new Formula(Formula.Function.SUM, 0, 0, 0, 3));
+    sheet.set(0, 0, Double.POSITIVE_INFINITY);
+    assertEquals(Double.POSITIVE_INFINITY, sheet.get(0, 5), 0.0);
+
+    sheet.set(0, 0, 2.0);
+    sheet.set(0, 1, 3.0);
+    assertEquals(5.0, sheet.get(0, 5), 0.0);
+  }
+
+  @Test
+  public void testCancelledLargeValueRescans() {
+    sheet.setFormula(5, 0, new Formula(Formula.Function.SUM, 0, 0, 2, 0));
+    sheet.set(1, 0, 0.1);
+    sheet.set(0, 0, 1e20);
+    sheet.set(0, 0, 0.0);
+    assertEquals(0.1, sheet.get(5, 0), 0.0);
+
+    sheet.fill(2, 0, 2, 0, 1e20);
+    sheet.clearRange(2, 0, 2, 0);
+    assertEquals(0.1, sheet.get(5, 0), 0.0);
+  }
+
+  @Test
+  public void testMatchesFullRecomputation() {
+    Random r = new Random(21);
+    Map<Long, Formula> defined = new HashMap<Long, Formula>();
+    for (int i = 0; i < 2000; i++) {
+      int row = r.nextInt(40);
+      int col = r.nextInt(40);
+      int kind = r.nextInt(20);
+      long key = ((long) row << 32) | col;
+      if (kind == 0 && defined.size() < 30) {
+        int fromRow = r.nextInt(40);
+        int fromCol = r.nextInt(40);
+        Formula formula = new Formula(r.nextBoolean() ? Formula.Function.SUM
+                : Formula.Function.AVERAGE, fromRow, fromCol, fromRow + r.nextInt(10),
+                fromCol + r.nextInt(10));
+        try {
+          sheet.setFormula(row, col, formula);
+          defined.put(key, formula);
+        } catch (IllegalArgumentException e) {
+          // A circular reference, which is rejected.
+        }
+      } else if (kind == 1) {
+        sheet.fill(row, col, row + r.nextInt(5), col + r.nextInt(5), r.nextInt(5));
+      } else if (kind == 2) {
+        sheet.clearRange(row, col, row + r.nextInt(5), col + r.nextInt(5));
+      } else {
+        sheet.set(row, col, r.nextInt(100));
+      }
+      defined.keySet().removeIf(cell -> sheet.getFormula((int) (cell >>> 32),
+              (int) (long) cell) == null);
+    }
+
+    assertFalse(defined.isEmpty());
+    for (Map.Entry<Long, Formula> entry : defined.entrySet()) {
+      Formula formula = entry.getValue();
+      double sum = 0.0;
+      for (int row = formula.getFromRow(); row <= formula.getToRow(); row++) {
+        for (int col = formula.getFromCol(); col <= formula.getToCol(); col++) {
+          sum += sheet.get(row, col);
+        }
+      }
+      long area = (long) (formula.getToRow() - formula.getFromRow() + 1)
+              * (formula.getToCol() - formula.getFromCol() + 1);
+      double expected = formula.getFunction() == Formula.Function.SUM ? sum : sum / area;
+      int row = (int) (entry.getKey() >>> 32);
+      int col = (int) (long) entry.getKey();
+      assertEquals(expected, sheet.get(row, col), 1e-6);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSelfReference() {
+    sheet.setFormula(2, 2, new Formula(Formula.Function.SUM, 0, 0, 5, 5));
+  }
+
+  @Test
+  public void testCircularReference() {
+    sheet.setFormula(0, 0, new Formula(Formula.Function.SUM, 1, 0, 1, 0));
+    sheet.setFormula(1, 0, new Formula(Formula.Function.SUM, 2, 0, 2, 0));
+    try {
+      sheet.setFormula(2, 0, new Formula(Formula.Function.SUM, 0, 0, 0, 0));
+      throw new AssertionError("Expected a circular reference to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertNull(sheet.getFormula(2, 0));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidFormulaRange() {
+    new Formula(Formula.Function.SUM, 3, 0, 2, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullSheet() {
+    new FormulaSpreadSheet(null);
+  }
+
+  @Test
+  public void testOverSparseSheet() {
+    FormulaSpreadSheet sparse = new FormulaSpreadSheet(new SparseSpreadSheet());
+    sparse.setFormula(0, 0, new Formula(Formula.Function.AVERAGE, 1, 0, 1000000, 0));
+    sparse.set(500000, 0, 1000000.0);
+
+    assertEquals(1.0, sparse.get(0, 0), 1e-9);
+    assertEquals(500001, sparse.getHeight());
+  }
+}
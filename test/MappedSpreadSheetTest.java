@@ -0,0 +1,165 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import spreadsheet.AverageMacro;
+import spreadsheet.BulkAssignMacro;
+import spreadsheet.MappedSpreadSheet;
+import spreadsheet.RangeAssignMacro;
+import spreadsheet.SpreadSheetWithMacro;
+import spreadsheet.SpreadSheetWithMacroImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This class is the tester for a memory-mapped spreadsheet.
+ */
+public class MappedSpreadSheetTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path file;
+  private MappedSpreadSheet sheet;
+
+  @Before
+  public void setup() throws IOException {
+    file = folder.getRoot().toPath().resolve("sheet.bin");
+    sheet = new MappedSpreadSheet(file);
+  }
+
+  @After
+  public void teardown() throws IOException {
+    sheet.close();
+  }
+
+  @Test
+  public void testGetSet() {
+    assertTrue(sheet.isEmpty(0, 0));
+    sheet.set(0, 0, 1.5);
+    sheet.set(70, 130, 2.5);
+
+    assertEquals(1.5, sheet.get(0, 0), 0.001);
+    assertEquals(2.5, sheet.get(70, 130), 0.001);
+    assertFalse(sheet.isEmpty(70, 130));
+    assertTrue(sheet.isEmpty(70, 129));
+    assertEquals(0.0, sheet.get(5000, 5000), 0.001);
+    assertEquals(131, sheet.getWidth());
+    assertEquals(71, sheet.getHeight());
+  }
+
+  @Test
+  public void testReopenKeepsCells() throws IOException {
+    for (int i = 0; i < 300; i = i + 1) {
+      sheet.set(i, i * 11, i);
+    }
+    sheet.set(2, 3, 0.0);
+    sheet.close();
+
+    sheet = new MappedSpreadSheet(file);
+    for (int i = 0; i < 300; i = i + 1) {
+      assertEquals(i, sheet.get(i, i * 11), 0.001);
+    }
+    assertFalse(sheet.isEmpty(2, 3));
+    assertTrue(sheet.isEmpty(2, 4));
+    assertEquals(3290, sheet.getWidth());
+    assertEquals(300, sheet.getHeight());
+  }
+
+  @Test
+  public void testMacrosOnMappedSheet() {
+    SpreadSheetWithMacro macroSheet = new SpreadSheetWithMacroImpl(sheet);
+    macroSheet.executeMacro(new BulkAssignMacro(0, 0, 9, 9, 3.0));
+    macroSheet.executeMacro(new RangeAssignMacro(10, 0, 10, 4, 1.0, 1.0));
+    macroSheet.executeMacro(new AverageMacro(10, 0, 10, 4, 11, 0));
+
+    assertEquals(3.0, sheet.get(9, 9), 0.001);
+    assertEquals(5.0, sheet.get(10, 4), 0.001);
+    assertEquals(3.0, sheet.get(11, 0), 0.001);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsForeignFile() throws IOException {
+    Path other = folder.newFile("other.bin").toPath();
+    Files.write(other, new byte[128]);
+    new MappedSpreadSheet(other);
+  }
+
+  @Test
+  public void testShortForeignFileIsLeftAlone() throws IOException {
+    Path other = folder.newFile("short.txt").toPath();
+    Files.write(other, "hello\n".getBytes());
+    try {
+      new MappedSpreadSheet(other);
+      fail("Expected a foreign file to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertEquals(6, Files.size(other));
+    }
+  }
+
+  @Test
+  public void testReopenManyTiles() throws IOException {
+    for (int i = 0; i < 2000; i = i + 1) {
+      sheet.set(i * 64, i % 7, i);
+    }
+    sheet.close();
+
+    sheet = new MappedSpreadSheet(file);
+    for (int i = 0; i < 2000; i = i + 1) {
+      assertEquals(i, sheet.get(i * 64, i % 7), 0.0);
+    }
+    sheet.set(2000 * 64, 0, -1.0);
+    assertEquals(2000 * 64 + 1, sheet.getHeight());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testGetAfterClose() throws IOException {
+    sheet.close();
+    sheet.get(0, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSetWithNegativeRow() {
+    sheet.set(-1, 0, 1.0);
+  }
+
+  @Test
+  public void testForEachNonEmpty() {
+    sheet.set(3, 4, 1.0);
+    sheet.set(100, 200, 2.0);
+    sheet.set(100, 201, 3.0);
+
+    double[] sum = new double[1];
+    sheet.forEachNonEmpty((row, col, value) -> sum[0] += value);
+    assertEquals(6.0, sum[0], 0.001);
+
+    sum[0] = 0;
+    sheet.forEachNonEmpty(64, 64, 200, 200, (row, col, value) -> sum[0] += value);
+    assertEquals(2.0, sum[0], 0.001);
+  }
+
+  @Test
+  public void testReopenAfterClear() throws IOException {
+    sheet.fill(0, 0, 9, 9, 1.0);
+    sheet.set(500, 700, 2.0);
+    sheet.clear(500, 700);
+    sheet.clearRange(5, 0, 9, 9);
+    sheet.close();
+
+    sheet = new MappedSpreadSheet(file);
+    assertTrue(sheet.isEmpty(500, 700));
+    assertTrue(sheet.isEmpty(5, 5));
+    assertEquals(0.0, sheet.get(5, 5), 0.001);
+    assertEquals(1.0, sheet.get(4, 9), 0.001);
+    assertEquals(10, sheet.getWidth());
+    assertEquals(5, sheet.getHeight());
+  }
+}
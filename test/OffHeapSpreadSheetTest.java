@@ -0,0 +1,92 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import spreadsheet.OffHeapSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class is the tester for an off-heap spreadsheet.
+ */
+public class OffHeapSpreadSheetTest {
+  private OffHeapSpreadSheet sheet;
+
+  @Before
+  public void setup() {
+    sheet = new OffHeapSpreadSheet();
+  }
+
+  @After
+  public void teardown() {
+    sheet.close();
+  }
+
+  @Test
+  public void testOffHeapBytesGrowWithCells() {
+    long initial = sheet.getOffHeapBytes();
+    assertTrue(initial > 0);
+
+    for (int i = 0; i < 10000; i = i + 1) {
+      sheet.set(i, i % 37, i);
+    }
+
+    assertTrue(sheet.getOffHeapBytes() > initial);
+    for (int i = 0; i < 10000; i = i + 1) {
+      assertEquals(i, sheet.get(i, i % 37), 0.001);
+    }
+  }
+
+  @Test
+  public void testRowAndColumnCountsLiveOffHeap() {
+    sheet.set(0, 0, 1.0);
+    long before = sheet.getOffHeapBytes();
+    sheet.set(5000000, 7000000, 2.0);
+
+    assertEquals(before + 2 * 1024 * Integer.BYTES, sheet.getOffHeapBytes());
+    assertEquals(5000001, sheet.getHeight());
+    assertEquals(7000001, sheet.getWidth());
+  }
+
+  @Test
+  public void testCloseReleasesMemory() {
+    sheet.set(0, 0, 1.0);
+    sheet.close();
+
+    // The buffers are only returned once the garbage collector has reclaimed them.
+    for (int i = 0; i < 10 && sheet.getOffHeapBytes() > 0; i = i + 1) {
+      System.gc();
+    }
+    assertEquals(0, sheet.getOffHeapBytes());
+    sheet.close();
+  }
+
+  @Test
+  public void testTableSpansSeveralSegments() {
+    for (int i = 0; i < 1000000; i = i + 1) {
+      sheet.set(i / 1000, i % 1000, i);
+    }
+
+    assertTrue(sheet.getOffHeapBytes() >= (2L << 20) * 16);
+    for (int i = 0; i < 1000000; i = i + 7) {
+      assertEquals(i, sheet.get(i / 1000, i % 1000), 0.0);
+    }
+    sheet.clearRange(0, 0, 499, 999);
+    assertTrue(sheet.isEmpty(499, 999));
+    assertEquals(500000.0, sheet.get(500, 0), 0.0);
+    assertEquals(1000, sheet.getHeight());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testGetAfterClose() {
+    sheet.close();
+    sheet.get(0, 0);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSetAfterClose() {
+    sheet.close();
+    sheet.set(0, 0, 1.0);
+  }
+}
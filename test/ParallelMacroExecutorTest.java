@@ -0,0 +1,125 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import spreadsheet.AverageMacro;
+import spreadsheet.BulkAssignMacro;
+import spreadsheet.ConcurrentSpreadSheet;
+import spreadsheet.ParallelMacroExecutor;
+import spreadsheet.RangeAssignMacro;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetMacro;
+import spreadsheet.SpreadSheetWithMacro;
+import spreadsheet.SpreadSheetWithMacroImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class is the tester for running range macros in parallel.
+ */
+public class ParallelMacroExecutorTest {
+  private ForkJoinPool pool;
+  private ParallelMacroExecutor executor;
+
+  @Before
+  public void setup() {
+    pool = new ForkJoinPool(4);
+    executor = new ParallelMacroExecutor(pool, 1000);
+  }
+
+  @After
+  public void teardown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void testRangeAssignMatchesSequential() {
+    SpreadSheet parallel = new ConcurrentSpreadSheet();
+    SpreadSheet sequential = new SparseSpreadSheet();
+    SpreadSheetMacro macro = new RangeAssignMacro(3, 2, 2002, 41, 0.1, 0.3);
+    executor.execute(macro, parallel);
+    macro.execute(sequential);
+
+    for (int i = 0; i < 2010; i = i + 1) {
+      for (int j = 0; j < 45; j = j + 1) {
+        assertEquals(sequential.get(i, j), parallel.get(i, j), 0.0);
+        assertEquals(sequential.isEmpty(i, j), parallel.isEmpty(i, j));
+      }
+    }
+  }
+
+  @Test
+  public void testBulkAssignThenAverage() {
+    SpreadSheetWithMacro sheet =
+            new SpreadSheetWithMacroImpl(new ConcurrentSpreadSheet(), executor);
+    sheet.executeMacro(new BulkAssignMacro(0, 0, 4999, 19, 2.5));
+    sheet.executeMacro(new RangeAssignMacro(0, 20, 4999, 20, 1.0, 1.0));
+    sheet.executeMacro(new AverageMacro(0, 0, 4999, 20, 5000, 0));
+
+    assertEquals(2.5, sheet.get(4999, 19), 0.0);
+    assertEquals(5000.0, sheet.get(4999, 20), 0.0);
+    double expected = (2.5 * 100000 + 5000.0 * 5001 / 2) / 105000;
+    assertEquals(expected, sheet.get(5000, 0), 1e-9);
+    assertEquals(21, sheet.getWidth());
+    assertEquals(5001, sheet.getHeight());
+  }
+
+  @Test
+  public void testRangeAssignFillsEachBandAsProgression() {
+    AtomicInteger bands = new AtomicInteger();
+    SpreadSheet sheet = new ConcurrentSpreadSheet() {
+      @Override
+      public void fillProgression(int fromRow, int fromCol, int toRow, int toCol,
+                                  double startValue, long firstStep, double increment) {
+        bands.incrementAndGet();
+        super.fillProgression(fromRow, fromCol, toRow, toCol, startValue, firstStep,
+                increment);
+      }
+    };
+    executor.execute(new RangeAssignMacro(0, 0, 999, 9, 1.0, 1.0), sheet);
+
+    assertTrue(bands.get() > 1);
+    assertEquals(1.0, sheet.get(0, 0), 0.0);
+    assertEquals(10000.0, sheet.get(999, 9), 0.0);
+  }
+
+  @Test
+  public void testSmallMacroRunsOnCallingThread() {
+    Thread caller = Thread.currentThread();
+    boolean[] onCaller = new boolean[1];
+    SpreadSheet sheet = new ConcurrentSpreadSheet() {
+      @Override
+      public void fill(int fromRow, int fromCol, int toRow, int toCol, double value) {
+        onCaller[0] = Thread.currentThread() == caller;
+        super.fill(fromRow, fromCol, toRow, toCol, value);
+      }
+    };
+    executor.execute(new BulkAssignMacro(0, 0, 9, 9, 1.0), sheet);
+
+    assertTrue(onCaller[0]);
+    assertEquals(1.0, sheet.get(9, 9), 0.0);
+  }
+
+  @Test
+  public void testOtherMacrosRunAsIs() {
+    SpreadSheet sheet = new ConcurrentSpreadSheet();
+    executor.execute(s -> s.set(1, 1, 4.0), sheet);
+
+    assertEquals(4.0, sheet.get(1, 1), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidThreshold() {
+    new ParallelMacroExecutor(pool, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullMacro() {
+    executor.execute(null, new ConcurrentSpreadSheet());
+  }
+}
@@ -0,0 +1,52 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import spreadsheet.PrimitiveSparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class is the tester for a sparse spreadsheet backed by a primitive hash table.
+ */
+public class PrimitiveSparseSpreadSheetTest {
+  private SpreadSheet sheet;
+
+  @Before
+  public void setup() {
+    sheet = new PrimitiveSparseSpreadSheet();
+  }
+
+  @Test
+  public void testLargeIndicesDoNotCollide() {
+    sheet.set(Integer.MAX_VALUE, 0, 1.0);
+    sheet.set(0, Integer.MAX_VALUE, 2.0);
+    sheet.set(1, 0, 3.0);
+    sheet.set(0, 1, 4.0);
+
+    assertEquals(1.0, sheet.get(Integer.MAX_VALUE, 0), 0.001);
+    assertEquals(2.0, sheet.get(0, Integer.MAX_VALUE), 0.001);
+    assertEquals(3.0, sheet.get(1, 0), 0.001);
+    assertEquals(4.0, sheet.get(0, 1), 0.001);
+    assertTrue(sheet.isEmpty(Integer.MAX_VALUE, Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void testManyCellsSurviveGrowth() {
+    for (int i = 0; i < 500; i = i + 1) {
+      for (int j = 0; j < 200; j = j + 1) {
+        sheet.set(i * 7, j * 3, i * 1000 + j);
+      }
+    }
+
+    for (int i = 0; i < 500; i = i + 1) {
+      for (int j = 0; j < 200; j = j + 1) {
+        assertEquals(i * 1000 + j, sheet.get(i * 7, j * 3), 0.001);
+        assertTrue(sheet.isEmpty(i * 7 + 1, j * 3));
+      }
+    }
+    assertEquals(598, sheet.getWidth());
+    assertEquals(3494, sheet.getHeight());
+  }
+}
@@ -0,0 +1,131 @@
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import spreadsheet.Formula;
+import spreadsheet.FormulaSpreadSheet;
+import spreadsheet.RecalculationEngine;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the RecalculationEngine class.
+ */
+public class RecalculationEngineTest {
+
+  @Test
+  public void testDeepChainIsRecalculatedInOrder() {
+    FormulaSpreadSheet sheet = new FormulaSpreadSheet(new TiledSpreadSheet());
+    int depth = 20000;
+    for (int row = 1; row <= depth; row++) {
+      sheet.setFormula(row, 0, new Formula(Formula.Function.SUM, row - 1, 0, row - 1, 0));
+    }
+    sheet.set(0, 0, 7.0);
+    assertEquals(7.0, sheet.get(depth, 0), 0.0);
+
+    sheet.set(0, 0, -2.0);
+    sheet.recalculate();
+    assertEquals(-2.0, sheet.get(depth / 2, 0), 0.0);
+    assertEquals(-2.0, sheet.get(depth, 0), 0.0);
+  }
+
+  @Test
+  public void testParallelEngineMatchesSequentialEngine() {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      FormulaSpreadSheet sequential = new FormulaSpreadSheet(new TiledSpreadSheet());
+      FormulaSpreadSheet parallel = new FormulaSpreadSheet(new TiledSpreadSheet(),
+              new RecalculationEngine(pool, 1));
+      Random random = new Random(22);
+      for (FormulaSpreadSheet sheet : new FormulaSpreadSheet[] {sequential, parallel}) {
+        sheet.fillProgression(0, 0, 99, 9, 1.0, 0.5);
+      }
+      // Each layer of formulas reads the one above it, so later layers wait on earlier ones.
+      for (int layer = 0; layer < 5; layer++) {
+        int row = 100 + 20 * layer;
+        for (int col = 0; col < 50; col++) {
+          int fromRow = layer == 0 ? random.nextInt(90) : row - 20;
+          int toRow = layer == 0 ? fromRow + random.nextInt(10) : row - 20;
+          int fromCol = layer == 0 ? random.nextInt(10) : random.nextInt(45);
+          int toCol = layer == 0 ? 9 : fromCol + random.nextInt(5);
+          Formula.Function function = random.nextBoolean()
+                  ? Formula.Function.SUM : Formula.Function.AVERAGE;
+          Formula formula = new Formula(function, fromRow, fromCol, toRow, toCol);
+          sequential.setFormula(row, col, formula);
+          parallel.setFormula(row, col, formula);
+        }
+      }
+
+      for (int i = 0; i < 200; i++) {
+        int row = random.nextInt(100);
+        int col = random.nextInt(10);
+        double value = random.nextInt(1000) - 500;
+        sequential.set(row, col, value);
+        parallel.set(row, col, value);
+      }
+      sequential.fill(10, 0, 60, 9, 3.0);
+      parallel.fill(10, 0, 60, 9, 3.0);
+      sequential.recalculate();
+      parallel.recalculate();
+
+      for (int row = 100; row < 200; row += 20) {
+        for (int col = 0; col < 50; col++) {
+          assertEquals(sequential.get(row, col), parallel.get(row, col), 1e-9);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testCycleThroughOtherFormulasIsRejected() {
+    FormulaSpreadSheet sheet = new FormulaSpreadSheet(new TiledSpreadSheet());
+    sheet.set(0, 0, 1.0);
+    sheet.setFormula(1, 0, new Formula(Formula.Function.SUM, 0, 0, 0, 0));
+    sheet.setFormula(2, 0, new Formula(Formula.Function.SUM, 1, 0, 1, 0));
+    sheet.setFormula(3, 0, new Formula(Formula.Function.SUM, 2, 0, 2, 0));
+    Formula previous = new Formula(Formula.Function.SUM, 5, 5, 5, 5);
+    sheet.setFormula(0, 1, previous);
+    sheet.setFormula(2, 1, new Formula(Formula.Function.SUM, 0, 1, 0, 1));
+
+    try {
+      sheet.setFormula(0, 0, new Formula(Formula.Function.SUM, 3, 0, 3, 0));
+      fail("Expected a circular reference to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      sheet.setFormula(0, 1, new Formula(Formula.Function.SUM, 2, 0, 2, 1));
+      fail("Expected a circular reference to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertNull(sheet.getFormula(0, 0));
+    assertEquals(previous, sheet.getFormula(0, 1));
+
+    sheet.set(0, 0, 4.0);
+    sheet.set(5, 5, 2.0);
+    assertEquals(4.0, sheet.get(3, 0), 0.0);
+    assertEquals(2.0, sheet.get(2, 1), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullPool() {
+    new RecalculationEngine(null, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNonPositiveThreshold() {
+    new RecalculationEngine(ForkJoinPool.commonPool(), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullEngine() {
+    new FormulaSpreadSheet(new TiledSpreadSheet(), null);
+  }
+}
@@ -0,0 +1,271 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import spreadsheet.AverageMacro;
+import spreadsheet.BulkAssignMacro;
+import spreadsheet.RangeAssignMacro;
+import spreadsheet.RegionSpreadSheet;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetWithMacro;
+import spreadsheet.SpreadSheetWithMacroImpl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class is the tester for a spreadsheet that records large fills as regions.
+ */
+public class RegionSpreadSheetTest {
+  private SparseSpreadSheet cells;
+  private RegionSpreadSheet sheet;
+
+  @Before
+  public void setup() {
+    cells = new SparseSpreadSheet();
+    sheet = new RegionSpreadSheet(cells);
+  }
+
+  @Test
+  public void testLargeFillIsRecordedAsRegion() {
+    sheet.fill(0, 0, 99999, 25, 3.0);
+
+    assertEquals(1, sheet.getRegionCount());
+    assertEquals(0, cells.getWidth());
+    assertEquals(3.0, sheet.get(99999, 25), 0.001);
+    assertFalse(sheet.isEmpty(500, 7));
+    assertTrue(sheet.isEmpty(100000, 0));
+    assertEquals(26, sheet.getWidth());
+    assertEquals(100000, sheet.getHeight());
+  }
+
+  @Test
+  public void testSmallFillIsWrittenThrough() {
+    sheet.fill(0, 0, 9, 9, 1.0);
+
+    assertEquals(0, sheet.getRegionCount());
+    assertEquals(1.0, cells.get(9, 9), 0.001);
+  }
+
+  @Test
+  public void testSetInsideRegionOverridesOneCell() {
+    sheet.fill(0, 0, 999, 99, 1.0);
+    sheet.set(500, 50, 7.0);
+
+    assertEquals(7.0, sheet.get(500, 50), 0.001);
+    assertEquals(1.0, sheet.get(500, 49), 0.001);
+    assertEquals(1.0, sheet.get(500, 51), 0.001);
+    assertEquals(1.0, sheet.get(499, 50), 0.001);
+    assertEquals(1.0, sheet.get(501, 50), 0.001);
+    assertEquals(2, sheet.getRegionCount());
+
+    sheet.clear(0, 0);
+    assertTrue(sheet.isEmpty(0, 0));
+    assertEquals(1.0, sheet.get(0, 1), 0.001);
+  }
+
+  @Test
+  public void testOverlappingFillsReplaceEachOther() {
+    sheet.fill(0, 0, 199, 199, 1.0);
+    sheet.fill(50, 50, 149, 149, 2.0);
+
+    assertEquals(1.0, sheet.get(49, 100), 0.001);
+    assertEquals(2.0, sheet.get(50, 50), 0.001);
+    assertEquals(2.0, sheet.get(149, 149), 0.001);
+    assertEquals(1.0, sheet.get(150, 100), 0.001);
+
+    double[] dest = new double[4];
+    sheet.readRange(49, 49, 50, 50, dest);
+    assertArrayEquals(new double[]{1, 1, 1, 2}, dest, 0.0);
+  }
+
+  @Test
+  public void testManySetsStayBounded() {
+    Random r = new Random(5);
+    Map<String, Double> expected = new HashMap<String, Double>();
+    sheet.fill(0, 0, 999, 999, 1.0);
+    for (int i = 0; i < 500; i = i + 1) {
+      int row = r.nextInt(1000);
+      int col = r.nextInt(1000);
+      sheet.set(row, col, 2.0);
+      expected.put(row + "," + col, 2.0);
+    }
+
+    assertTrue(sheet.getRegionCount() <= 64);
+    for (int i = 0; i < 1000; i = i + 7) {
+      for (int j = 0; j < 1000; j = j + 3) {
+        double value = expected.containsKey(i + "," + j) ? 2.0 : 1.0;
+        assertEquals(value, sheet.get(i, j), 0.0);
+      }
+    }
+    int[] count = new int[1];
+    sheet.forEachNonEmpty((row, col, value) -> count[0]++);
+    assertEquals(1000000, count[0]);
+  }
+
+  @Test
+  public void testRefillRejoinsRegions() {
+    sheet.fill(0, 0, 999, 999, 1.0);
+    sheet.fill(200, 200, 599, 599, 3.0);
+    assertEquals(5, sheet.getRegionCount());
+
+    sheet.fill(200, 200, 599, 599, 1.0);
+    assertEquals(1, sheet.getRegionCount());
+    assertEquals(1000000.0, sheet.sumRange(0, 0, 999, 999), 0.0);
+    assertEquals(0, cells.getWidth());
+  }
+
+  @Test
+  public void testManyLargeFillsAreNeverWrittenOut() {
+    for (int i = 0; i < 100; i = i + 1) {
+      sheet.fill(i * 200, 0, i * 200 + 99, 99, i);
+    }
+
+    assertEquals(100, sheet.getRegionCount());
+    assertEquals(0, cells.getHeight());
+    assertEquals(42.0, sheet.get(42 * 200 + 50, 50), 0.0);
+    assertTrue(sheet.isEmpty(150, 50));
+  }
+
+  @Test
+  public void testRandomFillsMatchPlainSheet() {
+    Random r = new Random(12);
+    SparseSpreadSheet plain = new SparseSpreadSheet();
+    for (int i = 0; i < 300; i = i + 1) {
+      int fromRow = r.nextInt(5000);
+      int fromCol = r.nextInt(300);
+      int toRow = fromRow + r.nextInt(i % 10 == 0 ? 3000 : 200);
+      int toCol = fromCol + r.nextInt(100);
+      double value = r.nextInt(3);
+      if (i % 7 == 0) {
+        sheet.clearRange(fromRow, fromCol, toRow, toCol);
+        plain.clearRange(fromRow, fromCol, toRow, toCol);
+      } else {
+        sheet.fill(fromRow, fromCol, toRow, toCol, value);
+        plain.fill(fromRow, fromCol, toRow, toCol, value);
+      }
+      int row = r.nextInt(8000);
+      int col = r.nextInt(400);
+      sheet.set(row, col, -1.0);
+      plain.set(row, col, -1.0);
+    }
+
+    for (int i = 0; i < 2000; i = i + 1) {
+      int row = r.nextInt(8000);
+      int col = r.nextInt(400);
+      assertEquals(plain.get(row, col), sheet.get(row, col), 0.0);
+      assertEquals(plain.isEmpty(row, col), sheet.isEmpty(row, col));
+    }
+    assertEquals(plain.sumRange(100, 20, 6999, 350), sheet.sumRange(100, 20, 6999, 350),
+            1e-6);
+    assertEquals(plain.getWidth(), sheet.getWidth());
+    assertEquals(plain.getHeight(), sheet.getHeight());
+  }
+
+  @Test
+  public void testClearingOuterRegionShrinksExtent() {
+    sheet.fill(0, 0, 999, 99, 1.0);
+    sheet.fill(5000, 0, 5999, 299, 2.0);
+    assertEquals(300, sheet.getWidth());
+    assertEquals(6000, sheet.getHeight());
+
+    sheet.clearRange(5000, 0, 5999, 299);
+    assertEquals(100, sheet.getWidth());
+    assertEquals(1000, sheet.getHeight());
+  }
+
+  @Test
+  public void testSnapshotKeepsRegionsAndCells() {
+    sheet.fill(0, 0, 999, 99, 1.0);
+    sheet.set(2000, 0, 5.0);
+    SpreadSheet snapshot = sheet.snapshot();
+
+    sheet.fill(100, 0, 199, 99, 3.0);
+    sheet.set(500, 50, 7.0);
+    sheet.set(2000, 0, 6.0);
+    sheet.clearRange(900, 0, 999, 99);
+
+    assertEquals(1.0, snapshot.get(150, 50), 0.0);
+    assertEquals(1.0, snapshot.get(500, 50), 0.0);
+    assertEquals(5.0, snapshot.get(2000, 0), 0.0);
+    assertFalse(snapshot.isEmpty(950, 0));
+    assertEquals(100005.0, snapshot.sumRange(0, 0, 2000, 99), 0.0);
+    assertEquals(3.0, sheet.get(150, 50), 0.0);
+    assertEquals(7.0, sheet.get(500, 50), 0.0);
+    assertTrue(sheet.isEmpty(950, 0));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testSnapshotIsReadOnly() {
+    sheet.fill(0, 0, 999, 99, 1.0);
+    sheet.snapshot().set(0, 0, 2.0);
+  }
+
+  @Test
+  public void testBulkAssignThenAverage() {
+    SpreadSheetWithMacro macroSheet = new SpreadSheetWithMacroImpl(sheet);
+    macroSheet.executeMacro(new BulkAssignMacro(0, 0, 99999, 25, 2.0));
+    macroSheet.executeMacro(new AverageMacro(0, 0, 99999, 25, 100000, 0));
+
+    assertEquals(1, sheet.getRegionCount());
+    assertEquals(2.0, sheet.get(100000, 0), 0.001);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullSheet() {
+    new RegionSpreadSheet(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGetWithNegativeRow() {
+    sheet.get(-1, 0);
+  }
+
+  @Test
+  public void testProgressionIsRecordedAsRegion() {
+    sheet.fillProgression(0, 0, 99999, 25, 1.0, 1.0);
+
+    assertEquals(1, sheet.getRegionCount());
+    assertEquals(0, cells.getWidth());
+    assertEquals(1.0, sheet.get(0, 0), 0.0);
+    assertEquals(27.0, sheet.get(1, 0), 0.0);
+    assertEquals(2600000.0, sheet.get(99999, 25), 0.0);
+    assertFalse(sheet.isEmpty(5, 5));
+  }
+
+  @Test
+  public void testOverwriteInsideProgressionKeepsOffsets() {
+    SparseSpreadSheet plain = new SparseSpreadSheet();
+    sheet.fillProgression(10, 10, 509, 59, 3.0, -0.5);
+    plain.fillProgression(10, 10, 509, 59, 3.0, -0.5);
+    sheet.set(200, 30, 100.0);
+    plain.set(200, 30, 100.0);
+    sheet.clearRange(300, 0, 310, 40);
+    plain.clearRange(300, 0, 310, 40);
+
+    for (int i = 0; i < 520; i = i + 1) {
+      for (int j = 0; j < 70; j = j + 1) {
+        assertEquals(plain.get(i, j), sheet.get(i, j), 0.0);
+        assertEquals(plain.isEmpty(i, j), sheet.isEmpty(i, j));
+      }
+    }
+    assertEquals(plain.sumRange(0, 0, 519, 69), sheet.sumRange(0, 0, 519, 69), 1e-6);
+    assertEquals(plain.sumRange(205, 12, 333, 31), sheet.sumRange(205, 12, 333, 31), 1e-6);
+  }
+
+  @Test
+  public void testRangeAssignThenAverage() {
+    SpreadSheetWithMacro macroSheet = new SpreadSheetWithMacroImpl(sheet);
+    macroSheet.executeMacro(new RangeAssignMacro(0, 0, 99999, 25, 1.0, 1.0));
+    macroSheet.executeMacro(new AverageMacro(0, 0, 99999, 25, 100000, 0));
+
+    assertEquals(1, sheet.getRegionCount());
+    assertEquals(1300000.5, sheet.get(100000, 0), 1e-6);
+  }
+}
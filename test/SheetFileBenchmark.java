@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import spreadsheet.MacroSpreadSheetController;
+import spreadsheet.SheetFile;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetWithMacroImpl;
+import spreadsheet.TiledSpreadSheet;
+
+/**
+ * A benchmark that compares loading a {@link SheetFile} against replaying the same cells
+ * as a script of {@code assign-value} commands through a {@link MacroSpreadSheetController}.
+ * The controller names rows with a single letter, so the sheet has 26 rows.
+ *
+ * <p>This is not a unit test. Run it with the test classpath, optionally passing the
+ * number of columns of the sheet as an argument.
+ */
+public class SheetFileBenchmark {
+  private static final int WARMUP_ITERATIONS = 3;
+
+  /**
+   * Run the benchmark and print the time taken by each way of filling the sheet.
+   *
+   * @param args optional number of columns
+   * @throws IOException if the temporary files cannot be written
+   */
+  public static void main(String[] args) throws IOException {
+    int rows = 26;
+    int cols = args.length > 0 ? Integer.parseInt(args[0]) : 40_000;
+
+    SpreadSheet sheet = new TiledSpreadSheet();
+    for (int row = 0; row < rows; row++) {
+      for (int col = 0; col < cols; col++) {
+        sheet.set(row, col, row * 0.5 + col);
+      }
+    }
+    String script = script(sheet, rows, cols);
+    Path plain = Files.createTempFile("benchmark", ".sheet");
+    Path packed = Files.createTempFile("benchmark", ".sheet");
+    try {
+      SheetFile.save(sheet, plain, false);
+      SheetFile.save(sheet, packed, true);
+      for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+        replay(script);
+        SheetFile.load(plain, new TiledSpreadSheet());
+        SheetFile.load(packed, new TiledSpreadSheet());
+      }
+
+      long start = System.nanoTime();
+      replay(script);
+      report("assign-value", rows, cols, start, 0);
+      start = System.nanoTime();
+      SheetFile.load(plain, new TiledSpreadSheet());
+      report("load", rows, cols, start, Files.size(plain));
+      start = System.nanoTime();
+      SheetFile.load(packed, new TiledSpreadSheet());
+      report("load compressed", rows, cols, start, Files.size(packed));
+    } finally {
+      Files.deleteIfExists(plain);
+      Files.deleteIfExists(packed);
+    }
+  }
+
+  private static String script(SpreadSheet sheet, int rows, int cols) {
+    StringBuilder script = new StringBuilder();
+    for (int row = 0; row < rows; row++) {
+      for (int col = 0; col < cols; col++) {
+        script.append("assign-value ").append((char) ('A' + row)).append(' ')
+                .append(col + 1).append(' ').append(sheet.get(row, col)).append('\n');
+      }
+    }
+    return script.append("quit\n").toString();
+  }
+
+  private static void replay(String script) {
+    new MacroSpreadSheetController(new SpreadSheetWithMacroImpl(new TiledSpreadSheet()),
+            new StringReader(script), new StringBuilder()).control();
+  }
+
+  private static void report(String name, int rows, int cols, long start, long bytes) {
+    double millis = (System.nanoTime() - start) / 1e6;
+    System.out.printf("%-16s %,d cells: %.1f ms (%,d bytes)%n",
+            name, (long) rows * cols, millis, bytes);
+  }
+}
@@ -0,0 +1,198 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import spreadsheet.SheetFile;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This class is the tester for the binary sheet file format.
+ */
+public class SheetFileTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    SpreadSheet sheet = mixedSheet();
+    Path file = folder.getRoot().toPath().resolve("mixed.sheet");
+    SheetFile.save(sheet, file, false);
+
+    SpreadSheet loaded = new SparseSpreadSheet();
+    SheetFile.load(file, loaded);
+    assertSameCells(sheet, loaded);
+  }
+
+  @Test
+  public void testCompressedRoundTrip() throws IOException {
+    SpreadSheet sheet = new TiledSpreadSheet();
+    sheet.fill(0, 0, 299, 199, 4.0);
+    sheet.set(500, 500, -1.5);
+    Path plain = folder.getRoot().toPath().resolve("plain.sheet");
+    Path packed = folder.getRoot().toPath().resolve("packed.sheet");
+    SheetFile.save(sheet, plain, false);
+    SheetFile.save(sheet, packed, true);
+    assertTrue(Files.size(packed) < Files.size(plain) / 10);
+
+    SpreadSheet loaded = new TiledSpreadSheet();
+    SheetFile.load(packed, loaded);
+    assertSameCells(sheet, loaded);
+  }
+
+  @Test
+  public void testReadReportsSize() throws IOException {
+    SpreadSheet sheet = new SparseSpreadSheet();
+    sheet.set(99, 6, 1.0);
+    Path file = folder.getRoot().toPath().resolve("size.sheet");
+    SheetFile.save(sheet, file, false);
+
+    SheetFile contents = SheetFile.read(file);
+    assertEquals(100, contents.getHeight());
+    assertEquals(7, contents.getWidth());
+  }
+
+  @Test
+  public void testEmptySheet() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("empty.sheet");
+    SheetFile.save(new SparseSpreadSheet(), file, true);
+
+    SpreadSheet loaded = new SparseSpreadSheet();
+    SheetFile.load(file, loaded);
+    assertEquals(0, loaded.getHeight());
+    assertEquals(0, loaded.getWidth());
+  }
+
+  @Test
+  public void testLoadKeepsCellsMissingFromFile() throws IOException {
+    SpreadSheet sheet = new SparseSpreadSheet();
+    sheet.set(0, 0, 1.0);
+    Path file = folder.getRoot().toPath().resolve("one.sheet");
+    SheetFile.save(sheet, file, false);
+
+    SpreadSheet loaded = new SparseSpreadSheet();
+    loaded.set(0, 0, 9.0);
+    loaded.set(3, 3, 2.0);
+    SheetFile.load(file, loaded);
+    assertEquals(1.0, loaded.get(0, 0), 0.0);
+    assertEquals(2.0, loaded.get(3, 3), 0.0);
+  }
+
+  @Test
+  public void testDamagedFileWritesNothing() throws IOException {
+    SpreadSheet sheet = mixedSheet();
+    Path file = folder.getRoot().toPath().resolve("damaged.sheet");
+    SheetFile.save(sheet, file, false);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {0x55, 0x55}), channel.size() - 3);
+    }
+
+    SpreadSheet loaded = new SparseSpreadSheet();
+    try {
+      SheetFile.load(file, loaded);
+      fail("Expected a damaged file to be rejected");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().startsWith("Damaged sheet file"));
+    }
+    assertEquals(0, loaded.getHeight());
+  }
+
+  @Test
+  public void testTruncatedFileIsDamaged() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("truncated.sheet");
+    SheetFile.save(mixedSheet(), file, true);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() / 2);
+    }
+
+    try {
+      SheetFile.read(file);
+      fail("Expected a truncated file to be rejected");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().startsWith("Damaged sheet file"));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNotASheetFile() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("notes.txt");
+    Files.write(file, "assign-value A 1 5\nassign-value B 2 6\n".getBytes());
+    SheetFile.read(file);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullSheet() throws IOException {
+    SheetFile.save(null, folder.getRoot().toPath().resolve("null.sheet"), false);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullFile() throws IOException {
+    SheetFile.load(null, new SparseSpreadSheet());
+  }
+
+  @Test
+  public void testMillionCells() throws IOException {
+    SpreadSheet sheet = new TiledSpreadSheet();
+    double[] values = new double[1000 * 1000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i * 0.5;
+    }
+    sheet.writeRange(0, 0, 999, 999, values);
+    Path file = folder.getRoot().toPath().resolve("million.sheet");
+    SheetFile.save(sheet, file, false);
+
+    SpreadSheet loaded = new TiledSpreadSheet();
+    SheetFile.load(file, loaded);
+    double[] read = new double[values.length];
+    loaded.readRange(0, 0, 999, 999, read);
+    for (int i = 0; i < values.length; i++) {
+      assertEquals(values[i], read[i], 0.0);
+    }
+  }
+
+  /**
+   * Return a sheet with a full tile, partly filled tiles, scattered cells and values that
+   * need every bit of a double.
+   */
+  private static SpreadSheet mixedSheet() {
+    SpreadSheet sheet = new SparseSpreadSheet();
+    sheet.fill(64, 64, 127, 127, 3.0);
+    sheet.fillProgression(0, 0, 10, 70, 1.0, 0.25);
+    sheet.set(5, 200, Double.NaN);
+    sheet.set(1000, 3, -0.0);
+    sheet.set(70, 1, Double.MAX_VALUE);
+    Random random = new Random(25);
+    for (int i = 0; i < 500; i++) {
+      sheet.set(random.nextInt(400), random.nextInt(400), random.nextDouble());
+    }
+    sheet.clear(64, 64);
+    return sheet;
+  }
+
+  private static void assertSameCells(SpreadSheet expected, SpreadSheet actual) {
+    assertEquals(expected.getHeight(), actual.getHeight());
+    assertEquals(expected.getWidth(), actual.getWidth());
+    for (int row = 0; row < expected.getHeight(); row++) {
+      for (int col = 0; col < expected.getWidth(); col++) {
+        assertEquals(expected.isEmpty(row, col), actual.isEmpty(row, col));
+        if (!expected.isEmpty(row, col)) {
+          assertEquals(Double.doubleToRawLongBits(expected.get(row, col)),
+                  Double.doubleToRawLongBits(actual.get(row, col)));
+        }
+      }
+    }
+  }
+}
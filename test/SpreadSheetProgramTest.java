@@ -1,6 +1,8 @@
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -14,6 +16,9 @@ import static org.junit.Assert.assertTrue;
  * Tests the main program functionality by simulating user input and capturing output.
  */
 public class SpreadSheetProgramTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   private final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
   private final PrintStream originalOut = System.out;
   private final InputStream originalIn = System.in;
@@ -240,4 +245,21 @@ public class SpreadSheetProgramTest {
     assertTrue(output.contains("Value: 42.5"));
     assertTrue(output.contains("Thank you for using this program!"));
   }
-} 
\ No newline at end of file
+
+  @Test
+  public void testSheetPersistsInDirectory() {
+    String directory = folder.getRoot().toPath().resolve("sheet").toString();
+    System.setIn(new ByteArrayInputStream(("assign-value A 1 42.5\n"
+            + "bulk-assign-value B 1 C 3 7\nquit\n").getBytes()));
+    spreadsheet.SpreadSheetProgram.main(new String[]{directory});
+
+    outContent.reset();
+    System.setIn(new ByteArrayInputStream("print-value A 1\nprint-value C 3\nquit\n"
+            .getBytes()));
+    spreadsheet.SpreadSheetProgram.main(new String[]{directory});
+
+    String output = outContent.toString();
+    assertTrue(output.contains("Value: 42.5"));
+    assertTrue(output.contains("Value: 7.0"));
+  }
+}
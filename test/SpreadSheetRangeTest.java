@@ -0,0 +1,389 @@
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import spreadsheet.AdaptiveSpreadSheet;
+import spreadsheet.ColumnarSpreadSheet;
+import spreadsheet.ConcurrentSpreadSheet;
+import spreadsheet.FenwickSpreadSheet;
+import spreadsheet.OffHeapSpreadSheet;
+import spreadsheet.PrimitiveSparseSpreadSheet;
+import spreadsheet.RegionSpreadSheet;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetWithMacroImpl;
+import spreadsheet.SummedAreaSpreadSheet;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the range operations of every spreadsheet backend against the per-cell operations.
+ */
+@RunWith(Parameterized.class)
+public class SpreadSheetRangeTest {
+  private final Supplier<SpreadSheet> factory;
+
+  /**
+   * Create a test for the backend built by the given factory.
+   *
+   * @param name    the name of the backend
+   * @param factory the factory that builds an empty sheet
+   */
+  public SpreadSheetRangeTest(String name, Supplier<SpreadSheet> factory) {
+    this.factory = factory;
+  }
+
+  /**
+   * Return the backends under test.
+   *
+   * @return the name and factory of each backend
+   */
+  @Parameterized.Parameters(name = "{0}")
+  public static Collection<Object[]> backends() {
+    return Arrays.asList(new Object[][]{
+        {"sparse", (Supplier<SpreadSheet>) SparseSpreadSheet::new},
+        {"primitive", (Supplier<SpreadSheet>) PrimitiveSparseSpreadSheet::new},
+        {"tiled", (Supplier<SpreadSheet>) TiledSpreadSheet::new},
+        {"adaptive", (Supplier<SpreadSheet>) () -> new AdaptiveSpreadSheet(0.01)},
+        {"off-heap", (Supplier<SpreadSheet>) OffHeapSpreadSheet::new},
+        {"columnar", (Supplier<SpreadSheet>) ColumnarSpreadSheet::new},
+        {"concurrent", (Supplier<SpreadSheet>) ConcurrentSpreadSheet::new},
+        {"region", (Supplier<SpreadSheet>) () -> new RegionSpreadSheet(new SparseSpreadSheet())},
+        {"summed-area", (Supplier<SpreadSheet>) () ->
+                new SummedAreaSpreadSheet(new TiledSpreadSheet())},
+        {"fenwick", (Supplier<SpreadSheet>) () -> new FenwickSpreadSheet(new TiledSpreadSheet())},
+        {"with-macro", (Supplier<SpreadSheet>) () ->
+                new SpreadSheetWithMacroImpl(new TiledSpreadSheet())}
+    });
+  }
+
+  @Test
+  public void testFillAcrossTiles() {
+    SpreadSheet sheet = factory.get();
+    sheet.fill(60, 60, 1100, 130, 7.0);
+
+    assertEquals(7.0, sheet.get(60, 60), 0.001);
+    assertEquals(7.0, sheet.get(1100, 130), 0.001);
+    assertEquals(7.0, sheet.get(64, 64), 0.001);
+    assertTrue(sheet.isEmpty(59, 60));
+    assertTrue(sheet.isEmpty(60, 131));
+    assertFalse(sheet.isEmpty(1023, 127));
+    assertEquals(131, sheet.getWidth());
+    assertEquals(1101, sheet.getHeight());
+  }
+
+  @Test
+  public void testWriteThenReadRange() {
+    SpreadSheet sheet = factory.get();
+    Random r = new Random(7);
+    double[] src = new double[200 * 90];
+    for (int i = 0; i < src.length; i = i + 1) {
+      src[i] = r.nextDouble();
+    }
+    sheet.writeRange(1000, 30, 1199, 119, src);
+
+    double[] dest = new double[src.length];
+    sheet.readRange(1000, 30, 1199, 119, dest);
+    assertArrayEquals(src, dest, 0.0);
+    assertEquals(src[0], sheet.get(1000, 30), 0.0);
+    assertEquals(src[91], sheet.get(1001, 31), 0.0);
+    assertFalse(sheet.isEmpty(1199, 119));
+    assertEquals(120, sheet.getWidth());
+    assertEquals(1200, sheet.getHeight());
+  }
+
+  @Test
+  public void testReadRangeReturnsZeroForEmptyCells() {
+    SpreadSheet sheet = factory.get();
+    sheet.set(1, 1, 5.0);
+    double[] dest = new double[9];
+    Arrays.fill(dest, -1.0);
+
+    sheet.readRange(0, 0, 2, 2, dest);
+    assertArrayEquals(new double[]{0, 0, 0, 0, 5, 0, 0, 0, 0}, dest, 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFillWithInvalidRange() {
+    factory.get().fill(5, 0, 4, 0, 1.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReadRangeWithSmallArray() {
+    factory.get().readRange(0, 0, 2, 2, new double[8]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWriteRangeWithNegativeIndex() {
+    factory.get().writeRange(-1, 0, 0, 0, new double[2]);
+  }
+
+  @Test
+  public void testForEachNonEmptyVisitsOnlySetCells() {
+    SpreadSheet sheet = factory.get();
+    Map<String, Double> expected = new HashMap<String, Double>();
+    Random r = new Random(11);
+    for (int i = 0; i < 300; i = i + 1) {
+      int row = r.nextInt(3000);
+      int col = r.nextInt(200);
+      sheet.set(row, col, i);
+      expected.put(row + "," + col, (double) i);
+    }
+
+    Map<String, Double> visited = new HashMap<String, Double>();
+    sheet.forEachNonEmpty((row, col, value) -> {
+      assertEquals(null, visited.put(row + "," + col, value));
+    });
+    assertEquals(expected, visited);
+  }
+
+  @Test
+  public void testForEachNonEmptyWithinRange() {
+    SpreadSheet sheet = factory.get();
+    sheet.fill(0, 0, 199, 199, 1.0);
+    sheet.set(5000, 5, 2.0);
+
+    double[] sum = new double[1];
+    int[] count = new int[1];
+    sheet.forEachNonEmpty(50, 60, 149, 69, (row, col, value) -> {
+      assertTrue(row >= 50 && row <= 149 && col >= 60 && col <= 69);
+      sum[0] += value;
+      count[0]++;
+    });
+    assertEquals(1000, count[0]);
+    assertEquals(1000.0, sum[0], 0.001);
+
+    count[0] = 0;
+    sheet.forEachNonEmpty(4000, 0, 6000, 10, (row, col, value) -> count[0]++);
+    assertEquals(1, count[0]);
+  }
+
+  @Test
+  public void testForEachNonEmptyOnEmptySheet() {
+    SpreadSheet sheet = factory.get();
+    int[] count = new int[1];
+    sheet.forEachNonEmpty((row, col, value) -> count[0]++);
+    assertEquals(0, count[0]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testForEachNonEmptyWithNullVisitor() {
+    factory.get().forEachNonEmpty(null);
+  }
+
+  @Test
+  public void testClearShrinksWidthAndHeight() {
+    SpreadSheet sheet = factory.get();
+    sheet.set(2, 3, 1.0);
+    sheet.set(10, 1, 2.0);
+    sheet.set(5000, 200, 3.0);
+    assertEquals(201, sheet.getWidth());
+    assertEquals(5001, sheet.getHeight());
+
+    sheet.clear(5000, 200);
+    assertTrue(sheet.isEmpty(5000, 200));
+    assertEquals(0.0, sheet.get(5000, 200), 0.0);
+    assertEquals(4, sheet.getWidth());
+    assertEquals(11, sheet.getHeight());
+
+    sheet.clear(10, 1);
+    sheet.clear(10, 1);
+    assertEquals(4, sheet.getWidth());
+    assertEquals(3, sheet.getHeight());
+
+    sheet.clear(2, 3);
+    assertEquals(0, sheet.getWidth());
+    assertEquals(0, sheet.getHeight());
+  }
+
+  @Test
+  public void testClearEmptyCellKeepsBounds() {
+    SpreadSheet sheet = factory.get();
+    sheet.set(4, 4, 1.0);
+    sheet.clear(100, 100);
+    sheet.clear(4, 3);
+    assertEquals(5, sheet.getWidth());
+    assertEquals(5, sheet.getHeight());
+    assertEquals(1.0, sheet.get(4, 4), 0.0);
+  }
+
+  @Test
+  public void testClearRangeAcrossTiles() {
+    SpreadSheet sheet = factory.get();
+    sheet.fill(0, 0, 199, 149, 1.0);
+    sheet.clearRange(50, 60, 199, 149);
+
+    assertTrue(sheet.isEmpty(50, 60));
+    assertTrue(sheet.isEmpty(199, 149));
+    assertFalse(sheet.isEmpty(49, 149));
+    assertFalse(sheet.isEmpty(199, 59));
+    assertEquals(150, sheet.getWidth());
+    assertEquals(200, sheet.getHeight());
+
+    double[] dest = new double[3];
+    sheet.readRange(100, 58, 100, 60, dest);
+    assertArrayEquals(new double[]{1, 1, 0}, dest, 0.0);
+
+    int[] count = new int[1];
+    sheet.forEachNonEmpty((row, col, value) -> count[0]++);
+    assertEquals(200 * 150 - 150 * 90, count[0]);
+
+    sheet.clearRange(0, 0, 49, 149);
+    assertEquals(60, sheet.getWidth());
+    assertEquals(200, sheet.getHeight());
+  }
+
+  @Test
+  public void testClearRangeLargerThanSheet() {
+    SpreadSheet sheet = factory.get();
+    sheet.fill(10, 10, 20, 20, 1.0);
+    sheet.set(3, 3, 2.0);
+    sheet.clearRange(5, 5, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    assertEquals(4, sheet.getWidth());
+    assertEquals(4, sheet.getHeight());
+    assertTrue(sheet.isEmpty(15, 15));
+    assertEquals(2.0, sheet.get(3, 3), 0.0);
+  }
+
+  @Test
+  public void testRangesPastTheSheet() {
+    SpreadSheet sheet = factory.get();
+    sheet.fill(0, 0, 49, 49, 1.0);
+    sheet.set(30, 70, 2.0);
+
+    int[] count = new int[1];
+    sheet.forEachNonEmpty(100, 0, 200, 200, (row, col, value) -> count[0]++);
+    assertEquals(0, count[0]);
+    sheet.forEachNonEmpty(30, 40, 30, Integer.MAX_VALUE, (row, col, value) -> count[0]++);
+    assertEquals(11, count[0]);
+
+    sheet.clearRange(60, 60, 500, 500);
+    sheet.clearRange(29, 45, 31, Integer.MAX_VALUE);
+    assertTrue(sheet.isEmpty(30, 70));
+    assertTrue(sheet.isEmpty(31, 45));
+    assertFalse(sheet.isEmpty(31, 44));
+    assertEquals(50, sheet.getWidth());
+    assertEquals(50, sheet.getHeight());
+  }
+
+  @Test
+  public void testClearThenSetAgain() {
+    SpreadSheet sheet = factory.get();
+    Random r = new Random(13);
+    Map<String, Double> expected = new HashMap<String, Double>();
+    for (int i = 0; i < 2000; i = i + 1) {
+      int row = r.nextInt(300);
+      int col = r.nextInt(100);
+      if (r.nextBoolean()) {
+        sheet.set(row, col, i);
+        expected.put(row + "," + col, (double) i);
+      } else {
+        sheet.clear(row, col);
+        expected.remove(row + "," + col);
+      }
+    }
+
+    Map<String, Double> visited = new HashMap<String, Double>();
+    int[] bounds = new int[2];
+    sheet.forEachNonEmpty((row, col, value) -> {
+      visited.put(row + "," + col, value);
+      bounds[0] = Math.max(bounds[0], row + 1);
+      bounds[1] = Math.max(bounds[1], col + 1);
+    });
+    assertEquals(expected, visited);
+    assertEquals(bounds[0], sheet.getHeight());
+    assertEquals(bounds[1], sheet.getWidth());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testClearWithNegativeRow() {
+    factory.get().clear(-1, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testClearRangeWithInvalidRange() {
+    factory.get().clearRange(0, 5, 0, 4);
+  }
+
+  @Test
+  public void testFillProgression() {
+    SpreadSheet sheet = factory.get();
+    sheet.fillProgression(100, 60, 399, 89, 5.0, 0.5);
+
+    assertEquals(5.0, sheet.get(100, 60), 0.0);
+    assertEquals(5.5, sheet.get(100, 61), 0.0);
+    assertEquals(5.0 + 30 * 0.5, sheet.get(101, 60), 0.0);
+    assertEquals(5.0 + 8999 * 0.5, sheet.get(399, 89), 0.0);
+    assertTrue(sheet.isEmpty(99, 60));
+    assertEquals(90, sheet.getWidth());
+    assertEquals(400, sheet.getHeight());
+  }
+
+  @Test
+  public void testSumRangeMatchesReadRange() {
+    SpreadSheet sheet = factory.get();
+    sheet.fillProgression(0, 0, 299, 99, 1.0, 0.25);
+    sheet.fill(50, 50, 149, 149, 2.0);
+    sheet.set(400, 3, 9.0);
+
+    double[] dest = new double[251 * 141];
+    sheet.readRange(30, 20, 280, 160, dest);
+    double expected = 0.0;
+    for (double value : dest) {
+      expected += value;
+    }
+    assertEquals(expected, sheet.sumRange(30, 20, 280, 160), 1e-6 * Math.abs(expected));
+    assertEquals(9.0, sheet.sumRange(300, 0, 500, 50), 0.0);
+    assertEquals(0.0, sheet.sumRange(1000, 1000, 2000, 2000), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSumRangeWithInvalidRange() {
+    factory.get().sumRange(3, 0, 2, 0);
+  }
+
+  @Test
+  public void testMinAndMaxRangeMatchReadRange() {
+    SpreadSheet sheet = factory.get();
+    sheet.fillProgression(0, 0, 299, 99, -10.0, 0.25);
+    sheet.fill(50, 50, 149, 149, -20.0);
+    sheet.set(400, 3, 9.0);
+    sheet.clearRange(100, 0, 110, 20);
+
+    double[] dest = new double[251 * 141];
+    sheet.readRange(30, 20, 280, 160, dest);
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    for (double value : dest) {
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+    assertEquals(min, sheet.minRange(30, 20, 280, 160), 0.0);
+    assertEquals(max, sheet.maxRange(30, 20, 280, 160), 0.0);
+    assertEquals(-10.0, sheet.minRange(0, 0, 49, 49), 0.0);
+    assertEquals(-20.0, sheet.minRange(0, 0, 63, 63), 0.0);
+    assertEquals(-0.25, sheet.maxRange(0, 0, 0, 39), 0.0);
+    assertEquals(0.0, sheet.maxRange(100, 0, 100, 5), 0.0);
+    assertEquals(-9.75, sheet.maxRange(0, 0, 0, 1), 0.0);
+    assertEquals(0.0, sheet.minRange(300, 0, 500, 50), 0.0);
+    assertEquals(9.0, sheet.maxRange(300, 0, 500, 50), 0.0);
+    assertEquals(0.0, sheet.maxRange(1000, 1000, 2000, 2000), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMinRangeWithInvalidRange() {
+    factory.get().minRange(3, 0, 2, 0);
+  }
+}
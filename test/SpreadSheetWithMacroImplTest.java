@@ -1,12 +1,23 @@
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
 import spreadsheet.AverageMacro;
+import spreadsheet.BulkAssignMacro;
+import spreadsheet.Formula;
+import spreadsheet.FormulaSpreadSheet;
+import spreadsheet.RangeAssignMacro;
 import spreadsheet.SparseSpreadSheet;
 import spreadsheet.SpreadSheet;
 import spreadsheet.SpreadSheetMacro;
 import spreadsheet.SpreadSheetWithMacro;
 import spreadsheet.SpreadSheetWithMacroImpl;
+import spreadsheet.TiledSpreadSheet;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -164,4 +175,288 @@ public class SpreadSheetWithMacroImplTest {
     sheet.executeMacro(macro);
     assertEquals(0.0, sheet.get(1, 0), 0.001);
   }
-} 
\ No newline at end of file
+
+  @Test
+  public void testSnapshotOfCopiedSheet() {
+    sheet.set(0, 0, 10.0);
+    sheet.set(2, 3, 20.0);
+
+    SpreadSheet snapshot = sheet.snapshot();
+    sheet.set(0, 0, 99.0);
+    sheet.set(5, 5, 1.0);
+
+    assertEquals(10.0, snapshot.get(0, 0), 0.001);
+    assertEquals(20.0, snapshot.get(2, 3), 0.001);
+    assertTrue(snapshot.isEmpty(5, 5));
+    assertTrue(snapshot.isEmpty(1, 1));
+    assertEquals(4, snapshot.getWidth());
+    assertEquals(3, snapshot.getHeight());
+  }
+
+  @Test
+  public void testSnapshotIsolatedFromMacro() {
+    sheet = new SpreadSheetWithMacroImpl(new TiledSpreadSheet());
+    sheet.executeMacro(new BulkAssignMacro(0, 0, 99, 99, 1.0));
+
+    SpreadSheet snapshot = sheet.snapshot();
+    sheet.executeMacro(new BulkAssignMacro(0, 0, 199, 99, 2.0));
+
+    assertEquals(1.0, snapshot.get(50, 50), 0.001);
+    assertTrue(snapshot.isEmpty(150, 50));
+    assertEquals(100, snapshot.getHeight());
+    assertEquals(2.0, sheet.get(50, 50), 0.001);
+    assertEquals(200, sheet.getHeight());
+  }
+
+  @Test
+  public void testSnapshotDuringMacroDoesNotWait() throws InterruptedException {
+    SpreadSheetWithMacro tiled = new SpreadSheetWithMacroImpl(new TiledSpreadSheet());
+    tiled.set(5, 5, 3.0);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread writer = new Thread(() -> tiled.executeMacro(s -> {
+      s.set(0, 0, 1.0);
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      s.set(1, 1, 2.0);
+    }));
+    writer.start();
+    started.await();
+
+    // The macro is halfway through, so the snapshot holds the state from before it.
+    SpreadSheet during = tiled.snapshot();
+    release.countDown();
+    writer.join();
+    assertEquals(3.0, during.get(5, 5), 0.0);
+    assertTrue(during.isEmpty(0, 0));
+    assertTrue(during.isEmpty(1, 1));
+
+    SpreadSheet after = tiled.snapshot();
+    assertEquals(1.0, after.get(0, 0), 0.0);
+    assertEquals(2.0, after.get(1, 1), 0.0);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testSnapshotIsReadOnly() {
+    sheet.snapshot().set(0, 0, 1.0);
+  }
+
+  @Test
+  public void testExecuteMacrosMatchesSequentialExecution() {
+    Random r = new Random(19);
+    List<SpreadSheetMacro> macros = new ArrayList<SpreadSheetMacro>();
+    for (int i = 0; i < 200; i++) {
+      int fromRow = r.nextInt(30);
+      int fromCol = r.nextInt(30);
+      int toRow = fromRow + r.nextInt(10);
+      int toCol = fromCol + r.nextInt(10);
+      int kind = r.nextInt(10);
+      if (kind < 5) {
+        macros.add(new BulkAssignMacro(fromRow, fromCol, toRow, toCol, r.nextInt(3)));
+      } else if (kind < 9) {
+        macros.add(new RangeAssignMacro(fromRow, fromCol, toRow, toCol, r.nextDouble(), 0.1));
+      } else {
+        macros.add(new AverageMacro(fromRow, fromCol, toRow, toCol, 45, 45));
+      }
+    }
+    SpreadSheetWithMacro sequential = new SpreadSheetWithMacroImpl(new SparseSpreadSheet());
+    for (SpreadSheetMacro macro : macros) {
+      sequential.executeMacro(macro);
+    }
+
+    sheet.executeMacros(macros);
+
+    for (int row = 0; row < 50; row++) {
+      for (int col = 0; col < 50; col++) {
+        assertEquals(sequential.isEmpty(row, col), sheet.isEmpty(row, col));
+        assertEquals(sequential.get(row, col), sheet.get(row, col), 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testExecuteMacrosDropsShadowedAndMergesAdjacentFills() {
+    List<String> writes = new ArrayList<String>();
+    SpreadSheet recording = new SparseSpreadSheet() {
+      @Override
+      public void fill(int fromRow, int fromCol, int toRow, int toCol, double value) {
+        writes.add("fill " + fromRow + " " + fromCol + " " + toRow + " " + toCol);
+        super.fill(fromRow, fromCol, toRow, toCol, value);
+      }
+
+      @Override
+      public void fillProgression(int fromRow, int fromCol, int toRow, int toCol,
+                                  double startValue, double increment) {
+        writes.add("progression " + fromRow + " " + fromCol + " " + toRow + " " + toCol);
+        super.fillProgression(fromRow, fromCol, toRow, toCol, startValue, increment);
+      }
+    };
+    SpreadSheetWithMacro batched = new SpreadSheetWithMacroImpl(recording);
+
+    batched.executeMacros(Arrays.asList(
+            new RangeAssignMacro(0, 0, 9, 9, 1.0, 1.0),
+            new BulkAssignMacro(0, 0, 9, 9, 2.0),
+            new BulkAssignMacro(0, 10, 9, 19, 2.0),
+            new RangeAssignMacro(20, 0, 29, 4, 0.0, 0.5)));
+
+    assertEquals(Arrays.asList("fill 0 0 9 19", "progression 20 0 29 4"), writes);
+    assertEquals(2.0, batched.get(5, 15), 0.0);
+    assertEquals(24.5, batched.get(29, 4), 0.0);
+  }
+
+  @Test
+  public void testExecuteMacrosFlushesBeforeReadingMacro() {
+    sheet.executeMacros(Arrays.asList(
+            new BulkAssignMacro(0, 0, 1, 1, 4.0),
+            new AverageMacro(0, 0, 1, 1, 3, 3),
+            new BulkAssignMacro(0, 0, 1, 1, 8.0)));
+
+    assertEquals(4.0, sheet.get(3, 3), 0.0);
+    assertEquals(8.0, sheet.get(0, 0), 0.0);
+  }
+
+  @Test
+  public void testMacrosRecalculateFormulasOnce() {
+    TiledSpreadSheet values = new TiledSpreadSheet();
+    FormulaSpreadSheet formulas = new FormulaSpreadSheet(values);
+    formulas.setFormula(10, 0, new Formula(Formula.Function.SUM, 0, 0, 3, 3));
+    formulas.setFormula(11, 0, new Formula(Formula.Function.AVERAGE, 10, 0, 10, 0));
+    SpreadSheetWithMacro macros = new SpreadSheetWithMacroImpl(formulas);
+
+    macros.executeMacro(new BulkAssignMacro(0, 0, 1, 3, 1.0));
+    // The wrapped sheet already holds the new values, without a read through the formulas.
+    assertEquals(8.0, values.get(10, 0), 0.0);
+    assertEquals(8.0, values.get(11, 0), 0.0);
+
+    macros.executeMacros(Arrays.asList(
+            new BulkAssignMacro(2, 0, 3, 3, 2.0),
+            new RangeAssignMacro(0, 0, 0, 3, 0.0, 1.0)));
+    assertEquals(26.0, values.get(10, 0), 0.0);
+    assertEquals(26.0, values.get(11, 0), 0.0);
+  }
+
+  @Test
+  public void testUndoRestoresValuesAndEmptyCells() {
+    TiledSpreadSheet base = new TiledSpreadSheet();
+    SpreadSheetWithMacroImpl macros = new SpreadSheetWithMacroImpl(base);
+    Random random = new Random(23);
+    for (int i = 0; i < 500; i++) {
+      macros.set(50 + random.nextInt(100), 50 + random.nextInt(100), random.nextDouble());
+    }
+    TiledSpreadSheet before = new TiledSpreadSheet();
+    base.forEachNonEmpty(before::set);
+
+    macros.executeMacro(new BulkAssignMacro(60, 40, 140, 130, 9.0));
+    macros.executeMacro(new RangeAssignMacro(0, 70, 200, 70, 1.0, 1.0));
+    assertEquals(9.0, macros.get(60, 40), 0.0);
+
+    assertTrue(macros.undo());
+    assertEquals(9.0, macros.get(100, 70), 0.0);
+    assertTrue(macros.undo());
+    assertFalse(macros.undo());
+    for (int row = 0; row < 256; row++) {
+      for (int col = 0; col < 256; col++) {
+        assertEquals(before.isEmpty(row, col), base.isEmpty(row, col));
+        assertEquals(before.get(row, col), base.get(row, col), 0.0);
+      }
+    }
+
+    assertTrue(macros.redo());
+    assertTrue(macros.redo());
+    assertFalse(macros.redo());
+    assertEquals(9.0, macros.get(60, 40), 0.0);
+    assertEquals(101.0, macros.get(100, 70), 0.0);
+  }
+
+  @Test
+  public void testUndoBatchAsOneStep() {
+    sheet.set(0, 0, 1.0);
+    sheet.executeMacros(Arrays.asList(
+            new BulkAssignMacro(0, 0, 1, 1, 4.0),
+            new RangeAssignMacro(1, 0, 1, 3, 10.0, 1.0)));
+    assertEquals(13.0, sheet.get(1, 3), 0.0);
+
+    assertTrue(sheet.undo());
+    assertEquals(1.0, sheet.get(0, 0), 0.0);
+    assertTrue(sheet.isEmpty(1, 1));
+    assertTrue(sheet.isEmpty(1, 3));
+    assertFalse(sheet.undo());
+  }
+
+  @Test
+  public void testWritesDropConflictingHistory() {
+    sheet.executeMacro(new BulkAssignMacro(0, 0, 9, 9, 1.0));
+    sheet.executeMacro(new BulkAssignMacro(20, 20, 29, 29, 2.0));
+    assertTrue(sheet.undo());
+
+    // A write elsewhere keeps what can be undone but not what can be redone.
+    sheet.set(50, 50, 3.0);
+    assertFalse(sheet.redo());
+
+    // A write to a cell that undo would put back drops the history.
+    sheet.set(5, 5, 3.0);
+    assertFalse(sheet.undo());
+    assertEquals(3.0, sheet.get(5, 5), 0.0);
+    assertEquals(1.0, sheet.get(0, 0), 0.0);
+  }
+
+  @Test
+  public void testUndoLimitEvictsOldestMacros() {
+    SpreadSheetWithMacroImpl macros = new SpreadSheetWithMacroImpl(new TiledSpreadSheet());
+    macros.setUndoLimit(10000);
+    macros.fill(100, 0, 199, 99, 0.5);
+    macros.executeMacro(new BulkAssignMacro(0, 0, 0, 9, 1.0));
+    macros.executeMacro(new BulkAssignMacro(1, 0, 1, 9, 2.0));
+    macros.executeMacro(new BulkAssignMacro(100, 0, 199, 99, 3.0));
+    assertFalse(macros.undo());
+    assertEquals(3.0, macros.get(150, 50), 0.0);
+
+    macros.executeMacro(new BulkAssignMacro(0, 0, 0, 9, 4.0));
+    macros.executeMacro(new BulkAssignMacro(2, 0, 2, 9, 5.0));
+    macros.setUndoLimit(100);
+    assertTrue(macros.undo());
+    assertFalse(macros.undo());
+    assertEquals(4.0, macros.get(0, 0), 0.0);
+    assertTrue(macros.isEmpty(2, 0));
+
+    macros.setUndoLimit(0);
+    macros.executeMacro(new BulkAssignMacro(0, 0, 0, 0, 6.0));
+    assertFalse(macros.undo());
+  }
+
+  @Test
+  public void testUndoChargesOnlyOccupiedCells() {
+    SpreadSheetWithMacroImpl macros = new SpreadSheetWithMacroImpl(new TiledSpreadSheet());
+    macros.setUndoLimit(4000);
+    macros.set(5000, 5000, 1.0);
+    macros.executeMacro(new BulkAssignMacro(0, 0, 999, 999, 2.0));
+    macros.executeMacro(new BulkAssignMacro(4990, 4990, 5009, 5009, 3.0));
+
+    assertTrue(macros.undo());
+    assertEquals(1.0, macros.get(5000, 5000), 0.0);
+    assertTrue(macros.isEmpty(5001, 5000));
+    assertTrue(macros.undo());
+    assertTrue(macros.isEmpty(0, 0));
+    assertTrue(macros.isEmpty(999, 999));
+    assertEquals(5001, macros.getHeight());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeUndoLimit() {
+    new SpreadSheetWithMacroImpl().setUndoLimit(-1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testExecuteMacrosWithNullMacro() {
+    sheet.executeMacros(Arrays.asList(new BulkAssignMacro(0, 0, 1, 1, 4.0), null));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testExecuteMacrosWithNullList() {
+    sheet.executeMacros(null);
+  }
+}
@@ -0,0 +1,163 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetWithMacro;
+import spreadsheet.SpreadSheetWithMacroImpl;
+import spreadsheet.StatisticsMacro;
+import spreadsheet.StatisticsMacro.Statistic;
+import spreadsheet.TiledSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the StatisticsMacro class.
+ */
+public class StatisticsMacroTest {
+  private SpreadSheetWithMacro sheet;
+
+  @Before
+  public void setup() {
+    SpreadSheet baseSheet = new SparseSpreadSheet();
+    sheet = new SpreadSheetWithMacroImpl(baseSheet);
+  }
+
+  @Test
+  public void testAllStatistics() {
+    sheet.set(0, 0, 2.0);
+    sheet.set(0, 1, 4.0);
+    sheet.set(1, 0, 4.0);
+    sheet.set(1, 1, 4.0);
+    sheet.set(2, 0, 5.0);
+    sheet.set(2, 1, 5.0);
+    sheet.set(3, 0, 7.0);
+    sheet.set(3, 1, 9.0);
+
+    sheet.executeMacro(new StatisticsMacro(0, 0, 3, 1, 5, 0,
+            Arrays.asList(Statistic.values())));
+
+    assertEquals(8.0, sheet.get(5, 0), 0.0);
+    assertEquals(40.0, sheet.get(5, 1), 0.0);
+    assertEquals(5.0, sheet.get(5, 2), 1e-12);
+    assertEquals(2.0, sheet.get(5, 3), 0.0);
+    assertEquals(9.0, sheet.get(5, 4), 0.0);
+    assertEquals(4.0, sheet.get(5, 5), 1e-12);
+  }
+
+  @Test
+  public void testSelectedStatisticsInGivenOrder() {
+    sheet.set(0, 0, -3.0);
+    sheet.set(0, 1, 6.0);
+
+    sheet.executeMacro(new StatisticsMacro(0, 0, 0, 1, 2, 3,
+            Arrays.asList(Statistic.MAX, Statistic.MIN)));
+
+    assertEquals(6.0, sheet.get(2, 3), 0.0);
+    assertEquals(-3.0, sheet.get(2, 4), 0.0);
+    assertTrue(sheet.isEmpty(2, 5));
+  }
+
+  @Test
+  public void testEmptyCellsCountAsZero() {
+    sheet.set(0, 0, 6.0);
+    sheet.set(2, 2, 3.0);
+
+    sheet.executeMacro(new StatisticsMacro(0, 0, 2, 2, 4, 0,
+            Arrays.asList(Statistic.values())));
+
+    assertEquals(9.0, sheet.get(4, 0), 0.0);
+    assertEquals(9.0, sheet.get(4, 1), 0.0);
+    assertEquals(1.0, sheet.get(4, 2), 1e-12);
+    assertEquals(0.0, sheet.get(4, 3), 0.0);
+    assertEquals(6.0, sheet.get(4, 4), 0.0);
+    // (25 + 4 + 7 * 1) / 9
+    assertEquals(4.0, sheet.get(4, 5), 1e-12);
+  }
+
+  @Test
+  public void testMeanMatchesAverageMacroOnLargeRange() {
+    SpreadSheet tiled = new TiledSpreadSheet();
+    Random r = new Random(18);
+    double sum = 0.0;
+    double sumOfSquares = 0.0;
+    for (int row = 0; row < 300; row++) {
+      for (int col = 0; col < 200; col++) {
+        double value = 1e6 + r.nextDouble();
+        tiled.set(row, col, value);
+        sum += value;
+        sumOfSquares += (value - 1e6) * (value - 1e6);
+      }
+    }
+    new StatisticsMacro(0, 0, 299, 199, 400, 0,
+            Arrays.asList(Statistic.MEAN, Statistic.VARIANCE)).execute(tiled);
+
+    double mean = sum / 60000;
+    double shifted = mean - 1e6;
+    assertEquals(mean, tiled.get(400, 0), 1e-6);
+    // Welford keeps the variance accurate despite the large common offset.
+    assertEquals(sumOfSquares / 60000 - shifted * shifted, tiled.get(400, 1), 1e-6);
+  }
+
+  @Test
+  public void testRangeStatisticsOnTiledSheet() {
+    SpreadSheetWithMacro tiled = new SpreadSheetWithMacroImpl(new TiledSpreadSheet());
+    tiled.fillProgression(0, 0, 199, 99, -50.0, 0.5);
+    tiled.clearRange(10, 10, 12, 12);
+    tiled.executeMacro(new StatisticsMacro(0, 0, 199, 99, 300, 0,
+            Arrays.asList(Statistic.MIN, Statistic.MAX, Statistic.COUNT, Statistic.SUM)));
+
+    assertEquals(-50.0, tiled.get(300, 0), 0.0);
+    assertEquals(-50.0 + 19999 * 0.5, tiled.get(300, 1), 0.0);
+    assertEquals(20000.0, tiled.get(300, 2), 0.0);
+    double cleared = 0.0;
+    for (int row = 10; row <= 12; row = row + 1) {
+      for (int col = 10; col <= 12; col = col + 1) {
+        cleared += -50.0 + (row * 100 + col) * 0.5;
+      }
+    }
+    assertEquals(-50.0 * 20000 + 0.5 * 19999 * 20000 / 2 - cleared, tiled.get(300, 3), 1e-6);
+  }
+
+  @Test
+  public void testRangeMaxOfNegativeValuesCountsEmptyCells() {
+    sheet.set(0, 0, -2.0);
+    sheet.set(1, 1, -3.0);
+    sheet.executeMacro(new StatisticsMacro(0, 0, 1, 1, 5, 0,
+            Arrays.asList(Statistic.MAX, Statistic.MIN, Statistic.MEAN)));
+
+    assertEquals(0.0, sheet.get(5, 0), 0.0);
+    assertEquals(-3.0, sheet.get(5, 1), 0.0);
+    assertEquals(-1.25, sheet.get(5, 2), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoStatistics() {
+    new StatisticsMacro(0, 0, 1, 1, 3, 3, Collections.<Statistic>emptyList());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDestinationOverlapsRange() {
+    new StatisticsMacro(0, 2, 3, 4, 1, 0, Arrays.asList(Statistic.values()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRange() {
+    new StatisticsMacro(3, 0, 1, 1, 5, 5, Arrays.asList(Statistic.SUM));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeIndex() {
+    new StatisticsMacro(0, 0, 1, 1, -1, 5, Arrays.asList(Statistic.SUM));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullSheet() {
+    new StatisticsMacro(0, 0, 1, 1, 5, 5, Arrays.asList(Statistic.SUM)).execute(null);
+  }
+}
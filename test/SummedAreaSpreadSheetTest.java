@@ -0,0 +1,122 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import spreadsheet.AverageMacro;
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.SpreadSheetWithMacro;
+import spreadsheet.SpreadSheetWithMacroImpl;
+import spreadsheet.SummedAreaSpreadSheet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * This class is the tester for a spreadsheet with a summed-area table attached.
+ */
+public class SummedAreaSpreadSheetTest {
+  private SparseSpreadSheet cells;
+  private SummedAreaSpreadSheet sheet;
+
+  @Before
+  public void setup() {
+    cells = new SparseSpreadSheet();
+    sheet = new SummedAreaSpreadSheet(cells);
+  }
+
+  @Test
+  public void testSumsMatchWrappedSheet() {
+    Random r = new Random(3);
+    for (int i = 0; i < 2000; i = i + 1) {
+      sheet.set(r.nextInt(200), r.nextInt(40), r.nextInt(100));
+    }
+
+    for (int i = 0; i < 200; i = i + 1) {
+      int fromRow = r.nextInt(220);
+      int fromCol = r.nextInt(45);
+      int toRow = fromRow + r.nextInt(100);
+      int toCol = fromCol + r.nextInt(20);
+      assertEquals(cells.sumRange(fromRow, fromCol, toRow, toCol),
+              sheet.sumRange(fromRow, fromCol, toRow, toCol), 1e-6);
+    }
+  }
+
+  @Test
+  public void testRepeatedSumsDoNotRebuild() {
+    sheet.fill(0, 0, 99, 9, 1.0);
+    assertEquals(1000.0, sheet.sumRange(0, 0, 99, 9), 0.0);
+    assertEquals(50.0, sheet.sumRange(10, 5, 19, 9), 0.0);
+    assertEquals(1, sheet.getRebuildCount());
+
+    sheet.set(200, 0, 5.0);
+    assertEquals(1000.0, sheet.sumRange(0, 0, 99, 9), 0.0);
+    assertEquals(1, sheet.getRebuildCount());
+    assertEquals(1005.0, sheet.sumRange(0, 0, 300, 9), 0.0);
+    assertEquals(2, sheet.getRebuildCount());
+  }
+
+  @Test
+  public void testWritesInvalidateLowerRows() {
+    sheet.fill(0, 0, 9, 9, 1.0);
+    assertEquals(100.0, sheet.sumRange(0, 0, 9, 9), 0.0);
+
+    sheet.set(5, 5, 11.0);
+    assertEquals(110.0, sheet.sumRange(0, 0, 9, 9), 0.0);
+    sheet.clearRange(0, 0, 0, 9);
+    assertEquals(100.0, sheet.sumRange(0, 0, 9, 9), 0.0);
+    sheet.set(3, 20, 2.0);
+    assertEquals(102.0, sheet.sumRange(0, 0, 9, 20), 0.0);
+    sheet.clear(3, 20);
+    assertEquals(100.0, sheet.sumRange(0, 0, 9, 20), 0.0);
+  }
+
+  @Test
+  public void testAverageMacroUsesIndex() {
+    SpreadSheetWithMacro macroSheet = new SpreadSheetWithMacroImpl(sheet);
+    sheet.fillProgression(0, 0, 999, 9, 0.0, 1.0);
+    macroSheet.executeMacro(new AverageMacro(0, 0, 999, 9, 1000, 0));
+    macroSheet.executeMacro(new AverageMacro(0, 0, 499, 9, 1000, 1));
+
+    assertEquals(4999.5, sheet.get(1000, 0), 1e-9);
+    assertEquals(2499.5, sheet.get(1000, 1), 1e-9);
+    assertEquals(1, sheet.getRebuildCount());
+  }
+
+  @Test
+  public void testLargeValueOutsideRangeKeepsSmallValues() {
+    sheet.set(0, 0, 1e20);
+    sheet.set(1, 1, 0.1);
+    sheet.set(1, 2, 0.2);
+
+    assertEquals(0.1 + 0.2, sheet.sumRange(1, 1, 1, 2), 0.0);
+    assertEquals(0.1, sheet.sumRange(1, 1, 1, 1), 0.0);
+  }
+
+  @Test
+  public void testAverageNextToLargeValue() {
+    SpreadSheetWithMacro macroSheet = new SpreadSheetWithMacroImpl(sheet);
+    sheet.set(1, 0, 1e12);
+    for (int col = 1; col <= 100; col = col + 1) {
+      sheet.set(1, col, 1.0 / (col + 1));
+    }
+    macroSheet.executeMacro(new AverageMacro(1, 1, 1, 100, 2, 0));
+
+    double expected = cells.sumRange(1, 1, 1, 100);
+    assertEquals(expected, sheet.sumRange(1, 1, 1, 100), 1e-12);
+    assertEquals(expected / 100, sheet.get(2, 0), 1e-12);
+  }
+
+  @Test
+  public void testHugeSheetFallsBack() {
+    sheet.set(0, 0, 1.0);
+    sheet.set(1000000, 1000000, 2.0);
+
+    assertEquals(3.0, sheet.sumRange(0, 0, 1000000, 1000000), 0.0);
+    assertEquals(0, sheet.getRebuildCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullSheet() {
+    new SummedAreaSpreadSheet(null);
+  }
+}
@@ -0,0 +1,177 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import spreadsheet.SparseSpreadSheet;
+import spreadsheet.TiledSpreadSheet;
+import spreadsheet.AverageMacro;
+import spreadsheet.BulkAssignMacro;
+import spreadsheet.SpreadSheet;
+import spreadsheet.SpreadSheetWithMacro;
+import spreadsheet.SpreadSheetWithMacroImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This class is the tester for a tiled spreadsheet.
+ */
+public class TiledSpreadSheetTest {
+  private TiledSpreadSheet sheet;
+
+  @Before
+  public void setup() {
+    sheet = new TiledSpreadSheet();
+  }
+
+  @Test
+  public void testCellsAcrossTileBoundaries() {
+    sheet.set(63, 63, 1.0);
+    sheet.set(63, 64, 2.0);
+    sheet.set(64, 63, 3.0);
+    sheet.set(64, 64, 4.0);
+
+    assertEquals(1.0, sheet.get(63, 63), 0.001);
+    assertEquals(2.0, sheet.get(63, 64), 0.001);
+    assertEquals(3.0, sheet.get(64, 63), 0.001);
+    assertEquals(4.0, sheet.get(64, 64), 0.001);
+    assertTrue(sheet.isEmpty(62, 63));
+    assertTrue(sheet.isEmpty(65, 64));
+    assertEquals(65, sheet.getWidth());
+    assertEquals(65, sheet.getHeight());
+  }
+
+  @Test
+  public void testUnsetCellInAllocatedTileIsEmpty() {
+    sheet.set(10, 10, 5.0);
+
+    assertTrue(sheet.isEmpty(10, 11));
+    assertEquals(0.0, sheet.get(10, 11), 0.001);
+    assertEquals(0.0, sheet.get(5000, 5000), 0.001);
+  }
+
+  @Test
+  public void testMacrosOnTiledSheet() {
+    SpreadSheetWithMacro macroSheet = new SpreadSheetWithMacroImpl(sheet);
+    macroSheet.executeMacro(new BulkAssignMacro(0, 0, 99, 99, 2.0));
+    macroSheet.executeMacro(new AverageMacro(0, 0, 99, 99, 100, 100));
+
+    assertEquals(2.0, sheet.get(100, 100), 0.001);
+    assertEquals(101, sheet.getWidth());
+    assertEquals(101, sheet.getHeight());
+  }
+
+  @Test
+  public void testSnapshotsAreIndependent() {
+    sheet.set(0, 0, 1.0);
+    SpreadSheet first = sheet.snapshot();
+    sheet.set(0, 0, 2.0);
+    sheet.set(0, 1, 2.0);
+    SpreadSheet second = sheet.snapshot();
+    sheet.set(0, 0, 3.0);
+    sheet.set(500, 500, 3.0);
+
+    assertEquals(1.0, first.get(0, 0), 0.001);
+    assertTrue(first.isEmpty(0, 1));
+    assertEquals(2.0, second.get(0, 0), 0.001);
+    assertEquals(2.0, second.get(0, 1), 0.001);
+    assertTrue(second.isEmpty(500, 500));
+    assertEquals(3.0, sheet.get(0, 0), 0.001);
+    assertEquals(2, second.getWidth());
+    assertEquals(501, sheet.getWidth());
+  }
+
+  @Test
+  public void testSnapshotReadableWhileWriting() throws InterruptedException {
+    for (int i = 0; i < 128; i = i + 1) {
+      sheet.set(i, 0, 1.0);
+    }
+    SpreadSheet snapshot = sheet.snapshot();
+    Thread writer = new Thread(() -> {
+      for (int i = 0; i < 128; i = i + 1) {
+        sheet.set(i, 0, 2.0);
+      }
+    });
+    writer.start();
+    double sum = 0;
+    for (int i = 0; i < 128; i = i + 1) {
+      sum += snapshot.get(i, 0);
+    }
+    writer.join();
+
+    assertEquals(128.0, sum, 0.001);
+    assertEquals(2.0, sheet.get(127, 0), 0.001);
+  }
+
+  @Test
+  public void testClearDoesNotReachSnapshot() {
+    sheet.fill(0, 0, 99, 99, 1.0);
+    SpreadSheet snapshot = sheet.snapshot();
+    sheet.clearRange(0, 0, 99, 49);
+    sheet.clear(99, 99);
+
+    assertEquals(1.0, snapshot.get(0, 0), 0.001);
+    assertFalse(snapshot.isEmpty(99, 99));
+    assertEquals(100, snapshot.getWidth());
+    assertTrue(sheet.isEmpty(0, 0));
+    assertTrue(sheet.isEmpty(99, 99));
+    assertEquals(100, sheet.getWidth());
+    assertEquals(100, sheet.getHeight());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testClearSnapshot() {
+    sheet.set(0, 0, 1.0);
+    sheet.snapshot().clear(0, 0);
+  }
+
+  @Test
+  public void testFillProgressionMatchesCellByCell() {
+    SpreadSheet reference = new SparseSpreadSheet();
+    sheet.fillProgression(10, 50, 140, 210, -3.0, 0.1);
+    reference.fillProgression(10, 50, 140, 210, -3.0, 0.1);
+
+    for (int row = 10; row <= 140; row++) {
+      for (int col = 50; col <= 210; col++) {
+        assertEquals(reference.get(row, col), sheet.get(row, col), 0.0);
+      }
+    }
+    assertEquals(211, sheet.getWidth());
+    assertEquals(141, sheet.getHeight());
+  }
+
+  @Test
+  public void testFillProgressionInPartsMatchesOneFill() {
+    SpreadSheet reference = new SparseSpreadSheet();
+    reference.fillProgression(3, 2, 2002, 41, 0.1, 0.3);
+    sheet.fillProgression(3, 2, 999, 41, 0.1, 0L, 0.3);
+    sheet.fillProgression(1000, 2, 2002, 41, 0.1, 997L * 40, 0.3);
+
+    for (int row = 0; row <= 2005; row++) {
+      for (int col = 0; col <= 45; col++) {
+        assertEquals(reference.get(row, col), sheet.get(row, col), 0.0);
+        assertEquals(reference.isEmpty(row, col), sheet.isEmpty(row, col));
+      }
+    }
+  }
+
+  @Test
+  public void testSumRangeSkipsClearedCells() {
+    sheet.fill(0, 0, 199, 199, 1.0);
+    sheet.clearRange(10, 10, 69, 69);
+
+    assertEquals(40000.0 - 3600.0, sheet.sumRange(0, 0, 199, 199), 0.0);
+    assertEquals(0.0, sheet.sumRange(10, 10, 69, 69), 0.0);
+    assertEquals(3.0, sheet.sumRange(9, 9, 10, 10), 0.0);
+  }
+
+  @Test
+  public void testSnapshotSumRange() {
+    sheet.fill(0, 0, 99, 99, 1.0);
+    SpreadSheet snapshot = sheet.snapshot();
+    sheet.fill(0, 0, 99, 99, 2.0);
+
+    assertEquals(10000.0, snapshot.sumRange(0, 0, 99, 99), 0.0);
+    assertEquals(20000.0, sheet.sumRange(0, 0, 99, 99), 0.0);
+  }
+}